@@ -0,0 +1,94 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.IOException;
+
+/**
+ * Parser input read directly from a slice of a char array. The array is not
+ * copied and must not be modified while it is parsed.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class CharArrayProvider implements Provider {
+
+	/**
+	 * The input.
+	 */
+	private char[] input;
+
+	/**
+	 * Position of the next char to read.
+	 */
+	private int position;
+
+	/**
+	 * Position after the last char to read.
+	 */
+	private final int end;
+
+	/**
+	 * Read a whole array.
+	 *
+	 * @param input
+	 *            the input.
+	 */
+	public CharArrayProvider(final char[] input) {
+		this(input, 0, input.length);
+	}
+
+	/**
+	 * Read a slice of an array.
+	 *
+	 * @param input
+	 *            the input.
+	 * @param offset
+	 *            position of the first char to read.
+	 * @param length
+	 *            number of chars to read.
+	 */
+	public CharArrayProvider(final char[] input, final int offset, final int length) {
+		if ((offset < 0) || (length < 0) || (offset > (input.length - length))) {
+			throw new IndexOutOfBoundsException("CharArrayProvider(): invalid slice at " + offset + " of length " + length + " for length " + input.length);
+		}
+		this.input = input;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read(final char[] buffer, final int offset, final int length) throws IOException {
+		if (this.input == null) {
+			throw new IOException("CharArrayProvider.read(): provider is closed");
+		}
+		if (this.position == this.end) {
+			return -1;
+		}
+
+		final int count = Math.min(length, this.end - this.position);
+		System.arraycopy(this.input, this.position, buffer, offset, count);
+		this.position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.input = null;
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Parser input read directly from a CharSequence (or a range of it), without
+ * copying it into a String first. Strings, StringBuilders, StringBuffers and
+ * array-backed CharBuffers are copied in bulk, other sequences char by char.
+ *
+ * The sequence must not be modified while it is parsed.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class CharSequenceProvider implements Provider {
+
+	/**
+	 * The input.
+	 */
+	private CharSequence input;
+
+	/**
+	 * Position of the next char to read.
+	 */
+	private int position;
+
+	/**
+	 * Position after the last char to read.
+	 */
+	private final int end;
+
+	/**
+	 * Read a whole sequence.
+	 *
+	 * @param input
+	 *            the input.
+	 */
+	public CharSequenceProvider(final CharSequence input) {
+		this(input, 0, input.length());
+	}
+
+	/**
+	 * Read a range of a sequence.
+	 *
+	 * @param input
+	 *            the input.
+	 * @param start
+	 *            position of the first char to read.
+	 * @param end
+	 *            position after the last char to read.
+	 */
+	public CharSequenceProvider(final CharSequence input, final int start, final int end) {
+		if ((start < 0) || (end > input.length()) || (start > end)) {
+			throw new IndexOutOfBoundsException("CharSequenceProvider(): invalid range [" + start + ", " + end + "[ for length " + input.length());
+		}
+		this.input = input;
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read(final char[] buffer, final int offset, final int length) throws IOException {
+		if (this.input == null) {
+			throw new IOException("CharSequenceProvider.read(): provider is closed");
+		}
+		if (this.position == this.end) {
+			return -1;
+		}
+
+		final int count = Math.min(length, this.end - this.position);
+		final int to = this.position + count;
+		if (this.input instanceof String) {
+			((String) this.input).getChars(this.position, to, buffer, offset);
+		} else if (this.input instanceof StringBuilder) {
+			((StringBuilder) this.input).getChars(this.position, to, buffer, offset);
+		} else if (this.input instanceof StringBuffer) {
+			((StringBuffer) this.input).getChars(this.position, to, buffer, offset);
+		} else if ((this.input instanceof CharBuffer) && ((CharBuffer) this.input).hasArray()) {
+			final CharBuffer chars = (CharBuffer) this.input;
+			System.arraycopy(chars.array(), chars.arrayOffset() + chars.position() + this.position, buffer, offset, count);
+		} else {
+			for (int i = 0; i < count; i++) {
+				buffer[offset + i] = this.input.charAt(this.position + i);
+			}
+		}
+		this.position = to;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.input = null;
+	}
+
+}
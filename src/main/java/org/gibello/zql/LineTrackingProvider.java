@@ -0,0 +1,144 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A provider that records the offset at which each line of its input starts,
+ * so that the line and column of a token can be turned back into an offset.
+ *
+ * Lines are counted the way SimpleCharStream counts them ("\n", "\r\n" or
+ * "\r" end a line, and a tab is one column). Lines that are no longer needed
+ * can be discarded, to keep the index small on long inputs.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class LineTrackingProvider implements Provider {
+
+	/**
+	 * The input.
+	 */
+	private final Provider input;
+
+	/**
+	 * Offsets of the line starts, from firstLine on.
+	 */
+	private long[] lineStarts = new long[64];
+
+	/**
+	 * Line of lineStarts[0].
+	 */
+	private int firstLine = 1;
+
+	/**
+	 * Number of line starts recorded.
+	 */
+	private int lineCount = 1;
+
+	/**
+	 * Number of chars read so far.
+	 */
+	private long offset = 0;
+
+	/**
+	 * True if the last char read is a "\r".
+	 */
+	private boolean previousIsCR = false;
+
+	/**
+	 * Track the lines of an input.
+	 *
+	 * @param input
+	 *            the input.
+	 */
+	LineTrackingProvider(final Provider input) {
+		this.input = input;
+	}
+
+	@Override
+	public int read(final char[] buffer, final int off, final int len) throws IOException {
+		final int count = this.input.read(buffer, off, len);
+		for (int i = 0; i < count; i++) {
+			final char c = buffer[off + i];
+			if (c == '\n') {
+				this.addLine(this.offset + i + 1);
+			} else if (this.previousIsCR) {
+				this.addLine(this.offset + i);
+			}
+			this.previousIsCR = c == '\r';
+		}
+		if (count > 0) {
+			this.offset += count;
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.input.close();
+	}
+
+	/**
+	 * Get the offset of a position.
+	 *
+	 * @param line
+	 *            the line of the position.
+	 * @param column
+	 *            the column of the position.
+	 * @return its offset, -1 if the line was discarded or not read yet.
+	 */
+	long offsetOf(final int line, final int column) {
+		final int index = line - this.firstLine;
+		if ((index < 0) || (index >= this.lineCount)) {
+			return -1;
+		}
+		return (this.lineStarts[index] + column) - 1;
+	}
+
+	/**
+	 * Forget the lines before a given line.
+	 *
+	 * @param line
+	 *            the first line that is still needed.
+	 */
+	void discardBefore(final int line) {
+		final int discarded = Math.min(line - this.firstLine, this.lineCount - 1);
+		// Compact only when it frees a good part of the index.
+		if ((discarded > 0) && (discarded >= (this.lineStarts.length / 2))) {
+			System.arraycopy(this.lineStarts, discarded, this.lineStarts, 0, this.lineCount - discarded);
+			this.lineCount -= discarded;
+			this.firstLine += discarded;
+		}
+	}
+
+	/**
+	 * Record a line start.
+	 *
+	 * @param start
+	 *            the offset of the line start.
+	 */
+	private void addLine(final long start) {
+		if (this.lineCount == this.lineStarts.length) {
+			this.lineStarts = Arrays.copyOf(this.lineStarts, this.lineStarts.length * 2);
+		}
+		this.lineStarts[this.lineCount++] = start;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Parser input read from a memory-mapped file.
+ *
+ * The file is mapped window by window, so files larger than 2GB can be read,
+ * and the bytes are decoded straight into the parser buffer. US-ASCII,
+ * ISO-8859-1 and the ASCII parts of UTF-8 files are converted byte by byte;
+ * other bytes go through a CharsetDecoder (malformed input is replaced, as
+ * with an InputStreamReader).
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class MappedFileProvider implements Provider {
+
+	/**
+	 * Size of the mapped windows.
+	 */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * No fast path: everything is decoded.
+	 */
+	private static final int DECODE = 0;
+
+	/**
+	 * ASCII bytes are converted directly, the others are decoded.
+	 */
+	private static final int ASCII = 1;
+
+	/**
+	 * Every byte is converted directly.
+	 */
+	private static final int LATIN1 = 2;
+
+	/**
+	 * Size of the mapped windows of this provider.
+	 */
+	private final int windowSize;
+
+	/**
+	 * The file channel.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The file size.
+	 */
+	private final long size;
+
+	/**
+	 * The decoder.
+	 */
+	private final CharsetDecoder decoder;
+
+	/**
+	 * The fast path used for this charset.
+	 */
+	private final int mode;
+
+	/**
+	 * Position of the current window in the file.
+	 */
+	private long windowStart = 0;
+
+	/**
+	 * The current window.
+	 */
+	private MappedByteBuffer window = null;
+
+	/**
+	 * Read a file.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param charset
+	 *            the file encoding.
+	 * @throws IOException
+	 *             if the file cannot be opened or mapped.
+	 */
+	public MappedFileProvider(final File file, final Charset charset) throws IOException {
+		this(file, charset, MappedFileProvider.WINDOW_SIZE);
+	}
+
+	/**
+	 * Read a file through windows of a given size.
+	 *
+	 * @param file
+	 *            the file.
+	 * @param charset
+	 *            the file encoding.
+	 * @param windowSize
+	 *            size of the mapped windows.
+	 * @throws IOException
+	 *             if the file cannot be opened or mapped.
+	 */
+	MappedFileProvider(final File file, final Charset charset, final int windowSize) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		this.windowSize = windowSize;
+		this.channel = in.getChannel();
+		this.size = this.channel.size();
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		final String name = charset.name();
+		if ("ISO-8859-1".equals(name)) {
+			this.mode = MappedFileProvider.LATIN1;
+		} else if ("US-ASCII".equals(name) || "UTF-8".equals(name)) {
+			this.mode = MappedFileProvider.ASCII;
+		} else {
+			this.mode = MappedFileProvider.DECODE;
+		}
+		try {
+			this.map(0, 0);
+		} catch (final IOException e) {
+			this.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public int read(final char[] buffer, final int offset, final int length) throws IOException {
+		if (this.channel == null) {
+			throw new IOException("MappedFileProvider.read(): provider is closed");
+		}
+		if (length == 0) {
+			return 0;
+		}
+
+		int count = 0;
+		while (count == 0) {
+			if (!this.window.hasRemaining()) {
+				final long next = this.windowStart + this.window.limit();
+				if (next == this.size) {
+					return -1;
+				}
+				this.map(next, 0);
+			}
+			if (this.mode == MappedFileProvider.DECODE) {
+				count = this.decode(buffer, offset, length, this.window.limit());
+			} else {
+				count = this.convert(buffer, offset, length);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Convert ASCII (or ISO-8859-1) bytes directly, and decode the others.
+	 *
+	 * @param buffer
+	 *            the destination buffer.
+	 * @param offset
+	 *            position of the first char to write.
+	 * @param length
+	 *            maximum number of chars to write.
+	 * @return the number of chars written (0 if the window ends with an
+	 *         incomplete character).
+	 * @throws IOException
+	 *             if the next window cannot be mapped.
+	 */
+	private int convert(final char[] buffer, final int offset, final int length) throws IOException {
+		final MappedByteBuffer in = this.window;
+		int count = 0;
+		while ((count < length) && in.hasRemaining()) {
+			final int b = in.get(in.position()) & 0xFF;
+			if ((b < 0x80) || (this.mode == MappedFileProvider.LATIN1)) {
+				buffer[offset + count] = (char) b;
+				count++;
+				in.position(in.position() + 1);
+			} else {
+				// Decode the whole run of non-ASCII bytes: in UTF-8, ASCII
+				// bytes never appear inside a multi-byte character.
+				int runEnd = in.position() + 1;
+				while ((runEnd < in.limit()) && ((in.get(runEnd) & 0x80) != 0)) {
+					runEnd++;
+				}
+				final int decoded = this.decode(buffer, offset + count, length - count, runEnd);
+				if (decoded == 0) {
+					// Output is full, or the character continues in the
+					// next window.
+					break;
+				}
+				count += decoded;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Decode bytes of the window through the decoder.
+	 *
+	 * @param buffer
+	 *            the destination buffer.
+	 * @param offset
+	 *            position of the first char to write.
+	 * @param length
+	 *            maximum number of chars to write.
+	 * @param limit
+	 *            position after the last byte to decode.
+	 * @return the number of chars written (0 if the window ends with an
+	 *         incomplete character).
+	 * @throws IOException
+	 *             if the next window cannot be mapped.
+	 */
+	private int decode(final char[] buffer, final int offset, final int length, final int limit) throws IOException {
+		final MappedByteBuffer in = this.window;
+		final int windowLimit = in.limit();
+		// A run of non-ASCII bytes that ends inside the window cannot continue
+		// further: an incomplete character there is malformed.
+		final boolean endOfInput = (limit < windowLimit) || ((this.windowStart + windowLimit) == this.size);
+		final CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+
+		in.limit(limit);
+		this.decoder.decode(in, out, endOfInput);
+		if (endOfInput && !in.hasRemaining()) {
+			this.decoder.flush(out);
+			this.decoder.reset();
+		}
+		in.limit(windowLimit);
+
+		if ((out.position() == offset) && !endOfInput && in.hasRemaining()) {
+			// An incomplete character at the end of the window: map the next
+			// window from its first byte.
+			this.map(this.windowStart + in.position(), in.remaining());
+		}
+		return out.position() - offset;
+	}
+
+	/**
+	 * Map the window that starts at a given position.
+	 *
+	 * @param start
+	 *            position of the window in the file.
+	 * @param carried
+	 *            number of bytes carried over from the previous window,
+	 *            added to the window size.
+	 * @throws IOException
+	 *             if the window cannot be mapped.
+	 */
+	private void map(final long start, final int carried) throws IOException {
+		this.windowStart = start;
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min((long) this.windowSize + carried, this.size - start));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.channel != null) {
+			this.channel.close();
+			this.channel = null;
+			// The mapping is released when the window is garbage collected.
+			this.window = null;
+		}
+	}
+
+}
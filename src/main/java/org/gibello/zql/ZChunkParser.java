@@ -0,0 +1,76 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import org.gibello.zql.statement.ZStatement;
+
+/**
+ * Parses statements cut out of a larger script, one at a time, with a single
+ * reused ZqlJJParser. Lines and columns (in tokens and parse exceptions) are
+ * numbered from the position of the statement in the script.
+ *
+ * Not thread-safe: use one instance per thread.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZChunkParser {
+
+	/**
+	 * The char stream of the parser.
+	 */
+	private SimpleCharStream charStream = null;
+
+	/**
+	 * The token manager of the parser.
+	 */
+	private ZqlJJParserTokenManager tokenManager = null;
+
+	/**
+	 * The parser.
+	 */
+	private ZqlJJParser parser = null;
+
+	/**
+	 * Parse one statement.
+	 *
+	 * @param input
+	 *            the statement text.
+	 * @param startLine
+	 *            its line in the script.
+	 * @param startColumn
+	 *            its column in the script.
+	 * @return the statement, or null for EXIT or QUIT.
+	 * @throws ParseException
+	 *             the parse exception.
+	 */
+	ZStatement parse(final Provider input, final int startLine, final int startColumn) throws ParseException {
+		if (this.parser == null) {
+			this.charStream = new SimpleCharStream(input, startLine, startColumn);
+			this.tokenManager = new ZqlJJParserTokenManager(this.charStream);
+			this.parser = new ZqlJJParser(this.tokenManager);
+		} else {
+			// ReInit() also shrinks the char stream buffer back to its
+			// default size.
+			this.charStream.ReInit(input, startLine, startColumn);
+			this.tokenManager.ReInit(this.charStream);
+			this.parser.ReInit(this.tokenManager);
+		}
+		return this.parser.SQLStatement();
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the warnings of a parser, with their positions.
+ *
+ * Not thread-safe: use one instance per parser.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZCollectingDiagnostics implements ZDiagnostics {
+
+	/**
+	 * The warnings.
+	 */
+	private final List<ZDiagnostic> diagnostics = new ArrayList<ZDiagnostic>();
+
+	@Override
+	public void undefinedFunction(final String function, final int line, final int column) {
+		this.diagnostics.add(new ZDiagnostic(ZDiagnostic.Kind.UNDEFINED_FUNCTION, function, -1, -1, line, column));
+	}
+
+	@Override
+	public void wrongArity(final String function, final int expected, final int actual, final int line, final int column) {
+		this.diagnostics.add(new ZDiagnostic(ZDiagnostic.Kind.WRONG_ARITY, function, expected, actual, line, column));
+	}
+
+	/**
+	 * @return the warnings, in parsing order.
+	 */
+	public List<ZDiagnostic> getDiagnostics() {
+		return Collections.unmodifiableList(this.diagnostics);
+	}
+
+	/**
+	 * Forget the warnings collected so far.
+	 */
+	public void clear() {
+		this.diagnostics.clear();
+	}
+
+}
@@ -0,0 +1,315 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import org.gibello.zql.alias.ZAliasedName;
+import org.gibello.zql.alias.ZFromItem;
+import org.gibello.zql.alias.ZSelectItem;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.statement.ZDelete;
+import org.gibello.zql.statement.ZInsert;
+import org.gibello.zql.statement.ZLockTable;
+import org.gibello.zql.statement.ZStatement;
+import org.gibello.zql.statement.ZTransactStmt;
+import org.gibello.zql.statement.ZUpdate;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Deep copies of parsed statements and expressions.
+ *
+ * The parser produces mutable trees (callers rewrite ZQuery and ZExpression
+ * objects in place), so a tree that is shared between callers must be copied
+ * first. ZConstant objects are immutable and are shared between the copies.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZCopier {
+
+	/**
+	 * Default constructor.
+	 */
+	private ZCopier() {
+
+	}
+
+	/**
+	 * Copy an SQL statement.
+	 *
+	 * @param statement
+	 *            the statement to copy (may be null).
+	 * @return a copy that shares no mutable state with the original.
+	 */
+	public static ZStatement copyStatement(final ZStatement statement) {
+		ZStatement result;
+
+		if (statement == null) {
+			result = null;
+		} else if (statement instanceof ZQuery) {
+			result = copyQuery((ZQuery) statement);
+		} else if (statement instanceof ZInsert) {
+			result = copyInsert((ZInsert) statement);
+		} else if (statement instanceof ZUpdate) {
+			result = copyUpdate((ZUpdate) statement);
+		} else if (statement instanceof ZDelete) {
+			result = copyDelete((ZDelete) statement);
+		} else if (statement instanceof ZLockTable) {
+			result = copyLockTable((ZLockTable) statement);
+		} else if (statement instanceof ZTransactStmt) {
+			result = copyTransactStmt((ZTransactStmt) statement);
+		} else {
+			throw new IllegalArgumentException("ZCopier.copyStatement(): unsupported statement " + statement.getClass().getName());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copy an SQL expression.
+	 *
+	 * @param exp
+	 *            the expression to copy (may be null).
+	 * @return a copy that shares no mutable state with the original.
+	 */
+	public static ZExp copyExpression(final ZExp exp) {
+		ZExp result;
+
+		if ((exp == null) || (exp instanceof ZConstant)) {
+			result = exp;
+		} else if (exp instanceof ZExpression) {
+			final ZExpression src = (ZExpression) exp;
+			final ZExpression dst = new ZExpression(src.getOperator());
+			if (src.getOperands() != null) {
+				final List<ZExp> operands = new Vector<ZExp>(src.getOperands().size());
+				for (final ZExp operand : src.getOperands()) {
+					operands.add(copyExpression(operand));
+				}
+				dst.setOperands(operands);
+			}
+			result = dst;
+		} else if (exp instanceof ZQuery) {
+			result = copyQuery((ZQuery) exp);
+		} else {
+			throw new IllegalArgumentException("ZCopier.copyExpression(): unsupported expression " + exp.getClass().getName());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copy a SELECT statement.
+	 *
+	 * @param src
+	 *            the query.
+	 * @return the copy.
+	 */
+	private static ZQuery copyQuery(final ZQuery src) {
+		final ZQuery dst = new ZQuery();
+		dst.setDistinct(src.isDistinct());
+		dst.setForupdate(src.isForupdate());
+
+		if (src.getSelect() != null) {
+			final List<ZSelectItem> select = new ArrayList<ZSelectItem>(src.getSelect().size());
+			for (final ZSelectItem item : src.getSelect()) {
+				select.add(copySelectItem(item));
+			}
+			dst.addSelect(select);
+		}
+
+		if (src.getFrom() != null) {
+			final List<ZFromItem> from = new ArrayList<ZFromItem>(src.getFrom().size());
+			for (final ZFromItem item : src.getFrom()) {
+				final ZFromItem copy = new ZFromItem();
+				copyAliasedName(item, copy);
+				from.add(copy);
+			}
+			dst.addFrom(from);
+		}
+
+		dst.addWhere(copyExpression(src.getWhere()));
+
+		if (src.getGroupBy() != null) {
+			final ZGroupBy groupBy = new ZGroupBy(copyList(src.getGroupBy().getGroupBy()));
+			groupBy.setHaving(copyExpression(src.getGroupBy().getHaving()));
+			dst.addGroupBy(groupBy);
+		}
+
+		dst.addSet((ZExpression) copyExpression(src.getSet()));
+
+		if (src.getOrderBy() != null) {
+			final List<ZOrderBy> orderBy = new ArrayList<ZOrderBy>(src.getOrderBy().size());
+			for (final ZOrderBy item : src.getOrderBy()) {
+				final ZOrderBy copy = new ZOrderBy(copyExpression(item.getExpression()));
+				copy.setAscOrder(item.getAscOrder());
+				orderBy.add(copy);
+			}
+			dst.addOrderBy(orderBy);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Copy an INSERT statement.
+	 *
+	 * @param src
+	 *            the statement.
+	 * @return the copy.
+	 */
+	private static ZInsert copyInsert(final ZInsert src) {
+		final ZInsert dst = new ZInsert(src.getTable());
+
+		if (src.getColumns() != null) {
+			dst.addColumns(new ArrayList<String>(src.getColumns()));
+		}
+
+		if (src.getQuery() != null) {
+			dst.addValueSpec(copyQuery(src.getQuery()));
+		} else if (src.getValues() != null) {
+			final ZExpression values = new ZExpression(ZCommonConstants.COMMA);
+			values.setOperands(copyList(src.getValues()));
+			dst.addValueSpec(values);
+		}
+
+		return dst;
+	}
+
+	/**
+	 * Copy an UPDATE statement.
+	 *
+	 * @param src
+	 *            the statement.
+	 * @return the copy.
+	 */
+	private static ZUpdate copyUpdate(final ZUpdate src) {
+		final ZUpdate dst = new ZUpdate(src.getTable());
+		dst.setAlias(src.getAlias());
+
+		if (src.getSet() != null) {
+			for (int i = 0; i < src.getColumnUpdateCount(); i++) {
+				dst.addColumnUpdate(src.getColumnUpdateName(i), copyExpression(src.getColumnUpdate(i)));
+			}
+		}
+
+		dst.addWhere(copyExpression(src.getWhere()));
+		return dst;
+	}
+
+	/**
+	 * Copy a DELETE statement.
+	 *
+	 * @param src
+	 *            the statement.
+	 * @return the copy.
+	 */
+	private static ZDelete copyDelete(final ZDelete src) {
+		final ZDelete dst = new ZDelete(src.getTable());
+		dst.addWhere(copyExpression(src.getWhere()));
+		return dst;
+	}
+
+	/**
+	 * Copy a LOCK TABLE statement.
+	 *
+	 * @param src
+	 *            the statement.
+	 * @return the copy.
+	 */
+	private static ZLockTable copyLockTable(final ZLockTable src) {
+		final ZLockTable dst = new ZLockTable();
+		dst.setLockMode(src.getLockMode());
+		dst.setNowait(src.isNowait());
+		if (src.getTables() != null) {
+			dst.addTables(new ArrayList<String>(src.getTables()));
+		}
+		return dst;
+	}
+
+	/**
+	 * Copy a transaction statement (COMMIT, ROLLBACK, SET TRANSACTION).
+	 *
+	 * @param src
+	 *            the statement.
+	 * @return the copy.
+	 */
+	private static ZTransactStmt copyTransactStmt(final ZTransactStmt src) {
+		final ZTransactStmt dst = new ZTransactStmt(src.getStatement());
+		dst.setComment(src.getComment());
+		dst.setReadOnly(src.isReadOnly());
+		return dst;
+	}
+
+	/**
+	 * Copy a SELECT item.
+	 *
+	 * @param src
+	 *            the item.
+	 * @return the copy.
+	 */
+	private static ZSelectItem copySelectItem(final ZSelectItem src) {
+		final ZSelectItem dst = new ZSelectItem();
+		if (src.isExpression()) {
+			dst.setExpression(copyExpression(src.getExpression()));
+		}
+		copyAliasedName(src, dst);
+		dst.setAggregate(src.getAggregate());
+		return dst;
+	}
+
+	/**
+	 * Copy the name parts of an aliased name.
+	 *
+	 * @param src
+	 *            the source name.
+	 * @param dst
+	 *            the destination name.
+	 */
+	private static void copyAliasedName(final ZAliasedName src, final ZAliasedName dst) {
+		dst.setStrform(src.getStrform());
+		dst.setSchema(src.getSchema());
+		dst.setTable(src.getTable());
+		dst.setColumn(src.getColumn());
+		dst.setAlias(src.getAlias());
+		dst.setFormColumn(src.getFormColumn());
+	}
+
+	/**
+	 * Copy a list of expressions.
+	 *
+	 * @param src
+	 *            the list (may be null).
+	 * @return the copied list.
+	 */
+	private static List<ZExp> copyList(final List<ZExp> src) {
+		List<ZExp> result = null;
+		if (src != null) {
+			result = new ArrayList<ZExp>(src.size());
+			for (final ZExp exp : src) {
+				result.add(copyExpression(exp));
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+/**
+ * Counts the warnings of a parser.
+ *
+ * Not thread-safe: use one instance per parser.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZCountingDiagnostics implements ZDiagnostics {
+
+	/**
+	 * Number of calls to unknown functions.
+	 */
+	private int undefinedFunctions = 0;
+
+	/**
+	 * Number of calls with the wrong number of arguments.
+	 */
+	private int wrongArities = 0;
+
+	@Override
+	public void undefinedFunction(final String function, final int line, final int column) {
+		this.undefinedFunctions++;
+	}
+
+	@Override
+	public void wrongArity(final String function, final int expected, final int actual, final int line, final int column) {
+		this.wrongArities++;
+	}
+
+	/**
+	 * @return the number of calls to unknown functions.
+	 */
+	public int getUndefinedFunctionCount() {
+		return this.undefinedFunctions;
+	}
+
+	/**
+	 * @return the number of calls with the wrong number of arguments.
+	 */
+	public int getWrongArityCount() {
+		return this.wrongArities;
+	}
+
+	/**
+	 * @return the number of warnings.
+	 */
+	public int getCount() {
+		return this.undefinedFunctions + this.wrongArities;
+	}
+
+	/**
+	 * Reset the counters.
+	 */
+	public void reset() {
+		this.undefinedFunctions = 0;
+		this.wrongArities = 0;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.Serializable;
+
+/**
+ * A parser warning, as collected by ZCollectingDiagnostics.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZDiagnostic implements Serializable {
+
+	/**
+	 * The kinds of warnings.
+	 */
+	public enum Kind {
+		UNDEFINED_FUNCTION, WRONG_ARITY
+	}
+
+	/**
+	 * Serial version UID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The kind of warning.
+	 */
+	private final Kind kind;
+
+	/**
+	 * The function name.
+	 */
+	private final String function;
+
+	/**
+	 * The number of parameters of the function, -1 if undefined.
+	 */
+	private final int expected;
+
+	/**
+	 * The number of arguments of the call, -1 if not checked.
+	 */
+	private final int actual;
+
+	/**
+	 * Line of the call.
+	 */
+	private final int line;
+
+	/**
+	 * Column of the call.
+	 */
+	private final int column;
+
+	/**
+	 * Create a new warning.
+	 *
+	 * @param kind
+	 *            the kind of warning.
+	 * @param function
+	 *            the function name.
+	 * @param expected
+	 *            the number of parameters of the function, -1 if undefined.
+	 * @param actual
+	 *            the number of arguments of the call, -1 if not checked.
+	 * @param line
+	 *            line of the call.
+	 * @param column
+	 *            column of the call.
+	 */
+	public ZDiagnostic(final Kind kind, final String function, final int expected, final int actual, final int line, final int column) {
+		this.kind = kind;
+		this.function = function;
+		this.expected = expected;
+		this.actual = actual;
+		this.line = line;
+		this.column = column;
+	}
+
+	/**
+	 * @return the kind of warning.
+	 */
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * @return the function name.
+	 */
+	public String getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * @return the number of parameters of the function, -1 if undefined.
+	 */
+	public int getExpected() {
+		return this.expected;
+	}
+
+	/**
+	 * @return the number of arguments of the call, -1 if not checked.
+	 */
+	public int getActual() {
+		return this.actual;
+	}
+
+	/**
+	 * @return the line of the call.
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+	/**
+	 * @return the column of the call.
+	 */
+	public int getColumn() {
+		return this.column;
+	}
+
+	/**
+	 * @return the warning message.
+	 */
+	public String getMessage() {
+		String message;
+		if (this.kind == Kind.UNDEFINED_FUNCTION) {
+			message = "Undefined function: " + this.function;
+		} else {
+			message = "Function " + this.function + " should have " + this.expected + " parameter(s)";
+		}
+		return message + " at line " + this.line + ", column " + this.column;
+	}
+
+	@Override
+	public String toString() {
+		return this.getMessage();
+	}
+
+}
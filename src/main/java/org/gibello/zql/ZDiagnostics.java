@@ -0,0 +1,81 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+/**
+ * Receives the warnings of a parser: calls to functions that are neither
+ * aggregates nor registered with ZUtils.addCustomFunction(), and calls with
+ * the wrong number of arguments.
+ *
+ * The parser passes the raw facts, so a receiver that ignores them costs
+ * nothing; a receiver may throw a ParseException to stop the parsing.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public interface ZDiagnostics {
+
+	/**
+	 * Ignores all the warnings (the default).
+	 */
+	ZDiagnostics NONE = new ZDiagnostics() {
+
+		@Override
+		public void undefinedFunction(final String function, final int line, final int column) {
+			// Ignored
+		}
+
+		@Override
+		public void wrongArity(final String function, final int expected, final int actual, final int line, final int column) {
+			// Ignored
+		}
+
+	};
+
+	/**
+	 * A call to an unknown function.
+	 *
+	 * @param function
+	 *            the function name.
+	 * @param line
+	 *            line of the call.
+	 * @param column
+	 *            column of the call.
+	 * @throws ParseException
+	 *             to stop the parsing.
+	 */
+	void undefinedFunction(String function, int line, int column) throws ParseException;
+
+	/**
+	 * A call with the wrong number of arguments.
+	 *
+	 * @param function
+	 *            the function name.
+	 * @param expected
+	 *            the number of parameters of the function.
+	 * @param actual
+	 *            the number of arguments of the call.
+	 * @param line
+	 *            line of the call.
+	 * @param column
+	 *            column of the call.
+	 * @throws ParseException
+	 *             to stop the parsing.
+	 */
+	void wrongArity(String function, int expected, int actual, int line, int column) throws ParseException;
+
+}
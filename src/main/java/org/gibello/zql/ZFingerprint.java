@@ -0,0 +1,638 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.gibello.zql.alias.ZAliasedName;
+import org.gibello.zql.alias.ZSelectItem;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.statement.ZDelete;
+import org.gibello.zql.statement.ZInsert;
+import org.gibello.zql.statement.ZLockTable;
+import org.gibello.zql.statement.ZStatement;
+import org.gibello.zql.statement.ZTransactStmt;
+import org.gibello.zql.statement.ZUpdate;
+import org.gibello.zql.utils.ZCommonConstants;
+import org.gibello.zql.utils.ZUtils;
+
+/**
+ * The shape of a statement: its SQL text with every number and string literal
+ * replaced by a "?" placeholder, and every IN list of literals and prepared
+ * statement parameters collapsed to a single placeholder, plus a 64-bit FNV-1a
+ * hash of that text.
+ *
+ * The canonical text follows the toString() format of the statement classes,
+ * with keywords, operators and function names in upper case, so
+ * "select a from t where b = 1" and "SELECT a FROM t WHERE b=42" have the same
+ * shape, "SELECT a FROM t WHERE (b = ?)". fingerprint() computes the hash
+ * alone, without building the text.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZFingerprint {
+
+	/**
+	 * FNV-1a 64-bit offset basis.
+	 */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/**
+	 * FNV-1a 64-bit prime.
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * The placeholder of literals.
+	 */
+	private static final String PLACEHOLDER = "?";
+
+	/**
+	 * The canonical SQL text.
+	 */
+	private final String canonicalSql;
+
+	/**
+	 * The hash of the canonical SQL text.
+	 */
+	private final long fingerprint;
+
+	/**
+	 * Create a new fingerprint.
+	 *
+	 * @param canonicalSql
+	 *            the canonical SQL text.
+	 * @param fingerprint
+	 *            its hash.
+	 */
+	private ZFingerprint(final String canonicalSql, final long fingerprint) {
+		this.canonicalSql = canonicalSql;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Compute the shape of a statement.
+	 *
+	 * @param statement
+	 *            the statement.
+	 * @return its canonical text and fingerprint.
+	 */
+	public static ZFingerprint of(final ZStatement statement) {
+		final Renderer renderer = new Renderer(new StringBuilder(128));
+		renderer.statement(statement);
+		return new ZFingerprint(renderer.out.toString(), renderer.hash);
+	}
+
+	/**
+	 * Compute the fingerprint of a statement, without building its canonical
+	 * text.
+	 *
+	 * @param statement
+	 *            the statement.
+	 * @return the hash of its canonical text.
+	 */
+	public static long fingerprint(final ZStatement statement) {
+		final Renderer renderer = new Renderer(null);
+		renderer.statement(statement);
+		return renderer.hash;
+	}
+
+	/**
+	 * @return the canonical SQL text.
+	 */
+	public String getCanonicalSql() {
+		return this.canonicalSql;
+	}
+
+	/**
+	 * @return the 64-bit hash of the canonical SQL text.
+	 */
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if ((o == null) || (this.getClass() != o.getClass())) {
+			return false;
+		}
+		final ZFingerprint that = (ZFingerprint) o;
+		return (this.fingerprint == that.fingerprint) && this.canonicalSql.equals(that.canonicalSql);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (this.fingerprint ^ (this.fingerprint >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x", this.fingerprint) + " " + this.canonicalSql;
+	}
+
+	/**
+	 * Writes the canonical text of a statement, hashing it on the fly.
+	 */
+	private static final class Renderer {
+
+		/**
+		 * The canonical text, null to compute the hash only.
+		 */
+		private final StringBuilder out;
+
+		/**
+		 * The hash of the text written so far.
+		 */
+		private long hash = ZFingerprint.FNV_OFFSET_BASIS;
+
+		/**
+		 * Create a new renderer.
+		 *
+		 * @param out
+		 *            the canonical text, null to compute the hash only.
+		 */
+		Renderer(final StringBuilder out) {
+			this.out = out;
+		}
+
+		/**
+		 * Write a string.
+		 *
+		 * @param s
+		 *            the string.
+		 */
+		void append(final String s) {
+			final int length = s.length();
+			long h = this.hash;
+			for (int i = 0; i < length; i++) {
+				h = (h ^ s.charAt(i)) * ZFingerprint.FNV_PRIME;
+			}
+			this.hash = h;
+			if (this.out != null) {
+				this.out.append(s);
+			}
+		}
+
+		/**
+		 * Write a keyword, an operator or a function name, in upper case.
+		 *
+		 * @param s
+		 *            the keyword.
+		 */
+		void keyword(final String s) {
+			this.append(s.toUpperCase(Locale.ENGLISH));
+		}
+
+		/**
+		 * Write a statement.
+		 *
+		 * @param statement
+		 *            the statement.
+		 */
+		void statement(final ZStatement statement) {
+			if (statement instanceof ZQuery) {
+				this.query((ZQuery) statement);
+			} else if (statement instanceof ZInsert) {
+				this.insert((ZInsert) statement);
+			} else if (statement instanceof ZUpdate) {
+				this.update((ZUpdate) statement);
+			} else if (statement instanceof ZDelete) {
+				this.delete((ZDelete) statement);
+			} else if (statement instanceof ZLockTable) {
+				this.lockTable((ZLockTable) statement);
+			} else if (statement instanceof ZTransactStmt) {
+				this.keyword(((ZTransactStmt) statement).getStatement());
+				if (((ZTransactStmt) statement).isReadOnly()) {
+					this.append(" READ ONLY");
+				}
+			} else {
+				throw new IllegalArgumentException("ZFingerprint.of(): unsupported statement " + (statement == null ? null : statement.getClass().getName()));
+			}
+		}
+
+		/**
+		 * Write a SELECT statement.
+		 *
+		 * @param query
+		 *            the query.
+		 */
+		void query(final ZQuery query) {
+			this.append("SELECT ");
+			if (query.isDistinct()) {
+				this.append("DISTINCT ");
+			}
+
+			final List<ZSelectItem> select = query.getSelect();
+			for (int i = 0; i < select.size(); i++) {
+				if (i > 0) {
+					this.append(", ");
+				}
+				final ZSelectItem item = select.get(i);
+				if (item.isExpression()) {
+					this.expression(item.getExpression());
+				} else {
+					this.append(item.getStrform());
+				}
+				this.alias(item);
+			}
+
+			this.append(" FROM ");
+			for (int i = 0; i < query.getFrom().size(); i++) {
+				if (i > 0) {
+					this.append(", ");
+				}
+				this.append(query.getFrom().get(i).getStrform());
+				this.alias(query.getFrom().get(i));
+			}
+
+			if (query.getWhere() != null) {
+				this.append(" WHERE ");
+				this.expression(query.getWhere());
+			}
+			if (query.getGroupBy() != null) {
+				this.append(" GROUP BY ");
+				this.list(query.getGroupBy().getGroupBy(), ", ");
+				if (query.getGroupBy().getHaving() != null) {
+					this.append(" HAVING ");
+					this.expression(query.getGroupBy().getHaving());
+				}
+			}
+			if (query.getSet() != null) {
+				this.append(ZCommonConstants.EMPTY_STRING);
+				this.expression(query.getSet());
+			}
+			if (query.getOrderBy() != null) {
+				this.append(" ORDER BY ");
+				for (int i = 0; i < query.getOrderBy().size(); i++) {
+					if (i > 0) {
+						this.append(", ");
+					}
+					final ZOrderBy orderBy = query.getOrderBy().get(i);
+					this.expression(orderBy.getExpression());
+					this.append(orderBy.getAscOrder() ? " ASC" : " DESC");
+				}
+			}
+			if (query.isForupdate()) {
+				this.append(" FOR UPDATE");
+			}
+		}
+
+		/**
+		 * Write an INSERT statement.
+		 *
+		 * @param insert
+		 *            the statement.
+		 */
+		void insert(final ZInsert insert) {
+			this.append("INSERT INTO ");
+			this.append(insert.getTable());
+			final List<String> columns = insert.getColumns();
+			if ((columns != null) && !columns.isEmpty()) {
+				this.append(ZCommonConstants.LEFT_BRACKET);
+				for (int i = 0; i < columns.size(); i++) {
+					if (i > 0) {
+						this.append(ZCommonConstants.COMMA);
+					}
+					this.append(columns.get(i));
+				}
+				this.append(ZCommonConstants.RIGHT_BRACKET);
+			}
+
+			if (insert.getQuery() != null) {
+				this.append(" (");
+				this.query(insert.getQuery());
+				this.append(ZCommonConstants.RIGHT_BRACKET);
+			} else {
+				this.append(" VALUES (");
+				this.list(insert.getValues(), ", ");
+				this.append(ZCommonConstants.RIGHT_BRACKET);
+			}
+		}
+
+		/**
+		 * Write an UPDATE statement.
+		 *
+		 * @param update
+		 *            the statement.
+		 */
+		void update(final ZUpdate update) {
+			this.append("UPDATE ");
+			this.append(update.getTable());
+			if (update.getAlias() != null) {
+				this.append(ZCommonConstants.EMPTY_STRING);
+				this.append(update.getAlias());
+			}
+			this.append(" SET ");
+			for (int i = 0; i < update.getColumnUpdateCount(); i++) {
+				if (i > 0) {
+					this.append(", ");
+				}
+				this.append(update.getColumnUpdateName(i));
+				this.append("=");
+				this.expression(update.getColumnUpdate(i));
+			}
+			if (update.getWhere() != null) {
+				this.append(" WHERE ");
+				this.expression(update.getWhere());
+			}
+		}
+
+		/**
+		 * Write a DELETE statement.
+		 *
+		 * @param delete
+		 *            the statement.
+		 */
+		void delete(final ZDelete delete) {
+			this.append(delete.getWhere() != null ? "DELETE FROM " : "DELETE ");
+			this.append(delete.getTable());
+			if (delete.getWhere() != null) {
+				this.append(" WHERE ");
+				this.expression(delete.getWhere());
+			}
+		}
+
+		/**
+		 * Write a LOCK TABLE statement.
+		 *
+		 * @param lock
+		 *            the statement.
+		 */
+		void lockTable(final ZLockTable lock) {
+			this.append("LOCK TABLE ");
+			for (int i = 0; i < lock.getTables().size(); i++) {
+				if (i > 0) {
+					this.append(", ");
+				}
+				this.append(lock.getTables().get(i));
+			}
+			if (lock.getLockMode() != null) {
+				this.append(" IN ");
+				this.keyword(lock.getLockMode());
+				this.append(" MODE");
+			}
+			if (lock.isNowait()) {
+				this.append(" NOWAIT");
+			}
+		}
+
+		/**
+		 * Write the alias of a name, if any.
+		 *
+		 * @param name
+		 *            the name.
+		 */
+		void alias(final ZAliasedName name) {
+			if (name.getAlias() != null) {
+				this.append(ZCommonConstants.EMPTY_STRING);
+				this.append(name.getAlias());
+			}
+		}
+
+		/**
+		 * Write a list of expressions.
+		 *
+		 * @param list
+		 *            the expressions.
+		 * @param separator
+		 *            the separator.
+		 */
+		void list(final List<ZExp> list, final String separator) {
+			for (int i = 0; i < list.size(); i++) {
+				if (i > 0) {
+					this.append(separator);
+				}
+				this.expression(list.get(i));
+			}
+		}
+
+		/**
+		 * Write an expression, the way ZExpression.toString() does.
+		 *
+		 * @param exp
+		 *            the expression.
+		 */
+		void expression(final ZExp exp) {
+			if (exp instanceof ZConstant) {
+				this.constant((ZConstant) exp);
+			} else if (exp instanceof ZQuery) {
+				this.query((ZQuery) exp);
+			} else {
+				this.operation((ZExpression) exp);
+			}
+		}
+
+		/**
+		 * Write a constant: column names and NULL as they are, literals as a
+		 * placeholder.
+		 *
+		 * @param constant
+		 *            the constant.
+		 */
+		void constant(final ZConstant constant) {
+			if (ZFingerprint.isLiteral(constant)) {
+				this.append(ZFingerprint.PLACEHOLDER);
+			} else {
+				// Column names keep their outer join marker
+				this.append(constant.toString());
+			}
+		}
+
+		/**
+		 * Write an operation.
+		 *
+		 * @param exp
+		 *            the operation.
+		 */
+		void operation(final ZExpression exp) {
+			final String operator = exp.getOperator();
+			final int nb = exp.nbOperands();
+
+			if (ZFingerprint.PLACEHOLDER.equals(operator)) {
+				// Prepared statement parameter
+				this.append(operator);
+				return;
+			}
+			if (ZUtils.isCustomFunction(operator) >= 0) {
+				this.keyword(operator);
+				this.append(ZCommonConstants.LEFT_BRACKET);
+				this.list(exp.getOperands(), ZCommonConstants.COMMA);
+				this.append(ZCommonConstants.RIGHT_BRACKET);
+				return;
+			}
+
+			final boolean aggregate = ZUtils.isAggregate(operator);
+			final boolean parentheses = !(aggregate || "ANY".equalsIgnoreCase(operator) || "ALL".equalsIgnoreCase(operator) || "UNION".equalsIgnoreCase(operator)
+					|| "UNION ALL".equalsIgnoreCase(operator));
+			if (parentheses) {
+				this.append(ZCommonConstants.LEFT_BRACKET);
+			}
+
+			if (nb == 1) {
+				final ZExp operand = exp.getOperand(0);
+				if ((operand instanceof ZConstant) && aggregate) {
+					this.keyword(operator);
+					this.append(ZCommonConstants.LEFT_BRACKET);
+					this.constant((ZConstant) operand);
+					this.append(ZCommonConstants.RIGHT_BRACKET);
+				} else if ("IS NULL".equals(operator) || "IS NOT NULL".equals(operator)) {
+					this.expression(operand);
+					this.append(ZCommonConstants.EMPTY_STRING);
+					this.keyword(operator);
+				} else if (ZCommonConstants.COMMA.equals(operator)) {
+					this.expression(operand);
+				} else if (operand instanceof ZQuery) {
+					this.keyword(operator);
+					this.append(" (");
+					this.query((ZQuery) operand);
+					this.append(ZCommonConstants.RIGHT_BRACKET);
+				} else {
+					this.keyword(operator);
+					this.append(ZCommonConstants.EMPTY_STRING);
+					this.expression(operand);
+				}
+			} else if ((nb == ZCommonConstants.MAGIC_NUMBER_3) && ZFingerprint.endsWith(operator, "BETWEEN")) {
+				this.ternary(exp, " AND ");
+			} else if ((nb == ZCommonConstants.MAGIC_NUMBER_3) && ZFingerprint.endsWith(operator, "LIKE")) {
+				this.ternary(exp, " ESCAPE ");
+			} else if ("IN".equals(operator) || "NOT IN".equals(operator)) {
+				this.in(exp);
+			} else {
+				for (int i = 0; i < nb; i++) {
+					if (i > 0) {
+						if (ZCommonConstants.COMMA.equals(operator)) {
+							this.append(", ");
+						} else {
+							this.append(ZCommonConstants.EMPTY_STRING);
+							this.keyword(operator);
+							this.append(ZCommonConstants.EMPTY_STRING);
+						}
+					}
+					final ZExp operand = exp.getOperand(i);
+					if (operand instanceof ZQuery) {
+						this.append(ZCommonConstants.LEFT_BRACKET);
+						this.query((ZQuery) operand);
+						this.append(ZCommonConstants.RIGHT_BRACKET);
+					} else {
+						this.expression(operand);
+					}
+				}
+			}
+
+			if (parentheses) {
+				this.append(ZCommonConstants.RIGHT_BRACKET);
+			}
+		}
+
+		/**
+		 * Write a (NOT) BETWEEN or a (NOT) LIKE ... ESCAPE operation.
+		 *
+		 * @param exp
+		 *            the operation, of 3 operands.
+		 * @param separator
+		 *            the keyword before the third operand.
+		 */
+		void ternary(final ZExpression exp, final String separator) {
+			this.expression(exp.getOperand(0));
+			this.append(ZCommonConstants.EMPTY_STRING);
+			this.keyword(exp.getOperator());
+			this.append(ZCommonConstants.EMPTY_STRING);
+			this.expression(exp.getOperand(1));
+			this.append(separator);
+			this.expression(exp.getOperand(ZCommonConstants.MAGIC_NUMBER_2));
+		}
+
+		/**
+		 * Write an IN or NOT IN operation: a list of literals and prepared
+		 * statement parameters, whatever its length, is written as a single
+		 * placeholder.
+		 *
+		 * @param exp
+		 *            the operation.
+		 */
+		void in(final ZExpression exp) {
+			final int nb = exp.nbOperands();
+			this.expression(exp.getOperand(0));
+			this.append(ZCommonConstants.EMPTY_STRING);
+			this.keyword(exp.getOperator());
+			this.append(" (");
+
+			boolean literals = true;
+			for (int i = 1; (i < nb) && literals; i++) {
+				final ZExp operand = exp.getOperand(i);
+				literals = ((operand instanceof ZConstant) && ZFingerprint.isLiteral((ZConstant) operand)) || ZFingerprint.isParameter(operand);
+			}
+
+			if (literals) {
+				this.append(ZFingerprint.PLACEHOLDER);
+			} else {
+				for (int i = 1; i < nb; i++) {
+					if (i > 1) {
+						this.append(", ");
+					}
+					this.expression(exp.getOperand(i));
+				}
+			}
+			this.append(ZCommonConstants.RIGHT_BRACKET);
+		}
+
+	}
+
+	/**
+	 * Checks for an operator and its NOT form, like BETWEEN and NOT BETWEEN.
+	 *
+	 * @param operator
+	 *            the operator.
+	 * @param keyword
+	 *            the last keyword of the operator.
+	 * @return true if the operator ends with the keyword, ignoring case.
+	 */
+	private static boolean endsWith(final String operator, final String keyword) {
+		return operator.regionMatches(true, operator.length() - keyword.length(), keyword, 0, keyword.length());
+	}
+
+	/**
+	 * Checks whether a constant is a number or string literal.
+	 *
+	 * @param constant
+	 *            the constant.
+	 * @return true for a NUMBER or STRING constant.
+	 */
+	private static boolean isLiteral(final ZConstant constant) {
+		return (constant.getType() == ZConstant.NUMBER) || (constant.getType() == ZConstant.STRING);
+	}
+
+	/**
+	 * Checks whether an expression is a prepared statement parameter.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return true for a "?" parameter.
+	 */
+	private static boolean isParameter(final ZExp exp) {
+		return (exp instanceof ZExpression) && ZFingerprint.PLACEHOLDER.equals(((ZExpression) exp).getOperator());
+	}
+
+}
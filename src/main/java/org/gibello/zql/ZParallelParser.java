@@ -0,0 +1,323 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.gibello.zql.statement.ZStatement;
+
+/**
+ * Parses the statements of a script in parallel.
+ *
+ * The script is first cut into statements by a lexical pre-scan (see
+ * ZStatementSplitter), then the statements are parsed by the workers of a
+ * fork/join pool, each worker with its own parser. The result is the same as
+ * ZqlParser.readStatements(): the statements in source order, up to the first
+ * EXIT or QUIT, or the first parse error in source order. Line and column
+ * numbers of the parse errors are those of the whole script.
+ *
+ * Requires a Java 7 runtime (fork/join framework).
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZParallelParser {
+
+	/**
+	 * Number of statements below which a task parses its statements itself
+	 * instead of forking.
+	 */
+	private static final int SEQUENTIAL_THRESHOLD = 16;
+
+	/**
+	 * One statement parser per worker thread.
+	 */
+	private static final ThreadLocal<ZChunkParser> PARSERS = new ThreadLocal<ZChunkParser>() {
+		@Override
+		protected ZChunkParser initialValue() {
+			return new ZChunkParser();
+		}
+	};
+
+	/**
+	 * Default constructor.
+	 */
+	private ZParallelParser() {
+
+	}
+
+	/**
+	 * Parse all the statements of a script, using a fork/join pool sized to
+	 * the number of processors.
+	 *
+	 * @param script
+	 *            the script.
+	 * @return the statements, in source order.
+	 * @throws ParseException
+	 *             the first parse exception, in source order.
+	 */
+	public static List<ZStatement> parse(final CharSequence script) throws ParseException {
+		return ZParallelParser.parse(script, DefaultPool.INSTANCE);
+	}
+
+	/**
+	 * Parse all the statements of a script on a given fork/join pool.
+	 *
+	 * @param script
+	 *            the script.
+	 * @param pool
+	 *            the pool that parses the statements.
+	 * @return the statements, in source order.
+	 * @throws ParseException
+	 *             the first parse exception, in source order.
+	 */
+	public static List<ZStatement> parse(final CharSequence script, final ForkJoinPool pool) throws ParseException {
+		final List<Chunk> chunks = ZParallelParser.split(script);
+		final ZStatement[] statements = new ZStatement[chunks.size()];
+		final Throwable[] errors = new Throwable[chunks.size()];
+
+		pool.invoke(new ParseTask(script, chunks, statements, errors, 0, chunks.size()));
+
+		final List<ZStatement> result = new ArrayList<ZStatement>(statements.length);
+		for (int i = 0; i < statements.length; i++) {
+			if (errors[i] instanceof ParseException) {
+				throw (ParseException) errors[i];
+			} else if (errors[i] instanceof RuntimeException) {
+				throw (RuntimeException) errors[i];
+			} else if (errors[i] != null) {
+				throw (Error) errors[i];
+			} else if (statements[i] == null) {
+				// EXIT or QUIT
+				break;
+			}
+			result.add(statements[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Cut a script into statements.
+	 *
+	 * @param script
+	 *            the script.
+	 * @return the statements boundaries.
+	 */
+	static List<Chunk> split(final CharSequence script) {
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+		final ZStatementSplitter splitter = new ZStatementSplitter(false);
+		final int length = script.length();
+
+		for (int i = 0; i < length; i++) {
+			if (splitter.feed(script.charAt(i))) {
+				chunks.add(new Chunk(splitter, i + 1));
+				splitter.reset();
+			}
+		}
+
+		splitter.finish();
+		if (splitter.hasStatement()) {
+			// Unterminated last statement: left for the parser to report.
+			chunks.add(new Chunk(splitter, length));
+		}
+		return chunks;
+	}
+
+	/**
+	 * A statement of the script.
+	 */
+	static final class Chunk {
+
+		/**
+		 * Offset of the first significant character.
+		 */
+		private final int start;
+
+		/**
+		 * Offset after the last character.
+		 */
+		private final int end;
+
+		/**
+		 * Line of the first significant character.
+		 */
+		private final int line;
+
+		/**
+		 * Column of the first significant character.
+		 */
+		private final int column;
+
+		/**
+		 * Create a new chunk.
+		 *
+		 * @param splitter
+		 *            the splitter, positioned on the statement.
+		 * @param end
+		 *            offset after the last character.
+		 */
+		Chunk(final ZStatementSplitter splitter, final int end) {
+			this.start = (int) splitter.getStartOffset();
+			this.end = end;
+			this.line = splitter.getStartLine();
+			this.column = splitter.getStartColumn();
+		}
+
+		/**
+		 * @return the offset of the first significant character.
+		 */
+		int getStart() {
+			return this.start;
+		}
+
+		/**
+		 * @return the offset after the last character.
+		 */
+		int getEnd() {
+			return this.end;
+		}
+
+		/**
+		 * @return the line of the first significant character.
+		 */
+		int getLine() {
+			return this.line;
+		}
+
+		/**
+		 * @return the column of the first significant character.
+		 */
+		int getColumn() {
+			return this.column;
+		}
+
+	}
+
+	/**
+	 * Parses a range of statements, forking while the range is large.
+	 */
+	private static final class ParseTask extends RecursiveAction {
+
+		/**
+		 * Serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The script.
+		 */
+		private final CharSequence script;
+
+		/**
+		 * All the statements of the script.
+		 */
+		private final List<Chunk> chunks;
+
+		/**
+		 * The parsed statements.
+		 */
+		private final ZStatement[] statements;
+
+		/**
+		 * The parse errors.
+		 */
+		private final Throwable[] errors;
+
+		/**
+		 * First statement of the range.
+		 */
+		private final int from;
+
+		/**
+		 * Statement after the last one of the range.
+		 */
+		private final int to;
+
+		/**
+		 * Create a new task.
+		 *
+		 * @param script
+		 *            the script.
+		 * @param chunks
+		 *            all the statements of the script.
+		 * @param statements
+		 *            the parsed statements.
+		 * @param errors
+		 *            the parse errors.
+		 * @param from
+		 *            first statement of the range.
+		 * @param to
+		 *            statement after the last one of the range.
+		 */
+		ParseTask(final CharSequence script, final List<Chunk> chunks, final ZStatement[] statements, final Throwable[] errors, final int from, final int to) {
+			this.script = script;
+			this.chunks = chunks;
+			this.statements = statements;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((this.to - this.from) <= ZParallelParser.SEQUENTIAL_THRESHOLD) {
+				final ZChunkParser parser = ZParallelParser.PARSERS.get();
+				for (int i = this.from; i < this.to; i++) {
+					final Chunk chunk = this.chunks.get(i);
+					try {
+						final Provider input = new CharSequenceProvider(this.script, chunk.getStart(), chunk.getEnd());
+						this.statements[i] = parser.parse(input, chunk.getLine(), chunk.getColumn());
+					} catch (final ParseException e) {
+						this.errors[i] = e;
+					} catch (final RuntimeException e) {
+						this.errors[i] = e;
+					} catch (final Error e) {
+						this.errors[i] = e;
+					}
+				}
+			} else {
+				final int middle = (this.from + this.to) >>> 1;
+				ForkJoinTask.invokeAll(new ParseTask(this.script, this.chunks, this.statements, this.errors, this.from, middle), new ParseTask(this.script, this.chunks,
+						this.statements, this.errors, middle, this.to));
+			}
+		}
+
+	}
+
+	/**
+	 * Lazily created default pool.
+	 */
+	private static final class DefaultPool {
+
+		/**
+		 * The pool (its workers are daemon threads).
+		 */
+		private static final ForkJoinPool INSTANCE = new ForkJoinPool();
+
+		/**
+		 * Default constructor.
+		 */
+		private DefaultPool() {
+
+		}
+
+	}
+
+}
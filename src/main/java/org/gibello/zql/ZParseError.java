@@ -0,0 +1,195 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A syntax or lexical error met by ZqlParser.readStatements(List) on a
+ * statement it skipped.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZParseError implements Serializable {
+
+	/**
+	 * Serial version UID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Offset of the error in the input (in chars), -1 if unknown.
+	 */
+	private final long offset;
+
+	/**
+	 * Line of the error.
+	 */
+	private final int line;
+
+	/**
+	 * Column of the error.
+	 */
+	private final int column;
+
+	/**
+	 * The text found at the error position.
+	 */
+	private final String found;
+
+	/**
+	 * The token sequences that were expected.
+	 */
+	private final List<String> expected;
+
+	/**
+	 * The error message.
+	 */
+	private final String message;
+
+	/**
+	 * Create a new parse error.
+	 *
+	 * @param offset
+	 *            offset of the error in the input, -1 if unknown.
+	 * @param line
+	 *            line of the error.
+	 * @param column
+	 *            column of the error.
+	 * @param found
+	 *            the text found at the error position.
+	 * @param expected
+	 *            the token sequences that were expected.
+	 * @param message
+	 *            the error message.
+	 */
+	public ZParseError(final long offset, final int line, final int column, final String found, final List<String> expected, final String message) {
+		this.offset = offset;
+		this.line = line;
+		this.column = column;
+		this.found = found;
+		this.expected = Collections.unmodifiableList(new ArrayList<String>(expected));
+		this.message = message;
+	}
+
+	/**
+	 * Describe a syntax error.
+	 *
+	 * @param e
+	 *            the parse exception.
+	 * @param lines
+	 *            the line index of the input.
+	 * @return the error.
+	 */
+	static ZParseError syntaxError(final ParseException e, final LineTrackingProvider lines) {
+		final Token token = (e.currentToken == null) ? null : e.currentToken.next;
+		final List<String> expected = new ArrayList<String>();
+		if (e.expectedTokenSequences != null) {
+			for (final int[] sequence : e.expectedTokenSequences) {
+				final StringBuilder buf = new StringBuilder();
+				for (int i = 0; i < sequence.length; i++) {
+					if (i > 0) {
+						buf.append(' ');
+					}
+					buf.append(e.tokenImage[sequence[i]]);
+				}
+				if (!expected.contains(buf.toString())) {
+					expected.add(buf.toString());
+				}
+			}
+		}
+
+		if (token == null) {
+			return new ZParseError(-1, -1, -1, null, expected, e.getMessage());
+		}
+		final String found = (token.kind == ZqlJJParserConstants.EOF) ? e.tokenImage[ZqlJJParserConstants.EOF] : token.image;
+		return new ZParseError(lines.offsetOf(token.beginLine, token.beginColumn), token.beginLine, token.beginColumn, found, expected, e.getMessage());
+	}
+
+	/**
+	 * Describe a lexical error.
+	 *
+	 * @param e
+	 *            the token manager exception.
+	 * @param line
+	 *            line of the invalid char.
+	 * @param column
+	 *            column of the invalid char.
+	 * @param found
+	 *            the invalid char, null at the end of the input.
+	 * @param lines
+	 *            the line index of the input.
+	 * @return the error.
+	 */
+	static ZParseError lexicalError(final TokenMgrException e, final int line, final int column, final String found, final LineTrackingProvider lines) {
+		return new ZParseError(lines.offsetOf(line, column), line, column, found, Collections.<String> emptyList(), e.getMessage());
+	}
+
+	/**
+	 * @return the offset of the error in the input (in chars), -1 if unknown.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return the line of the error.
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+	/**
+	 * @return the column of the error.
+	 */
+	public int getColumn() {
+		return this.column;
+	}
+
+	/**
+	 * @return the text found at the error position (a token, or an invalid
+	 *         char), null if unknown.
+	 */
+	public String getFound() {
+		return this.found;
+	}
+
+	/**
+	 * @return the token sequences that were expected (empty for a lexical
+	 *         error).
+	 */
+	public List<String> getExpected() {
+		return this.expected;
+	}
+
+	/**
+	 * @return the error message.
+	 */
+	public String getMessage() {
+		return this.message;
+	}
+
+	@Override
+	public String toString() {
+		return "Line " + this.line + ", column " + this.column + " (offset " + this.offset + "): " + this.message;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+/**
+ * Unchecked exception raised when a statement of a script cannot be read or
+ * parsed while iterating over the script. The cause is the original
+ * ParseException, TokenMgrException or IOException.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZScriptException extends RuntimeException {
+
+	/**
+	 * Serial version UID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Offset of the statement in the script.
+	 */
+	private final long offset;
+
+	/**
+	 * Line of the statement in the script.
+	 */
+	private final int line;
+
+	/**
+	 * Create a new script exception.
+	 *
+	 * @param offset
+	 *            offset of the statement in the script, -1 if unknown.
+	 * @param line
+	 *            line of the statement in the script, -1 if unknown.
+	 * @param cause
+	 *            the original exception.
+	 */
+	public ZScriptException(final long offset, final int line, final Throwable cause) {
+		super("Statement at line " + line + " (offset " + offset + "): " + cause.getMessage(), cause);
+		this.offset = offset;
+		this.line = line;
+	}
+
+	/**
+	 * @return the offset of the statement in the script, -1 if unknown.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return the line of the statement in the script, -1 if unknown.
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gibello.zql.statement.ZStatement;
+
+/**
+ * A bounded, least-recently-used cache of parsed statements keyed by their SQL
+ * text.
+ *
+ * The cache is bounded both by its number of entries and by its weight (the
+ * total length of the cached SQL texts). Statements are stored as private
+ * copies and every lookup returns a fresh copy, so callers are free to modify
+ * what they get back. A cache instance can be shared by several parsers and
+ * threads.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZStatementCache {
+
+	/**
+	 * The cached statements, in access order.
+	 */
+	private final LinkedHashMap<String, ZStatement> entries;
+
+	/**
+	 * Maximum number of cached statements.
+	 */
+	private final int maxEntries;
+
+	/**
+	 * Maximum total weight of the cached statements.
+	 */
+	private final long maxWeight;
+
+	/**
+	 * Current total weight of the cached statements.
+	 */
+	private long weight = 0;
+
+	/**
+	 * Number of successful lookups.
+	 */
+	private long hitCount = 0;
+
+	/**
+	 * Number of unsuccessful lookups.
+	 */
+	private long missCount = 0;
+
+	/**
+	 * Number of statements evicted to honour the bounds.
+	 */
+	private long evictionCount = 0;
+
+	/**
+	 * Create a new statement cache.
+	 *
+	 * @param maxEntries
+	 *            the maximum number of cached statements.
+	 * @param maxWeight
+	 *            the maximum total length (in characters) of the cached SQL
+	 *            texts.
+	 */
+	public ZStatementCache(final int maxEntries, final long maxWeight) {
+		if ((maxEntries <= 0) || (maxWeight <= 0)) {
+			throw new IllegalArgumentException("ZStatementCache(): bounds must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.entries = new LinkedHashMap<String, ZStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Look up a statement.
+	 *
+	 * @param sql
+	 *            the SQL text the statement was parsed from.
+	 * @return a copy of the cached statement, or null if the text is not
+	 *         cached.
+	 */
+	public ZStatement get(final String sql) {
+		final ZStatement cached;
+
+		synchronized (this) {
+			cached = this.entries.get(sql);
+			if (cached == null) {
+				this.missCount++;
+			} else {
+				this.hitCount++;
+			}
+		}
+
+		// The cached statement is never handed out, so copying it outside of
+		// the lock is safe.
+		return ZCopier.copyStatement(cached);
+	}
+
+	/**
+	 * Cache a statement. Texts heavier than the cache itself are ignored.
+	 *
+	 * @param sql
+	 *            the SQL text the statement was parsed from.
+	 * @param statement
+	 *            the parsed statement (a private copy is cached).
+	 */
+	public void put(final String sql, final ZStatement statement) {
+		if ((sql == null) || (statement == null) || (sql.length() > this.maxWeight)) {
+			return;
+		}
+
+		final ZStatement copy = ZCopier.copyStatement(statement);
+
+		synchronized (this) {
+			final ZStatement previous = this.entries.put(sql, copy);
+			if (previous == null) {
+				this.weight += sql.length();
+			}
+
+			final Iterator<Map.Entry<String, ZStatement>> eldest = this.entries.entrySet().iterator();
+			while ((this.entries.size() > this.maxEntries) || (this.weight > this.maxWeight)) {
+				final Map.Entry<String, ZStatement> entry = eldest.next();
+				this.weight -= entry.getKey().length();
+				eldest.remove();
+				this.evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the cached statements. The counters are kept.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.weight = 0;
+	}
+
+	/**
+	 * @return the number of cached statements.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the total length of the cached SQL texts.
+	 */
+	public synchronized long getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * @return the number of successful lookups.
+	 */
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * @return the number of unsuccessful lookups.
+	 */
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * @return the number of statements evicted to honour the bounds.
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * @return the maximum number of cached statements.
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * @return the maximum total length of the cached SQL texts.
+	 */
+	public long getMaxWeight() {
+		return this.maxWeight;
+	}
+
+}
@@ -0,0 +1,292 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gibello.zql.statement.ZStatementKind;
+
+/**
+ * Classifies an SQL statement from its tokens alone, without parsing it.
+ *
+ * classify() runs the token manager of the grammar over the statement (up to
+ * its ";") and returns the kind of the statement; getTables() then returns the
+ * tables named after FROM (in queries and sub-queries), INSERT INTO, UPDATE,
+ * DELETE [FROM] and LOCK TABLE, in order of appearance. No AST is built, and
+ * the statement is not validated: a statement that classifies fine may still
+ * fail to parse.
+ *
+ * Not thread-safe: use one instance per thread. Lexical errors are reported
+ * as TokenMgrException.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZStatementClassifier {
+
+	/**
+	 * Kind of the ";" token.
+	 */
+	private static final int SEMICOLON = ZStatementClassifier.kindOf(";");
+
+	/**
+	 * Kind of the "," token.
+	 */
+	private static final int COMMA = ZStatementClassifier.kindOf(",");
+
+	/**
+	 * Kind of the "." token.
+	 */
+	private static final int DOT = ZStatementClassifier.kindOf(".");
+
+	/**
+	 * Kind of the "(" token.
+	 */
+	private static final int LEFT_BRACKET = ZStatementClassifier.kindOf("(");
+
+	/**
+	 * The char stream of the token manager.
+	 */
+	private SimpleCharStream charStream = null;
+
+	/**
+	 * The token manager.
+	 */
+	private ZqlJJParserTokenManager tokenManager = null;
+
+	/**
+	 * A token read ahead and pushed back.
+	 */
+	private Token pushedBack = null;
+
+	/**
+	 * The tables of the last statement.
+	 */
+	private final List<String> tables = new ArrayList<String>();
+
+	/**
+	 * Read-only view of the tables.
+	 */
+	private final List<String> tablesView = Collections.unmodifiableList(this.tables);
+
+	/**
+	 * Classify a statement.
+	 *
+	 * @param sql
+	 *            the statement.
+	 * @return the kind of the statement, UNKNOWN if it does not start like
+	 *         any statement of the grammar.
+	 */
+	public ZStatementKind classify(final String sql) {
+		return this.classify(new StringProvider(sql));
+	}
+
+	/**
+	 * Classify the next statement of an input.
+	 *
+	 * @param input
+	 *            the input.
+	 * @return the kind of the statement, UNKNOWN if it does not start like
+	 *         any statement of the grammar.
+	 */
+	public ZStatementKind classify(final Provider input) {
+		if (this.tokenManager == null) {
+			this.charStream = new SimpleCharStream(input);
+			this.tokenManager = new ZqlJJParserTokenManager(this.charStream);
+		} else {
+			this.charStream.ReInit(input);
+			this.tokenManager.ReInit(this.charStream);
+		}
+		this.pushedBack = null;
+		this.tables.clear();
+
+		Token first = this.next();
+		while (first.kind == ZStatementClassifier.LEFT_BRACKET) {
+			first = this.next();
+		}
+
+		ZStatementKind kind;
+		switch (first.kind) {
+		case ZqlJJParserConstants.K_SELECT:
+			kind = ZStatementKind.SELECT;
+			break;
+		case ZqlJJParserConstants.K_INSERT:
+			kind = ZStatementKind.INSERT;
+			if (this.next().kind == ZqlJJParserConstants.K_INTO) {
+				this.tableReference(this.next());
+			}
+			break;
+		case ZqlJJParserConstants.K_UPDATE:
+			kind = ZStatementKind.UPDATE;
+			this.tableReference(this.next());
+			break;
+		case ZqlJJParserConstants.K_DELETE:
+			kind = ZStatementKind.DELETE;
+			Token table = this.next();
+			if (table.kind == ZqlJJParserConstants.K_FROM) {
+				table = this.next();
+			}
+			this.tableReference(table);
+			break;
+		case ZqlJJParserConstants.K_LOCK:
+			kind = ZStatementKind.LOCK_TABLE;
+			if (this.next().kind == ZqlJJParserConstants.K_TABLE) {
+				this.tableList(false);
+			}
+			break;
+		case ZqlJJParserConstants.K_COMMIT:
+			kind = ZStatementKind.COMMIT;
+			break;
+		case ZqlJJParserConstants.K_ROLLBACK:
+			kind = ZStatementKind.ROLLBACK;
+			break;
+		case ZqlJJParserConstants.K_SET:
+			kind = ZStatementKind.SET_TRANSACTION;
+			break;
+		case ZqlJJParserConstants.K_EXIT:
+		case ZqlJJParserConstants.K_QUIT:
+			kind = ZStatementKind.EXIT;
+			break;
+		default:
+			kind = ZStatementKind.UNKNOWN;
+			break;
+		}
+
+		if (kind != ZStatementKind.UNKNOWN) {
+			// Tables of the FROM clauses, sub-queries included
+			for (Token token = this.next(); !ZStatementClassifier.isEnd(token); token = this.next()) {
+				if (token.kind == ZqlJJParserConstants.K_FROM) {
+					this.tableList(true);
+				}
+			}
+		}
+		return kind;
+	}
+
+	/**
+	 * @return the tables of the last statement classified, in order of
+	 *         appearance and without duplicates (a read-only list, valid until
+	 *         the next call to classify()).
+	 */
+	public List<String> getTables() {
+		return this.tablesView;
+	}
+
+	/**
+	 * Read a list of table references.
+	 *
+	 * @param aliases
+	 *            true if the tables may have an alias.
+	 */
+	private void tableList(final boolean aliases) {
+		boolean more = true;
+		while (more && this.tableReference(this.next())) {
+			Token token = this.next();
+			if (aliases && (token.kind == ZqlJJParserConstants.S_IDENTIFIER)) {
+				token = this.next();
+			}
+			more = token.kind == ZStatementClassifier.COMMA;
+			if (!more) {
+				this.pushedBack = token;
+			}
+		}
+	}
+
+	/**
+	 * Read a table reference (name[.name]) and add it to the tables.
+	 *
+	 * @param first
+	 *            the first token of the reference.
+	 * @return false if the token does not start a table reference (it is
+	 *         pushed back).
+	 */
+	private boolean tableReference(final Token first) {
+		if (!ZStatementClassifier.isName(first)) {
+			this.pushedBack = first;
+			return false;
+		}
+
+		String name = first.image;
+		Token token = this.next();
+		while (token.kind == ZStatementClassifier.DOT) {
+			final Token part = this.next();
+			if (!ZStatementClassifier.isName(part)) {
+				token = part;
+				break;
+			}
+			name = name + "." + part.image;
+			token = this.next();
+		}
+		this.pushedBack = token;
+
+		if (!this.tables.contains(name)) {
+			this.tables.add(name);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next token.
+	 */
+	private Token next() {
+		Token token = this.pushedBack;
+		if (token == null) {
+			token = this.tokenManager.getNextToken();
+		} else {
+			this.pushedBack = null;
+		}
+		return token;
+	}
+
+	/**
+	 * @param token
+	 *            a token.
+	 * @return true if the token ends the statement.
+	 */
+	private static boolean isEnd(final Token token) {
+		return (token.kind == ZStatementClassifier.SEMICOLON) || (token.kind == ZqlJJParserConstants.EOF);
+	}
+
+	/**
+	 * @param token
+	 *            a token.
+	 * @return true if the token is an identifier or a quoted identifier.
+	 */
+	private static boolean isName(final Token token) {
+		return (token.kind == ZqlJJParserConstants.S_IDENTIFIER) || (token.kind == ZqlJJParserConstants.S_QUOTED_IDENTIFIER);
+	}
+
+	/**
+	 * Find the kind of a literal token of the grammar.
+	 *
+	 * @param literal
+	 *            the token text.
+	 * @return its kind.
+	 */
+	private static int kindOf(final String literal) {
+		final String image = "\"" + literal + "\"";
+		for (int i = 0; i < ZqlJJParserConstants.tokenImage.length; i++) {
+			if (image.equals(ZqlJJParserConstants.tokenImage[i])) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("ZStatementClassifier: no token " + image + " in the grammar");
+	}
+
+}
@@ -0,0 +1,354 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.gibello.zql.statement.ZStatement;
+
+/**
+ * Iterates over the statements of an SQL script, one statement at a time.
+ *
+ * The script is split into statements at the ";" that end them (see
+ * ZStatementSplitter) and each statement is parsed on its own, so memory use is
+ * bounded by the largest statement, not by the size of the script. After each
+ * call to next(), getOffset(), getLine() and getColumn() give the position of
+ * the statement in the script (the offset is in bytes).
+ *
+ * Parse and I/O errors are reported as ZScriptException. Like readStatements(),
+ * the iteration stops at an EXIT or QUIT statement.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZStatementIterator implements Iterator<ZStatement>, Closeable {
+
+	/**
+	 * Size of the read buffer.
+	 */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Initial size of the statement buffer.
+	 */
+	private static final int STATEMENT_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Statement buffers larger than this are released after use.
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The characters the splitter looks for, which must be encoded as
+	 * themselves.
+	 */
+	private static final String SPLITTER_CHARACTERS = ";'\"-/*\r\n\t ";
+
+	/**
+	 * The script.
+	 */
+	private final InputStream in;
+
+	/**
+	 * The script encoding.
+	 */
+	private final Charset charset;
+
+	/**
+	 * The statement splitter.
+	 */
+	private final ZStatementSplitter splitter;
+
+	/**
+	 * The read buffer.
+	 */
+	private final byte[] readBuffer = new byte[ZStatementIterator.READ_BUFFER_SIZE];
+
+	/**
+	 * Position of the next byte in the read buffer.
+	 */
+	private int readPosition = 0;
+
+	/**
+	 * Number of bytes in the read buffer.
+	 */
+	private int readLimit = 0;
+
+	/**
+	 * Bytes of the current statement.
+	 */
+	private byte[] statement = new byte[ZStatementIterator.STATEMENT_BUFFER_SIZE];
+
+	/**
+	 * Number of bytes of the current statement.
+	 */
+	private int statementLength = 0;
+
+	/**
+	 * The statement parser.
+	 */
+	private final ZChunkParser parser = new ZChunkParser();
+
+	/**
+	 * The next statement, if already parsed.
+	 */
+	private ZStatement next = null;
+
+	/**
+	 * Position of the next statement.
+	 */
+	private long nextOffset;
+
+	/**
+	 * Line of the next statement.
+	 */
+	private int nextLine;
+
+	/**
+	 * Column of the next statement.
+	 */
+	private int nextColumn;
+
+	/**
+	 * True when there is no more statement to read.
+	 */
+	private boolean finished = false;
+
+	/**
+	 * Position of the last statement returned.
+	 */
+	private long offset = -1;
+
+	/**
+	 * Line of the last statement returned.
+	 */
+	private int line = -1;
+
+	/**
+	 * Column of the last statement returned.
+	 */
+	private int column = -1;
+
+	/**
+	 * Iterate over a script in the platform default encoding.
+	 *
+	 * @param in
+	 *            the script.
+	 */
+	public ZStatementIterator(final InputStream in) {
+		this(in, Charset.defaultCharset());
+	}
+
+	/**
+	 * Iterate over a script.
+	 *
+	 * @param in
+	 *            the script.
+	 * @param charset
+	 *            the script encoding, which must be ASCII-compatible (UTF-8,
+	 *            ISO-8859-x...).
+	 */
+	public ZStatementIterator(final InputStream in, final Charset charset) {
+		if (!Arrays.equals(ZStatementIterator.SPLITTER_CHARACTERS.getBytes(charset), ZStatementIterator.SPLITTER_CHARACTERS.getBytes(Charset.forName("US-ASCII")))) {
+			throw new IllegalArgumentException("ZStatementIterator(): " + charset.name() + " is not ASCII-compatible");
+		}
+		this.in = in;
+		this.charset = charset;
+		this.splitter = new ZStatementSplitter("UTF-8".equals(charset.name()));
+	}
+
+	/**
+	 * Iterate over a script file.
+	 *
+	 * @param file
+	 *            the script.
+	 * @param charset
+	 *            the script encoding, which must be ASCII-compatible.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public ZStatementIterator(final File file, final Charset charset) throws IOException {
+		this(new FileInputStream(file), charset);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if ((this.next == null) && !this.finished) {
+			this.fetch();
+		}
+		return this.next != null;
+	}
+
+	@Override
+	public ZStatement next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final ZStatement result = this.next;
+		this.next = null;
+		this.offset = this.nextOffset;
+		this.line = this.nextLine;
+		this.column = this.nextColumn;
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.finished = true;
+		this.next = null;
+		this.in.close();
+	}
+
+	/**
+	 * @return the byte offset of the last statement returned by next().
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return the line of the last statement returned by next().
+	 */
+	public int getLine() {
+		return this.line;
+	}
+
+	/**
+	 * @return the column of the last statement returned by next().
+	 */
+	public int getColumn() {
+		return this.column;
+	}
+
+	/**
+	 * Read and parse the next statement.
+	 */
+	private void fetch() {
+		try {
+			if (!this.readStatement()) {
+				this.finish();
+				return;
+			}
+
+			this.nextOffset = this.splitter.getStartOffset();
+			this.nextLine = this.splitter.getStartLine();
+			this.nextColumn = this.splitter.getStartColumn();
+			final String sql = new String(this.statement, 0, this.statementLength, this.charset);
+			this.next = this.parser.parse(new StringProvider(sql), this.nextLine, this.nextColumn);
+			if (this.next == null) {
+				// EXIT or QUIT
+				this.finish();
+			}
+		} catch (final IOException e) {
+			this.fail(e);
+		} catch (final ParseException e) {
+			this.fail(e);
+		} catch (final TokenMgrException e) {
+			this.fail(e);
+		} finally {
+			this.splitter.reset();
+			this.statementLength = 0;
+			if (this.statement.length > ZStatementIterator.MAX_RETAINED_BUFFER_SIZE) {
+				this.statement = new byte[ZStatementIterator.STATEMENT_BUFFER_SIZE];
+			}
+		}
+	}
+
+	/**
+	 * Read the bytes of the next statement into the statement buffer.
+	 *
+	 * @return false if the script has no more statement.
+	 * @throws IOException
+	 *             the I/O exception.
+	 */
+	private boolean readStatement() throws IOException {
+		while (true) {
+			if (this.readPosition == this.readLimit) {
+				this.readLimit = this.in.read(this.readBuffer);
+				this.readPosition = 0;
+				if (this.readLimit <= 0) {
+					this.readLimit = 0;
+					this.splitter.finish();
+					return this.splitter.hasStatement();
+				}
+			}
+
+			final byte b = this.readBuffer[this.readPosition++];
+			final boolean end = this.splitter.feed(b & 0xFF);
+			if (this.splitter.hasStatement() || this.splitter.hasCandidate()) {
+				this.append(b);
+			} else {
+				// Blanks and comments between statements are not kept.
+				this.statementLength = 0;
+			}
+			if (end) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Append a byte to the statement buffer.
+	 *
+	 * @param b
+	 *            the byte.
+	 */
+	private void append(final byte b) {
+		if (this.statementLength == this.statement.length) {
+			this.statement = Arrays.copyOf(this.statement, this.statement.length * 2);
+		}
+		this.statement[this.statementLength++] = b;
+	}
+
+	/**
+	 * End the iteration.
+	 */
+	private void finish() {
+		try {
+			this.close();
+		} catch (final IOException e) {
+			// Nothing left to read anyway.
+		}
+	}
+
+	/**
+	 * End the iteration on an error.
+	 *
+	 * @param cause
+	 *            the error.
+	 */
+	private void fail(final Throwable cause) {
+		final long failedOffset = this.splitter.hasStatement() ? this.splitter.getStartOffset() : -1;
+		final int failedLine = this.splitter.hasStatement() ? this.splitter.getStartLine() : -1;
+		this.finish();
+		throw new ZScriptException(failedOffset, failedLine, cause);
+	}
+
+}
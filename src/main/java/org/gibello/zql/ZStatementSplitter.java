@@ -0,0 +1,331 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+/**
+ * Finds statement boundaries in an SQL script without parsing it.
+ *
+ * The script is fed one character (or one byte of an ASCII-compatible
+ * encoding) at a time. A statement ends at a ";" that is not part of a string
+ * literal, a quoted identifier or a comment, following the lexical rules of
+ * ZqlJJParser.jj. The splitter also tracks the position of the first
+ * significant character of the current statement (comments and blanks
+ * excluded), with the line and column numbering of the JavaCC char stream.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZStatementSplitter {
+
+	/**
+	 * Lexical state: SQL code.
+	 */
+	private static final int CODE = 0;
+
+	/**
+	 * Lexical state: inside a 'string literal'.
+	 */
+	private static final int STRING = 1;
+
+	/**
+	 * Lexical state: inside a "quoted identifier".
+	 */
+	private static final int QUOTED_IDENTIFIER = 2;
+
+	/**
+	 * Lexical state: inside a -- line comment.
+	 */
+	private static final int LINE_COMMENT = 3;
+
+	/**
+	 * Lexical state: inside a multi-line comment.
+	 */
+	private static final int MULTI_LINE_COMMENT = 4;
+
+	/**
+	 * No character.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * True if the units are the bytes of an UTF-8 stream (continuation bytes
+	 * then do not count as columns).
+	 */
+	private final boolean utf8;
+
+	/**
+	 * The current lexical state.
+	 */
+	private int state = ZStatementSplitter.CODE;
+
+	/**
+	 * The previous unit, when it may start ("-", "/") or end ("*") a comment.
+	 */
+	private int previous = ZStatementSplitter.NONE;
+
+	/**
+	 * Offset of the last unit fed.
+	 */
+	private long offset = -1;
+
+	/**
+	 * Line of the last unit fed.
+	 */
+	private int line = 1;
+
+	/**
+	 * Column of the last unit fed.
+	 */
+	private int column = 0;
+
+	/**
+	 * The previous unit was a carriage return.
+	 */
+	private boolean prevCharIsCR = false;
+
+	/**
+	 * The previous unit was a line feed.
+	 */
+	private boolean prevCharIsLF = false;
+
+	/**
+	 * Offset of the first significant unit of the current statement, -1 if
+	 * none was met yet.
+	 */
+	private long startOffset = -1;
+
+	/**
+	 * Line of the first significant unit of the current statement.
+	 */
+	private int startLine;
+
+	/**
+	 * Column of the first significant unit of the current statement.
+	 */
+	private int startColumn;
+
+	/**
+	 * Offset of the pending "-" or "/" unit.
+	 */
+	private long candidateOffset;
+
+	/**
+	 * Line of the pending "-" or "/" unit.
+	 */
+	private int candidateLine;
+
+	/**
+	 * Column of the pending "-" or "/" unit.
+	 */
+	private int candidateColumn;
+
+	/**
+	 * Create a new splitter.
+	 *
+	 * @param utf8
+	 *            true if the units fed are the bytes of an UTF-8 stream.
+	 */
+	ZStatementSplitter(final boolean utf8) {
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * Feed the next unit of the script.
+	 *
+	 * @param c
+	 *            the unit (a char, or a byte as an unsigned value).
+	 * @return true if the unit is the ";" that ends the current statement.
+	 */
+	boolean feed(final int c) {
+		this.offset++;
+		this.updateLineColumn(c);
+
+		boolean end = false;
+
+		switch (this.state) {
+		case CODE:
+			if ((this.previous == '-') && (c == '-')) {
+				this.previous = ZStatementSplitter.NONE;
+				this.state = ZStatementSplitter.LINE_COMMENT;
+			} else if ((this.previous == '/') && (c == '*')) {
+				this.previous = ZStatementSplitter.NONE;
+				this.state = ZStatementSplitter.MULTI_LINE_COMMENT;
+			} else {
+				this.flushCandidate();
+				if ((c == '-') || (c == '/')) {
+					this.previous = c;
+					this.candidateOffset = this.offset;
+					this.candidateLine = this.line;
+					this.candidateColumn = this.column;
+				} else if ((c != ' ') && (c != '\t') && (c != '\r') && (c != '\n')) {
+					this.markStart(this.offset, this.line, this.column);
+					if (c == '\'') {
+						this.state = ZStatementSplitter.STRING;
+					} else if (c == '"') {
+						this.state = ZStatementSplitter.QUOTED_IDENTIFIER;
+					} else if (c == ';') {
+						end = true;
+					}
+				}
+			}
+			break;
+		case STRING:
+			if (c == '\'') {
+				this.state = ZStatementSplitter.CODE;
+			}
+			break;
+		case QUOTED_IDENTIFIER:
+			if (c == '"') {
+				this.state = ZStatementSplitter.CODE;
+			}
+			break;
+		case LINE_COMMENT:
+			if ((c == '\r') || (c == '\n')) {
+				this.state = ZStatementSplitter.CODE;
+			}
+			break;
+		case MULTI_LINE_COMMENT:
+		default:
+			if ((this.previous == '*') && (c == '/')) {
+				this.previous = ZStatementSplitter.NONE;
+				this.state = ZStatementSplitter.CODE;
+			} else {
+				this.previous = c;
+			}
+			break;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Signal the end of the script: a pending "-" or "/" becomes part of the
+	 * current statement.
+	 */
+	void finish() {
+		if (this.state == ZStatementSplitter.CODE) {
+			this.flushCandidate();
+		}
+	}
+
+	/**
+	 * Start a new statement (call after the end of the previous one).
+	 */
+	void reset() {
+		this.startOffset = -1;
+		this.previous = ZStatementSplitter.NONE;
+		this.state = ZStatementSplitter.CODE;
+	}
+
+	/**
+	 * @return true if the current statement has a significant unit.
+	 */
+	boolean hasStatement() {
+		return this.startOffset >= 0;
+	}
+
+	/**
+	 * @return true if the last unit is a "-" or "/" that may start a comment.
+	 */
+	boolean hasCandidate() {
+		return (this.state == ZStatementSplitter.CODE) && (this.previous != ZStatementSplitter.NONE);
+	}
+
+	/**
+	 * @return the offset of the first significant unit of the statement.
+	 */
+	long getStartOffset() {
+		return this.startOffset;
+	}
+
+	/**
+	 * @return the line of the first significant unit of the statement.
+	 */
+	int getStartLine() {
+		return this.startLine;
+	}
+
+	/**
+	 * @return the column of the first significant unit of the statement.
+	 */
+	int getStartColumn() {
+		return this.startColumn;
+	}
+
+	/**
+	 * The pending "-" or "/" did not start a comment: it is significant.
+	 */
+	private void flushCandidate() {
+		if (this.previous != ZStatementSplitter.NONE) {
+			this.markStart(this.candidateOffset, this.candidateLine, this.candidateColumn);
+			this.previous = ZStatementSplitter.NONE;
+		}
+	}
+
+	/**
+	 * Record the position of the first significant unit of the statement.
+	 *
+	 * @param unitOffset
+	 *            the offset.
+	 * @param unitLine
+	 *            the line.
+	 * @param unitColumn
+	 *            the column.
+	 */
+	private void markStart(final long unitOffset, final int unitLine, final int unitColumn) {
+		if (this.startOffset < 0) {
+			this.startOffset = unitOffset;
+			this.startLine = unitLine;
+			this.startColumn = unitColumn;
+		}
+	}
+
+	/**
+	 * Same line and column numbering as SimpleCharStream.UpdateLineColumn().
+	 *
+	 * @param c
+	 *            the unit.
+	 */
+	private void updateLineColumn(final int c) {
+		if (this.utf8 && ((c & 0xC0) == 0x80)) {
+			// UTF-8 continuation byte: part of the previous character.
+			return;
+		}
+
+		this.column++;
+		if (this.prevCharIsLF) {
+			this.prevCharIsLF = false;
+			this.line++;
+			this.column = 1;
+		} else if (this.prevCharIsCR) {
+			this.prevCharIsCR = false;
+			if (c == '\n') {
+				this.prevCharIsLF = true;
+			} else {
+				this.line++;
+				this.column = 1;
+			}
+		}
+
+		if (c == '\r') {
+			this.prevCharIsCR = true;
+		} else if (c == '\n') {
+			this.prevCharIsLF = true;
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+/**
+ * Turns the first warning of a parser into a ParseException.
+ *
+ * Stateless: one instance can be shared by all the parsers.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZStrictDiagnostics implements ZDiagnostics {
+
+	@Override
+	public void undefinedFunction(final String function, final int line, final int column) throws ParseException {
+		throw new ParseException(new ZDiagnostic(ZDiagnostic.Kind.UNDEFINED_FUNCTION, function, -1, -1, line, column).getMessage());
+	}
+
+	@Override
+	public void wrongArity(final String function, final int expected, final int actual, final int line, final int column) throws ParseException {
+		throw new ParseException(new ZDiagnostic(ZDiagnostic.Kind.WRONG_ARITY, function, expected, actual, line, column).getMessage());
+	}
+
+}
@@ -19,6 +19,7 @@ package org.gibello.zql;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.gibello.zql.expression.ZExp;
@@ -39,6 +40,26 @@ public class ZqlParser {
 	 */
 	private ZqlJJParser parser = null;
 
+	/**
+	 * The optional statement cache.
+	 */
+	private ZStatementCache cache = null;
+
+	/**
+	 * The input string, as long as no statement has been read from it.
+	 */
+	private String pendingInput = null;
+
+	/**
+	 * The parser input, with its line index.
+	 */
+	private LineTrackingProvider lines = null;
+
+	/**
+	 * The receiver of the parser warnings.
+	 */
+	private ZDiagnostics diagnostics = ZDiagnostics.NONE;
+
 	/**
 	 * Create a new parser to parse SQL statements from a given input stream.
 	 *
@@ -61,6 +82,17 @@ public class ZqlParser {
 		this.initParser(in);
 	}
 
+	/**
+	 * Create a new parser to parse SQL statements from a given input provider
+	 * (see CharSequenceProvider, CharArrayProvider and MappedFileProvider).
+	 *
+	 * @param in
+	 *            The provider from which SQL statements will be read.
+	 */
+	public ZqlParser(final Provider in) {
+		this.initParser(in);
+	}
+
 	/**
 	 * Create a new parser: before use, call initParser(InputStream) to specify
 	 * an input stream for the parsing.
@@ -77,11 +109,8 @@ public class ZqlParser {
 	 * @throws IOException
 	 */
 	public void initParser(final InputStream in) throws IOException {
-		if (this.parser == null) {
-			this.parser = new ZqlJJParser(new StreamProvider(in));
-		} else {
-			this.parser.ReInit(new StreamProvider(in));
-		}
+		this.pendingInput = null;
+		this.reset(new StreamProvider(in));
 	}
 
 	/**
@@ -92,10 +121,36 @@ public class ZqlParser {
 	 * @throws IOException
 	 */
 	public void initParser(final String in) throws IOException {
+		this.pendingInput = in;
+		this.reset(new StringProvider(in));
+	}
+
+	/**
+	 * Initialize (or re-initialize) the input provider for the parser. The
+	 * input is read directly from the provider, without an intermediate
+	 * Reader or String.
+	 *
+	 * @param in
+	 *            the input provider.
+	 */
+	public void initParser(final Provider in) {
+		this.pendingInput = null;
+		this.reset(in);
+	}
+
+	/**
+	 * Point the parser to a new input.
+	 *
+	 * @param in
+	 *            the input.
+	 */
+	private void reset(final Provider in) {
+		this.lines = new LineTrackingProvider(in);
 		if (this.parser == null) {
-			this.parser = new ZqlJJParser(new StringProvider(in));
+			this.parser = new ZqlJJParser(this.lines);
+			this.parser.setDiagnostics(this.diagnostics);
 		} else {
-			this.parser.ReInit(new StringProvider(in));
+			this.parser.ReInit(this.lines);
 		}
 	}
 
@@ -111,6 +166,48 @@ public class ZqlParser {
 		ZUtils.addCustomFunction(fct, nparm);
 	}
 
+	/**
+	 * Set the receiver of the parser warnings (calls to undefined functions,
+	 * or with the wrong number of arguments). Warnings are ignored by default;
+	 * see ZCountingDiagnostics, ZCollectingDiagnostics and ZStrictDiagnostics.
+	 * Statements found in the statement cache are not checked again.
+	 *
+	 * @param diagnostics
+	 *            the warnings receiver, null to ignore the warnings.
+	 */
+	public void setDiagnostics(final ZDiagnostics diagnostics) {
+		this.diagnostics = (diagnostics == null) ? ZDiagnostics.NONE : diagnostics;
+		if (this.parser != null) {
+			this.parser.setDiagnostics(this.diagnostics);
+		}
+	}
+
+	/**
+	 * @return the receiver of the parser warnings.
+	 */
+	public ZDiagnostics getDiagnostics() {
+		return this.diagnostics;
+	}
+
+	/**
+	 * Use a statement cache: when the parser input is a string that holds a
+	 * single statement, readStatement() looks the string up in the cache before
+	 * parsing it. The cache is disabled by default.
+	 *
+	 * @param cache
+	 *            the statement cache, or null to disable caching.
+	 */
+	public void setStatementCache(final ZStatementCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the statement cache, or null if caching is disabled.
+	 */
+	public ZStatementCache getStatementCache() {
+		return this.cache;
+	}
+
 	/**
 	 * Parse an SQL Statement from the parser's input stream.
 	 *
@@ -122,7 +219,44 @@ public class ZqlParser {
 		if (this.parser == null) {
 			throw new ParseException(ZCommonConstants.PARSE_EXCEPTION);
 		}
-		return this.parser.SQLStatement();
+
+		final String sql = this.pendingInput;
+		this.pendingInput = null;
+		if ((this.cache == null) || (sql == null)) {
+			final ZStatement statement = this.parser.SQLStatement();
+			this.discardLines();
+			return statement;
+		}
+
+		ZStatement statement = this.cache.get(sql);
+		if (statement != null) {
+			// The whole input is consumed by a cached statement.
+			this.reset(new StringProvider(""));
+			return statement;
+		}
+
+		statement = this.parser.SQLStatement();
+		this.discardLines();
+		if ((statement != null) && this.isInputConsumed()) {
+			this.cache.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * Checks whether the parser has reached the end of its input.
+	 *
+	 * @return true if only the end of file is left.
+	 */
+	private boolean isInputConsumed() {
+		boolean result;
+		try {
+			result = this.parser.getToken(1).kind == ZqlJJParserConstants.EOF;
+		} catch (final TokenMgrException e) {
+			// Left for the next readStatement() call to report.
+			result = false;
+		}
+		return result;
 	}
 
 	/**
@@ -137,7 +271,114 @@ public class ZqlParser {
 		if (this.parser == null) {
 			throw new ParseException(ZCommonConstants.PARSE_EXCEPTION);
 		}
-		return this.parser.SQLStatements();
+		this.pendingInput = null;
+		final List<ZStatement> statements = this.parser.SQLStatements();
+		this.discardLines();
+		return statements;
+	}
+
+	/**
+	 * Forget the line starts of the input parsed so far, so that the line
+	 * index stays small on long inputs, whichever way they are read.
+	 */
+	private void discardLines() {
+		this.lines.discardBefore(this.parser.token.beginLine);
+	}
+
+	/**
+	 * Parse all the SQL Statements of the parser's input stream, skipping the
+	 * statements that cannot be parsed: on a syntax or lexical error, the error
+	 * is added to the given list and parsing resumes after the next ";".
+	 *
+	 * Like readStatements(), parsing stops at the end of the input or at an
+	 * EXIT or QUIT statement.
+	 *
+	 * @param errors
+	 *            the list the errors are added to, in input order.
+	 * @return the statements that could be parsed.
+	 * @throws ParseException
+	 *             if the parser has no input.
+	 */
+	public List<ZStatement> readStatements(final List<ZParseError> errors) throws ParseException {
+		if (this.parser == null) {
+			throw new ParseException(ZCommonConstants.PARSE_EXCEPTION);
+		}
+		this.pendingInput = null;
+
+		final List<ZStatement> statements = new ArrayList<ZStatement>();
+		boolean more = true;
+		while (more) {
+			try {
+				if (this.parser.getToken(1).kind == ZqlJJParserConstants.EOF) {
+					more = false;
+				} else {
+					final ZStatement statement = this.parser.SQLStatement();
+					if (statement == null) {
+						// EXIT or QUIT
+						more = false;
+					} else {
+						statements.add(statement);
+						this.discardLines();
+					}
+				}
+			} catch (final ParseException e) {
+				errors.add(ZParseError.syntaxError(e, this.lines));
+				more = this.skipStatement();
+			} catch (final TokenMgrException e) {
+				errors.add(this.lexicalError(e));
+				more = this.skipStatement();
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * Skip the tokens up to the next ";" (included).
+	 *
+	 * @return false if the end of the input was reached first.
+	 */
+	private boolean skipStatement() {
+		while (true) {
+			try {
+				final Token token = this.parser.getNextToken();
+				if (token.kind == ZqlJJParserConstants.EOF) {
+					return false;
+				} else if ("\";\"".equals(ZqlJJParserConstants.tokenImage[token.kind])) {
+					return true;
+				}
+			} catch (final TokenMgrException e) {
+				if (this.skipInvalidChar() == null) {
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Describe a lexical error, and skip the char that caused it.
+	 *
+	 * @param e
+	 *            the token manager exception.
+	 * @return the error.
+	 */
+	private ZParseError lexicalError(final TokenMgrException e) {
+		final String found = this.skipInvalidChar();
+		final SimpleCharStream in = this.parser.token_source.input_stream;
+		return ZParseError.lexicalError(e, in.getEndLine(), in.getEndColumn(), found, this.lines);
+	}
+
+	/**
+	 * Skip the char the token manager could not match (it leaves it in the
+	 * char stream).
+	 *
+	 * @return the skipped char, null at the end of the input.
+	 */
+	private String skipInvalidChar() {
+		try {
+			return String.valueOf(this.parser.token_source.input_stream.readChar());
+		} catch (final IOException e) {
+			return null;
+		}
 	}
 
 	/**
@@ -151,7 +392,10 @@ public class ZqlParser {
 		if (this.parser == null) {
 			throw new ParseException(ZCommonConstants.PARSE_EXCEPTION);
 		}
-		return this.parser.SQLExpression();
+		this.pendingInput = null;
+		final ZExp exp = this.parser.SQLExpression();
+		this.discardLines();
+		return exp;
 	}
 
 }
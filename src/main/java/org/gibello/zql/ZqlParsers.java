@@ -0,0 +1,137 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.statement.ZStatement;
+
+/**
+ * Thread-safe entry point for parsing SQL strings.
+ *
+ * A ZqlParser is stateful and can only be used by one thread at a time. The
+ * methods of this class can be called concurrently: every thread gets its own
+ * parser, created on first use and re-initialized with the new input on every
+ * call, so no parser is built per request and no lock is shared between
+ * threads.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZqlParsers {
+
+	/**
+	 * One parser per thread.
+	 */
+	private static final ThreadLocal<ZqlParser> PARSERS = new ThreadLocal<ZqlParser>() {
+		@Override
+		protected ZqlParser initialValue() {
+			return new ZqlParser();
+		}
+	};
+
+	/**
+	 * The statement cache shared by all the threads (null when disabled).
+	 */
+	private static volatile ZStatementCache statementCache = null;
+
+	/**
+	 * Default constructor.
+	 */
+	private ZqlParsers() {
+
+	}
+
+	/**
+	 * Parse a single SQL statement.
+	 *
+	 * @param sql
+	 *            the statement.
+	 * @return the parsed statement, or null for EXIT or QUIT.
+	 * @throws ParseException
+	 *             the parse exception.
+	 */
+	public static ZStatement parse(final String sql) throws ParseException {
+		final ZqlParser parser = parserFor(sql);
+		parser.setStatementCache(statementCache);
+		return parser.readStatement();
+	}
+
+	/**
+	 * Parse all the SQL statements of a script.
+	 *
+	 * @param sql
+	 *            the script.
+	 * @return the parsed statements.
+	 * @throws ParseException
+	 *             the parse exception.
+	 */
+	public static List<ZStatement> parseAll(final String sql) throws ParseException {
+		return parserFor(sql).readStatements();
+	}
+
+	/**
+	 * Parse an SQL expression (like the WHERE clause of an SQL query).
+	 *
+	 * @param sql
+	 *            the expression.
+	 * @return the parsed expression.
+	 * @throws ParseException
+	 *             the parse exception.
+	 */
+	public static ZExp parseExpression(final String sql) throws ParseException {
+		return parserFor(sql).readExpression();
+	}
+
+	/**
+	 * Share a statement cache between all the threads that call parse().
+	 *
+	 * @param cache
+	 *            the statement cache, or null to disable caching.
+	 */
+	public static void setStatementCache(final ZStatementCache cache) {
+		statementCache = cache;
+	}
+
+	/**
+	 * @return the shared statement cache, or null if caching is disabled.
+	 */
+	public static ZStatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	/**
+	 * Get the calling thread's parser, initialized with the given input.
+	 *
+	 * @param sql
+	 *            the input string.
+	 * @return the parser.
+	 */
+	private static ZqlParser parserFor(final String sql) {
+		final ZqlParser parser = PARSERS.get();
+		try {
+			parser.initParser(sql);
+		} catch (final IOException e) {
+			// Reading from a string does not perform any I/O.
+			throw new IllegalStateException(e);
+		}
+		return parser;
+	}
+
+}
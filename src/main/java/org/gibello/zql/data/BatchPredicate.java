@@ -0,0 +1,44 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+
+/**
+ * A boolean expression compiled by ZEval.compileBatch(), evaluated on a whole
+ * batch of rows at once.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public interface BatchPredicate {
+
+	/**
+	 * Select the rows of a batch on which the predicate is true.
+	 *
+	 * @param batch
+	 *            The rows on which to evaluate the predicate
+	 * @param selection
+	 *            Receives the indexes of the selected rows, in ascending
+	 *            order; at least batch.size() long
+	 * @return the number of selected rows.
+	 * @throws SQLException
+	 *             the sql exception of the first row on which eval() throws
+	 *             one.
+	 */
+	int select(ZColumnBatch batch, int[] selection) throws SQLException;
+
+}
@@ -0,0 +1,1381 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Compiles expressions into filters over column batches.
+ *
+ * Comparisons, BETWEEN, IN and arithmetic over the LONG and DOUBLE columns of
+ * the schema run as loops over the column arrays, and AND, OR and NOT combine
+ * the selection vectors; LIKE with a constant pattern loops over the column
+ * values. The other shapes are evaluated row by row, by a predicate compiled
+ * by ZEval.compile().
+ *
+ * The vectorized filters never throw, except LIKE on values that are not
+ * strings. When a filter throws, or when a numeric column has a null value,
+ * the whole batch is evaluated again row by row, so that the same exception
+ * is thrown as by eval(). With the exhaustive evaluation, the filters that may
+ * throw under an AND or an OR are evaluated on all the rows given to the AND
+ * or the OR, so that no exception is missed.
+ *
+ * Work arrays are numbered at compile time and kept in the batch, so that a
+ * compiled predicate is immutable and can be shared between threads.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZBatchCompiler {
+
+	/**
+	 * The interpreter, for its row-by-row predicates.
+	 */
+	private final ZEval eval;
+
+	/**
+	 * The schema of the batches.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * true if all the operands of AND and OR must be evaluated.
+	 */
+	private final boolean exhaustive;
+
+	/**
+	 * The numeric columns read by the vectorized filters.
+	 */
+	private final List<Integer> columns = new ArrayList<Integer>();
+
+	/**
+	 * The number of double work arrays.
+	 */
+	private int doubleRegisters = 0;
+
+	/**
+	 * The number of selection work arrays.
+	 */
+	private int selectionRegisters = 0;
+
+	/**
+	 * Create a new compiler.
+	 *
+	 * @param eval
+	 *            the interpreter.
+	 * @param schema
+	 *            the schema of the batches.
+	 */
+	ZBatchCompiler(final ZEval eval, final ZTupleSchema schema) {
+		this.eval = eval;
+		this.schema = schema;
+		this.exhaustive = eval.getEvaluation() == ZEval.Evaluation.EXHAUSTIVE;
+	}
+
+	/**
+	 * Compile a top-level boolean expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled predicate.
+	 */
+	BatchPredicate compile(final ZExp exp) {
+		final CompiledPredicate row = this.eval.compile(exp, this.schema);
+		// The column loops don't know about SQL nulls
+		final boolean rows = (this.eval.getBackend() == ZEval.Backend.INTERPRETER) || (this.eval.getNulls() == ZEval.Nulls.SQL);
+		final Filter filter = rows ? new Rows(row) : this.filter(exp);
+		final int[] numeric = new int[this.columns.size()];
+		for (int i = 0; i < numeric.length; i++) {
+			numeric[i] = this.columns.get(i);
+		}
+		return new Root(this.schema, filter, row, numeric);
+	}
+
+	/**
+	 * Compile a boolean expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the filter.
+	 */
+	private Filter filter(final ZExp exp) {
+		if (exp instanceof ZExpression) {
+			final ZExpression pred = (ZExpression) exp;
+			final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+			if ((op != null) && (pred.getOperands() != null)) {
+				final Filter filter = this.filter(pred, op, pred.nbOperands());
+				if (filter != null) {
+					return filter;
+				}
+			}
+		}
+		return new Rows(this.eval.compile(exp, this.schema));
+	}
+
+	/**
+	 * Compile an operator.
+	 *
+	 * @param pred
+	 *            the expression.
+	 * @param op
+	 *            its operator.
+	 * @param nb
+	 *            its number of operands.
+	 * @return the filter, null if not vectorized.
+	 */
+	private Filter filter(final ZExpression pred, final ZOperator op, final int nb) {
+		switch (op) {
+		case AND:
+		case OR:
+			if (nb < 1) {
+				return null;
+			}
+			final Filter[] operands = new Filter[nb];
+			for (int i = 0; i < nb; i++) {
+				operands[i] = this.filter(pred.getOperand(i));
+			}
+			if (op == ZOperator.AND) {
+				return new And(operands, this.exhaustive, this.selectionRegisters++, this.selectionRegisters++);
+			}
+			return new Or(operands, this.exhaustive, this.selectionRegisters++, this.selectionRegisters++, this.selectionRegisters++);
+		case NOT:
+			if (nb < 1) {
+				return null;
+			}
+			return new Not(this.filter(pred.getOperand(0)), this.selectionRegisters++);
+
+		case EQUALS:
+		case NOT_EQUALS:
+		case EXCLUDING:
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUALS: {
+			if (nb != ZCommonConstants.MAGIC_NUMBER_2) {
+				return null;
+			}
+			final Vector left = this.vector(pred.getOperand(0));
+			final Vector right = this.vector(pred.getOperand(1));
+			if ((left == null) || (right == null)) {
+				return null;
+			}
+			return new Comparison(op == ZOperator.EXCLUDING ? ZOperator.NOT_EQUALS : op, left, right);
+		}
+
+		case BETWEEN:
+		case NOT_BETWEEN: {
+			if (nb < ZCommonConstants.MAGIC_NUMBER_3) {
+				return null;
+			}
+			final Vector value = this.vector(pred.getOperand(0));
+			final Vector low = this.vector(pred.getOperand(1));
+			final Vector high = this.vector(pred.getOperand(2));
+			if ((value == null) || (low == null) || (high == null)) {
+				return null;
+			}
+			final Filter between = new Between(value, low, high);
+			return op == ZOperator.BETWEEN ? between : new Not(between, this.selectionRegisters++);
+		}
+
+		case IN:
+		case NOT_IN: {
+			if (nb < ZCommonConstants.MAGIC_NUMBER_2) {
+				return null;
+			}
+			final Vector value = this.vector(pred.getOperand(0));
+			final Vector[] list = new Vector[nb - 1];
+			for (int i = 1; i < nb; i++) {
+				list[i - 1] = this.vector(pred.getOperand(i));
+				if (list[i - 1] == null) {
+					return null;
+				}
+			}
+			if (value == null) {
+				return null;
+			}
+			final Filter in = new In(value, list);
+			return op == ZOperator.IN ? in : new Not(in, this.selectionRegisters++);
+		}
+
+		case LIKE:
+		case NOT_LIKE: {
+			if ((nb != ZCommonConstants.MAGIC_NUMBER_2) && (nb != ZCommonConstants.MAGIC_NUMBER_3)) {
+				return null;
+			}
+			final ZExp value = pred.getOperand(0);
+			final ZLikePattern pattern = ZPredicateCompiler.constantPattern(pred);
+			if ((pattern == null) || !(value instanceof ZConstant) || (((ZConstant) value).getType() != ZConstant.COLUMNNAME)) {
+				return null;
+			}
+			final int slot = this.schema.indexOf(((ZConstant) value).getValue());
+			if ((slot < 0) || this.schema.getColumnType(slot).isNumeric()) {
+				return null;
+			}
+			final Filter like = new Like(slot, ((ZConstant) value).getValue(), pattern);
+			return op == ZOperator.LIKE ? like : new Not(like, this.selectionRegisters++);
+		}
+
+		case IS_NULL:
+		case IS_NOT_NULL:
+			// Only constants are supported, so the result never depends on the row
+			final ZExp x = nb <= 0 ? null : pred.getOperand(0);
+			if ((x != null) && !(x instanceof ZConstant)) {
+				return null;
+			}
+			final boolean isNull = (x == null) || (((ZConstant) x).getType() == ZConstant.NULL);
+			return new Literal((op == ZOperator.IS_NULL) == isNull);
+
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Compile a numeric expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the vector, null if the value may not be a number.
+	 */
+	private Vector vector(final ZExp exp) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() == ZConstant.COLUMNNAME) {
+				final int slot = this.schema.indexOf(c.getValue());
+				if ((slot < 0) || !this.schema.getColumnType(slot).isNumeric()) {
+					return null;
+				}
+				if (!this.columns.contains(slot)) {
+					this.columns.add(slot);
+				}
+				if (this.schema.getColumnType(slot) == ZColumnType.DOUBLE) {
+					return new DoubleColumn(slot);
+				}
+				return new LongColumn(slot, this.doubleRegisters++);
+			} else if (c.getType() == ZConstant.NUMBER) {
+				try {
+					return new Constant(Double.parseDouble(c.getValue()), this.doubleRegisters++);
+				} catch (final NumberFormatException e) {
+					return null;
+				}
+			}
+			return null;
+		} else if (!(exp instanceof ZExpression)) {
+			return null;
+		}
+
+		final ZExpression arithmetic = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(arithmetic.getOperator());
+		if ((op == null) || (arithmetic.getOperands() == null) || (arithmetic.nbOperands() < 1)) {
+			return null;
+		}
+		final int nb = arithmetic.nbOperands();
+		final Vector[] operands = new Vector[nb];
+		for (int i = 0; i < nb; i++) {
+			operands[i] = this.vector(arithmetic.getOperand(i));
+			if (operands[i] == null) {
+				return null;
+			}
+		}
+		switch (op) {
+		case MINUS:
+			if (nb == 1) {
+				return new Negate(operands[0], this.doubleRegisters++);
+			}
+			return new Arithmetic(op, operands, this.doubleRegisters++);
+		case PLUS:
+		case MULTIPLICATION:
+		case SLASH:
+		case POW:
+			return new Arithmetic(op, operands, this.doubleRegisters++);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Keep the elements of a that are also in b.
+	 *
+	 * @param a
+	 *            ascending row indexes.
+	 * @param na
+	 *            the number of elements of a.
+	 * @param b
+	 *            ascending row indexes.
+	 * @param nb
+	 *            the number of elements of b.
+	 * @param out
+	 *            receives the result; may be a.
+	 * @return the number of elements of the result.
+	 */
+	private static int intersect(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+		int m = 0;
+		int j = 0;
+		for (int i = 0; (i < na) && (j < nb); i++) {
+			final int row = a[i];
+			while ((j < nb) && (b[j] < row)) {
+				j++;
+			}
+			if ((j < nb) && (b[j] == row)) {
+				out[m++] = row;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Keep the elements of a that are not in b.
+	 *
+	 * @param a
+	 *            ascending row indexes.
+	 * @param na
+	 *            the number of elements of a.
+	 * @param b
+	 *            ascending row indexes.
+	 * @param nb
+	 *            the number of elements of b.
+	 * @param out
+	 *            receives the result; may be a.
+	 * @return the number of elements of the result.
+	 */
+	private static int difference(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+		int m = 0;
+		int j = 0;
+		for (int i = 0; i < na; i++) {
+			final int row = a[i];
+			while ((j < nb) && (b[j] < row)) {
+				j++;
+			}
+			if ((j >= nb) || (b[j] != row)) {
+				out[m++] = row;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * The top-level predicate: checks the batch, and falls back to the
+	 * row-by-row evaluation when needed.
+	 */
+	private static final class Root implements BatchPredicate {
+
+		/**
+		 * The schema of the batches.
+		 */
+		private final ZTupleSchema schema;
+
+		/**
+		 * The compiled filter.
+		 */
+		private final Filter filter;
+
+		/**
+		 * The row-by-row predicate.
+		 */
+		private final CompiledPredicate row;
+
+		/**
+		 * The numeric columns read by the vectorized filters.
+		 */
+		private final int[] numeric;
+
+		/**
+		 * @param schema
+		 *            the schema of the batches.
+		 * @param filter
+		 *            the compiled filter.
+		 * @param row
+		 *            the row-by-row predicate.
+		 * @param numeric
+		 *            the numeric columns read by the vectorized filters.
+		 */
+		Root(final ZTupleSchema schema, final Filter filter, final CompiledPredicate row, final int[] numeric) {
+			this.schema = schema;
+			this.filter = filter;
+			this.row = row;
+			this.numeric = numeric;
+		}
+
+		@Override
+		public int select(final ZColumnBatch batch, final int[] selection) throws SQLException {
+			if (batch == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_NULL_ARGUMENT_OR_OPERATOR);
+			}
+			final ZTupleSchema actual = batch.getSchema();
+			if ((actual != this.schema) && !this.schema.equals(actual)) {
+				throw new SQLException(ZCommonConstants.ZEVAL_SCHEMA_MISMATCH + this.schema + ", not " + actual);
+			}
+			final int n = batch.size();
+			if (selection.length < n) {
+				throw new IllegalArgumentException("Selection of " + selection.length + " rows for a batch of " + n);
+			}
+
+			for (final int column : this.numeric) {
+				if (batch.hasNulls(column)) {
+					// The vectorized filters would read 0 instead of throwing
+					return this.rows(batch, selection);
+				}
+			}
+			for (int r = 0; r < n; r++) {
+				selection[r] = r;
+			}
+			try {
+				return this.filter.select(batch, selection, n, selection);
+			} catch (final SQLException e) {
+				return this.rows(batch, selection);
+			} catch (final RuntimeException e) {
+				return this.rows(batch, selection);
+			}
+		}
+
+		/**
+		 * Evaluate the batch row by row.
+		 *
+		 * @param batch
+		 *            the batch.
+		 * @param selection
+		 *            receives the selected rows.
+		 * @return the number of selected rows.
+		 * @throws SQLException
+		 *             the exception of the first row that throws one.
+		 */
+		private int rows(final ZColumnBatch batch, final int[] selection) throws SQLException {
+			int m = 0;
+			for (int r = 0; r < batch.size(); r++) {
+				if (this.row.test(batch.tuple(r))) {
+					selection[m++] = r;
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * A boolean expression, evaluated on a selection of rows.
+	 */
+	private abstract static class Filter {
+
+		/**
+		 * Select rows.
+		 *
+		 * @param batch
+		 *            the batch.
+		 * @param in
+		 *            the ascending indexes of the rows to test.
+		 * @param n
+		 *            the number of rows to test.
+		 * @param out
+		 *            receives the ascending indexes of the selected rows; may
+		 *            be in.
+		 * @return the number of selected rows.
+		 * @throws SQLException
+		 *             the sql exception.
+		 */
+		abstract int select(ZColumnBatch batch, int[] in, int n, int[] out) throws SQLException;
+
+		/**
+		 * @return true if the filter may throw.
+		 */
+		boolean mayThrow() {
+			return false;
+		}
+	}
+
+	/**
+	 * A boolean expression that is not vectorized: evaluated row by row.
+	 */
+	private static final class Rows extends Filter {
+
+		/**
+		 * The row-by-row predicate.
+		 */
+		private final CompiledPredicate pred;
+
+		/**
+		 * @param pred
+		 *            the row-by-row predicate.
+		 */
+		Rows(final CompiledPredicate pred) {
+			this.pred = pred;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) throws SQLException {
+			int m = 0;
+			for (int k = 0; k < n; k++) {
+				final int r = in[k];
+				if (this.pred.test(batch.tuple(r))) {
+					out[m++] = r;
+				}
+			}
+			return m;
+		}
+
+		@Override
+		boolean mayThrow() {
+			return true;
+		}
+	}
+
+	/**
+	 * A predicate that doesn't depend on the rows.
+	 */
+	private static final class Literal extends Filter {
+
+		/**
+		 * The result.
+		 */
+		private final boolean result;
+
+		/**
+		 * @param result
+		 *            the result.
+		 */
+		Literal(final boolean result) {
+			this.result = result;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) {
+			if (!this.result) {
+				return 0;
+			}
+			if (in != out) {
+				System.arraycopy(in, 0, out, 0, n);
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * AND: each operand filters the rows selected by the previous ones.
+	 */
+	private static final class And extends Filter {
+
+		/**
+		 * The operands.
+		 */
+		private final Filter[] operands;
+
+		/**
+		 * true to give all the rows to the operands that may throw.
+		 */
+		private final boolean exhaustive;
+
+		/**
+		 * Work array: the rows given to the AND.
+		 */
+		private final int all;
+
+		/**
+		 * Work array: the rows selected by an operand.
+		 */
+		private final int selected;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 * @param exhaustive
+		 *            true if all the operands must be evaluated on all the
+		 *            rows.
+		 * @param all
+		 *            work array: the rows given to the AND.
+		 * @param selected
+		 *            work array: the rows selected by an operand.
+		 */
+		And(final Filter[] operands, final boolean exhaustive, final int all, final int selected) {
+			this.operands = operands;
+			boolean mayThrow = false;
+			for (final Filter operand : operands) {
+				mayThrow |= operand.mayThrow();
+			}
+			this.exhaustive = exhaustive && mayThrow;
+			this.all = all;
+			this.selected = selected;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) throws SQLException {
+			int[] all = null;
+			if (this.exhaustive) {
+				all = batch.selectionRegister(this.all);
+				System.arraycopy(in, 0, all, 0, n);
+			}
+			if (in != out) {
+				System.arraycopy(in, 0, out, 0, n);
+			}
+			int m = n;
+			for (final Filter operand : this.operands) {
+				if (this.exhaustive && operand.mayThrow()) {
+					final int[] selected = batch.selectionRegister(this.selected);
+					final int k = operand.select(batch, all, n, selected);
+					m = intersect(out, m, selected, k, out);
+				} else {
+					m = operand.select(batch, out, m, out);
+				}
+			}
+			return m;
+		}
+
+		@Override
+		boolean mayThrow() {
+			for (final Filter operand : this.operands) {
+				if (operand.mayThrow()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * OR: each operand filters the rows that are not selected yet.
+	 */
+	private static final class Or extends Filter {
+
+		/**
+		 * The operands.
+		 */
+		private final Filter[] operands;
+
+		/**
+		 * true to give all the rows to the operands that may throw.
+		 */
+		private final boolean exhaustive;
+
+		/**
+		 * Work array: the rows given to the OR.
+		 */
+		private final int all;
+
+		/**
+		 * Work array: the rows not selected yet.
+		 */
+		private final int remaining;
+
+		/**
+		 * Work array: the rows selected by an operand.
+		 */
+		private final int selected;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 * @param exhaustive
+		 *            true if all the operands must be evaluated on all the
+		 *            rows.
+		 * @param all
+		 *            work array: the rows given to the OR.
+		 * @param remaining
+		 *            work array: the rows not selected yet.
+		 * @param selected
+		 *            work array: the rows selected by an operand.
+		 */
+		Or(final Filter[] operands, final boolean exhaustive, final int all, final int remaining, final int selected) {
+			this.operands = operands;
+			this.exhaustive = exhaustive;
+			this.all = all;
+			this.remaining = remaining;
+			this.selected = selected;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) throws SQLException {
+			final int[] all = batch.selectionRegister(this.all);
+			final int[] remaining = batch.selectionRegister(this.remaining);
+			final int[] selected = batch.selectionRegister(this.selected);
+			System.arraycopy(in, 0, all, 0, n);
+			System.arraycopy(in, 0, remaining, 0, n);
+			int left = n;
+			for (final Filter operand : this.operands) {
+				int k;
+				if (this.exhaustive && operand.mayThrow()) {
+					k = operand.select(batch, all, n, selected);
+					k = intersect(selected, k, remaining, left, selected);
+				} else {
+					k = operand.select(batch, remaining, left, selected);
+				}
+				left = difference(remaining, left, selected, k, remaining);
+			}
+			return difference(all, n, remaining, left, out);
+		}
+
+		@Override
+		boolean mayThrow() {
+			for (final Filter operand : this.operands) {
+				if (operand.mayThrow()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * NOT: the rows that the operand doesn't select.
+	 */
+	private static final class Not extends Filter {
+
+		/**
+		 * The operand.
+		 */
+		private final Filter operand;
+
+		/**
+		 * Work array: the rows selected by the operand.
+		 */
+		private final int selected;
+
+		/**
+		 * @param operand
+		 *            the operand.
+		 * @param selected
+		 *            work array: the rows selected by the operand.
+		 */
+		Not(final Filter operand, final int selected) {
+			this.operand = operand;
+			this.selected = selected;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) throws SQLException {
+			final int[] selected = batch.selectionRegister(this.selected);
+			final int k = this.operand.select(batch, in, n, selected);
+			return difference(in, n, selected, k, out);
+		}
+
+		@Override
+		boolean mayThrow() {
+			return this.operand.mayThrow();
+		}
+	}
+
+	/**
+	 * The comparison operators: accept the sign of left - right, as
+	 * ZEval.compare() does for numbers.
+	 */
+	private static final class Comparison extends Filter {
+
+		/**
+		 * The operator: EQUALS, NOT_EQUALS, GREATER_THAN...
+		 */
+		private final ZOperator op;
+
+		/**
+		 * The left operand.
+		 */
+		private final Vector left;
+
+		/**
+		 * The right operand.
+		 */
+		private final Vector right;
+
+		/**
+		 * @param op
+		 *            the operator: EQUALS, NOT_EQUALS, GREATER_THAN...
+		 * @param left
+		 *            the left operand.
+		 * @param right
+		 *            the right operand.
+		 */
+		Comparison(final ZOperator op, final Vector left, final Vector right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) {
+			final double[] l = this.left.eval(batch, in, n);
+			if (this.right instanceof Constant) {
+				return compare(this.op, l, ((Constant) this.right).value, in, n, out);
+			}
+			final double[] r = this.right.eval(batch, in, n);
+			int m = 0;
+			switch (this.op) {
+			case EQUALS:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] == 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			case GREATER_THAN:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] > 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			case GREATER_THAN_OR_EQUALS:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] >= 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			case LESS_THAN:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] < 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			case LESS_THAN_OR_EQUALS:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] <= 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			default:
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (l[row] - r[row] != 0) {
+						out[m++] = row;
+					}
+				}
+				break;
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Compare values with a constant.
+	 *
+	 * @param op
+	 *            the operator: EQUALS, NOT_EQUALS, GREATER_THAN...
+	 * @param l
+	 *            the values, by row.
+	 * @param c
+	 *            the constant.
+	 * @param in
+	 *            the rows to test.
+	 * @param n
+	 *            the number of rows to test.
+	 * @param out
+	 *            receives the selected rows; may be in.
+	 * @return the number of selected rows.
+	 */
+	private static int compare(final ZOperator op, final double[] l, final double c, final int[] in, final int n, final int[] out) {
+		int m = 0;
+		switch (op) {
+		case EQUALS:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c == 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		case GREATER_THAN:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c > 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		case GREATER_THAN_OR_EQUALS:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c >= 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		case LESS_THAN:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c < 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		case LESS_THAN_OR_EQUALS:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c <= 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		default:
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				if (l[row] - c != 0) {
+					out[m++] = row;
+				}
+			}
+			break;
+		}
+		return m;
+	}
+
+	/**
+	 * BETWEEN, borders included: value >= low AND value <= high.
+	 */
+	private static final class Between extends Filter {
+
+		/**
+		 * The tested value.
+		 */
+		private final Vector value;
+
+		/**
+		 * The lower bound.
+		 */
+		private final Vector low;
+
+		/**
+		 * The upper bound.
+		 */
+		private final Vector high;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param low
+		 *            the lower bound.
+		 * @param high
+		 *            the upper bound.
+		 */
+		Between(final Vector value, final Vector low, final Vector high) {
+			this.value = value;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) {
+			final double[] v = this.value.eval(batch, in, n);
+			int m = 0;
+			if ((this.low instanceof Constant) && (this.high instanceof Constant)) {
+				final double lo = ((Constant) this.low).value;
+				final double hi = ((Constant) this.high).value;
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					final double x = v[row];
+					if ((x - lo >= 0) && (x - hi <= 0)) {
+						out[m++] = row;
+					}
+				}
+				return m;
+			}
+			final double[] lo = this.low.eval(batch, in, n);
+			final double[] hi = this.high.eval(batch, in, n);
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				final double x = v[row];
+				if ((x - lo[row] >= 0) && (x - hi[row] <= 0)) {
+					out[m++] = row;
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * IN: value = v1 OR value = v2...
+	 */
+	private static final class In extends Filter {
+
+		/**
+		 * The tested value.
+		 */
+		private final Vector value;
+
+		/**
+		 * The list of values.
+		 */
+		private final Vector[] list;
+
+		/**
+		 * The list of values if they are all constants, else null.
+		 */
+		private final ZInList constants;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param list
+		 *            the list of values.
+		 */
+		In(final Vector value, final Vector[] list) {
+			this.value = value;
+			this.list = list;
+			Object[] values = new Object[list.length];
+			for (int i = 0; (values != null) && (i < list.length); i++) {
+				if (list[i] instanceof Constant) {
+					values[i] = ((Constant) list[i]).value;
+				} else {
+					values = null;
+				}
+			}
+			this.constants = values == null ? null : new ZInList(values);
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) {
+			final double[] v = this.value.eval(batch, in, n);
+			int m = 0;
+			if (this.constants != null) {
+				final ZInList values = this.constants;
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					if (values.containsNumber(v[row])) {
+						out[m++] = row;
+					}
+				}
+				return m;
+			}
+			final double[][] values = new double[this.list.length][];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = this.list[i].eval(batch, in, n);
+			}
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				final double x = v[row];
+				for (final double[] c : values) {
+					if (x - c[row] == 0) {
+						out[m++] = row;
+						break;
+					}
+				}
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * LIKE on an ANY or STRING column, with a constant pattern.
+	 */
+	private static final class Like extends Filter {
+
+		/**
+		 * The column index.
+		 */
+		private final int column;
+
+		/**
+		 * The column name.
+		 */
+		private final String name;
+
+		/**
+		 * The pattern.
+		 */
+		private final ZLikePattern pattern;
+
+		/**
+		 * @param column
+		 *            the column index.
+		 * @param name
+		 *            the column name.
+		 * @param pattern
+		 *            the pattern.
+		 */
+		Like(final int column, final String name, final ZLikePattern pattern) {
+			this.column = column;
+			this.name = name;
+			this.pattern = pattern;
+		}
+
+		@Override
+		int select(final ZColumnBatch batch, final int[] in, final int n, final int[] out) throws SQLException {
+			final Object[] values = batch.getValues(this.column);
+			int m = 0;
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				final Object v = values[row];
+				if (v == null) {
+					throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + this.name);
+				}
+				// Strings that look like numbers are numbers, as in ZEval
+				final Object o = ZEval.toNumber(v);
+				if (!(o instanceof String)) {
+					throw new SQLException(ZCommonConstants.ZEVAL_LIKE_LIKE_CAN_ONLY_COMPARE_STRINGS);
+				}
+				if (this.pattern.matches((String) o)) {
+					out[m++] = row;
+				}
+			}
+			return m;
+		}
+
+		@Override
+		boolean mayThrow() {
+			return true;
+		}
+	}
+
+	/**
+	 * A numeric expression, evaluated on a selection of rows.
+	 */
+	private abstract static class Vector {
+
+		/**
+		 * Evaluate the expression.
+		 *
+		 * @param batch
+		 *            the batch.
+		 * @param in
+		 *            the rows to evaluate.
+		 * @param n
+		 *            the number of rows to evaluate.
+		 * @return the values, indexed by row; only the evaluated rows are set.
+		 *         The array belongs to the batch: don't modify it.
+		 */
+		abstract double[] eval(ZColumnBatch batch, int[] in, int n);
+	}
+
+	/**
+	 * A DOUBLE column: its own array.
+	 */
+	private static final class DoubleColumn extends Vector {
+
+		/**
+		 * The column index.
+		 */
+		private final int column;
+
+		/**
+		 * @param column
+		 *            the column index.
+		 */
+		DoubleColumn(final int column) {
+			this.column = column;
+		}
+
+		@Override
+		double[] eval(final ZColumnBatch batch, final int[] in, final int n) {
+			return batch.getDoubles(this.column);
+		}
+	}
+
+	/**
+	 * A LONG column, converted to double.
+	 */
+	private static final class LongColumn extends Vector {
+
+		/**
+		 * The column index.
+		 */
+		private final int column;
+
+		/**
+		 * The work array of the values.
+		 */
+		private final int register;
+
+		/**
+		 * @param column
+		 *            the column index.
+		 * @param register
+		 *            the work array of the values.
+		 */
+		LongColumn(final int column, final int register) {
+			this.column = column;
+			this.register = register;
+		}
+
+		@Override
+		double[] eval(final ZColumnBatch batch, final int[] in, final int n) {
+			final long[] values = batch.getLongs(this.column);
+			final double[] out = batch.doubleRegister(this.register);
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				out[row] = values[row];
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * A numeric constant.
+	 */
+	private static final class Constant extends Vector {
+
+		/**
+		 * The value.
+		 */
+		private final double value;
+
+		/**
+		 * The work array of the values.
+		 */
+		private final int register;
+
+		/**
+		 * @param value
+		 *            the value.
+		 * @param register
+		 *            the work array of the values.
+		 */
+		Constant(final double value, final int register) {
+			this.value = value;
+			this.register = register;
+		}
+
+		@Override
+		double[] eval(final ZColumnBatch batch, final int[] in, final int n) {
+			final double[] out = batch.doubleRegister(this.register);
+			for (int k = 0; k < n; k++) {
+				out[in[k]] = this.value;
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * The arithmetic operators, accumulated from left to right.
+	 */
+	private static final class Arithmetic extends Vector {
+
+		/**
+		 * The operator: PLUS, MINUS, MULTIPLICATION, SLASH or POW.
+		 */
+		private final ZOperator op;
+
+		/**
+		 * The operands.
+		 */
+		private final Vector[] operands;
+
+		/**
+		 * The work array of the values.
+		 */
+		private final int register;
+
+		/**
+		 * @param op
+		 *            the operator: PLUS, MINUS, MULTIPLICATION, SLASH or POW.
+		 * @param operands
+		 *            the operands.
+		 * @param register
+		 *            the work array of the values.
+		 */
+		Arithmetic(final ZOperator op, final Vector[] operands, final int register) {
+			this.op = op;
+			this.operands = operands;
+			this.register = register;
+		}
+
+		@Override
+		double[] eval(final ZColumnBatch batch, final int[] in, final int n) {
+			final double[] out = batch.doubleRegister(this.register);
+			double[] acc = this.operands[0].eval(batch, in, n);
+			if (this.operands.length == 1) {
+				for (int k = 0; k < n; k++) {
+					final int row = in[k];
+					out[row] = acc[row];
+				}
+				return out;
+			}
+			for (int i = 1; i < this.operands.length; i++) {
+				final double[] x = this.operands[i].eval(batch, in, n);
+				switch (this.op) {
+				case PLUS:
+					for (int k = 0; k < n; k++) {
+						final int row = in[k];
+						out[row] = acc[row] + x[row];
+					}
+					break;
+				case MINUS:
+					for (int k = 0; k < n; k++) {
+						final int row = in[k];
+						out[row] = acc[row] - x[row];
+					}
+					break;
+				case MULTIPLICATION:
+					for (int k = 0; k < n; k++) {
+						final int row = in[k];
+						out[row] = acc[row] * x[row];
+					}
+					break;
+				case SLASH:
+					for (int k = 0; k < n; k++) {
+						final int row = in[k];
+						out[row] = acc[row] / x[row];
+					}
+					break;
+				default:
+					for (int k = 0; k < n; k++) {
+						final int row = in[k];
+						out[row] = Math.pow(acc[row], x[row]);
+					}
+					break;
+				}
+				acc = out;
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Unary minus.
+	 */
+	private static final class Negate extends Vector {
+
+		/**
+		 * The operand.
+		 */
+		private final Vector operand;
+
+		/**
+		 * The work array of the values.
+		 */
+		private final int register;
+
+		/**
+		 * @param operand
+		 *            the operand.
+		 * @param register
+		 *            the work array of the values.
+		 */
+		Negate(final Vector operand, final int register) {
+			this.operand = operand;
+			this.register = register;
+		}
+
+		@Override
+		double[] eval(final ZColumnBatch batch, final int[] in, final int n) {
+			final double[] x = this.operand.eval(batch, in, n);
+			final double[] out = batch.doubleRegister(this.register);
+			for (int k = 0; k < n; k++) {
+				final int row = in[k];
+				out[row] = -x[row];
+			}
+			return out;
+		}
+	}
+
+}
@@ -0,0 +1,416 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.util.Arrays;
+
+/**
+ * A batch of rows stored by column: LONG and DOUBLE columns in primitive
+ * arrays, the others in Object arrays, with a null bitmap per column.
+ *
+ * The arrays can be filled directly, then the number of rows set with
+ * setSize(); or filled row by row with add(). A batch is not thread-safe:
+ * use one per thread.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZColumnBatch {
+
+	/**
+	 * The default number of rows of a batch.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The schema of the rows.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The maximum number of rows.
+	 */
+	private final int capacity;
+
+	/**
+	 * The values of the LONG columns, null for the others.
+	 */
+	private final long[][] longs;
+
+	/**
+	 * The values of the DOUBLE columns, null for the others.
+	 */
+	private final double[][] doubles;
+
+	/**
+	 * The values of the ANY and STRING columns, null for the others.
+	 */
+	private final Object[][] values;
+
+	/**
+	 * For each column, one bit per row, set when the value is null.
+	 */
+	private final long[][] nulls;
+
+	/**
+	 * The number of rows.
+	 */
+	private int size = 0;
+
+	/**
+	 * The tuple of the rows evaluated one by one, created on demand.
+	 */
+	private ZTuple tuple;
+
+	/**
+	 * Work arrays of the compiled batch predicates, created on demand.
+	 */
+	private double[][] doubleRegisters = new double[0][];
+
+	/**
+	 * Selection vectors of the compiled batch predicates, created on demand.
+	 */
+	private int[][] selectionRegisters = new int[0][];
+
+	/**
+	 * Create a batch of DEFAULT_CAPACITY rows.
+	 *
+	 * @param schema
+	 *            the schema of the rows.
+	 */
+	public ZColumnBatch(final ZTupleSchema schema) {
+		this(schema, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a batch.
+	 *
+	 * @param schema
+	 *            the schema of the rows.
+	 * @param capacity
+	 *            the maximum number of rows.
+	 */
+	public ZColumnBatch(final ZTupleSchema schema, final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+		}
+		this.schema = schema;
+		this.capacity = capacity;
+		final int columns = schema.size();
+		this.longs = new long[columns][];
+		this.doubles = new double[columns][];
+		this.values = new Object[columns][];
+		this.nulls = new long[columns][];
+		for (int c = 0; c < columns; c++) {
+			switch (schema.getColumnType(c)) {
+			case LONG:
+				this.longs[c] = new long[capacity];
+				break;
+			case DOUBLE:
+				this.doubles[c] = new double[capacity];
+				break;
+			default:
+				this.values[c] = new Object[capacity];
+				break;
+			}
+			this.nulls[c] = new long[(capacity + Long.SIZE - 1) / Long.SIZE];
+		}
+	}
+
+	/**
+	 * @return the schema of the rows.
+	 */
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	/**
+	 * @return the maximum number of rows.
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Set the number of rows, after filling the arrays directly.
+	 *
+	 * @param size
+	 *            the number of rows.
+	 */
+	public void setSize(final int size) {
+		if ((size < 0) || (size > this.capacity)) {
+			throw new IllegalArgumentException("Size " + size + " out of [0, " + this.capacity + "]");
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Remove all the rows, and their null bits.
+	 */
+	public void clear() {
+		for (final long[] bits : this.nulls) {
+			Arrays.fill(bits, 0);
+		}
+		for (final Object[] column : this.values) {
+			if (column != null) {
+				Arrays.fill(column, 0, this.size, null);
+			}
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Append a row, converting its values to the column types.
+	 *
+	 * @param row
+	 *            a tuple with the columns of the batch, in the same order.
+	 * @return false if the batch is full.
+	 */
+	public boolean add(final ZTuple row) {
+		if (this.size >= this.capacity) {
+			return false;
+		}
+		final ZTupleSchema rowSchema = row.getSchema();
+		if ((rowSchema != this.schema) && !this.sameColumns(rowSchema)) {
+			throw new IllegalArgumentException("Row of schema " + rowSchema + " in a batch of schema " + this.schema);
+		}
+
+		final int r = this.size;
+		for (int c = 0; c < this.nulls.length; c++) {
+			final ZColumnType type = this.schema.getColumnType(c);
+			if (row.isNull(c)) {
+				this.setNull(r, c);
+			} else if ((type == ZColumnType.LONG) && (rowSchema.getColumnType(c) == ZColumnType.LONG)) {
+				this.longs[c][r] = row.getLong(c);
+			} else if ((type == ZColumnType.DOUBLE) && rowSchema.getColumnType(c).isNumeric()) {
+				this.doubles[c][r] = row.getDouble(c);
+			} else {
+				this.set(r, c, row.getAttValue(c));
+			}
+		}
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * @param other
+	 *            a schema.
+	 * @return true if the other schema has the same column names.
+	 */
+	private boolean sameColumns(final ZTupleSchema other) {
+		if (other.size() != this.schema.size()) {
+			return false;
+		}
+		for (int c = 0; c < other.size(); c++) {
+			if (!other.getColumnName(c).equals(this.schema.getColumnName(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Set a value, converted to the column type.
+	 *
+	 * @param row
+	 *            the row index.
+	 * @param column
+	 *            the column index.
+	 * @param value
+	 *            the value, may be null.
+	 */
+	public void set(final int row, final int column, final Object value) {
+		if (value == null) {
+			this.setNull(row, column);
+			return;
+		}
+		this.nulls[column][row / Long.SIZE] &= ~(1L << row);
+		switch (this.schema.getColumnType(column)) {
+		case LONG:
+			this.longs[column][row] = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+			break;
+		case DOUBLE:
+			this.doubles[column][row] = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+			break;
+		case STRING:
+			this.values[column][row] = value.toString();
+			break;
+		case ANY:
+		default:
+			this.values[column][row] = value;
+			break;
+		}
+	}
+
+	/**
+	 * Set a value to null. Writing into the arrays afterwards doesn't clear
+	 * the null bit: use set() or clear().
+	 *
+	 * @param row
+	 *            the row index.
+	 * @param column
+	 *            the column index.
+	 */
+	public void setNull(final int row, final int column) {
+		this.nulls[column][row / Long.SIZE] |= 1L << row;
+		if (this.values[column] != null) {
+			this.values[column][row] = null;
+		}
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @param column
+	 *            the column index.
+	 * @return true if the value is null.
+	 */
+	public boolean isNull(final int row, final int column) {
+		if ((this.nulls[column][row / Long.SIZE] & (1L << row)) != 0) {
+			return true;
+		}
+		return (this.values[column] != null) && (this.values[column][row] == null);
+	}
+
+	/**
+	 * @param column
+	 *            the column index.
+	 * @return true if some value of a LONG or DOUBLE column is null among the
+	 *         rows of the batch.
+	 */
+	boolean hasNulls(final int column) {
+		final long[] bits = this.nulls[column];
+		final int full = this.size / Long.SIZE;
+		for (int w = 0; w < full; w++) {
+			if (bits[w] != 0) {
+				return true;
+			}
+		}
+		final int rest = this.size % Long.SIZE;
+		return (rest != 0) && ((bits[full] & ((1L << rest) - 1)) != 0);
+	}
+
+	/**
+	 * @param column
+	 *            the index of a LONG column.
+	 * @return the array of its values, to read or fill directly.
+	 */
+	public long[] getLongs(final int column) {
+		this.checkType(column, this.longs[column] != null, ZColumnType.LONG);
+		return this.longs[column];
+	}
+
+	/**
+	 * @param column
+	 *            the index of a DOUBLE column.
+	 * @return the array of its values, to read or fill directly.
+	 */
+	public double[] getDoubles(final int column) {
+		this.checkType(column, this.doubles[column] != null, ZColumnType.DOUBLE);
+		return this.doubles[column];
+	}
+
+	/**
+	 * @param column
+	 *            the index of an ANY or STRING column.
+	 * @return the array of its values, to read or fill directly.
+	 */
+	public Object[] getValues(final int column) {
+		this.checkType(column, this.values[column] != null, ZColumnType.ANY);
+		return this.values[column];
+	}
+
+	/**
+	 * @param column
+	 *            the index of a column.
+	 * @param ok
+	 *            true if the column has the expected type.
+	 * @param expected
+	 *            the expected type.
+	 * @throws IllegalStateException
+	 *             if not ok.
+	 */
+	private void checkType(final int column, final boolean ok, final ZColumnType expected) {
+		if (!ok) {
+			throw new IllegalStateException("Column " + this.schema.getColumnName(column) + " is not a " + expected + " but a "
+					+ this.schema.getColumnType(column));
+		}
+	}
+
+	/**
+	 * Copy a row into a tuple of the schema of the batch, reused from call to
+	 * call.
+	 *
+	 * @param row
+	 *            the row index.
+	 * @return the tuple.
+	 */
+	ZTuple tuple(final int row) {
+		if (this.tuple == null) {
+			this.tuple = new ZTuple(this.schema);
+		}
+		for (int c = 0; c < this.nulls.length; c++) {
+			if (this.isNull(row, c)) {
+				this.tuple.setNull(c);
+			} else if (this.longs[c] != null) {
+				this.tuple.setLong(c, this.longs[c][row]);
+			} else if (this.doubles[c] != null) {
+				this.tuple.setDouble(c, this.doubles[c][row]);
+			} else {
+				this.tuple.setAtt(c, this.values[c][row]);
+			}
+		}
+		return this.tuple;
+	}
+
+	/**
+	 * @param register
+	 *            the index of a work array.
+	 * @return the work array, of capacity elements.
+	 */
+	double[] doubleRegister(final int register) {
+		if (register >= this.doubleRegisters.length) {
+			this.doubleRegisters = Arrays.copyOf(this.doubleRegisters, register + 1);
+		}
+		if (this.doubleRegisters[register] == null) {
+			this.doubleRegisters[register] = new double[this.capacity];
+		}
+		return this.doubleRegisters[register];
+	}
+
+	/**
+	 * @param register
+	 *            the index of a selection vector.
+	 * @return the selection vector, of capacity elements.
+	 */
+	int[] selectionRegister(final int register) {
+		if (register >= this.selectionRegisters.length) {
+			this.selectionRegisters = Arrays.copyOf(this.selectionRegisters, register + 1);
+		}
+		if (this.selectionRegisters[register] == null) {
+			this.selectionRegisters[register] = new int[this.capacity];
+		}
+		return this.selectionRegisters[register];
+	}
+
+}
@@ -28,6 +28,7 @@ import org.gibello.zql.expression.ZConstant;
 import org.gibello.zql.expression.ZExp;
 import org.gibello.zql.expression.ZExpression;
 import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.query.ZQuery;
 import org.gibello.zql.utils.ZCommonConstants;
 
 /**
@@ -38,6 +39,83 @@ import org.gibello.zql.utils.ZCommonConstants;
  */
 public class ZEval {
 
+	/**
+	 * The ways compile() can turn an expression into a CompiledPredicate.
+	 */
+	public enum Backend {
+		/**
+		 * No compilation: the predicate calls eval().
+		 */
+		INTERPRETER,
+		/**
+		 * A tree of operator-specialized nodes.
+		 */
+		TREE,
+		/**
+		 * A java.lang.invoke.MethodHandle chain, that the JIT can inline as a
+		 * whole.
+		 */
+		METHOD_HANDLES
+	}
+
+	/**
+	 * The ways AND and OR evaluate their operands.
+	 */
+	public enum Evaluation {
+		/**
+		 * All the operands are evaluated, so that any of them can throw.
+		 */
+		EXHAUSTIVE,
+		/**
+		 * Evaluation stops at the first false AND operand, or the first true
+		 * OR operand.
+		 */
+		SHORT_CIRCUIT,
+		/**
+		 * As SHORT_CIRCUIT, but the predicates built by the TREE backend
+		 * also reorder their operands, to run first the cheapest ones that
+		 * most often decide the result.
+		 */
+		ADAPTIVE
+	}
+
+	/**
+	 * The ways null column values are evaluated.
+	 */
+	public enum Nulls {
+		/**
+		 * A null column value can't be evaluated: it fails as an unknown
+		 * column, and IS NULL only accepts constants.
+		 */
+		UNKNOWN_COLUMN,
+		/**
+		 * SQL semantics: a comparison with a null value is unknown, so that
+		 * neither the comparison nor its negation is true, and IS [NOT] NULL
+		 * tells if a value is null.
+		 */
+		SQL
+	}
+
+	/**
+	 * The backend used by compile().
+	 */
+	private Backend backend = Backend.TREE;
+
+	/**
+	 * How AND and OR evaluate their operands.
+	 */
+	private Evaluation evaluation = Evaluation.EXHAUSTIVE;
+
+	/**
+	 * How null column values are evaluated.
+	 */
+	private Nulls nulls = Nulls.UNKNOWN_COLUMN;
+
+	/**
+	 * Runs the subqueries of IN (subquery), null if none.
+	 */
+	private ZSubQueryResolver subQueryResolver = null;
+
 	/**
 	 * Default constructor.
 	 */
@@ -45,6 +123,87 @@ public class ZEval {
 
 	}
 
+	/**
+	 * Choose how compile() turns expressions into predicates.
+	 *
+	 * @param backend
+	 *            the backend, TREE by default.
+	 */
+	public void setBackend(final Backend backend) {
+		this.backend = backend;
+	}
+
+	/**
+	 * @return the backend used by compile().
+	 */
+	public Backend getBackend() {
+		return this.backend;
+	}
+
+	/**
+	 * Choose how AND and OR evaluate their operands, in eval() and in the
+	 * predicates built by compile().
+	 *
+	 * Whatever the choice, the results are the same, and so are the
+	 * exceptions that get thrown: when a short-circuited evaluation fails,
+	 * the expression is evaluated again with all its operands, to throw the
+	 * exception EXHAUSTIVE would throw. However, an operand that is skipped
+	 * can't throw at all.
+	 *
+	 * @param evaluation
+	 *            the evaluation, EXHAUSTIVE by default.
+	 */
+	public void setEvaluation(final Evaluation evaluation) {
+		this.evaluation = evaluation;
+	}
+
+	/**
+	 * @return how AND and OR evaluate their operands.
+	 */
+	public Evaluation getEvaluation() {
+		return this.evaluation;
+	}
+
+	/**
+	 * Choose how null column values are evaluated, in eval(), evalExpValue()
+	 * and in the predicates built by compile() and compileBatch().
+	 *
+	 * With SQL nulls, evalExpValue() returns null for a null column, and for
+	 * an arithmetic expression over a null value.
+	 *
+	 * @param nulls
+	 *            the null semantics, UNKNOWN_COLUMN by default.
+	 */
+	public void setNulls(final Nulls nulls) {
+		this.nulls = nulls;
+	}
+
+	/**
+	 * @return how null column values are evaluated.
+	 */
+	public Nulls getNulls() {
+		return this.nulls;
+	}
+
+	/**
+	 * Choose how the subqueries of IN (subquery) are run. Without a resolver,
+	 * evaluating such a predicate throws an SQLException.
+	 *
+	 * @param subQueryResolver
+	 *            the resolver, null by default.
+	 */
+	public void setSubQueryResolver(final ZSubQueryResolver subQueryResolver) {
+		this.subQueryResolver = subQueryResolver;
+	}
+
+	/**
+	 * @return how the subqueries of IN (subquery) are run, null if they are
+	 *         not supported.
+	 */
+	public ZSubQueryResolver getSubQueryResolver() {
+		return this.subQueryResolver;
+	}
+
 	// FIXME extract to proper test module!!!
 	// test
 	public static void main(String args[]) {
@@ -88,6 +247,58 @@ public class ZEval {
 	 *             the sql exception.
 	 */
 	public final boolean eval(final ZTuple tuple, final ZExp exp) throws SQLException {
+		if (this.evaluation == Evaluation.EXHAUSTIVE) {
+			return this.evalPredicate(tuple, exp, false);
+		}
+		// Skipping operands may change which exception comes first
+		try {
+			return this.evalPredicate(tuple, exp, true);
+		} catch (final SQLException e) {
+			return this.evalPredicate(tuple, exp, false);
+		} catch (final RuntimeException e) {
+			return this.evalPredicate(tuple, exp, false);
+		}
+	}
+
+	/**
+	 * Evaluate a boolean expression.
+	 *
+	 * @param tuple
+	 *            The tuple on which to evaluate the expression
+	 * @param exp
+	 *            The expression to evaluate
+	 * @param shortCircuit
+	 *            true to stop evaluating AND and OR operands once the result
+	 *            is known.
+	 * @return true if the expression evaluate to true for this tuple, false if
+	 *         not.
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	final boolean evalPredicate(final ZTuple tuple, final ZExp exp, final boolean shortCircuit) throws SQLException {
+		return this.evalPredicate(tuple, exp, shortCircuit, true);
+	}
+
+	/**
+	 * Evaluate a boolean expression, or its negation: NOT is applied to the
+	 * operands of AND and OR, down to the other operators, so that a
+	 * comparison with a null value is false whether negated or not.
+	 *
+	 * @param tuple
+	 *            The tuple on which to evaluate the expression
+	 * @param exp
+	 *            The expression to evaluate
+	 * @param shortCircuit
+	 *            true to stop evaluating AND and OR operands once the result
+	 *            is known.
+	 * @param positive
+	 *            false to evaluate NOT exp.
+	 * @return true if the expression, or its negation, evaluates to true for
+	 *         this tuple, false if not.
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	private boolean evalPredicate(final ZTuple tuple, final ZExp exp, final boolean shortCircuit, final boolean positive) throws SQLException {
 
 		if ((tuple == null) || (exp == null)) {
 			throw new SQLException(ZCommonConstants.ZEVAL_NULL_ARGUMENT_OR_OPERATOR);
@@ -98,24 +309,97 @@ public class ZEval {
 		}
 
 		final ZExpression pred = (ZExpression) exp;
-		final String op = pred.getOperator();
+		final ZOperator op = ZOperator.toEnum(pred.getOperator());
 
-		switch (ZOperator.toEnum(op)) {
+		switch (op) {
 		case AND:
-			boolean and = true;
-			for (int i = 0; i < pred.nbOperands(); i++) {
-				and &= this.eval(tuple, pred.getOperand(i));
-			}
-			return and;
 		case OR:
-			boolean or = false;
-			for (int i = 0; i < pred.nbOperands(); i++) {
-				or |= this.eval(tuple, pred.getOperand(i));
+			// NOT (a AND b) is NOT a OR NOT b, NOT (a OR b) is NOT a AND NOT b
+			final boolean and = (op == ZOperator.AND) == positive;
+			boolean result = and;
+			for (int i = 0; (i < pred.nbOperands()) && ((result == and) || !shortCircuit); i++) {
+				final boolean operand = this.evalPredicate(tuple, pred.getOperand(i), shortCircuit, positive);
+				result = and ? result & operand : result | operand;
 			}
-			return or;
+			return result;
 		case NOT:
-			return !this.eval(tuple, pred.getOperand(0));
+			return this.evalPredicate(tuple, pred.getOperand(0), shortCircuit, !positive);
+		default:
+			if (this.nulls == Nulls.SQL) {
+				return this.evalSqlOperator(tuple, pred, op, shortCircuit, positive);
+			}
+			return this.evalOperator(tuple, pred, op, shortCircuit) == positive;
+		}
+	}
 
+	/**
+	 * Evaluate an operator other than AND, OR and NOT, or its negation, with
+	 * SQL nulls: false if unknown.
+	 *
+	 * @param tuple
+	 *            the tuple.
+	 * @param pred
+	 *            the expression.
+	 * @param op
+	 *            its operator.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element of IN.
+	 * @param positive
+	 *            false to evaluate NOT pred.
+	 * @return true if the expression, or its negation, is true.
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	private boolean evalSqlOperator(final ZTuple tuple, final ZExpression pred, final ZOperator op, final boolean shortCircuit, final boolean positive)
+			throws SQLException {
+		switch (op) {
+		case IS_NULL:
+		case IS_NOT_NULL:
+			// Never unknown
+			return this.evalOperator(tuple, pred, op, shortCircuit) == positive;
+		case IN:
+		case NOT_IN:
+			final ZQuery query = subQuery(pred);
+			if (query == null) {
+				break;
+			}
+			if (ZSqlNulls.hasNull(tuple, pred.getOperand(0))) {
+				return false;
+			}
+			final Object v = this.evalExpValue(tuple, pred.getOperand(0));
+			final ZInList list = ZInList.resolve(this.subQueryResolver, query);
+			final boolean in = list.contains(v, shortCircuit);
+			// A null in the result may be equal to the value: NOT IN is unknown
+			return (op == ZOperator.IN) == positive ? in : !in && !list.hasNulls();
+		default:
+			break;
+		}
+		if (ZSqlNulls.hasNull(tuple, pred)) {
+			// Unknown, unless a bound or an element that is not null decides
+			final ZExp expanded = ZSqlNulls.expand(pred);
+			return (expanded != null) && this.evalPredicate(tuple, expanded, shortCircuit, positive);
+		}
+		return this.evalOperator(tuple, pred, op, shortCircuit) == positive;
+	}
+
+	/**
+	 * Evaluate an operator other than AND, OR and NOT.
+	 *
+	 * @param tuple
+	 *            the tuple.
+	 * @param pred
+	 *            the expression.
+	 * @param op
+	 *            its operator.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element of IN, or below the
+	 *            lower bound of BETWEEN.
+	 * @return the result.
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	private boolean evalOperator(final ZTuple tuple, final ZExpression pred, final ZOperator op, final boolean shortCircuit) throws SQLException {
+		switch (op) {
 		case EQUALS:
 			return evalCmp(tuple, pred.getOperands()) == 0;
 		case NOT_EQUALS:
@@ -134,64 +418,103 @@ public class ZEval {
 			return evalCmp(tuple, pred.getOperands()) <= 0;
 
 		case BETWEEN:
-		case NOT_BETWEEN: {
-
-			// Between: borders included
-			final ZExpression newexp = new ZExpression(ZOperator.AND.symbol(), new ZExpression(ZOperator.GREATER_THAN_OR_EQUALS.symbol(), pred.getOperand(0), pred.getOperand(1)),
-					new ZExpression(ZOperator.LESS_THAN_OR_EQUALS.symbol(), pred.getOperand(0), pred.getOperand(2)));
+		case NOT_BETWEEN:
+			final boolean between = this.evalBetween(tuple, pred, shortCircuit);
+			return op == ZOperator.BETWEEN ? between : !between;
 
-			if (op.equals(ZOperator.NOT_BETWEEN.symbol())) {
-				return !this.eval(tuple, newexp);
-			} else {
-				return this.eval(tuple, newexp);
-			}
-
-		}
 		case LIKE:
 		case NOT_LIKE:
 			final boolean like = this.evalLike(tuple, pred.getOperands());
-			return op.equals(ZOperator.LIKE.symbol()) ? like : !like;
+			return op == ZOperator.LIKE ? like : !like;
 
 		case IN:
 		case NOT_IN: {
 
-			final ZExpression newexp = new ZExpression(ZOperator.OR.symbol());
-
-			for (int i = 1; i < pred.nbOperands(); i++) {
-				newexp.addOperand(new ZExpression(ZOperator.EQUALS.symbol(), pred.getOperand(0), pred.getOperand(i)));
-			}
-
-			if (op.equals(ZOperator.NOT_IN.symbol())) {
-				return !this.eval(tuple, newexp);
-			} else {
-				return this.eval(tuple, newexp);
-			}
+			final boolean in = this.evalIn(tuple, pred, shortCircuit);
+			return op == ZOperator.IN ? in : !in;
 
 		}
-		case IS_NULL: {
-
-			if ((pred.nbOperands() <= 0) || (pred.getOperand(0) == null)) {
-				return true;
-			}
-			final ZExp x = pred.getOperand(0);
-			if (x instanceof ZConstant) {
-				return ((ZConstant) x).getType() == ZConstant.NULL;
-			} else {
-				throw new SQLException(ZCommonConstants.ZEVAL_CAN_T_EVAL_IS_NOT_NULL);
-			}
-
+		case IS_NULL:
+			return this.evalIsNull(tuple, pred);
+		case IS_NOT_NULL:
+			return !this.evalIsNull(tuple, pred);
+		default:
+			throw new SQLException(ZCommonConstants.ZEVAL_UNKNOWN_OPERATOR + pred.getOperator());
 		}
-		case IS_NOT_NULL: {
 
-			final ZExpression x = new ZExpression(ZOperator.IS_NULL.symbol());
-			x.setOperands(pred.getOperands());
-			return !this.eval(tuple, x);
+	}
 
-		}
+	/**
+	 * Compile a boolean expression into a tree of operator-specialized nodes,
+	 * so that it can be tested on many tuples without interpreting the
+	 * expression again. The compiled predicate gives the same results, and
+	 * throws the same exceptions, as eval().
+	 *
+	 * The predicate is immutable and can be shared between threads. It takes a
+	 * snapshot of the expression: compile it again if the expression changes.
+	 * The lists of constants of IN are indexed at compile time, and the
+	 * subqueries of IN are run once, when first needed.
+	 *
+	 * @param exp
+	 *            The expression to compile
+	 * @return the compiled predicate.
+	 * @see #setBackend(Backend)
+	 */
+	public CompiledPredicate compile(final ZExp exp) {
+		return this.compile(exp, null);
+	}
+
+	/**
+	 * Compile a boolean expression for the tuples of a given schema: the
+	 * column names are resolved once, and the predicate reads the values by
+	 * index. Testing a tuple of another schema throws an SQLException.
+	 *
+	 * A column that is not in the schema is kept by name, and fails as
+	 * unknown when evaluated, as in eval().
+	 *
+	 * @param exp
+	 *            The expression to compile
+	 * @param schema
+	 *            The schema of the tuples, null to resolve the columns by
+	 *            name for each tuple
+	 * @return the compiled predicate.
+	 */
+	public CompiledPredicate compile(final ZExp exp, final ZTupleSchema schema) {
+		final CompiledPredicate pred;
+		switch (this.backend) {
+		case INTERPRETER:
+			pred = new ZPredicateCompiler(this, this.evaluation, null).interpreted(exp);
+			break;
+		case METHOD_HANDLES:
+			pred = new ZMethodHandleCompiler(this, this.evaluation, schema).compile(exp);
+			break;
+		case TREE:
 		default:
-			throw new SQLException(ZCommonConstants.ZEVAL_UNKNOWN_OPERATOR + op);
+			pred = new ZPredicateCompiler(this, this.evaluation, schema).compile(exp);
+			break;
 		}
+		return schema == null ? pred : ZPredicateCompiler.checkSchema(schema, pred);
+	}
 
+	/**
+	 * Compile a boolean expression for the column batches of a given schema.
+	 * Comparisons, BETWEEN, IN and arithmetic over the LONG and DOUBLE columns
+	 * are evaluated as loops over the column arrays, and AND, OR and NOT
+	 * combine the selected rows; the other shapes are evaluated row by row,
+	 * with the current backend. The selected rows, and the exceptions, are the
+	 * same as with eval() on each row. With SQL nulls, the whole expression is
+	 * evaluated row by row.
+	 *
+	 * The predicate is immutable and can be shared between threads.
+	 *
+	 * @param exp
+	 *            The expression to compile
+	 * @param schema
+	 *            The schema of the batches
+	 * @return the compiled predicate.
+	 */
+	public BatchPredicate compileBatch(final ZExp exp, final ZTupleSchema schema) {
+		return new ZBatchCompiler(this, schema).compile(exp);
 	}
 
 	/**
@@ -214,9 +537,25 @@ public class ZEval {
 			throw new SQLException(ZCommonConstants.ZEVAL_CMP_TRYING_TO_COMPARE_MORE_THAN_TWO_VALUES);
 		}
 
-		Object o1 = this.evalExpValue(tuple, operands.get(0));
-		Object o2 = this.evalExpValue(tuple, operands.get(1));
+		final Object o1 = this.evalExpValue(tuple, operands.get(0));
+		final Object o2 = this.evalExpValue(tuple, operands.get(1));
+
+		return compare(o1, o2);
+	}
 
+	/**
+	 * Compares two evaluated values: strings are only tested for equality,
+	 * numbers are subtracted.
+	 *
+	 * @param o1
+	 *            the left value.
+	 * @param o2
+	 *            the right value.
+	 * @return 0 if equal, the sign telling the order otherwise.
+	 * @throws SQLException
+	 *             if the values can't be compared.
+	 */
+	static double compare(final Object o1, final Object o2) throws SQLException {
 		if ((o1 instanceof String) || (o2 instanceof String)) {
 			return o1.equals(o2) ? 0 : -1;
 		}
@@ -229,7 +568,151 @@ public class ZEval {
 	}
 
 	/**
-	 * evalLike evaluates the LIKE operand.
+	 * evalBetween evaluates the BETWEEN operand, borders included: value >= low
+	 * AND value <= high. Numeric constants and typed numeric columns are
+	 * compared without boxing.
+	 *
+	 * @param tuple
+	 *            the tuple to evaluate
+	 * @param pred
+	 *            the BETWEEN expression
+	 * @param shortCircuit
+	 *            true to skip the upper bound when below the lower bound.
+	 * @return true-> the value is between the bounds
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	private boolean evalBetween(final ZTuple tuple, final ZExpression pred, final boolean shortCircuit) throws SQLException {
+		final ZExp value = pred.getOperand(0);
+		final ZExp low = pred.getOperand(1);
+		final ZExp high = pred.getOperand(2);
+
+		if (isPrimitive(tuple, value) && isPrimitive(tuple, low) && isPrimitive(tuple, high)) {
+			final double v = primitive(tuple, value);
+			return (v - primitive(tuple, low) >= 0) & (v - primitive(tuple, high) <= 0);
+		}
+
+		final Object v = this.evalExpValue(tuple, value);
+		final boolean above = compare(v, this.evalExpValue(tuple, low)) >= 0;
+		if (!above && shortCircuit) {
+			return false;
+		}
+		final boolean below = compare(v, this.evalExpValue(tuple, high)) <= 0;
+		return above & below;
+	}
+
+	/**
+	 * @param tuple
+	 *            the tuple.
+	 * @param exp
+	 *            an operand.
+	 * @return true if the operand is a valid numeric constant, or a typed
+	 *         numeric column that is not null.
+	 */
+	private static boolean isPrimitive(final ZTuple tuple, final ZExp exp) {
+		if (!(exp instanceof ZConstant)) {
+			return false;
+		}
+		final ZConstant c = (ZConstant) exp;
+		if (c.getType() == ZConstant.NUMBER) {
+			return c.getNumber() != null;
+		}
+		if (c.getType() != ZConstant.COLUMNNAME) {
+			return false;
+		}
+		final int slot = tuple.getSchema().indexOf(c.getValue());
+		return (slot >= 0) && tuple.getSchema().getColumnType(slot).isNumeric() && !tuple.isNull(slot);
+	}
+
+	/**
+	 * @param tuple
+	 *            the tuple.
+	 * @param exp
+	 *            an operand accepted by isPrimitive().
+	 * @return its value, as evalExpValue() would return it, unboxed.
+	 */
+	private static double primitive(final ZTuple tuple, final ZExp exp) {
+		final ZConstant c = (ZConstant) exp;
+		if (c.getType() == ZConstant.NUMBER) {
+			return c.getNumber();
+		}
+		return tuple.getDouble(tuple.getSchema().indexOf(c.getValue()));
+	}
+
+	/**
+	 * evalIsNull evaluates the IS NULL operand: only constants are supported,
+	 * unless the nulls have the SQL semantics.
+	 *
+	 * @param tuple
+	 *            the tuple to evaluate
+	 * @param pred
+	 *            the IS NULL or IS NOT NULL expression
+	 * @return true-> the operand is null
+	 * @throws SQLException
+	 *             if the operand is not a constant, or with SQL nulls, if a
+	 *             column is unknown.
+	 */
+	private boolean evalIsNull(final ZTuple tuple, final ZExpression pred) throws SQLException {
+		if ((pred.nbOperands() <= 0) || (pred.getOperand(0) == null)) {
+			return true;
+		}
+		final ZExp x = pred.getOperand(0);
+		if (this.nulls == Nulls.SQL) {
+			return new ZSqlNulls(x, null).isNull(tuple);
+		}
+		if (x instanceof ZConstant) {
+			return ((ZConstant) x).getType() == ZConstant.NULL;
+		} else {
+			throw new SQLException(ZCommonConstants.ZEVAL_CAN_T_EVAL_IS_NOT_NULL);
+		}
+	}
+
+	/**
+	 * evalIn evaluates the IN operand: value = v1 OR value = v2..., without
+	 * building that expression. The tested value is evaluated once.
+	 *
+	 * @param tuple
+	 *            the tuple to evaluate
+	 * @param pred
+	 *            the IN expression
+	 * @param shortCircuit
+	 *            true to stop at the first equal element.
+	 * @return true-> the value is in the list
+	 * @throws SQLException
+	 *             the sql exception.
+	 */
+	private boolean evalIn(final ZTuple tuple, final ZExpression pred, final boolean shortCircuit) throws SQLException {
+		final int nb = pred.nbOperands();
+		if (nb < ZCommonConstants.MAGIC_NUMBER_2) {
+			return false;
+		}
+		final Object v = this.evalExpValue(tuple, pred.getOperand(0));
+		final ZQuery query = subQuery(pred);
+		if (query != null) {
+			return ZInList.resolve(this.subQueryResolver, query).contains(v, shortCircuit);
+		}
+		boolean in = false;
+		for (int i = 1; (i < nb) && (!in || !shortCircuit); i++) {
+			in |= compare(v, this.evalExpValue(tuple, pred.getOperand(i))) == 0;
+		}
+		return in;
+	}
+
+	/**
+	 * @param in
+	 *            an IN expression.
+	 * @return its subquery, null if it has a list of values.
+	 */
+	static ZQuery subQuery(final ZExpression in) {
+		if ((in.nbOperands() == ZCommonConstants.MAGIC_NUMBER_2) && (in.getOperand(1) instanceof ZQuery)) {
+			return (ZQuery) in.getOperand(1);
+		}
+		return null;
+	}
+
+	/**
+	 * evalLike evaluates the LIKE operand, with an optional ESCAPE character
+	 * as third operand.
 	 *
 	 * @param tuple
 	 *            the tuple to evaluate
@@ -243,27 +726,58 @@ public class ZEval {
 		if (operands.size() < ZCommonConstants.MAGIC_NUMBER_2) {
 			throw new SQLException(ZCommonConstants.ZEVAL_CMP_TRYING_TO_COMPARE_LESS_THAN_TWO_VALUES);
 		}
-		if (operands.size() > ZCommonConstants.MAGIC_NUMBER_2) {
+		if (operands.size() > ZCommonConstants.MAGIC_NUMBER_3) {
 			throw new SQLException(ZCommonConstants.ZEVAL_CMP_TRYING_TO_COMPARE_MORE_THAN_TWO_VALUES);
 		}
 
 		final Object o1 = evalExpValue(tuple, operands.get(0));
 		final Object o2 = evalExpValue(tuple, operands.get(1));
+		if (operands.size() == ZCommonConstants.MAGIC_NUMBER_3) {
+			return like(o1, o2, evalExpValue(tuple, operands.get(2)));
+		}
+		return like(o1, o2);
+	}
 
+	/**
+	 * Matches an evaluated value against an evaluated LIKE pattern.
+	 *
+	 * @param o1
+	 *            the value.
+	 * @param o2
+	 *            the pattern.
+	 * @return true-> the value matches
+	 * @throws SQLException
+	 *             if one of the values is not a string.
+	 */
+	static boolean like(final Object o1, final Object o2) throws SQLException {
 		if ((o1 instanceof String) && (o2 instanceof String)) {
-			final String s1 = (String) o1;
-			final String s2 = (String) o2;
-			if (s2.startsWith(ZCommonConstants.PREFIX)) {
-				return s1.endsWith(s2.substring(1));
-			} else if (s2.endsWith(ZCommonConstants.PREFIX)) {
-				return s1.startsWith(s2.substring(0, s2.length() - 1));
-			} else {
-				return s1.equalsIgnoreCase(s2);
-			}
+			return ZLikePattern.of((String) o2, null).matches((String) o1);
 		} else {
 			throw new SQLException(ZCommonConstants.ZEVAL_LIKE_LIKE_CAN_ONLY_COMPARE_STRINGS);
 		}
+	}
 
+	/**
+	 * Matches an evaluated value against an evaluated LIKE pattern, with an
+	 * escape character.
+	 *
+	 * @param o1
+	 *            the value.
+	 * @param o2
+	 *            the pattern.
+	 * @param o3
+	 *            the escape character.
+	 * @return true-> the value matches
+	 * @throws SQLException
+	 *             if one of the values is not a string, or if the escape
+	 *             character is invalid.
+	 */
+	static boolean like(final Object o1, final Object o2, final Object o3) throws SQLException {
+		if ((o1 instanceof String) && (o2 instanceof String) && (o3 instanceof String)) {
+			return ZLikePattern.of((String) o2, (String) o3).matches((String) o1);
+		} else {
+			throw new SQLException(ZCommonConstants.ZEVAL_LIKE_LIKE_CAN_ONLY_COMPARE_STRINGS);
+		}
 	}
 
 	/**
@@ -358,7 +872,7 @@ public class ZEval {
 	 *            The tuple on which to evaluate the expression
 	 * @param exp
 	 *            The expression to evaluate
-	 * @return The expression's value
+	 * @return The expression's value, null if it is null with SQL nulls
 	 * @throws SQLException
 	 *             the sql exception
 	 */
@@ -375,18 +889,19 @@ public class ZEval {
 			case ZConstant.COLUMNNAME:
 
 				final Object o1 = tuple.getAttValue(c.getValue());
+				if ((o1 == null) && (this.nulls == Nulls.SQL) && tuple.isAttribute(c.getValue())) {
+					return null;
+				}
 				if (o1 == null) {
 					throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + c.getValue());
 				}
-				try {
-					o2 = new Double(o1.toString());
-				} catch (final NumberFormatException e) {
-					o2 = o1;
-				}
+				o2 = toNumber(o1);
 				break;
 
 			case ZConstant.NUMBER:
-				o2 = new Double(c.getValue());
+				final Double number = c.getNumber();
+				// Invalid numbers throw as before
+				o2 = number != null ? number : Double.valueOf(c.getValue());
 				break;
 
 			case ZConstant.STRING:
@@ -395,9 +910,62 @@ public class ZEval {
 				break;
 			}
 		} else if (exp instanceof ZExpression) {
+			if ((this.nulls == Nulls.SQL) && ZSqlNulls.hasNull(tuple, exp)) {
+				return null;
+			}
 			o2 = this.evalNumericExp(tuple, (ZExpression) exp);
 		}
 		return o2;
 	}
 
+	/**
+	 * Convert a column value to a Double when it looks like a number.
+	 *
+	 * @param o
+	 *            the column value, not null.
+	 * @return the Double value, or the column value itself.
+	 */
+	static Object toNumber(final Object o) {
+		if (o instanceof Double) {
+			return o;
+		}
+		if ((o instanceof Long) || (o instanceof Integer) || (o instanceof Short) || (o instanceof Byte)) {
+			// Same result as parsing their string, without the string
+			return Double.valueOf(((Number) o).doubleValue());
+		}
+		final String s = o.toString();
+		if (!mayBeNumber(s)) {
+			// Most strings are rejected here, without the cost of a NumberFormatException
+			return o;
+		}
+		try {
+			return Double.valueOf(s);
+		} catch (final NumberFormatException e) {
+			return o;
+		}
+	}
+
+	/**
+	 * Quick check of the first character that Double.valueOf() would read.
+	 *
+	 * @param s
+	 *            the string.
+	 * @return false if the string is certainly not a number.
+	 */
+	private static boolean mayBeNumber(final String s) {
+		final int length = s.length();
+		int i = 0;
+		while ((i < length) && (s.charAt(i) <= ' ')) {
+			i++;
+		}
+		if ((i < length) && ((s.charAt(i) == '+') || (s.charAt(i) == '-'))) {
+			i++;
+		}
+		if (i >= length) {
+			return false;
+		}
+		final char c = s.charAt(i);
+		return ((c >= '0') && (c <= '9')) || (c == '.') || (c == 'N') || (c == 'I');
+	}
+
 }
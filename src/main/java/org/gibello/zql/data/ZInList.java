@@ -0,0 +1,240 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The evaluated elements of an IN list, indexed once: strings in a hash set,
+ * numbers in a sorted array searched by dichotomy. Membership gives the same
+ * result as comparing the value with each element through ZEval.compare().
+ *
+ * Immutable: one instance can be shared by all the threads.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZInList {
+
+	/**
+	 * The elements, in list order.
+	 */
+	private final Object[] elements;
+
+	/**
+	 * The string elements.
+	 */
+	private final Set<String> strings;
+
+	/**
+	 * The finite numeric elements, sorted, without -0.0 and duplicates.
+	 */
+	private final double[] numbers;
+
+	/**
+	 * true if some elements are neither strings nor numbers: they are then
+	 * compared one by one, as they may throw.
+	 */
+	private final boolean mixed;
+
+	/**
+	 * true if null elements were left out.
+	 */
+	private final boolean nulls;
+
+	/**
+	 * @param elements
+	 *            the evaluated elements, in list order, not null.
+	 */
+	ZInList(final Object[] elements) {
+		this(elements, false);
+	}
+
+	/**
+	 * @param elements
+	 *            the evaluated elements, in list order, not null.
+	 * @param nulls
+	 *            true if null elements were left out.
+	 */
+	ZInList(final Object[] elements, final boolean nulls) {
+		this.nulls = nulls;
+		this.elements = elements.clone();
+		this.strings = new HashSet<String>();
+		final double[] values = new double[elements.length];
+		int n = 0;
+		boolean others = false;
+		for (final Object element : elements) {
+			if (element instanceof String) {
+				this.strings.add((String) element);
+			} else if (element instanceof Number) {
+				final double d = ((Number) element).doubleValue();
+				// x - d == 0 never holds for infinite or NaN elements
+				if (!Double.isInfinite(d) && !Double.isNaN(d)) {
+					values[n++] = d + 0.0;
+				}
+			} else {
+				others = true;
+			}
+		}
+		Arrays.sort(values, 0, n);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if ((m == 0) || (values[i] != values[m - 1])) {
+				values[m++] = values[i];
+			}
+		}
+		this.numbers = Arrays.copyOf(values, m);
+		this.mixed = others;
+	}
+
+	/**
+	 * Test a value against the elements.
+	 *
+	 * @param value
+	 *            the evaluated value.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element, when the elements
+	 *            are compared one by one.
+	 * @return true if an element is equal to the value.
+	 * @throws SQLException
+	 *             if the value can't be compared with an element.
+	 */
+	boolean contains(final Object value, final boolean shortCircuit) throws SQLException {
+		if (!this.mixed) {
+			if (value instanceof String) {
+				return this.strings.contains(value);
+			}
+			if (value instanceof Number) {
+				return this.containsNumber(((Number) value).doubleValue());
+			}
+		}
+		boolean in = false;
+		for (int i = 0; (i < this.elements.length) && (!in || !shortCircuit); i++) {
+			in |= ZEval.compare(value, this.elements[i]) == 0;
+		}
+		return in;
+	}
+
+	/**
+	 * @return true if null elements were left out: with SQL nulls, NOT IN is
+	 *         then never true.
+	 */
+	boolean hasNulls() {
+		return this.nulls;
+	}
+
+	/**
+	 * Test a number against the numeric elements.
+	 *
+	 * @param value
+	 *            the value.
+	 * @return true if a numeric element is equal to the value.
+	 */
+	boolean containsNumber(final double value) {
+		// -0.0 + 0.0 is 0.0, as the elements
+		return Arrays.binarySearch(this.numbers, value + 0.0) >= 0;
+	}
+
+	/**
+	 * Materialize the result of a subquery, with the numbers converted as the
+	 * column values. Null values are never equal to the tested value, and are
+	 * left out; hasNulls() tells if there were some.
+	 *
+	 * @param resolver
+	 *            the resolver, null if none.
+	 * @param query
+	 *            the subquery.
+	 * @return the indexed result.
+	 * @throws SQLException
+	 *             if there is no resolver, or if the resolver fails.
+	 */
+	static ZInList resolve(final ZSubQueryResolver resolver, final ZQuery query) throws SQLException {
+		if (resolver == null) {
+			throw new SQLException(ZCommonConstants.ZEVAL_NO_SUBQUERY_RESOLVER + query);
+		}
+		final Collection<?> values = resolver.resolve(query);
+		final Object[] elements = new Object[values == null ? 0 : values.size()];
+		int n = 0;
+		if (values != null) {
+			for (final Object value : values) {
+				if (value != null) {
+					elements[n++] = ZEval.toNumber(value);
+				}
+			}
+		}
+		return new ZInList(Arrays.copyOf(elements, n), n < elements.length);
+	}
+
+	/**
+	 * The result of a subquery, materialized on first use.
+	 */
+	static final class SubQuery {
+
+		/**
+		 * The resolver, null if none.
+		 */
+		private final ZSubQueryResolver resolver;
+
+		/**
+		 * The subquery.
+		 */
+		private final ZQuery query;
+
+		/**
+		 * The materialized result, null until resolved.
+		 */
+		private volatile ZInList list;
+
+		/**
+		 * @param resolver
+		 *            the resolver, null if none.
+		 * @param query
+		 *            the subquery.
+		 */
+		SubQuery(final ZSubQueryResolver resolver, final ZQuery query) {
+			this.resolver = resolver;
+			this.query = query;
+		}
+
+		/**
+		 * @return the materialized result.
+		 * @throws SQLException
+		 *             if there is no resolver, or if the resolver fails; the
+		 *             next call tries again.
+		 */
+		ZInList get() throws SQLException {
+			ZInList result = this.list;
+			if (result == null) {
+				synchronized (this) {
+					result = this.list;
+					if (result == null) {
+						result = resolve(this.resolver, this.query);
+						this.list = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+}
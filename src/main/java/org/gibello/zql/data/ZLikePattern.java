@@ -0,0 +1,384 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * A LIKE pattern, analysed once: % matches any sequence of characters, _ any
+ * single character, and the escape character, if any, makes the next %, _ or
+ * escape character literal. The match is case-sensitive.
+ *
+ * Patterns are specialized into exact, prefix, suffix and contains matchers
+ * (the last one relies on String.indexOf(), intrinsified by the JIT), or into
+ * a general matcher that backtracks to the last %. The patterns used by the
+ * interpreter are cached, so that a constant pattern is analysed only once;
+ * the least recently used ones are evicted first.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+abstract class ZLikePattern {
+
+	/**
+	 * The maximum number of cached patterns.
+	 */
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * The cached patterns, by pattern and escape character, in access order;
+	 * guarded by itself.
+	 */
+	private static final Map<Key, ZLikePattern> CACHE = new LinkedHashMap<Key, ZLikePattern>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, ZLikePattern> eldest) {
+			return this.size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Kind of a general pattern element: a literal character.
+	 */
+	private static final byte LITERAL = 0;
+
+	/**
+	 * Kind of a general pattern element: _.
+	 */
+	private static final byte ONE = 1;
+
+	/**
+	 * Kind of a general pattern element: %.
+	 */
+	private static final byte MANY = 2;
+
+	/**
+	 * @param s
+	 *            a string.
+	 * @return true if the string matches the pattern.
+	 */
+	abstract boolean matches(String s);
+
+	/**
+	 * Return the analysed pattern, from the cache if possible.
+	 *
+	 * @param pattern
+	 *            the pattern.
+	 * @param escape
+	 *            the escape character, as a string of one character; null if
+	 *            none.
+	 * @return the analysed pattern.
+	 * @throws SQLException
+	 *             if the escape character or an escape sequence is invalid.
+	 */
+	static ZLikePattern of(final String pattern, final String escape) throws SQLException {
+		final Key key = new Key(pattern, escape);
+		ZLikePattern like;
+		synchronized (CACHE) {
+			like = CACHE.get(key);
+		}
+		if (like == null) {
+			like = compile(pattern, escape);
+			synchronized (CACHE) {
+				CACHE.put(key, like);
+			}
+		}
+		return like;
+	}
+
+	/**
+	 * Analyse a pattern.
+	 *
+	 * @param pattern
+	 *            the pattern.
+	 * @param escape
+	 *            the escape character, as a string of one character; null if
+	 *            none.
+	 * @return the analysed pattern.
+	 * @throws SQLException
+	 *             if the escape character or an escape sequence is invalid.
+	 */
+	static ZLikePattern compile(final String pattern, final String escape) throws SQLException {
+		if ((escape != null) && (escape.length() != 1)) {
+			throw new SQLException(ZCommonConstants.ZEVAL_LIKE_INVALID_ESCAPE_CHARACTER + escape);
+		}
+		final int esc = escape == null ? -1 : escape.charAt(0);
+
+		// Pattern elements, with consecutive % merged
+		final int length = pattern.length();
+		final char[] chars = new char[length];
+		final byte[] kinds = new byte[length];
+		int m = 0;
+		int ones = 0;
+		int manys = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = pattern.charAt(i);
+			if (c == esc) {
+				i++;
+				if ((i >= length) || ((pattern.charAt(i) != '%') && (pattern.charAt(i) != '_') && (pattern.charAt(i) != esc))) {
+					throw new SQLException(ZCommonConstants.ZEVAL_LIKE_INVALID_ESCAPE_SEQUENCE + pattern);
+				}
+				chars[m] = pattern.charAt(i);
+				kinds[m++] = LITERAL;
+			} else if (c == '%') {
+				if ((m == 0) || (kinds[m - 1] != MANY)) {
+					kinds[m++] = MANY;
+					manys++;
+				}
+			} else if (c == '_') {
+				kinds[m++] = ONE;
+				ones++;
+			} else {
+				chars[m] = c;
+				kinds[m++] = LITERAL;
+			}
+		}
+
+		if (ones == 0) {
+			final boolean leading = (m > 0) && (kinds[0] == MANY);
+			final boolean trailing = (m > 0) && (kinds[m - 1] == MANY);
+			final int inner = manys - (leading ? 1 : 0) - (trailing && (m > 1) ? 1 : 0);
+			if (inner == 0) {
+				final String literal = new String(chars, leading ? 1 : 0, m - (leading ? 1 : 0) - (trailing && (m > 1) ? 1 : 0));
+				if (leading && trailing) {
+					return literal.isEmpty() ? new Any() : new Contains(literal);
+				} else if (leading) {
+					return new Suffix(literal);
+				} else if (trailing) {
+					return new Prefix(literal);
+				}
+				return new Exact(literal);
+			}
+		}
+		final char[] generalChars = new char[m];
+		final byte[] generalKinds = new byte[m];
+		System.arraycopy(chars, 0, generalChars, 0, m);
+		System.arraycopy(kinds, 0, generalKinds, 0, m);
+		return new General(generalChars, generalKinds);
+	}
+
+	/**
+	 * A pattern without wildcards.
+	 */
+	private static final class Exact extends ZLikePattern {
+
+		/**
+		 * The string to match.
+		 */
+		private final String literal;
+
+		/**
+		 * @param literal
+		 *            the string to match.
+		 */
+		Exact(final String literal) {
+			this.literal = literal;
+		}
+
+		@Override
+		boolean matches(final String s) {
+			return s.equals(this.literal);
+		}
+	}
+
+	/**
+	 * abc%.
+	 */
+	private static final class Prefix extends ZLikePattern {
+
+		/**
+		 * The prefix.
+		 */
+		private final String prefix;
+
+		/**
+		 * @param prefix
+		 *            the prefix.
+		 */
+		Prefix(final String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		boolean matches(final String s) {
+			return s.startsWith(this.prefix);
+		}
+	}
+
+	/**
+	 * %abc.
+	 */
+	private static final class Suffix extends ZLikePattern {
+
+		/**
+		 * The suffix.
+		 */
+		private final String suffix;
+
+		/**
+		 * @param suffix
+		 *            the suffix.
+		 */
+		Suffix(final String suffix) {
+			this.suffix = suffix;
+		}
+
+		@Override
+		boolean matches(final String s) {
+			return s.endsWith(this.suffix);
+		}
+	}
+
+	/**
+	 * %abc%.
+	 */
+	private static final class Contains extends ZLikePattern {
+
+		/**
+		 * The searched string.
+		 */
+		private final String infix;
+
+		/**
+		 * @param infix
+		 *            the searched string.
+		 */
+		Contains(final String infix) {
+			this.infix = infix;
+		}
+
+		@Override
+		boolean matches(final String s) {
+			return s.indexOf(this.infix) >= 0;
+		}
+	}
+
+	/**
+	 * %: matches everything.
+	 */
+	private static final class Any extends ZLikePattern {
+
+		@Override
+		boolean matches(final String s) {
+			return true;
+		}
+	}
+
+	/**
+	 * Any other pattern: the elements are matched from left to right, and a
+	 * mismatch backtracks to the last %, which then swallows one more
+	 * character. Linear on most patterns, O(pattern * string) at worst.
+	 */
+	private static final class General extends ZLikePattern {
+
+		/**
+		 * The characters of the LITERAL elements.
+		 */
+		private final char[] chars;
+
+		/**
+		 * The kinds of the elements: LITERAL, ONE or MANY.
+		 */
+		private final byte[] kinds;
+
+		/**
+		 * @param chars
+		 *            the characters of the LITERAL elements.
+		 * @param kinds
+		 *            the kinds of the elements: LITERAL, ONE or MANY.
+		 */
+		General(final char[] chars, final byte[] kinds) {
+			this.chars = chars;
+			this.kinds = kinds;
+		}
+
+		@Override
+		boolean matches(final String s) {
+			final int n = s.length();
+			final int m = this.kinds.length;
+			int i = 0;
+			int p = 0;
+			int star = -1;
+			int mark = 0;
+			while (i < n) {
+				if ((p < m) && ((this.kinds[p] == ONE) || ((this.kinds[p] == LITERAL) && (this.chars[p] == s.charAt(i))))) {
+					i++;
+					p++;
+				} else if ((p < m) && (this.kinds[p] == MANY)) {
+					star = p++;
+					mark = i;
+				} else if (star >= 0) {
+					p = star + 1;
+					i = ++mark;
+				} else {
+					return false;
+				}
+			}
+			while ((p < m) && (this.kinds[p] == MANY)) {
+				p++;
+			}
+			return p == m;
+		}
+	}
+
+	/**
+	 * The key of a cached pattern.
+	 */
+	private static final class Key {
+
+		/**
+		 * The pattern.
+		 */
+		private final String pattern;
+
+		/**
+		 * The escape character, null if none.
+		 */
+		private final String escape;
+
+		/**
+		 * @param pattern
+		 *            the pattern.
+		 * @param escape
+		 *            the escape character, null if none.
+		 */
+		Key(final String pattern, final String escape) {
+			this.pattern = pattern;
+			this.escape = escape;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return this.pattern.equals(other.pattern) && (this.escape == null ? other.escape == null : this.escape.equals(other.escape));
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * this.pattern.hashCode()) + (this.escape == null ? 0 : this.escape.hashCode());
+		}
+	}
+
+}
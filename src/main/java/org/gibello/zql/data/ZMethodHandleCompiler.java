@@ -0,0 +1,1059 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.sql.SQLException;
+
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Compiles expressions into java.lang.invoke.MethodHandle chains, that the JIT
+ * can inline as a whole.
+ *
+ * Predicates are (ZTuple)boolean handles, values are (ZTuple)Object handles,
+ * and values that are always numbers are (ZTuple)double handles, compared and
+ * combined without boxing.
+ * AND and OR are built with guardWithTest. Unless the evaluation is
+ * short-circuited, the branch that already knows the result still evaluates
+ * the remaining operands, as the interpreter does. As in ZPredicateCompiler,
+ * the shapes that the interpreter rejects are bound to the interpreter itself,
+ * and short-circuited predicates keep an exhaustive copy of themselves. The
+ * ADAPTIVE evaluation is short-circuited, without reordering.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZMethodHandleCompiler {
+
+	/**
+	 * Type of the predicate handles.
+	 */
+	private static final MethodType PREDICATE = MethodType.methodType(boolean.class, ZTuple.class);
+
+	/**
+	 * Type of the value handles.
+	 */
+	private static final MethodType VALUE = MethodType.methodType(Object.class, ZTuple.class);
+
+	/**
+	 * Type of the numeric value handles.
+	 */
+	private static final MethodType NUMBER = MethodType.methodType(double.class, ZTuple.class);
+
+	/**
+	 * Always true, whatever the tuple.
+	 */
+	private static final MethodHandle TRUE = constant(PREDICATE, true);
+
+	/**
+	 * Always false, whatever the tuple.
+	 */
+	private static final MethodHandle FALSE = constant(PREDICATE, false);
+
+	/**
+	 * ZEval.compare(Object, Object).
+	 */
+	private static final MethodHandle COMPARE;
+
+	/**
+	 * ZEval.like(Object, Object).
+	 */
+	private static final MethodHandle LIKE;
+
+	/**
+	 * like(ZLikePattern, Object).
+	 */
+	private static final MethodHandle LIKE_PATTERN;
+
+	/**
+	 * in(ZInList, boolean, Object).
+	 */
+	private static final MethodHandle IN_LIST;
+
+	/**
+	 * in(ZInList.SubQuery, boolean, Object).
+	 */
+	private static final MethodHandle IN_SUBQUERY;
+
+	/**
+	 * notIn(ZInList.SubQuery, boolean, Object).
+	 */
+	private static final MethodHandle NOT_IN_SUBQUERY;
+
+	/**
+	 * ZSqlNulls.hasNull(ZTuple).
+	 */
+	private static final MethodHandle HAS_NULL;
+
+	/**
+	 * ZSqlNulls.isNull(ZTuple).
+	 */
+	private static final MethodHandle IS_NULL;
+
+	/**
+	 * ZEval.evalPredicate(ZTuple, ZExp, boolean).
+	 */
+	private static final MethodHandle EVAL;
+
+	/**
+	 * ZEval.evalExpValue(ZTuple, ZExp).
+	 */
+	private static final MethodHandle EVAL_VALUE;
+
+	/**
+	 * column(String, ZTuple).
+	 */
+	private static final MethodHandle COLUMN;
+
+	/**
+	 * slot(int, String, ZTuple).
+	 */
+	private static final MethodHandle SLOT;
+
+	/**
+	 * numericSlot(int, String, ZTuple).
+	 */
+	private static final MethodHandle NUMERIC_SLOT;
+
+	/**
+	 * minus(double, double).
+	 */
+	private static final MethodHandle DIFFERENCE;
+
+	/**
+	 * firstOperand(Object).
+	 */
+	private static final MethodHandle FIRST_OPERAND;
+
+	/**
+	 * negate(double).
+	 */
+	private static final MethodHandle NEGATE;
+
+	/**
+	 * Double.valueOf(double).
+	 */
+	private static final MethodHandle BOX;
+
+	/**
+	 * not(boolean).
+	 */
+	private static final MethodHandle NOT;
+
+	static {
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			COMPARE = lookup.findStatic(ZEval.class, "compare", MethodType.methodType(double.class, Object.class, Object.class));
+			LIKE = lookup.findStatic(ZEval.class, "like", MethodType.methodType(boolean.class, Object.class, Object.class));
+			LIKE_PATTERN = lookup.findStatic(ZMethodHandleCompiler.class, "like", MethodType.methodType(boolean.class, ZLikePattern.class, Object.class));
+			IN_LIST = lookup.findStatic(ZMethodHandleCompiler.class, "in", MethodType.methodType(boolean.class, ZInList.class, boolean.class, Object.class));
+			IN_SUBQUERY = lookup.findStatic(ZMethodHandleCompiler.class, "in",
+					MethodType.methodType(boolean.class, ZInList.SubQuery.class, boolean.class, Object.class));
+			NOT_IN_SUBQUERY = lookup.findStatic(ZMethodHandleCompiler.class, "notIn",
+					MethodType.methodType(boolean.class, ZInList.SubQuery.class, boolean.class, Object.class));
+			HAS_NULL = lookup.findVirtual(ZSqlNulls.class, "hasNull", PREDICATE);
+			IS_NULL = lookup.findVirtual(ZSqlNulls.class, "isNull", PREDICATE);
+			EVAL = lookup.findVirtual(ZEval.class, "evalPredicate", MethodType.methodType(boolean.class, ZTuple.class, ZExp.class, boolean.class));
+			EVAL_VALUE = lookup.findVirtual(ZEval.class, "evalExpValue", MethodType.methodType(Object.class, ZTuple.class, ZExp.class));
+			COLUMN = lookup.findStatic(ZMethodHandleCompiler.class, "column", MethodType.methodType(Object.class, String.class, ZTuple.class));
+			SLOT = lookup.findStatic(ZMethodHandleCompiler.class, "slot", MethodType.methodType(Object.class, int.class, String.class, ZTuple.class));
+			NUMERIC_SLOT = lookup.findStatic(ZMethodHandleCompiler.class, "numericSlot",
+					MethodType.methodType(double.class, int.class, String.class, ZTuple.class));
+			DIFFERENCE = lookup.findStatic(ZMethodHandleCompiler.class, "minus", MethodType.methodType(double.class, double.class, double.class));
+			FIRST_OPERAND = lookup.findStatic(ZMethodHandleCompiler.class, "firstOperand", MethodType.methodType(double.class, Object.class));
+			NEGATE = lookup.findStatic(ZMethodHandleCompiler.class, "negate", MethodType.methodType(double.class, double.class));
+			BOX = lookup.findStatic(Double.class, "valueOf", MethodType.methodType(Double.class, double.class)).asType(
+					MethodType.methodType(Object.class, double.class));
+			NOT = lookup.findStatic(ZMethodHandleCompiler.class, "not", MethodType.methodType(boolean.class, boolean.class));
+		} catch (final ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * The interpreter, for the shapes that are not compiled.
+	 */
+	private final ZEval eval;
+
+	/**
+	 * true to stop evaluating AND and OR operands once the result is known.
+	 */
+	private final boolean shortCircuit;
+
+	/**
+	 * The schema of the tuples, null if unknown.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * true if the nulls have the SQL semantics.
+	 */
+	private final boolean sqlNulls;
+
+	/**
+	 * Create a new compiler.
+	 *
+	 * @param eval
+	 *            the interpreter.
+	 * @param evaluation
+	 *            how AND and OR evaluate their operands.
+	 * @param schema
+	 *            the schema of the tuples, null to resolve the columns by name.
+	 */
+	ZMethodHandleCompiler(final ZEval eval, final ZEval.Evaluation evaluation, final ZTupleSchema schema) {
+		this.eval = eval;
+		this.shortCircuit = evaluation != ZEval.Evaluation.EXHAUSTIVE;
+		this.schema = schema;
+		this.sqlNulls = eval.getNulls() == ZEval.Nulls.SQL;
+	}
+
+	/**
+	 * Compile a top-level boolean expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled predicate.
+	 */
+	CompiledPredicate compile(final ZExp exp) {
+		if (!this.shortCircuit) {
+			return new HandlePredicate(this.predicate(exp), null);
+		}
+		return new HandlePredicate(this.predicate(exp), new ZMethodHandleCompiler(this.eval, ZEval.Evaluation.EXHAUSTIVE, this.schema).predicate(exp));
+	}
+
+	/**
+	 * Compile a boolean expression into a (ZTuple)boolean handle.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the handle.
+	 */
+	MethodHandle predicate(final ZExp exp) {
+		return this.sqlNulls ? this.sql(exp, true) : this.operator(exp);
+	}
+
+	/**
+	 * Compile a boolean expression, or its negation, with SQL nulls, as
+	 * ZPredicateCompiler does: NOT is applied to the operands of AND and OR,
+	 * and the other operators are guarded by the null test of their operands.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @param positive
+	 *            false to compile NOT exp.
+	 * @return the handle.
+	 */
+	private MethodHandle sql(final ZExp exp, final boolean positive) {
+		final ZExpression pred = exp instanceof ZExpression ? (ZExpression) exp : null;
+		final ZOperator op = pred == null ? null : ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op != null) && (pred.getOperands() != null)) {
+			final int nb = pred.nbOperands();
+			switch (op) {
+			case AND:
+			case OR:
+				final boolean and = (op == ZOperator.AND) == positive;
+				MethodHandle result = nb == 0 ? (and ? TRUE : FALSE) : this.sql(pred.getOperand(nb - 1), positive);
+				for (int i = nb - 2; i >= 0; i--) {
+					result = and ? this.and(this.sql(pred.getOperand(i), positive), result) : this.or(this.sql(pred.getOperand(i), positive), result);
+				}
+				return result;
+			case NOT:
+				if (nb < 1) {
+					break;
+				}
+				return this.sql(pred.getOperand(0), !positive);
+			case IS_NULL:
+			case IS_NOT_NULL:
+				if (nb < 1) {
+					break;
+				}
+				final MethodHandle isNull = IS_NULL.bindTo(new ZSqlNulls(pred.getOperand(0), this.schema));
+				return (op == ZOperator.IS_NULL) == positive ? isNull : MethodHandles.filterReturnValue(isNull, NOT);
+			case IN:
+			case NOT_IN:
+				final ZQuery query = ZEval.subQuery(pred);
+				if (query == null) {
+					break;
+				}
+				final ZInList.SubQuery subQuery = new ZInList.SubQuery(this.eval.getSubQueryResolver(), query);
+				final MethodHandle in = MethodHandles.insertArguments((op == ZOperator.IN) == positive ? IN_SUBQUERY : NOT_IN_SUBQUERY, 0, subQuery,
+						this.shortCircuit);
+				return this.guard(pred.getOperand(0), MethodHandles.filterReturnValue(this.value(pred.getOperand(0)), in));
+			default:
+				break;
+			}
+			final ZExp expanded = ZSqlNulls.expand(pred);
+			if (expanded != null) {
+				return this.sql(expanded, positive);
+			}
+		}
+		final MethodHandle leaf = this.operator(exp);
+		return this.guard(exp, positive ? leaf : MethodHandles.filterReturnValue(leaf, NOT));
+	}
+
+	/**
+	 * Guard a predicate by the null test of an expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @param pred
+	 *            the (ZTuple)boolean handle.
+	 * @return the (ZTuple)boolean handle, false if the expression has a null.
+	 */
+	private MethodHandle guard(final ZExp exp, final MethodHandle pred) {
+		return MethodHandles.guardWithTest(HAS_NULL.bindTo(new ZSqlNulls(exp, this.schema)), FALSE, pred);
+	}
+
+	/**
+	 * Compile a boolean expression, the nulls failing as unknown columns.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the handle.
+	 */
+	private MethodHandle operator(final ZExp exp) {
+		if (!(exp instanceof ZExpression)) {
+			return this.interpreted(exp);
+		}
+
+		final ZExpression pred = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op == null) || (pred.getOperands() == null)) {
+			return this.interpreted(exp);
+		}
+		final int nb = pred.nbOperands();
+
+		switch (op) {
+		case AND:
+		case OR:
+			MethodHandle result = nb == 0 ? (op == ZOperator.AND ? TRUE : FALSE) : this.predicate(pred.getOperand(nb - 1));
+			for (int i = nb - 2; i >= 0; i--) {
+				result = op == ZOperator.AND ? this.and(this.predicate(pred.getOperand(i)), result) : this.or(this.predicate(pred.getOperand(i)), result);
+			}
+			return result;
+		case NOT:
+			if (nb < 1) {
+				break;
+			}
+			return MethodHandles.filterReturnValue(this.predicate(pred.getOperand(0)), NOT);
+
+		case EQUALS:
+		case NOT_EQUALS:
+		case EXCLUDING:
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUALS:
+			if (nb != ZCommonConstants.MAGIC_NUMBER_2) {
+				break;
+			}
+			final MethodHandle left = this.number(pred.getOperand(0));
+			final MethodHandle right = this.number(pred.getOperand(1));
+			if ((left != null) && (right != null)) {
+				final MethodHandle diff = MethodHandles.filterArguments(DIFFERENCE, 1, right);
+				return MethodHandles.foldArguments(MethodHandles.filterReturnValue(diff, accept(op)), left);
+			}
+			final MethodHandle cmp = MethodHandles.filterArguments(COMPARE, 1, this.value(pred.getOperand(1)));
+			return MethodHandles.foldArguments(MethodHandles.filterReturnValue(cmp, accept(op)), this.value(pred.getOperand(0)));
+
+		case BETWEEN:
+		case NOT_BETWEEN: {
+			if (nb < ZCommonConstants.MAGIC_NUMBER_3) {
+				break;
+			}
+			// (Object value, ZTuple) -> value >= low AND value <= high
+			final MethodHandle above = MethodHandles.filterReturnValue(MethodHandles.filterArguments(COMPARE, 1, this.value(pred.getOperand(1))),
+					accept(ZOperator.GREATER_THAN_OR_EQUALS));
+			final MethodHandle below = MethodHandles.filterReturnValue(MethodHandles.filterArguments(COMPARE, 1, this.value(pred.getOperand(2))),
+					accept(ZOperator.LESS_THAN_OR_EQUALS));
+			final MethodHandle between = MethodHandles.foldArguments(this.and(above, below), this.value(pred.getOperand(0)));
+			return op == ZOperator.BETWEEN ? between : MethodHandles.filterReturnValue(between, NOT);
+		}
+
+		case LIKE:
+		case NOT_LIKE: {
+			if ((nb != ZCommonConstants.MAGIC_NUMBER_2) && (nb != ZCommonConstants.MAGIC_NUMBER_3)) {
+				break;
+			}
+			final ZLikePattern pattern = ZPredicateCompiler.constantPattern(pred);
+			final MethodHandle like;
+			if (pattern != null) {
+				like = MethodHandles.filterReturnValue(this.value(pred.getOperand(0)), LIKE_PATTERN.bindTo(pattern));
+			} else if (nb == ZCommonConstants.MAGIC_NUMBER_3) {
+				// ESCAPE with a computed pattern: rare enough for the interpreter
+				break;
+			} else {
+				like = MethodHandles.foldArguments(MethodHandles.filterArguments(LIKE, 1, this.value(pred.getOperand(1))), this.value(pred.getOperand(0)));
+			}
+			return op == ZOperator.LIKE ? like : MethodHandles.filterReturnValue(like, NOT);
+		}
+
+		case IN:
+		case NOT_IN: {
+			if (nb < 1) {
+				break;
+			}
+			MethodHandle in;
+			final ZQuery query = ZEval.subQuery(pred);
+			final ZInList constants = query == null ? ZPredicateCompiler.constantList(pred) : null;
+			if (nb == 1) {
+				in = FALSE;
+			} else if (query != null) {
+				final ZInList.SubQuery subQuery = new ZInList.SubQuery(this.eval.getSubQueryResolver(), query);
+				in = MethodHandles.filterReturnValue(this.value(pred.getOperand(0)), MethodHandles.insertArguments(IN_SUBQUERY, 0, subQuery, this.shortCircuit));
+			} else if (constants != null) {
+				in = MethodHandles.filterReturnValue(this.value(pred.getOperand(0)), MethodHandles.insertArguments(IN_LIST, 0, constants, this.shortCircuit));
+			} else {
+				// (Object value, ZTuple) -> value = v1 OR value = v2...
+				final MethodHandle equals = accept(ZOperator.EQUALS);
+				in = MethodHandles.filterReturnValue(MethodHandles.filterArguments(COMPARE, 1, this.value(pred.getOperand(nb - 1))), equals);
+				for (int i = nb - 2; i >= 1; i--) {
+					in = this.or(MethodHandles.filterReturnValue(MethodHandles.filterArguments(COMPARE, 1, this.value(pred.getOperand(i))), equals), in);
+				}
+				in = MethodHandles.foldArguments(in, this.value(pred.getOperand(0)));
+			}
+			return op == ZOperator.IN ? in : MethodHandles.filterReturnValue(in, NOT);
+		}
+
+		case IS_NULL:
+		case IS_NOT_NULL:
+			// Only constants are supported, so the result never depends on the tuple
+			final ZExp x = nb <= 0 ? null : pred.getOperand(0);
+			if ((x != null) && !(x instanceof ZConstant)) {
+				break;
+			}
+			final boolean isNull = (x == null) || (((ZConstant) x).getType() == ZConstant.NULL);
+			return (op == ZOperator.IS_NULL) == isNull ? TRUE : FALSE;
+
+		default:
+			break;
+		}
+		return this.interpreted(exp);
+	}
+
+	/**
+	 * Compile a numeric or string expression into a (ZTuple)Object handle.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the handle.
+	 */
+	MethodHandle value(final ZExp exp) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			switch (c.getType()) {
+			case ZConstant.COLUMNNAME:
+				final int slot = this.schema == null ? -1 : this.schema.indexOf(c.getValue());
+				if (slot >= 0) {
+					if (this.schema.getColumnType(slot).isNumeric()) {
+						return MethodHandles.filterReturnValue(this.number(exp), BOX);
+					}
+					return MethodHandles.insertArguments(SLOT, 0, slot, c.getValue());
+				}
+				return MethodHandles.insertArguments(COLUMN, 0, c.getValue());
+			case ZConstant.NUMBER:
+				final Double number = c.getNumber();
+				return number == null ? this.interpretedValue(exp) : constant(VALUE, number);
+			case ZConstant.STRING:
+			default:
+				return constant(VALUE, c.getValue());
+			}
+		} else if (exp instanceof ZExpression) {
+			final MethodHandle arithmetic = this.arithmetic((ZExpression) exp);
+			return arithmetic == null ? this.interpretedValue(exp) : MethodHandles.filterReturnValue(arithmetic, BOX);
+		}
+		return constant(VALUE, null);
+	}
+
+	/**
+	 * Compile an expression whose value is always a Double into a
+	 * (ZTuple)double handle.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the handle, null if the value may be something else.
+	 */
+	private MethodHandle number(final ZExp exp) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			switch (c.getType()) {
+			case ZConstant.COLUMNNAME:
+				final int slot = this.schema == null ? -1 : this.schema.indexOf(c.getValue());
+				if ((slot >= 0) && this.schema.getColumnType(slot).isNumeric()) {
+					return MethodHandles.insertArguments(NUMERIC_SLOT, 0, slot, c.getValue());
+				}
+				return null;
+			case ZConstant.NUMBER:
+				final Double number = c.getNumber();
+				return number == null ? null : constant(NUMBER, number);
+			default:
+				return null;
+			}
+		} else if (exp instanceof ZExpression) {
+			return this.arithmetic((ZExpression) exp);
+		}
+		return null;
+	}
+
+	/**
+	 * Compile a numeric expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the (ZTuple)double handle, null if left to the interpreter.
+	 */
+	private MethodHandle arithmetic(final ZExpression exp) {
+		final ZOperator op = ZOperator.toEnumQuiet(exp.getOperator());
+		if ((op == null) || (exp.getOperands() == null) || (exp.nbOperands() < 1)) {
+			return null;
+		}
+		final int nb = exp.nbOperands();
+
+		final String step;
+		switch (op) {
+		case PLUS:
+			step = "plus";
+			break;
+		case MINUS:
+			if (nb == 1) {
+				return MethodHandles.filterReturnValue(this.firstOperand(exp.getOperand(0)), NEGATE);
+			}
+			step = "minus";
+			break;
+		case MULTIPLICATION:
+			step = "times";
+			break;
+		case SLASH:
+			step = "divide";
+			break;
+		case POW:
+			step = "pow";
+			break;
+		default:
+			return null;
+		}
+
+		// (ZTuple)double, accumulated from left to right
+		MethodHandle acc = this.firstOperand(exp.getOperand(0));
+		for (int i = 1; i < nb; i++) {
+			final MethodHandle number = this.number(exp.getOperand(i));
+			final MethodHandle operand = number == null ? this.value(exp.getOperand(i)) : number;
+			final MethodHandle apply = findStep(step, operand.type().returnType());
+			acc = MethodHandles.foldArguments(MethodHandles.filterArguments(apply, 1, operand), acc);
+		}
+		return acc;
+	}
+
+	/**
+	 * Compile the first operand of an arithmetic operator, that must be a
+	 * Double.
+	 *
+	 * @param exp
+	 *            the operand.
+	 * @return the (ZTuple)double handle.
+	 */
+	private MethodHandle firstOperand(final ZExp exp) {
+		final MethodHandle number = this.number(exp);
+		return number == null ? MethodHandles.filterReturnValue(this.value(exp), FIRST_OPERAND) : number;
+	}
+
+	/**
+	 * Bind a boolean expression to the interpreter.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the (ZTuple)boolean handle.
+	 */
+	private MethodHandle interpreted(final ZExp exp) {
+		return MethodHandles.insertArguments(EVAL.bindTo(this.eval), 1, exp, this.shortCircuit);
+	}
+
+	/**
+	 * Bind a value expression to the interpreter.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the (ZTuple)Object handle.
+	 */
+	private MethodHandle interpretedValue(final ZExp exp) {
+		return MethodHandles.insertArguments(EVAL_VALUE.bindTo(this.eval), 1, exp);
+	}
+
+	/**
+	 * AND of two predicates with the same parameters: unless short-circuited,
+	 * the second one is evaluated even if the first one is false.
+	 *
+	 * @param first
+	 *            the first predicate.
+	 * @param second
+	 *            the second predicate.
+	 * @return the combined predicate.
+	 */
+	private MethodHandle and(final MethodHandle first, final MethodHandle second) {
+		return MethodHandles.guardWithTest(first, second, this.otherwise(second, false));
+	}
+
+	/**
+	 * OR of two predicates with the same parameters: unless short-circuited,
+	 * the second one is evaluated even if the first one is true.
+	 *
+	 * @param first
+	 *            the first predicate.
+	 * @param second
+	 *            the second predicate.
+	 * @return the combined predicate.
+	 */
+	private MethodHandle or(final MethodHandle first, final MethodHandle second) {
+		return MethodHandles.guardWithTest(first, this.otherwise(second, true), second);
+	}
+
+	/**
+	 * The branch of a guard where the result is already known.
+	 *
+	 * @param pred
+	 *            the predicate that remains to evaluate.
+	 * @param result
+	 *            the known result.
+	 * @return the branch: the result, after running the predicate for its
+	 *         exceptions only if not short-circuited.
+	 */
+	private MethodHandle otherwise(final MethodHandle pred, final boolean result) {
+		if (this.shortCircuit) {
+			return constant(pred.type(), result);
+		}
+		return MethodHandles.filterReturnValue(pred, MethodHandles.dropArguments(MethodHandles.constant(boolean.class, result), 0, boolean.class));
+	}
+
+	/**
+	 * A handle ignoring its parameters.
+	 *
+	 * @param type
+	 *            the type of the handle.
+	 * @param value
+	 *            the returned value.
+	 * @return the handle.
+	 */
+	private static MethodHandle constant(final MethodType type, final Object value) {
+		return MethodHandles.dropArguments(MethodHandles.constant(type.returnType(), value), 0, type.parameterList());
+	}
+
+	/**
+	 * The (double)boolean handle telling the result of a comparison operator.
+	 *
+	 * @param op
+	 *            the operator.
+	 * @return the handle.
+	 */
+	private static MethodHandle accept(final ZOperator op) {
+		final String name;
+		switch (op) {
+		case EQUALS:
+			name = "equals";
+			break;
+		case GREATER_THAN:
+			name = "greater";
+			break;
+		case GREATER_THAN_OR_EQUALS:
+			name = "greaterOrEquals";
+			break;
+		case LESS_THAN:
+			name = "less";
+			break;
+		case LESS_THAN_OR_EQUALS:
+			name = "lessOrEquals";
+			break;
+		default:
+			name = "notEquals";
+			break;
+		}
+		return find(name, MethodType.methodType(boolean.class, double.class));
+	}
+
+	/**
+	 * The (double, Object)double or (double, double)double handle of an
+	 * arithmetic step.
+	 *
+	 * @param name
+	 *            the method name.
+	 * @param right
+	 *            the type of the right operand: Object or double.
+	 * @return the handle.
+	 */
+	private static MethodHandle findStep(final String name, final Class<?> right) {
+		return find(name, MethodType.methodType(double.class, double.class, right));
+	}
+
+	/**
+	 * Find one of the helper methods.
+	 *
+	 * @param name
+	 *            the method name.
+	 * @param type
+	 *            the method type.
+	 * @return the handle.
+	 */
+	private static MethodHandle find(final String name, final MethodType type) {
+		try {
+			return MethodHandles.lookup().findStatic(ZMethodHandleCompiler.class, name, type);
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A column value: numbers are converted to Double, as in the interpreter.
+	 *
+	 * @param name
+	 *            the column name.
+	 * @param tuple
+	 *            the tuple.
+	 * @return the value.
+	 * @throws SQLException
+	 *             if the column is unknown.
+	 */
+	private static Object column(final String name, final ZTuple tuple) throws SQLException {
+		final Object o = tuple.getAttValue(name);
+		if (o == null) {
+			throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + name);
+		}
+		return ZEval.toNumber(o);
+	}
+
+	/**
+	 * A column value read by index, in a tuple of a known schema.
+	 *
+	 * @param slot
+	 *            the column index.
+	 * @param name
+	 *            the column name.
+	 * @param tuple
+	 *            the tuple.
+	 * @return the value.
+	 * @throws SQLException
+	 *             if the column has no value.
+	 */
+	private static Object slot(final int slot, final String name, final ZTuple tuple) throws SQLException {
+		final Object o = tuple.getAttValue(slot);
+		if (o == null) {
+			throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + name);
+		}
+		return ZEval.toNumber(o);
+	}
+
+	/**
+	 * A LONG or DOUBLE column read by index, without boxing.
+	 *
+	 * @param slot
+	 *            the column index.
+	 * @param name
+	 *            the column name.
+	 * @param tuple
+	 *            the tuple.
+	 * @return the value.
+	 * @throws SQLException
+	 *             if the column is null.
+	 */
+	private static double numericSlot(final int slot, final String name, final ZTuple tuple) throws SQLException {
+		if (tuple.isNull(slot)) {
+			throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + name);
+		}
+		return tuple.getDouble(slot);
+	}
+
+	/**
+	 * @param o
+	 *            the first operand of an arithmetic operator.
+	 * @return its value.
+	 * @throws SQLException
+	 *             if it is not a Double.
+	 */
+	private static double firstOperand(final Object o) throws SQLException {
+		if (!(o instanceof Double)) {
+			throw new SQLException(ZCommonConstants.ZEVAL_NUMERIC_EXP_EXPRESSION_NOT_NUMERIC);
+		}
+		return (Double) o;
+	}
+
+	/**
+	 * @return the opposite of d.
+	 */
+	private static double negate(final double d) {
+		return -d;
+	}
+
+	/**
+	 * @return left + right.
+	 */
+	private static double plus(final double left, final Object right) {
+		return left + ((Number) right).doubleValue();
+	}
+
+	/**
+	 * @return left + right.
+	 */
+	private static double plus(final double left, final double right) {
+		return left + right;
+	}
+
+	/**
+	 * @return left - right.
+	 */
+	private static double minus(final double left, final Object right) {
+		return left - ((Number) right).doubleValue();
+	}
+
+	/**
+	 * @return left - right.
+	 */
+	private static double minus(final double left, final double right) {
+		return left - right;
+	}
+
+	/**
+	 * @return left * right.
+	 */
+	private static double times(final double left, final Object right) {
+		return left * ((Number) right).doubleValue();
+	}
+
+	/**
+	 * @return left * right.
+	 */
+	private static double times(final double left, final double right) {
+		return left * right;
+	}
+
+	/**
+	 * @return left / right.
+	 */
+	private static double divide(final double left, final Object right) {
+		return left / ((Number) right).doubleValue();
+	}
+
+	/**
+	 * @return left / right.
+	 */
+	private static double divide(final double left, final double right) {
+		return left / right;
+	}
+
+	/**
+	 * @return left ** right.
+	 */
+	private static double pow(final double left, final Object right) {
+		return Math.pow(left, ((Number) right).doubleValue());
+	}
+
+	/**
+	 * @return left ** right.
+	 */
+	private static double pow(final double left, final double right) {
+		return Math.pow(left, right);
+	}
+
+	/**
+	 * @param pattern
+	 *            a constant LIKE pattern.
+	 * @param o
+	 *            the value.
+	 * @return true if the value matches the pattern.
+	 * @throws SQLException
+	 *             if the value is not a string.
+	 */
+	private static boolean like(final ZLikePattern pattern, final Object o) throws SQLException {
+		if (!(o instanceof String)) {
+			throw new SQLException(ZCommonConstants.ZEVAL_LIKE_LIKE_CAN_ONLY_COMPARE_STRINGS);
+		}
+		return pattern.matches((String) o);
+	}
+
+	/**
+	 * @param list
+	 *            the constants of an IN list.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element.
+	 * @param o
+	 *            the value.
+	 * @return true if the value is in the list.
+	 * @throws SQLException
+	 *             if the value can't be compared with an element.
+	 */
+	private static boolean in(final ZInList list, final boolean shortCircuit, final Object o) throws SQLException {
+		return list.contains(o, shortCircuit);
+	}
+
+	/**
+	 * @param subQuery
+	 *            the subquery of an IN.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element.
+	 * @param o
+	 *            the value.
+	 * @return true if the value is in the result of the subquery.
+	 * @throws SQLException
+	 *             if the subquery fails, or if the value can't be compared
+	 *             with an element.
+	 */
+	private static boolean in(final ZInList.SubQuery subQuery, final boolean shortCircuit, final Object o) throws SQLException {
+		return subQuery.get().contains(o, shortCircuit);
+	}
+
+	/**
+	 * @param subQuery
+	 *            the subquery of a NOT IN, with SQL nulls.
+	 * @param shortCircuit
+	 *            true to stop at the first equal element.
+	 * @param o
+	 *            the value.
+	 * @return true if the value is not in the result of the subquery, and
+	 *         the result has no nulls.
+	 * @throws SQLException
+	 *             if the subquery fails, or if the value can't be compared
+	 *             with an element.
+	 */
+	private static boolean notIn(final ZInList.SubQuery subQuery, final boolean shortCircuit, final Object o) throws SQLException {
+		final ZInList list = subQuery.get();
+		return !list.contains(o, shortCircuit) && !list.hasNulls();
+	}
+
+	/**
+	 * @return NOT b.
+	 */
+	private static boolean not(final boolean b) {
+		return !b;
+	}
+
+	/**
+	 * @return the result of =, given the result of ZEval.compare().
+	 */
+	private static boolean equals(final double cmp) {
+		return cmp == 0;
+	}
+
+	/**
+	 * @return the result of != and <>, given the result of ZEval.compare().
+	 */
+	private static boolean notEquals(final double cmp) {
+		return cmp != 0;
+	}
+
+	/**
+	 * @return the result of >, given the result of ZEval.compare().
+	 */
+	private static boolean greater(final double cmp) {
+		return cmp > 0;
+	}
+
+	/**
+	 * @return the result of >=, given the result of ZEval.compare().
+	 */
+	private static boolean greaterOrEquals(final double cmp) {
+		return cmp >= 0;
+	}
+
+	/**
+	 * @return the result of <, given the result of ZEval.compare().
+	 */
+	private static boolean less(final double cmp) {
+		return cmp < 0;
+	}
+
+	/**
+	 * @return the result of <=, given the result of ZEval.compare().
+	 */
+	private static boolean lessOrEquals(final double cmp) {
+		return cmp <= 0;
+	}
+
+	/**
+	 * The compiled predicate: checks the tuple, then invokes the handle.
+	 */
+	private static final class HandlePredicate implements CompiledPredicate {
+
+		/**
+		 * The (ZTuple)boolean handle.
+		 */
+		private final MethodHandle handle;
+
+		/**
+		 * The exhaustive copy of a short-circuited handle, null if exhaustive.
+		 */
+		private final MethodHandle exhaustive;
+
+		/**
+		 * @param handle
+		 *            the (ZTuple)boolean handle.
+		 * @param exhaustive
+		 *            the exhaustive copy of a short-circuited handle, null if
+		 *            exhaustive.
+		 */
+		HandlePredicate(final MethodHandle handle, final MethodHandle exhaustive) {
+			this.handle = handle;
+			this.exhaustive = exhaustive;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			if (tuple == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_NULL_ARGUMENT_OR_OPERATOR);
+			}
+			if (this.exhaustive == null) {
+				return invoke(this.handle, tuple);
+			}
+			// Skipping operands may change which exception comes first
+			try {
+				return invoke(this.handle, tuple);
+			} catch (final SQLException e) {
+				return invoke(this.exhaustive, tuple);
+			} catch (final RuntimeException e) {
+				return invoke(this.exhaustive, tuple);
+			}
+		}
+
+		/**
+		 * @param handle
+		 *            a (ZTuple)boolean handle.
+		 * @param tuple
+		 *            the tuple.
+		 * @return the result of the handle.
+		 * @throws SQLException
+		 *             the sql exception.
+		 */
+		private static boolean invoke(final MethodHandle handle, final ZTuple tuple) throws SQLException {
+			try {
+				return (boolean) handle.invokeExact(tuple);
+			} catch (final SQLException e) {
+				throw e;
+			} catch (final RuntimeException e) {
+				throw e;
+			} catch (final Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,1746 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Compiles expressions into trees of CompiledPredicate and CompiledValue
+ * nodes.
+ *
+ * Operators are resolved once, at compile time. Shapes that the interpreter
+ * rejects (wrong number of operands, unsupported operators...) are compiled
+ * into nodes that call back the interpreter, so that they fail at evaluation
+ * time with the very same exception.
+ *
+ * With short-circuit evaluations, the predicate keeps an exhaustive copy of
+ * itself, to throw the exceptions of the exhaustive evaluation.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZPredicateCompiler {
+
+	/**
+	 * The interpreter, for the shapes that are not compiled.
+	 */
+	private final ZEval eval;
+
+	/**
+	 * How AND and OR evaluate their operands.
+	 */
+	private final ZEval.Evaluation evaluation;
+
+	/**
+	 * true to stop evaluating AND and OR operands once the result is known.
+	 */
+	private final boolean shortCircuit;
+
+	/**
+	 * The schema of the tuples, null if unknown.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * true if the nulls have the SQL semantics.
+	 */
+	private final boolean sqlNulls;
+
+	/**
+	 * Create a new compiler.
+	 *
+	 * @param eval
+	 *            the interpreter.
+	 * @param evaluation
+	 *            how AND and OR evaluate their operands.
+	 * @param schema
+	 *            the schema of the tuples, null to resolve the columns by name.
+	 */
+	ZPredicateCompiler(final ZEval eval, final ZEval.Evaluation evaluation, final ZTupleSchema schema) {
+		this.eval = eval;
+		this.evaluation = evaluation;
+		this.shortCircuit = evaluation != ZEval.Evaluation.EXHAUSTIVE;
+		this.schema = schema;
+		this.sqlNulls = eval.getNulls() == ZEval.Nulls.SQL;
+	}
+
+	/**
+	 * Wrap a predicate bound to a schema, so that it rejects the tuples of
+	 * other schemas.
+	 *
+	 * @param schema
+	 *            the schema.
+	 * @param pred
+	 *            the predicate.
+	 * @return the checked predicate.
+	 */
+	static CompiledPredicate checkSchema(final ZTupleSchema schema, final CompiledPredicate pred) {
+		return new SchemaCheck(schema, pred);
+	}
+
+	/**
+	 * Compile a top-level boolean expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled predicate.
+	 */
+	CompiledPredicate compile(final ZExp exp) {
+		if (!this.shortCircuit) {
+			return new Root(this.predicate(exp), null);
+		}
+		return new Root(this.predicate(exp), new ZPredicateCompiler(this.eval, ZEval.Evaluation.EXHAUSTIVE, this.schema).predicate(exp));
+	}
+
+	/**
+	 * Leave a top-level boolean expression to the interpreter.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the predicate.
+	 */
+	CompiledPredicate interpreted(final ZExp exp) {
+		return new Interpreter(this.eval, exp);
+	}
+
+	/**
+	 * Compile a boolean expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled predicate.
+	 */
+	CompiledPredicate predicate(final ZExp exp) {
+		return this.sqlNulls ? this.sql(exp, true) : this.operator(exp);
+	}
+
+	/**
+	 * Compile a boolean expression, or its negation, with SQL nulls: NOT is
+	 * applied to the operands of AND and OR, and the other operators are
+	 * false if one of their operands is null, whether negated or not.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @param positive
+	 *            false to compile NOT exp.
+	 * @return the compiled predicate.
+	 */
+	private CompiledPredicate sql(final ZExp exp, final boolean positive) {
+		final ZExpression pred = exp instanceof ZExpression ? (ZExpression) exp : null;
+		final ZOperator op = pred == null ? null : ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op != null) && (pred.getOperands() != null)) {
+			final int nb = pred.nbOperands();
+			switch (op) {
+			case AND:
+			case OR:
+				final CompiledPredicate[] operands = new CompiledPredicate[nb];
+				for (int i = 0; i < nb; i++) {
+					operands[i] = this.sql(pred.getOperand(i), positive);
+				}
+				return this.junction((op == ZOperator.AND) == positive, operands);
+			case NOT:
+				if (nb < 1) {
+					break;
+				}
+				return this.sql(pred.getOperand(0), !positive);
+			case IS_NULL:
+			case IS_NOT_NULL:
+				if (nb < 1) {
+					break;
+				}
+				return new IsNull(new ZSqlNulls(pred.getOperand(0), this.schema), (op == ZOperator.IS_NULL) == positive);
+			case IN:
+			case NOT_IN:
+				final ZQuery query = ZEval.subQuery(pred);
+				if (query == null) {
+					break;
+				}
+				final CompiledValue value = this.value(pred.getOperand(0));
+				final ZInList.SubQuery subQuery = new ZInList.SubQuery(this.eval.getSubQueryResolver(), query);
+				return new NullGuard(new ZSqlNulls(pred.getOperand(0), this.schema), (op == ZOperator.IN) == positive ? new ListIn(value, null, subQuery,
+						this.shortCircuit) : new NotInSubQuery(value, subQuery, this.shortCircuit));
+			default:
+				break;
+			}
+			final ZExp expanded = ZSqlNulls.expand(pred);
+			if (expanded != null) {
+				return this.sql(expanded, positive);
+			}
+		}
+		final CompiledPredicate leaf = this.operator(exp);
+		return new NullGuard(new ZSqlNulls(exp, this.schema), positive ? leaf : new Not(leaf));
+	}
+
+	/**
+	 * Compile a boolean expression, the nulls failing as unknown columns.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled predicate.
+	 */
+	private CompiledPredicate operator(final ZExp exp) {
+		if (!(exp instanceof ZExpression)) {
+			return new InterpretedPredicate(this.eval, exp, this.shortCircuit);
+		}
+
+		final ZExpression pred = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op == null) || (pred.getOperands() == null)) {
+			return new InterpretedPredicate(this.eval, exp, this.shortCircuit);
+		}
+		final int nb = pred.nbOperands();
+
+		switch (op) {
+		case AND:
+		case OR:
+			return this.junction(op == ZOperator.AND, this.predicates(pred));
+		case NOT:
+			if (nb < 1) {
+				break;
+			}
+			return new Not(this.predicate(pred.getOperand(0)));
+
+		case EQUALS:
+		case NOT_EQUALS:
+		case EXCLUDING:
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUALS:
+			if (nb != ZCommonConstants.MAGIC_NUMBER_2) {
+				break;
+			}
+			return comparison(op, this.value(pred.getOperand(0)), this.value(pred.getOperand(1)));
+
+		case BETWEEN:
+		case NOT_BETWEEN:
+			if (nb < ZCommonConstants.MAGIC_NUMBER_3) {
+				break;
+			}
+			final CompiledPredicate between = new Between(this.value(pred.getOperand(0)), this.value(pred.getOperand(1)), this.value(pred.getOperand(2)),
+					this.shortCircuit);
+			return op == ZOperator.BETWEEN ? between : new Not(between);
+
+		case LIKE:
+		case NOT_LIKE:
+			if ((nb != ZCommonConstants.MAGIC_NUMBER_2) && (nb != ZCommonConstants.MAGIC_NUMBER_3)) {
+				break;
+			}
+			final ZLikePattern pattern = constantPattern(pred);
+			final CompiledPredicate like;
+			if (pattern != null) {
+				like = new ConstantLike(this.value(pred.getOperand(0)), pattern);
+			} else {
+				like = new Like(this.value(pred.getOperand(0)), this.value(pred.getOperand(1)),
+						nb == ZCommonConstants.MAGIC_NUMBER_3 ? this.value(pred.getOperand(2)) : null);
+			}
+			return op == ZOperator.LIKE ? like : new Not(like);
+
+		case IN:
+		case NOT_IN:
+			if (nb < 1) {
+				break;
+			}
+			final CompiledPredicate in;
+			final ZQuery query = ZEval.subQuery(pred);
+			if (query != null) {
+				in = new ListIn(this.value(pred.getOperand(0)), null, new ZInList.SubQuery(this.eval.getSubQueryResolver(), query), this.shortCircuit);
+			} else {
+				final ZInList constants = constantList(pred);
+				if (constants != null) {
+					in = new ListIn(this.value(pred.getOperand(0)), constants, null, this.shortCircuit);
+				} else {
+					final CompiledValue[] list = new CompiledValue[nb - 1];
+					for (int i = 1; i < nb; i++) {
+						list[i - 1] = this.value(pred.getOperand(i));
+					}
+					in = new In(this.value(pred.getOperand(0)), list, this.shortCircuit);
+				}
+			}
+			return op == ZOperator.IN ? in : new Not(in);
+
+		case IS_NULL:
+		case IS_NOT_NULL:
+			// Only constants are supported, so the result never depends on the tuple
+			final ZExp x = nb <= 0 ? null : pred.getOperand(0);
+			if ((x != null) && !(x instanceof ZConstant)) {
+				break;
+			}
+			final boolean isNull = (x == null) || (((ZConstant) x).getType() == ZConstant.NULL);
+			return (op == ZOperator.IS_NULL) == isNull ? Literal.TRUE : Literal.FALSE;
+
+		default:
+			break;
+		}
+		return new InterpretedPredicate(this.eval, exp, this.shortCircuit);
+	}
+
+	/**
+	 * Analyse the pattern of a LIKE at compile time, if it is a constant.
+	 *
+	 * @param like
+	 *            the LIKE expression, with 2 or 3 operands.
+	 * @return the pattern, null if not constant or invalid.
+	 */
+	static ZLikePattern constantPattern(final ZExpression like) {
+		final ZExp pattern = like.getOperand(1);
+		final ZExp escape = like.nbOperands() > ZCommonConstants.MAGIC_NUMBER_2 ? like.getOperand(2) : null;
+		if (!isString(pattern) || ((escape != null) && !isString(escape))) {
+			return null;
+		}
+		try {
+			return ZLikePattern.compile(((ZConstant) pattern).getValue(), escape == null ? null : ((ZConstant) escape).getValue());
+		} catch (final SQLException e) {
+			// Thrown at evaluation time
+			return null;
+		}
+	}
+
+	/**
+	 * Index the elements of an IN list at compile time, if they are all
+	 * constants.
+	 *
+	 * @param in
+	 *            the IN expression, with a list of values.
+	 * @return the indexed elements, null if the list is empty or if some are
+	 *         not constant.
+	 */
+	static ZInList constantList(final ZExpression in) {
+		final Object[] elements = new Object[in.nbOperands() - 1];
+		if (elements.length == 0) {
+			return null;
+		}
+		for (int i = 0; i < elements.length; i++) {
+			final ZExp exp = in.getOperand(i + 1);
+			if (!(exp instanceof ZConstant) || (((ZConstant) exp).getType() == ZConstant.COLUMNNAME) || (((ZConstant) exp).getValue() == null)) {
+				return null;
+			}
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() != ZConstant.NUMBER) {
+				elements[i] = c.getValue();
+				continue;
+			}
+			try {
+				elements[i] = Double.valueOf(c.getValue());
+			} catch (final NumberFormatException e) {
+				// Thrown at evaluation time
+				return null;
+			}
+		}
+		return new ZInList(elements);
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a string constant.
+	 */
+	private static boolean isString(final ZExp exp) {
+		return (exp instanceof ZConstant) && (((ZConstant) exp).getType() == ZConstant.STRING) && (((ZConstant) exp).getValue() != null);
+	}
+
+	/**
+	 * Create the node of an AND or an OR.
+	 *
+	 * @param and
+	 *            true for AND, false for OR.
+	 * @param operands
+	 *            the compiled operands.
+	 * @return the compiled junction.
+	 */
+	private CompiledPredicate junction(final boolean and, final CompiledPredicate[] operands) {
+		switch (this.evaluation) {
+		case ADAPTIVE:
+			if (operands.length > 1) {
+				return new Adaptive(operands, !and);
+			}
+			return new ShortCircuit(operands, !and);
+		case SHORT_CIRCUIT:
+			return new ShortCircuit(operands, !and);
+		case EXHAUSTIVE:
+		default:
+			return and ? new And(operands) : new Or(operands);
+		}
+	}
+
+	/**
+	 * Compile the operands of a boolean expression.
+	 *
+	 * @param pred
+	 *            the expression.
+	 * @return the compiled operands.
+	 */
+	private CompiledPredicate[] predicates(final ZExpression pred) {
+		final CompiledPredicate[] operands = new CompiledPredicate[pred.nbOperands()];
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = this.predicate(pred.getOperand(i));
+		}
+		return operands;
+	}
+
+	/**
+	 * Compile a numeric or string expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled expression.
+	 */
+	CompiledValue value(final ZExp exp) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			switch (c.getType()) {
+			case ZConstant.COLUMNNAME:
+				final int slot = this.schema == null ? -1 : this.schema.indexOf(c.getValue());
+				if (slot < 0) {
+					return new Column(c.getValue());
+				}
+				if (this.schema.getColumnType(slot).isNumeric()) {
+					return new NumericSlot(slot, c.getValue());
+				}
+				return new Slot(slot, c.getValue());
+			case ZConstant.NUMBER:
+				try {
+					return new NumericConstant(Double.parseDouble(c.getValue()));
+				} catch (final NumberFormatException e) {
+					return new InterpretedValue(this.eval, exp);
+				}
+			case ZConstant.STRING:
+			default:
+				return new Constant(c.getValue());
+			}
+		} else if (exp instanceof ZExpression) {
+			return this.arithmetic((ZExpression) exp);
+		}
+		return new Constant(null);
+	}
+
+	/**
+	 * Compile a numeric expression.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the compiled expression.
+	 */
+	private CompiledValue arithmetic(final ZExpression exp) {
+		final ZOperator op = ZOperator.toEnumQuiet(exp.getOperator());
+		if ((op == null) || (exp.getOperands() == null) || (exp.nbOperands() < 1)) {
+			return new InterpretedValue(this.eval, exp);
+		}
+		final int nb = exp.nbOperands();
+
+		final CompiledValue first = this.value(exp.getOperand(0));
+		final CompiledValue[] others = new CompiledValue[nb - 1];
+		for (int i = 1; i < nb; i++) {
+			others[i - 1] = this.value(exp.getOperand(i));
+		}
+
+		switch (op) {
+		case PLUS:
+			return new Arithmetic(first, others) {
+				@Override
+				double apply(final double left, final double right) {
+					return left + right;
+				}
+			};
+		case MINUS:
+			if (nb == 1) {
+				return new Negate(first);
+			}
+			return new Arithmetic(first, others) {
+				@Override
+				double apply(final double left, final double right) {
+					return left - right;
+				}
+			};
+		case MULTIPLICATION:
+			return new Arithmetic(first, others) {
+				@Override
+				double apply(final double left, final double right) {
+					return left * right;
+				}
+			};
+		case SLASH:
+			return new Arithmetic(first, others) {
+				@Override
+				double apply(final double left, final double right) {
+					return left / right;
+				}
+			};
+		case POW:
+			return new Arithmetic(first, others) {
+				@Override
+				double apply(final double left, final double right) {
+					return Math.pow(left, right);
+				}
+			};
+		default:
+			return new InterpretedValue(this.eval, exp);
+		}
+	}
+
+	/**
+	 * Create the node of a comparison operator.
+	 *
+	 * @param op
+	 *            the operator.
+	 * @param left
+	 *            the left operand.
+	 * @param right
+	 *            the right operand.
+	 * @return the compiled comparison.
+	 */
+	private static CompiledPredicate comparison(final ZOperator op, final CompiledValue left, final CompiledValue right) {
+		switch (op) {
+		case EQUALS:
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp == 0;
+				}
+			};
+		case GREATER_THAN:
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp > 0;
+				}
+			};
+		case GREATER_THAN_OR_EQUALS:
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp >= 0;
+				}
+			};
+		case LESS_THAN:
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp < 0;
+				}
+			};
+		case LESS_THAN_OR_EQUALS:
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp <= 0;
+				}
+			};
+		default:
+			// != and <>
+			return new Comparison(left, right) {
+				@Override
+				boolean accept(final double cmp) {
+					return cmp != 0;
+				}
+			};
+		}
+	}
+
+	/**
+	 * The top-level predicate: checks the tuple once for all the nodes.
+	 */
+	private static final class Root implements CompiledPredicate {
+
+		/**
+		 * The compiled expression.
+		 */
+		private final CompiledPredicate pred;
+
+		/**
+		 * The exhaustive copy of a short-circuited expression, null if
+		 * exhaustive.
+		 */
+		private final CompiledPredicate exhaustive;
+
+		/**
+		 * @param pred
+		 *            the compiled expression.
+		 * @param exhaustive
+		 *            the exhaustive copy of a short-circuited expression, null
+		 *            if exhaustive.
+		 */
+		Root(final CompiledPredicate pred, final CompiledPredicate exhaustive) {
+			this.pred = pred;
+			this.exhaustive = exhaustive;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			if (tuple == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_NULL_ARGUMENT_OR_OPERATOR);
+			}
+			if (this.exhaustive == null) {
+				return this.pred.test(tuple);
+			}
+			// Skipping operands may change which exception comes first
+			try {
+				return this.pred.test(tuple);
+			} catch (final SQLException e) {
+				return this.exhaustive.test(tuple);
+			} catch (final RuntimeException e) {
+				return this.exhaustive.test(tuple);
+			}
+		}
+	}
+
+	/**
+	 * Rejects the tuples of another schema than the one of the predicate.
+	 */
+	private static final class SchemaCheck implements CompiledPredicate {
+
+		/**
+		 * The schema.
+		 */
+		private final ZTupleSchema schema;
+
+		/**
+		 * The predicate bound to the schema.
+		 */
+		private final CompiledPredicate pred;
+
+		/**
+		 * @param schema
+		 *            the schema.
+		 * @param pred
+		 *            the predicate bound to the schema.
+		 */
+		SchemaCheck(final ZTupleSchema schema, final CompiledPredicate pred) {
+			this.schema = schema;
+			this.pred = pred;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			if (tuple == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_NULL_ARGUMENT_OR_OPERATOR);
+			}
+			final ZTupleSchema actual = tuple.getSchema();
+			if ((actual != this.schema) && !this.schema.equals(actual)) {
+				throw new SQLException(ZCommonConstants.ZEVAL_SCHEMA_MISMATCH + this.schema + ", not " + actual);
+			}
+			return this.pred.test(tuple);
+		}
+	}
+
+	/**
+	 * A predicate that doesn't depend on the tuple.
+	 */
+	private static final class Literal implements CompiledPredicate {
+
+		/**
+		 * Always true.
+		 */
+		static final Literal TRUE = new Literal(true);
+
+		/**
+		 * Always false.
+		 */
+		static final Literal FALSE = new Literal(false);
+
+		/**
+		 * The result.
+		 */
+		private final boolean result;
+
+		/**
+		 * @param result
+		 *            the result.
+		 */
+		private Literal(final boolean result) {
+			this.result = result;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) {
+			return this.result;
+		}
+	}
+
+	/**
+	 * AND: all the operands are evaluated, as in the interpreter.
+	 */
+	private static final class And implements CompiledPredicate {
+
+		/**
+		 * The operands.
+		 */
+		private final CompiledPredicate[] operands;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 */
+		And(final CompiledPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			boolean and = true;
+			for (final CompiledPredicate operand : this.operands) {
+				and &= operand.test(tuple);
+			}
+			return and;
+		}
+	}
+
+	/**
+	 * OR: all the operands are evaluated, as in the interpreter.
+	 */
+	private static final class Or implements CompiledPredicate {
+
+		/**
+		 * The operands.
+		 */
+		private final CompiledPredicate[] operands;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 */
+		Or(final CompiledPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			boolean or = false;
+			for (final CompiledPredicate operand : this.operands) {
+				or |= operand.test(tuple);
+			}
+			return or;
+		}
+	}
+
+	/**
+	 * AND or OR, stopping at the first operand that decides the result.
+	 */
+	private static final class ShortCircuit implements CompiledPredicate {
+
+		/**
+		 * The operands.
+		 */
+		private final CompiledPredicate[] operands;
+
+		/**
+		 * The result that stops the evaluation: false for AND, true for OR.
+		 */
+		private final boolean decisive;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 * @param decisive
+		 *            the result that stops the evaluation: false for AND,
+		 *            true for OR.
+		 */
+		ShortCircuit(final CompiledPredicate[] operands, final boolean decisive) {
+			this.operands = operands;
+			this.decisive = decisive;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			for (final CompiledPredicate operand : this.operands) {
+				if (operand.test(tuple) == this.decisive) {
+					return this.decisive;
+				}
+			}
+			return !this.decisive;
+		}
+	}
+
+	/**
+	 * AND or OR, stopping at the first operand that decides the result, and
+	 * reordering its operands from time to time so that the cheapest ones
+	 * that most often decide the result come first.
+	 *
+	 * The statistics are sampled, and shared by all the threads without
+	 * synchronization: a lost update only makes them a bit less accurate.
+	 */
+	private static final class Adaptive implements CompiledPredicate {
+
+		/**
+		 * One test out of SAMPLING is timed (power of 2).
+		 */
+		private static final int SAMPLING = 16;
+
+		/**
+		 * The operands are reordered every PERIOD tests (power of 2).
+		 */
+		private static final int PERIOD = 1024;
+
+		/**
+		 * The operands, in source order.
+		 */
+		private final CompiledPredicate[] operands;
+
+		/**
+		 * The result that stops the evaluation: false for AND, true for OR.
+		 */
+		private final boolean decisive;
+
+		/**
+		 * For each operand: number of timed evaluations.
+		 */
+		private final long[] evaluations;
+
+		/**
+		 * For each operand: number of timed evaluations giving the decisive
+		 * result.
+		 */
+		private final long[] decisions;
+
+		/**
+		 * For each operand: time spent in the timed evaluations.
+		 */
+		private final long[] nanos;
+
+		/**
+		 * For each operand: true if timed since the last reordering.
+		 */
+		private final boolean[] seen;
+
+		/**
+		 * The evaluation order, as indexes in operands; replaced, never
+		 * modified.
+		 */
+		private volatile int[] order;
+
+		/**
+		 * Number of tests.
+		 */
+		private int tests = 0;
+
+		/**
+		 * @param operands
+		 *            the operands.
+		 * @param decisive
+		 *            the result that stops the evaluation: false for AND,
+		 *            true for OR.
+		 */
+		Adaptive(final CompiledPredicate[] operands, final boolean decisive) {
+			this.operands = operands;
+			this.decisive = decisive;
+			this.evaluations = new long[operands.length];
+			this.decisions = new long[operands.length];
+			this.nanos = new long[operands.length];
+			this.seen = new boolean[operands.length];
+			final int[] initial = new int[operands.length];
+			for (int i = 0; i < initial.length; i++) {
+				initial[i] = i;
+			}
+			this.order = initial;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			final int n = ++this.tests;
+			if ((n & (PERIOD - 1)) == 0) {
+				this.reorder();
+			}
+
+			final int[] current = this.order;
+			if ((n & (SAMPLING - 1)) != 0) {
+				for (final int i : current) {
+					if (this.operands[i].test(tuple) == this.decisive) {
+						return this.decisive;
+					}
+				}
+				return !this.decisive;
+			}
+
+			for (final int i : current) {
+				final long start = System.nanoTime();
+				final boolean result = this.operands[i].test(tuple);
+				this.nanos[i] += System.nanoTime() - start;
+				this.evaluations[i]++;
+				this.seen[i] = true;
+				if (result == this.decisive) {
+					this.decisions[i]++;
+					return this.decisive;
+				}
+			}
+			return !this.decisive;
+		}
+
+		/**
+		 * Sort the operands on their expected cost to decide the result, then
+		 * give less weight to the past.
+		 */
+		private void reorder() {
+			final int length = this.operands.length;
+			final double[] rank = new double[length];
+			for (int i = 0; i < length; i++) {
+				if (this.evaluations[i] == 0) {
+					// Never reached: stays behind the others
+					rank[i] = Double.MAX_VALUE;
+				} else {
+					final double cost = (this.nanos[i] + 1.0) / this.evaluations[i];
+					final double decides = (this.decisions[i] + 1.0) / (this.evaluations[i] + 2.0);
+					rank[i] = cost / decides;
+				}
+			}
+
+			final int[] sorted = this.order.clone();
+			for (int i = 1; i < length; i++) {
+				final int op = sorted[i];
+				int j = i - 1;
+				while ((j >= 0) && (rank[sorted[j]] > rank[op])) {
+					sorted[j + 1] = sorted[j];
+					j--;
+				}
+				sorted[j + 1] = op;
+			}
+			this.order = sorted;
+
+			for (int i = 0; i < length; i++) {
+				// Operands that are not reached any more keep their statistics
+				if (this.seen[i]) {
+					this.evaluations[i] >>= 1;
+					this.decisions[i] >>= 1;
+					this.nanos[i] >>= 1;
+					this.seen[i] = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * NOT, and the negated forms of BETWEEN, LIKE and IN.
+	 */
+	private static final class Not implements CompiledPredicate {
+
+		/**
+		 * The negated predicate.
+		 */
+		private final CompiledPredicate operand;
+
+		/**
+		 * @param operand
+		 *            the negated predicate.
+		 */
+		Not(final CompiledPredicate operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			return !this.operand.test(tuple);
+		}
+	}
+
+	/**
+	 * A predicate that is false when one of its operands is null.
+	 */
+	private static final class NullGuard implements CompiledPredicate {
+
+		/**
+		 * The null test of the operands.
+		 */
+		private final ZSqlNulls nulls;
+
+		/**
+		 * The predicate, evaluated when no operand is null.
+		 */
+		private final CompiledPredicate operand;
+
+		/**
+		 * @param nulls
+		 *            the null test of the operands.
+		 * @param operand
+		 *            the predicate, evaluated when no operand is null.
+		 */
+		NullGuard(final ZSqlNulls nulls, final CompiledPredicate operand) {
+			this.nulls = nulls;
+			this.operand = operand;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			return !this.nulls.hasNull(tuple) && this.operand.test(tuple);
+		}
+	}
+
+	/**
+	 * IS NULL, or IS NOT NULL, with SQL nulls.
+	 */
+	private static final class IsNull implements CompiledPredicate {
+
+		/**
+		 * The null test of the operand.
+		 */
+		private final ZSqlNulls nulls;
+
+		/**
+		 * true for IS NULL, false for IS NOT NULL.
+		 */
+		private final boolean isNull;
+
+		/**
+		 * @param nulls
+		 *            the null test of the operand.
+		 * @param isNull
+		 *            true for IS NULL, false for IS NOT NULL.
+		 */
+		IsNull(final ZSqlNulls nulls, final boolean isNull) {
+			this.nulls = nulls;
+			this.isNull = isNull;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			return this.nulls.isNull(tuple) == this.isNull;
+		}
+	}
+
+	/**
+	 * NOT IN (subquery), with SQL nulls: unknown if the result of the
+	 * subquery has nulls and no element is equal to the value.
+	 */
+	private static final class NotInSubQuery implements CompiledPredicate {
+
+		/**
+		 * The tested value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The subquery.
+		 */
+		private final ZInList.SubQuery subQuery;
+
+		/**
+		 * true to stop at the first equal element.
+		 */
+		private final boolean shortCircuit;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param subQuery
+		 *            the subquery.
+		 * @param shortCircuit
+		 *            true to stop at the first equal element.
+		 */
+		NotInSubQuery(final CompiledValue value, final ZInList.SubQuery subQuery, final boolean shortCircuit) {
+			this.value = value;
+			this.subQuery = subQuery;
+			this.shortCircuit = shortCircuit;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			final Object v = this.value.value(tuple);
+			final ZInList in = this.subQuery.get();
+			return !in.contains(v, this.shortCircuit) && !in.hasNulls();
+		}
+	}
+
+	/**
+	 * The comparison operators, specialized on the sign of ZEval.compare().
+	 * Two numeric operands are compared without boxing.
+	 */
+	private abstract static class Comparison implements CompiledPredicate {
+
+		/**
+		 * The left operand.
+		 */
+		private final CompiledValue left;
+
+		/**
+		 * The right operand.
+		 */
+		private final CompiledValue right;
+
+		/**
+		 * The left operand if both operands are numeric, else null.
+		 */
+		private final CompiledNumber leftNumber;
+
+		/**
+		 * The right operand if both operands are numeric, else null.
+		 */
+		private final CompiledNumber rightNumber;
+
+		/**
+		 * @param left
+		 *            the left operand.
+		 * @param right
+		 *            the right operand.
+		 */
+		Comparison(final CompiledValue left, final CompiledValue right) {
+			this.left = left;
+			this.right = right;
+			final boolean numeric = (left instanceof CompiledNumber) && (right instanceof CompiledNumber);
+			this.leftNumber = numeric ? (CompiledNumber) left : null;
+			this.rightNumber = numeric ? (CompiledNumber) right : null;
+		}
+
+		@Override
+		public final boolean test(final ZTuple tuple) throws SQLException {
+			if (this.leftNumber != null) {
+				final double d1 = this.leftNumber.number(tuple);
+				return this.accept(d1 - this.rightNumber.number(tuple));
+			}
+			final Object o1 = this.left.value(tuple);
+			final Object o2 = this.right.value(tuple);
+			return this.accept(ZEval.compare(o1, o2));
+		}
+
+		/**
+		 * @param cmp
+		 *            the result of the comparison.
+		 * @return the result of the operator.
+		 */
+		abstract boolean accept(double cmp);
+	}
+
+	/**
+	 * BETWEEN, borders included: value >= low AND value <= high.
+	 */
+	private static final class Between implements CompiledPredicate {
+
+		/**
+		 * The tested value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The lower bound.
+		 */
+		private final CompiledValue low;
+
+		/**
+		 * The upper bound.
+		 */
+		private final CompiledValue high;
+
+		/**
+		 * true to skip the upper bound when below the lower bound.
+		 */
+		private final boolean shortCircuit;
+
+		/**
+		 * true if the three operands are numeric, and compared without
+		 * boxing.
+		 */
+		private final boolean numeric;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param low
+		 *            the lower bound.
+		 * @param high
+		 *            the upper bound.
+		 * @param shortCircuit
+		 *            true to skip the upper bound when below the lower bound.
+		 */
+		Between(final CompiledValue value, final CompiledValue low, final CompiledValue high, final boolean shortCircuit) {
+			this.value = value;
+			this.low = low;
+			this.high = high;
+			this.shortCircuit = shortCircuit;
+			this.numeric = (value instanceof CompiledNumber) && (low instanceof CompiledNumber) && (high instanceof CompiledNumber);
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			if (this.numeric) {
+				final double d = ((CompiledNumber) this.value).number(tuple);
+				final boolean above = d - ((CompiledNumber) this.low).number(tuple) >= 0;
+				if (!above && this.shortCircuit) {
+					return false;
+				}
+				final boolean below = d - ((CompiledNumber) this.high).number(tuple) <= 0;
+				return above & below;
+			}
+			final Object v = this.value.value(tuple);
+			final boolean above = ZEval.compare(v, this.low.value(tuple)) >= 0;
+			if (!above && this.shortCircuit) {
+				return false;
+			}
+			final boolean below = ZEval.compare(v, this.high.value(tuple)) <= 0;
+			return above & below;
+		}
+	}
+
+	/**
+	 * LIKE.
+	 */
+	private static final class Like implements CompiledPredicate {
+
+		/**
+		 * The value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The pattern.
+		 */
+		private final CompiledValue pattern;
+
+		/**
+		 * The escape character, null if none.
+		 */
+		private final CompiledValue escape;
+
+		/**
+		 * @param value
+		 *            the value.
+		 * @param pattern
+		 *            the pattern.
+		 * @param escape
+		 *            the escape character, null if none.
+		 */
+		Like(final CompiledValue value, final CompiledValue pattern, final CompiledValue escape) {
+			this.value = value;
+			this.pattern = pattern;
+			this.escape = escape;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			final Object o1 = this.value.value(tuple);
+			final Object o2 = this.pattern.value(tuple);
+			if (this.escape != null) {
+				return ZEval.like(o1, o2, this.escape.value(tuple));
+			}
+			return ZEval.like(o1, o2);
+		}
+	}
+
+	/**
+	 * LIKE with a constant pattern, analysed at compile time.
+	 */
+	private static final class ConstantLike implements CompiledPredicate {
+
+		/**
+		 * The value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The pattern.
+		 */
+		private final ZLikePattern pattern;
+
+		/**
+		 * @param value
+		 *            the value.
+		 * @param pattern
+		 *            the pattern.
+		 */
+		ConstantLike(final CompiledValue value, final ZLikePattern pattern) {
+			this.value = value;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			final Object o1 = this.value.value(tuple);
+			if (!(o1 instanceof String)) {
+				throw new SQLException(ZCommonConstants.ZEVAL_LIKE_LIKE_CAN_ONLY_COMPARE_STRINGS);
+			}
+			return this.pattern.matches((String) o1);
+		}
+	}
+
+	/**
+	 * IN: value = v1 OR value = v2... with all the elements evaluated.
+	 */
+	private static final class In implements CompiledPredicate {
+
+		/**
+		 * The tested value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The list of values.
+		 */
+		private final CompiledValue[] list;
+
+		/**
+		 * true to stop at the first equal element.
+		 */
+		private final boolean shortCircuit;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param list
+		 *            the list of values.
+		 * @param shortCircuit
+		 *            true to stop at the first equal element.
+		 */
+		In(final CompiledValue value, final CompiledValue[] list, final boolean shortCircuit) {
+			this.value = value;
+			this.list = list;
+			this.shortCircuit = shortCircuit;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			if (this.list.length == 0) {
+				return false;
+			}
+			final Object v = this.value.value(tuple);
+			boolean in = false;
+			for (int i = 0; (i < this.list.length) && (!in || !this.shortCircuit); i++) {
+				in |= ZEval.compare(v, this.list[i].value(tuple)) == 0;
+			}
+			return in;
+		}
+	}
+
+	/**
+	 * IN with a list of constants, indexed at compile time, or with a
+	 * subquery, materialized on first use.
+	 */
+	private static final class ListIn implements CompiledPredicate {
+
+		/**
+		 * The tested value.
+		 */
+		private final CompiledValue value;
+
+		/**
+		 * The list of constants, null for a subquery.
+		 */
+		private final ZInList list;
+
+		/**
+		 * The subquery, null for a list of constants.
+		 */
+		private final ZInList.SubQuery subQuery;
+
+		/**
+		 * true to stop at the first equal element.
+		 */
+		private final boolean shortCircuit;
+
+		/**
+		 * @param value
+		 *            the tested value.
+		 * @param list
+		 *            the list of constants, null for a subquery.
+		 * @param subQuery
+		 *            the subquery, null for a list of constants.
+		 * @param shortCircuit
+		 *            true to stop at the first equal element.
+		 */
+		ListIn(final CompiledValue value, final ZInList list, final ZInList.SubQuery subQuery, final boolean shortCircuit) {
+			this.value = value;
+			this.list = list;
+			this.subQuery = subQuery;
+			this.shortCircuit = shortCircuit;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			final Object v = this.value.value(tuple);
+			final ZInList in = this.list != null ? this.list : this.subQuery.get();
+			return in.contains(v, this.shortCircuit);
+		}
+	}
+
+	/**
+	 * A shape that is not compiled: left to the interpreter.
+	 */
+	private static final class InterpretedPredicate implements CompiledPredicate {
+
+		/**
+		 * The interpreter.
+		 */
+		private final ZEval eval;
+
+		/**
+		 * The expression.
+		 */
+		private final ZExp exp;
+
+		/**
+		 * true to stop evaluating AND and OR operands once the result is
+		 * known.
+		 */
+		private final boolean shortCircuit;
+
+		/**
+		 * @param eval
+		 *            the interpreter.
+		 * @param exp
+		 *            the expression.
+		 * @param shortCircuit
+		 *            true to stop evaluating AND and OR operands once the
+		 *            result is known.
+		 */
+		InterpretedPredicate(final ZEval eval, final ZExp exp, final boolean shortCircuit) {
+			this.eval = eval;
+			this.exp = exp;
+			this.shortCircuit = shortCircuit;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			return this.eval.evalPredicate(tuple, this.exp, this.shortCircuit);
+		}
+	}
+
+	/**
+	 * A whole expression left to the interpreter (the INTERPRETER backend).
+	 */
+	private static final class Interpreter implements CompiledPredicate {
+
+		/**
+		 * The interpreter.
+		 */
+		private final ZEval eval;
+
+		/**
+		 * The expression.
+		 */
+		private final ZExp exp;
+
+		/**
+		 * @param eval
+		 *            the interpreter.
+		 * @param exp
+		 *            the expression.
+		 */
+		Interpreter(final ZEval eval, final ZExp exp) {
+			this.eval = eval;
+			this.exp = exp;
+		}
+
+		@Override
+		public boolean test(final ZTuple tuple) throws SQLException {
+			return this.eval.eval(tuple, this.exp);
+		}
+	}
+
+	/**
+	 * A column value: numbers are converted to Double, as in the interpreter.
+	 */
+	private static final class Column implements CompiledValue {
+
+		/**
+		 * The column name.
+		 */
+		private final String name;
+
+		/**
+		 * @param name
+		 *            the column name.
+		 */
+		Column(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) throws SQLException {
+			final Object o = tuple.getAttValue(this.name);
+			if (o == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + this.name);
+			}
+			return ZEval.toNumber(o);
+		}
+	}
+
+	/**
+	 * A column value read by index, in a tuple of a known schema.
+	 */
+	private static final class Slot implements CompiledValue {
+
+		/**
+		 * The column index.
+		 */
+		private final int slot;
+
+		/**
+		 * The column name.
+		 */
+		private final String name;
+
+		/**
+		 * @param slot
+		 *            the column index.
+		 * @param name
+		 *            the column name.
+		 */
+		Slot(final int slot, final String name) {
+			this.slot = slot;
+			this.name = name;
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) throws SQLException {
+			final Object o = tuple.getAttValue(this.slot);
+			if (o == null) {
+				throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + this.name);
+			}
+			return ZEval.toNumber(o);
+		}
+	}
+
+	/**
+	 * A LONG or DOUBLE column read by index, without boxing.
+	 */
+	private static final class NumericSlot implements CompiledNumber {
+
+		/**
+		 * The column index.
+		 */
+		private final int slot;
+
+		/**
+		 * The column name.
+		 */
+		private final String name;
+
+		/**
+		 * @param slot
+		 *            the column index.
+		 * @param name
+		 *            the column name.
+		 */
+		NumericSlot(final int slot, final String name) {
+			this.slot = slot;
+			this.name = name;
+		}
+
+		@Override
+		public double number(final ZTuple tuple) throws SQLException {
+			if (tuple.isNull(this.slot)) {
+				throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + this.name);
+			}
+			return tuple.getDouble(this.slot);
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) throws SQLException {
+			return this.number(tuple);
+		}
+	}
+
+	/**
+	 * A numeric constant, parsed at compile time.
+	 */
+	private static final class NumericConstant implements CompiledNumber {
+
+		/**
+		 * The value.
+		 */
+		private final double number;
+
+		/**
+		 * The boxed value.
+		 */
+		private final Double value;
+
+		/**
+		 * @param number
+		 *            the value.
+		 */
+		NumericConstant(final double number) {
+			this.number = number;
+			this.value = number;
+		}
+
+		@Override
+		public double number(final ZTuple tuple) {
+			return this.number;
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) {
+			return this.value;
+		}
+	}
+
+	/**
+	 * A constant value, converted at compile time.
+	 */
+	private static final class Constant implements CompiledValue {
+
+		/**
+		 * The value.
+		 */
+		private final Object value;
+
+		/**
+		 * @param value
+		 *            the value.
+		 */
+		Constant(final Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) {
+			return this.value;
+		}
+	}
+
+	/**
+	 * The arithmetic operators: the first operand must be a Double, the others
+	 * Numbers. The numeric operands are evaluated without boxing.
+	 */
+	private abstract static class Arithmetic implements CompiledNumber {
+
+		/**
+		 * The first operand.
+		 */
+		private final CompiledValue first;
+
+		/**
+		 * The other operands.
+		 */
+		private final CompiledValue[] others;
+
+		/**
+		 * @param first
+		 *            the first operand.
+		 * @param others
+		 *            the other operands.
+		 */
+		Arithmetic(final CompiledValue first, final CompiledValue[] others) {
+			this.first = first;
+			this.others = others;
+		}
+
+		@Override
+		public final double number(final ZTuple tuple) throws SQLException {
+			double val = firstNumber(this.first, tuple);
+			for (final CompiledValue other : this.others) {
+				if (other instanceof CompiledNumber) {
+					val = this.apply(val, ((CompiledNumber) other).number(tuple));
+				} else {
+					val = this.apply(val, ((Number) other.value(tuple)).doubleValue());
+				}
+			}
+			return val;
+		}
+
+		@Override
+		public final Object value(final ZTuple tuple) throws SQLException {
+			return this.number(tuple);
+		}
+
+		/**
+		 * @param left
+		 *            the accumulated value.
+		 * @param right
+		 *            the next operand.
+		 * @return the new accumulated value.
+		 */
+		abstract double apply(double left, double right);
+	}
+
+	/**
+	 * Unary minus.
+	 */
+	private static final class Negate implements CompiledNumber {
+
+		/**
+		 * The operand.
+		 */
+		private final CompiledValue operand;
+
+		/**
+		 * @param operand
+		 *            the operand.
+		 */
+		Negate(final CompiledValue operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public double number(final ZTuple tuple) throws SQLException {
+			return -firstNumber(this.operand, tuple);
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) throws SQLException {
+			return this.number(tuple);
+		}
+	}
+
+	/**
+	 * Evaluate the first operand of an arithmetic operator, that must be a
+	 * Double.
+	 *
+	 * @param operand
+	 *            the operand.
+	 * @param tuple
+	 *            the tuple.
+	 * @return the value of the operand.
+	 * @throws SQLException
+	 *             if the operand is not a Double.
+	 */
+	private static double firstNumber(final CompiledValue operand, final ZTuple tuple) throws SQLException {
+		if (operand instanceof CompiledNumber) {
+			return ((CompiledNumber) operand).number(tuple);
+		}
+		final Object o1 = operand.value(tuple);
+		if (!(o1 instanceof Double)) {
+			throw new SQLException(ZCommonConstants.ZEVAL_NUMERIC_EXP_EXPRESSION_NOT_NUMERIC);
+		}
+		return (Double) o1;
+	}
+
+	/**
+	 * A value that is not compiled: left to the interpreter.
+	 */
+	private static final class InterpretedValue implements CompiledValue {
+
+		/**
+		 * The interpreter.
+		 */
+		private final ZEval eval;
+
+		/**
+		 * The expression.
+		 */
+		private final ZExp exp;
+
+		/**
+		 * @param eval
+		 *            the interpreter.
+		 * @param exp
+		 *            the expression.
+		 */
+		InterpretedValue(final ZEval eval, final ZExp exp) {
+			this.eval = eval;
+			this.exp = exp;
+		}
+
+		@Override
+		public Object value(final ZTuple tuple) throws SQLException {
+			return this.eval.evalExpValue(tuple, this.exp);
+		}
+	}
+
+}
@@ -0,0 +1,715 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.gibello.zql.ZCopier;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Simplifies expressions before they are evaluated on many tuples:
+ * <ul>
+ * <li>arithmetic over numeric constants is folded, with the arithmetic of
+ * ZEval;</li>
+ * <li>predicates over constants are evaluated, and true and false operands of
+ * AND and OR are removed: 1 = 1 AND a = 1 gives a = 1;</li>
+ * <li>nested AND and OR are flattened, and duplicated operands removed;</li>
+ * <li>numeric range predicates on the same column are merged: a > 2 AND a >= 5
+ * AND a < 9 gives a >= 5 AND a < 9, a = 1 OR a = 2 gives a IN (1, 2);</li>
+ * <li>duplicated constants of IN lists are removed.</li>
+ * </ul>
+ *
+ * Results that don't depend on the tuple are written 1 = 1 (true) and 1 = 0
+ * (false). Only the column-on-the-left shapes are merged: as ZEval compares
+ * strings for equality only, a > 2 and 2 < a don't always agree.
+ *
+ * The simplified expression gives the same result as the original one on
+ * every tuple where the original evaluates without error; it may succeed where
+ * the original throws, as the operands that can't change the result are
+ * dropped. The original expression is not modified.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZSimplifier {
+
+	/**
+	 * Evaluates the constant parts, with the default settings.
+	 */
+	private static final ZEval EVAL = new ZEval();
+
+	/**
+	 * Folded numbers beyond that are written in floating-point notation.
+	 */
+	private static final double MAX_INTEGER = 1e15;
+
+	/**
+	 * Default constructor.
+	 */
+	private ZSimplifier() {
+
+	}
+
+	/**
+	 * Simplify an expression.
+	 *
+	 * @param exp
+	 *            the expression (may be null).
+	 * @return an equivalent expression, that shares no mutable state with the
+	 *         original.
+	 */
+	public static ZExp simplify(final ZExp exp) {
+		if (!(exp instanceof ZExpression)) {
+			return ZCopier.copyExpression(exp);
+		}
+		final ZExpression e = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(e.getOperator());
+		if ((op == null) || (e.getOperands() == null)) {
+			return ZCopier.copyExpression(exp);
+		}
+
+		final List<ZExp> operands = new ArrayList<ZExp>(e.nbOperands());
+		for (final ZExp operand : e.getOperands()) {
+			operands.add(simplify(operand));
+		}
+
+		switch (op) {
+		case AND:
+		case OR:
+			return junction(op == ZOperator.AND, operands);
+		case NOT:
+			if (operands.size() == 1) {
+				final Boolean truth = truth(operands.get(0));
+				if (truth != null) {
+					return constant(!truth);
+				}
+				if (isOperator(operands.get(0), ZOperator.NOT) && (((ZExpression) operands.get(0)).nbOperands() == 1)) {
+					return ((ZExpression) operands.get(0)).getOperand(0);
+				}
+			}
+			return expression(e.getOperator(), operands);
+		case PLUS:
+		case MINUS:
+		case MULTIPLICATION:
+		case SLASH:
+		case POW:
+			return arithmetic(expression(e.getOperator(), operands));
+		case IN:
+		case NOT_IN:
+			return fold(in(e.getOperator(), operands));
+		default:
+			return fold(expression(e.getOperator(), operands));
+		}
+	}
+
+	/**
+	 * Simplify an AND or an OR, whose operands are simplified.
+	 *
+	 * @param and
+	 *            true for AND, false for OR.
+	 * @param operands
+	 *            the simplified operands.
+	 * @return the simplified junction.
+	 */
+	private static ZExp junction(final boolean and, final List<ZExp> operands) {
+		final ZOperator op = and ? ZOperator.AND : ZOperator.OR;
+		final List<ZExp> flat = new ArrayList<ZExp>();
+		for (final ZExp operand : operands) {
+			if (isOperator(operand, op)) {
+				flat.addAll(((ZExpression) operand).getOperands());
+			} else {
+				flat.add(operand);
+			}
+		}
+
+		final List<ZExp> kept = new ArrayList<ZExp>();
+		for (final ZExp operand : flat) {
+			final Boolean truth = truth(operand);
+			if (truth == null) {
+				if (!kept.contains(operand)) {
+					kept.add(operand);
+				}
+			} else if (truth != and) {
+				// false in an AND, true in an OR
+				return constant(truth);
+			}
+		}
+
+		final List<ZExp> merged = and ? intersectRanges(kept) : uniteRanges(kept);
+		if (merged == null) {
+			return constant(false);
+		}
+		if (merged.isEmpty()) {
+			return constant(and);
+		}
+		if (merged.size() == 1) {
+			return merged.get(0);
+		}
+		return expression(op.symbol(), merged);
+	}
+
+	/**
+	 * Merge the numeric range predicates of an AND that test the same column.
+	 *
+	 * @param operands
+	 *            the operands of the AND.
+	 * @return the merged operands, null if the AND is always false.
+	 */
+	private static List<ZExp> intersectRanges(final List<ZExp> operands) {
+		final Map<String, Range> ranges = new LinkedHashMap<String, Range>();
+		for (final ZExp operand : operands) {
+			final ZConstant column = rangeColumn(operand, true);
+			if (column != null) {
+				Range range = ranges.get(column.getValue());
+				if (range == null) {
+					range = new Range(column);
+					ranges.put(column.getValue(), range);
+				}
+				range.count++;
+				if (!range.intersect((ZExpression) operand)) {
+					return null;
+				}
+			}
+		}
+
+		final List<ZExp> merged = new ArrayList<ZExp>();
+		for (final ZExp operand : operands) {
+			final ZConstant column = rangeColumn(operand, true);
+			final Range range = column == null ? null : ranges.get(column.getValue());
+			if ((range == null) || (range.count == 1)) {
+				merged.add(operand);
+			} else if (range.count > 0) {
+				// At the place of the first predicate on the column
+				range.count = 0;
+				if (!range.toPredicates(merged)) {
+					return null;
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Merge the range predicates of an OR that test the same column: lower
+	 * bounds only, upper bounds only, or equalities only.
+	 *
+	 * @param operands
+	 *            the operands of the OR.
+	 * @return the merged operands.
+	 */
+	private static List<ZExp> uniteRanges(final List<ZExp> operands) {
+		final Map<String, List<ZExpression>> groups = new LinkedHashMap<String, List<ZExpression>>();
+		for (final ZExp operand : operands) {
+			final ZConstant column = rangeColumn(operand, false);
+			if (column != null) {
+				List<ZExpression> group = groups.get(column.getValue());
+				if (group == null) {
+					group = new ArrayList<ZExpression>();
+					groups.put(column.getValue(), group);
+				}
+				group.add((ZExpression) operand);
+			}
+		}
+
+		final List<ZExp> merged = new ArrayList<ZExp>();
+		final Set<String> done = new HashSet<String>();
+		for (final ZExp operand : operands) {
+			final ZConstant column = rangeColumn(operand, false);
+			final List<ZExpression> group = column == null ? null : groups.get(column.getValue());
+			final ZExp union = group == null ? null : union(group);
+			if (union == null) {
+				merged.add(operand);
+			} else if (done.add(column.getValue())) {
+				merged.add(union);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * @param group
+	 *            the range predicates of an OR on a column.
+	 * @return the merged predicate, null if they can't be merged.
+	 */
+	private static ZExp union(final List<ZExpression> group) {
+		if (group.size() < 2) {
+			return null;
+		}
+		final ZOperator first = ZOperator.toEnumQuiet(group.get(0).getOperator());
+		final ZExp column = group.get(0).getOperand(0);
+		if (first == ZOperator.EQUALS) {
+			final List<ZExp> in = new ArrayList<ZExp>();
+			in.add(column);
+			for (final ZExpression pred : group) {
+				if (ZOperator.toEnumQuiet(pred.getOperator()) != ZOperator.EQUALS) {
+					return null;
+				}
+				in.add(pred.getOperand(1));
+			}
+			return in(ZOperator.IN.symbol(), in);
+		}
+
+		final boolean lower = (first == ZOperator.GREATER_THAN) || (first == ZOperator.GREATER_THAN_OR_EQUALS);
+		ZExpression loosest = null;
+		for (final ZExpression pred : group) {
+			final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+			final boolean inclusive = (op == ZOperator.GREATER_THAN_OR_EQUALS) || (op == ZOperator.LESS_THAN_OR_EQUALS);
+			if ((op == ZOperator.EQUALS) || (lower != ((op == ZOperator.GREATER_THAN) || (op == ZOperator.GREATER_THAN_OR_EQUALS)))) {
+				return null;
+			}
+			if (loosest == null) {
+				loosest = pred;
+				continue;
+			}
+			final double bound = number(pred.getOperand(1));
+			final double current = number(loosest.getOperand(1));
+			if ((lower ? bound < current : bound > current) || ((bound == current) && inclusive)) {
+				loosest = pred;
+			}
+		}
+		return loosest;
+	}
+
+	/**
+	 * The bounds of a column, in an AND.
+	 */
+	private static final class Range {
+
+		/**
+		 * The column.
+		 */
+		private final ZConstant column;
+
+		/**
+		 * Number of predicates on the column.
+		 */
+		private int count = 0;
+
+		/**
+		 * The lower bound, null if none.
+		 */
+		private ZConstant low = null;
+
+		/**
+		 * true if the lower bound is included.
+		 */
+		private boolean lowIncluded;
+
+		/**
+		 * The upper bound, null if none.
+		 */
+		private ZConstant high = null;
+
+		/**
+		 * true if the upper bound is included.
+		 */
+		private boolean highIncluded;
+
+		/**
+		 * The only value, null if none.
+		 */
+		private ZConstant equal = null;
+
+		/**
+		 * @param column
+		 *            the column.
+		 */
+		Range(final ZConstant column) {
+			this.column = column;
+		}
+
+		/**
+		 * Add a predicate.
+		 *
+		 * @param pred
+		 *            a range predicate on the column.
+		 * @return false if no value can satisfy the predicates.
+		 */
+		boolean intersect(final ZExpression pred) {
+			switch (ZOperator.toEnumQuiet(pred.getOperator())) {
+			case EQUALS: {
+				final ZConstant value = (ZConstant) pred.getOperand(1);
+				if ((this.equal != null) && (number(this.equal) != number(value))) {
+					return false;
+				}
+				if (this.equal == null) {
+					this.equal = value;
+				}
+				return true;
+			}
+			case GREATER_THAN:
+				this.lower((ZConstant) pred.getOperand(1), false);
+				return true;
+			case GREATER_THAN_OR_EQUALS:
+				this.lower((ZConstant) pred.getOperand(1), true);
+				return true;
+			case LESS_THAN:
+				this.upper((ZConstant) pred.getOperand(1), false);
+				return true;
+			case LESS_THAN_OR_EQUALS:
+				this.upper((ZConstant) pred.getOperand(1), true);
+				return true;
+			default:
+				// BETWEEN
+				this.lower((ZConstant) pred.getOperand(1), true);
+				this.upper((ZConstant) pred.getOperand(2), true);
+				return true;
+			}
+		}
+
+		/**
+		 * @param bound
+		 *            a lower bound.
+		 * @param included
+		 *            true if the bound is included.
+		 */
+		private void lower(final ZConstant bound, final boolean included) {
+			if ((this.low == null) || (number(bound) > number(this.low)) || ((number(bound) == number(this.low)) && !included)) {
+				this.low = bound;
+				this.lowIncluded = included;
+			}
+		}
+
+		/**
+		 * @param bound
+		 *            an upper bound.
+		 * @param included
+		 *            true if the bound is included.
+		 */
+		private void upper(final ZConstant bound, final boolean included) {
+			if ((this.high == null) || (number(bound) < number(this.high)) || ((number(bound) == number(this.high)) && !included)) {
+				this.high = bound;
+				this.highIncluded = included;
+			}
+		}
+
+		/**
+		 * Write the bounds as predicates.
+		 *
+		 * @param out
+		 *            where to add the predicates.
+		 * @return false if no value can satisfy the bounds.
+		 */
+		boolean toPredicates(final List<ZExp> out) {
+			final double low = this.low == null ? 0 : number(this.low);
+			final double high = this.high == null ? 0 : number(this.high);
+			if (this.equal != null) {
+				final double value = number(this.equal);
+				if (((this.low != null) && ((value < low) || ((value == low) && !this.lowIncluded)))
+						|| ((this.high != null) && ((value > high) || ((value == high) && !this.highIncluded)))) {
+					return false;
+				}
+				out.add(binary(ZOperator.EQUALS, this.column, this.equal));
+				return true;
+			}
+			if ((this.low != null) && (this.high != null)) {
+				if ((low > high) || ((low == high) && !(this.lowIncluded && this.highIncluded))) {
+					return false;
+				}
+				if (low == high) {
+					out.add(binary(ZOperator.EQUALS, this.column, this.low));
+					return true;
+				}
+				if (this.lowIncluded && this.highIncluded) {
+					final ZExpression between = new ZExpression(ZOperator.BETWEEN.symbol(), this.column, this.low);
+					between.addOperand(this.high);
+					out.add(between);
+					return true;
+				}
+			}
+			if (this.low != null) {
+				out.add(binary(this.lowIncluded ? ZOperator.GREATER_THAN_OR_EQUALS : ZOperator.GREATER_THAN, this.column, this.low));
+			}
+			if (this.high != null) {
+				out.add(binary(this.highIncluded ? ZOperator.LESS_THAN_OR_EQUALS : ZOperator.LESS_THAN, this.column, this.high));
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Recognize the range predicates: column op number, with op one of =, >,
+	 * >=, < and <=, and column BETWEEN number AND number in an AND. In an OR,
+	 * the equalities may also have string constants.
+	 *
+	 * @param exp
+	 *            an operand of an AND or an OR.
+	 * @param and
+	 *            true for an AND, false for an OR.
+	 * @return the column, null if not a range predicate.
+	 */
+	private static ZConstant rangeColumn(final ZExp exp, final boolean and) {
+		if (!(exp instanceof ZExpression) || (((ZExpression) exp).getOperands() == null)) {
+			return null;
+		}
+		final ZExpression pred = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op == null) || (pred.nbOperands() < ZCommonConstants.MAGIC_NUMBER_2) || !isColumn(pred.getOperand(0))) {
+			return null;
+		}
+		switch (op) {
+		case EQUALS:
+			if (!and && (pred.nbOperands() == ZCommonConstants.MAGIC_NUMBER_2) && isConstant(pred.getOperand(1))) {
+				return (ZConstant) pred.getOperand(0);
+			}
+			// fall through
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUALS:
+			return (pred.nbOperands() == ZCommonConstants.MAGIC_NUMBER_2) && isFinite(pred.getOperand(1)) ? (ZConstant) pred.getOperand(0) : null;
+		case BETWEEN:
+			return and && (pred.nbOperands() == ZCommonConstants.MAGIC_NUMBER_3) && isFinite(pred.getOperand(1)) && isFinite(pred.getOperand(2))
+					? (ZConstant) pred.getOperand(0) : null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Remove the duplicated constants of an IN list, and turn a list of one
+	 * element into a comparison: = for IN, <> for NOT IN.
+	 *
+	 * @param operator
+	 *            IN or NOT IN.
+	 * @param operands
+	 *            the simplified operands.
+	 * @return the simplified expression.
+	 */
+	private static ZExpression in(final String operator, final List<ZExp> operands) {
+		final List<ZExp> kept = new ArrayList<ZExp>(operands.size());
+		final Set<String> constants = new HashSet<String>();
+		for (int i = 0; i < operands.size(); i++) {
+			final ZExp operand = operands.get(i);
+			if ((i > 0) && isConstant(operand)) {
+				final ZConstant c = (ZConstant) operand;
+				// -0.0 + 0.0 is 0.0: the same element for ZEval.compare()
+				final String key = c.getType() == ZConstant.NUMBER ? "N" + (c.getNumber() + 0.0) : "S" + c.getValue();
+				if (!constants.add(key)) {
+					continue;
+				}
+			}
+			kept.add(operand);
+		}
+		if ((kept.size() == ZCommonConstants.MAGIC_NUMBER_2) && !(kept.get(1) instanceof ZQuery)) {
+			final ZOperator op = ZOperator.toEnumQuiet(operator) == ZOperator.NOT_IN ? ZOperator.EXCLUDING : ZOperator.EQUALS;
+			return binary(op, kept.get(0), kept.get(1));
+		}
+		return expression(operator, kept);
+	}
+
+	/**
+	 * Fold arithmetic over numeric constants.
+	 *
+	 * @param exp
+	 *            the arithmetic expression, with simplified operands.
+	 * @return a numeric constant, or the expression if it can't be folded.
+	 */
+	private static ZExp arithmetic(final ZExpression exp) {
+		if (exp.nbOperands() < 1) {
+			return exp;
+		}
+		for (final ZExp operand : exp.getOperands()) {
+			if (!isNumber(operand)) {
+				return exp;
+			}
+		}
+		final double value;
+		try {
+			value = EVAL.evalNumericExp(new ZTuple(), exp);
+		} catch (final SQLException e) {
+			return exp;
+		}
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			// Not a valid SQL number
+			return exp;
+		}
+		final boolean integer = (value == Math.rint(value)) && (Math.abs(value) < MAX_INTEGER) && ((value != 0) || (1 / value > 0));
+		return new ZConstant(integer ? Long.toString((long) value) : Double.toString(value), ZConstant.NUMBER);
+	}
+
+	/**
+	 * Evaluate a predicate over constants.
+	 *
+	 * @param exp
+	 *            the predicate, with simplified operands.
+	 * @return 1 = 1 or 1 = 0, or the predicate if it depends on the tuple.
+	 */
+	private static ZExp fold(final ZExpression exp) {
+		final Boolean truth = truth(exp);
+		return truth == null ? exp : constant(truth);
+	}
+
+	/**
+	 * @param exp
+	 *            a simplified expression.
+	 * @return its value if it is a predicate that doesn't depend on the tuple,
+	 *         else null.
+	 */
+	private static Boolean truth(final ZExp exp) {
+		if (!(exp instanceof ZExpression) || (((ZExpression) exp).getOperands() == null)) {
+			return null;
+		}
+		final ZExpression pred = (ZExpression) exp;
+		final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+		if (op == null) {
+			return null;
+		}
+		switch (op) {
+		case EQUALS:
+		case NOT_EQUALS:
+		case EXCLUDING:
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUALS:
+		case BETWEEN:
+		case NOT_BETWEEN:
+		case LIKE:
+		case NOT_LIKE:
+		case IN:
+		case NOT_IN:
+			for (final ZExp operand : pred.getOperands()) {
+				if (!isConstant(operand)) {
+					return null;
+				}
+			}
+			break;
+		case IS_NULL:
+		case IS_NOT_NULL:
+			// ZEval doesn't read the columns: leave them to a real database
+			if ((pred.nbOperands() > 0) && (!(pred.getOperand(0) instanceof ZConstant) || isColumn(pred.getOperand(0)))) {
+				return null;
+			}
+			break;
+		default:
+			return null;
+		}
+		try {
+			return EVAL.eval(new ZTuple(), pred);
+		} catch (final SQLException e) {
+			return null;
+		} catch (final RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param truth
+	 *            a boolean.
+	 * @return 1 = 1 if true, 1 = 0 if false.
+	 */
+	private static ZExpression constant(final boolean truth) {
+		return binary(ZOperator.EQUALS, new ZConstant("1", ZConstant.NUMBER), new ZConstant(truth ? "1" : "0", ZConstant.NUMBER));
+	}
+
+	/**
+	 * @param op
+	 *            an operator.
+	 * @param left
+	 *            the left operand.
+	 * @param right
+	 *            the right operand.
+	 * @return left op right.
+	 */
+	private static ZExpression binary(final ZOperator op, final ZExp left, final ZExp right) {
+		return new ZExpression(op.symbol(), left, right);
+	}
+
+	/**
+	 * @param operator
+	 *            an operator.
+	 * @param operands
+	 *            the operands.
+	 * @return the expression.
+	 */
+	private static ZExpression expression(final String operator, final List<ZExp> operands) {
+		final ZExpression exp = new ZExpression(operator);
+		exp.setOperands(new Vector<ZExp>(operands));
+		return exp;
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @param op
+	 *            an operator.
+	 * @return true if the expression has this operator.
+	 */
+	private static boolean isOperator(final ZExp exp, final ZOperator op) {
+		return (exp instanceof ZExpression) && (((ZExpression) exp).getOperands() != null)
+				&& (ZOperator.toEnumQuiet(((ZExpression) exp).getOperator()) == op);
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a column name.
+	 */
+	private static boolean isColumn(final ZExp exp) {
+		return (exp instanceof ZConstant) && (((ZConstant) exp).getType() == ZConstant.COLUMNNAME) && (((ZConstant) exp).getValue() != null);
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a valid numeric constant, or a string constant.
+	 */
+	private static boolean isConstant(final ZExp exp) {
+		return isNumber(exp) || ((exp instanceof ZConstant) && (((ZConstant) exp).getType() == ZConstant.STRING) && (((ZConstant) exp).getValue() != null));
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a valid numeric constant.
+	 */
+	private static boolean isNumber(final ZExp exp) {
+		return (exp instanceof ZConstant) && (((ZConstant) exp).getNumber() != null);
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a finite numeric constant.
+	 */
+	private static boolean isFinite(final ZExp exp) {
+		return isNumber(exp) && !Double.isNaN(number(exp)) && !Double.isInfinite(number(exp));
+	}
+
+	/**
+	 * @param exp
+	 *            a valid numeric constant.
+	 * @return its value.
+	 */
+	private static double number(final ZExp exp) {
+		return ((ZConstant) exp).getNumber();
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The null test of an expression, for ZEval.Nulls.SQL: the value of an
+ * expression is null when one of its columns is null, or when it contains the
+ * NULL constant.
+ *
+ * The predicates evaluate NOT by negating their operands, down to the
+ * comparisons (NOT (a AND b) is NOT a OR NOT b), and a comparison, or its
+ * negation, is only true if none of its operands is null. BETWEEN and IN are
+ * expanded into comparisons when their bounds or elements may be null, as one
+ * of them may decide the result alone.
+ *
+ * Immutable: one instance can be shared by all the threads.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSqlNulls {
+
+	/**
+	 * The column indexes, -1 for the columns resolved by name.
+	 */
+	private final int[] slots;
+
+	/**
+	 * The column names.
+	 */
+	private final String[] names;
+
+	/**
+	 * true if the expression contains the NULL constant.
+	 */
+	private final boolean literal;
+
+	/**
+	 * @param exp
+	 *            the expression.
+	 * @param schema
+	 *            the schema of the tuples, null to resolve the columns by name.
+	 */
+	ZSqlNulls(final ZExp exp, final ZTupleSchema schema) {
+		final List<String> columns = new ArrayList<String>();
+		this.literal = collect(exp, columns);
+		this.names = columns.toArray(new String[columns.size()]);
+		this.slots = new int[this.names.length];
+		for (int i = 0; i < this.slots.length; i++) {
+			this.slots[i] = schema == null ? -1 : schema.indexOf(this.names[i]);
+		}
+	}
+
+	/**
+	 * @param tuple
+	 *            the tuple.
+	 * @return true if the expression contains the NULL constant, or a column
+	 *         that is null in the tuple. Columns that are not in the tuple are
+	 *         ignored: the expression fails on them.
+	 */
+	boolean hasNull(final ZTuple tuple) {
+		if (this.literal) {
+			return true;
+		}
+		for (int i = 0; i < this.slots.length; i++) {
+			final int slot = this.slots[i] >= 0 ? this.slots[i] : tuple.getAttIndex(this.names[i]);
+			if ((slot >= 0) && tuple.isNull(slot)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param tuple
+	 *            the tuple.
+	 * @return true if the value of the expression is null.
+	 * @throws SQLException
+	 *             if a column is not in the tuple.
+	 */
+	boolean isNull(final ZTuple tuple) throws SQLException {
+		for (int i = 0; i < this.slots.length; i++) {
+			if ((this.slots[i] < 0) && (tuple.getAttIndex(this.names[i]) < 0)) {
+				throw new SQLException(ZCommonConstants.ZEVAL_EXP_VALUE_UNKNOWN_COLUMN + this.names[i]);
+			}
+		}
+		return this.hasNull(tuple);
+	}
+
+	/**
+	 * @param tuple
+	 *            the tuple.
+	 * @param exp
+	 *            an expression.
+	 * @return true if the expression contains the NULL constant, or a column
+	 *         that is null in the tuple. Columns that are not in the tuple are
+	 *         ignored.
+	 */
+	static boolean hasNull(final ZTuple tuple, final ZExp exp) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() == ZConstant.NULL) {
+				return true;
+			}
+			if (c.getType() == ZConstant.COLUMNNAME) {
+				final int slot = tuple.getAttIndex(c.getValue());
+				return (slot >= 0) && tuple.isNull(slot);
+			}
+		} else if ((exp instanceof ZExpression) && (((ZExpression) exp).getOperands() != null)) {
+			for (final ZExp operand : ((ZExpression) exp).getOperands()) {
+				if (hasNull(tuple, operand)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rewrite a BETWEEN or an IN list whose bounds or elements may be null
+	 * into comparisons: x BETWEEN a AND b is x >= a AND x <= b, x IN (a, b) is
+	 * x = a OR x = b.
+	 *
+	 * @param pred
+	 *            a predicate.
+	 * @return the rewritten predicate, null if it is not a BETWEEN or an IN
+	 *         list, or if its bounds or elements are all numbers and strings.
+	 */
+	static ZExp expand(final ZExpression pred) {
+		final ZOperator op = ZOperator.toEnumQuiet(pred.getOperator());
+		if ((op == null) || (pred.getOperands() == null)) {
+			return null;
+		}
+		final int nb = pred.nbOperands();
+		final ZExpression expanded;
+		switch (op) {
+		case BETWEEN:
+		case NOT_BETWEEN:
+			if ((nb != ZCommonConstants.MAGIC_NUMBER_3) || !mayBeNull(pred)) {
+				return null;
+			}
+			expanded = new ZExpression(ZOperator.AND.symbol(), new ZExpression(ZOperator.GREATER_THAN_OR_EQUALS.symbol(), pred.getOperand(0),
+					pred.getOperand(1)), new ZExpression(ZOperator.LESS_THAN_OR_EQUALS.symbol(), pred.getOperand(0), pred.getOperand(2)));
+			return op == ZOperator.BETWEEN ? expanded : new ZExpression(ZOperator.NOT.symbol(), expanded);
+		case IN:
+		case NOT_IN:
+			if ((nb < ZCommonConstants.MAGIC_NUMBER_2) || (ZEval.subQuery(pred) != null) || !mayBeNull(pred)) {
+				return null;
+			}
+			expanded = new ZExpression(ZOperator.OR.symbol());
+			for (int i = 1; i < nb; i++) {
+				expanded.addOperand(new ZExpression(ZOperator.EQUALS.symbol(), pred.getOperand(0), pred.getOperand(i)));
+			}
+			return op == ZOperator.IN ? expanded : new ZExpression(ZOperator.NOT.symbol(), expanded);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @param pred
+	 *            a BETWEEN or an IN list.
+	 * @return false if its bounds or elements are all numbers and strings.
+	 */
+	private static boolean mayBeNull(final ZExpression pred) {
+		for (int i = 1; i < pred.nbOperands(); i++) {
+			final ZExp exp = pred.getOperand(i);
+			if (!(exp instanceof ZConstant) || (((ZConstant) exp).getValue() == null)) {
+				return true;
+			}
+			final int type = ((ZConstant) exp).getType();
+			if ((type != ZConstant.NUMBER) && (type != ZConstant.STRING)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collect the columns of an expression, subqueries excluded.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @param columns
+	 *            the column names, completed.
+	 * @return true if the expression contains the NULL constant.
+	 */
+	private static boolean collect(final ZExp exp, final List<String> columns) {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if ((c.getType() == ZConstant.COLUMNNAME) && !columns.contains(c.getValue())) {
+				columns.add(c.getValue());
+			}
+			return c.getType() == ZConstant.NULL;
+		}
+		boolean literal = false;
+		if ((exp instanceof ZExpression) && (((ZExpression) exp).getOperands() != null)) {
+			for (final ZExp operand : ((ZExpression) exp).getOperands()) {
+				literal |= collect(operand, columns);
+			}
+		}
+		return literal;
+	}
+
+}
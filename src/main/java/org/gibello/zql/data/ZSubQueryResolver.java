@@ -0,0 +1,47 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.sql.SQLException;
+import java.util.Collection;
+
+import org.gibello.zql.query.ZQuery;
+
+/**
+ * Runs the subqueries of IN (subquery) predicates, for ZEval: Zql parses and
+ * evaluates expressions, but has no data of its own.
+ *
+ * The predicates built by ZEval.compile() and ZEval.compileBatch() resolve
+ * each subquery once, on first use, and index its result; eval() resolves it
+ * on each call.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public interface ZSubQueryResolver {
+
+	/**
+	 * Run an uncorrelated subquery.
+	 *
+	 * @param query
+	 *            the subquery.
+	 * @return the values of its single column; numbers may be Numbers or
+	 *         strings, as in tuples. Null values are ignored.
+	 * @throws SQLException
+	 *             if the subquery can't be run.
+	 */
+	Collection<?> resolve(ZQuery query) throws SQLException;
+}
@@ -17,7 +17,7 @@
 
 package org.gibello.zql.data;
 
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -32,27 +32,51 @@ import org.gibello.zql.utils.ZCommonConstants;
 public class ZTuple {
 
 	/**
-	 * the names of the attributes.
+	 * the names of the attributes, replaced when an attribute is added.
 	 */
-	private Vector<String> attributes;
+	private ZTupleSchema schema;
 
 	/**
-	 * the values of the attributes.
+	 * the values of the ANY and STRING attributes, by index; may be longer
+	 * than the schema.
 	 */
-	private Vector<Object> values;
+	private Object[] values;
 
 	/**
-	 * hashtable to locate attribute names more easily.
+	 * the values of the LONG attributes, and the raw bits of the DOUBLE
+	 * attributes, by index.
 	 */
-	private Hashtable<String, Integer> searchTable;
+	private long[] numbers;
+
+	/**
+	 * one bit per LONG or DOUBLE attribute, set when its value is null.
+	 */
+	private long[] nulls;
 
 	/**
 	 * The default constructor.
 	 */
 	public ZTuple() {
-		this.attributes = new Vector<String>();
-		this.values = new Vector<Object>();
-		this.searchTable = new Hashtable<String, Integer>();
+		this(ZTupleSchema.EMPTY);
+	}
+
+	/**
+	 * Create a new tuple, given it's schema. Tuples created from the same
+	 * schema instance are checked faster by the predicates bound to it.
+	 *
+	 * @param schema
+	 *            the column names.
+	 */
+	public ZTuple(final ZTupleSchema schema) {
+		this.schema = schema;
+		this.values = new Object[schema.size()];
+		this.numbers = new long[schema.size()];
+		this.nulls = new long[(schema.size() + Long.SIZE - 1) / Long.SIZE];
+		for (int i = 0; i < schema.size(); i++) {
+			if (schema.getColumnType(i).isNumeric()) {
+				this.setNull(i);
+			}
+		}
 	}
 
 	/**
@@ -62,15 +86,12 @@ public class ZTuple {
 	 *            Column names separated by commas (,).
 	 */
 	public ZTuple(final String colnames) {
-		this();
-		final StringTokenizer st = new StringTokenizer(colnames, ZCommonConstants.COMMA);
-		while (st.hasMoreTokens()) {
-			this.setAtt(st.nextToken().trim(), null);
-		}
+		this(ZTupleSchema.names(colnames));
 	}
 
 	/**
-	 * Set the current tuple's column values.
+	 * Set the current tuple's column values. The values of typed columns are
+	 * parsed according to their type.
 	 *
 	 * @param row
 	 *            Column values separated by commas (,).
@@ -79,6 +100,17 @@ public class ZTuple {
 		final StringTokenizer st = new StringTokenizer(row, ZCommonConstants.COMMA);
 		for (int i = 0; st.hasMoreTokens(); i++) {
 			final String val = st.nextToken().trim();
+			final ZColumnType type = i < this.schema.size() ? this.schema.getColumnType(i) : ZColumnType.ANY;
+			if (type == ZColumnType.LONG) {
+				this.setLong(i, Long.parseLong(val));
+				continue;
+			} else if (type == ZColumnType.DOUBLE) {
+				this.setDouble(i, Double.parseDouble(val));
+				continue;
+			} else if (type == ZColumnType.STRING) {
+				this.values[i] = val;
+				continue;
+			}
 			// try {
 			final Double d = new Double(val);
 			this.setAtt(this.getAttName(i), d);
@@ -102,7 +134,8 @@ public class ZTuple {
 	}
 
 	/**
-	 * Set the value of the given attribute name.
+	 * Set the value of the given attribute name. The values of typed
+	 * attributes are converted to their type.
 	 *
 	 * @param name
 	 *            the string representing the attribute name
@@ -111,17 +144,167 @@ public class ZTuple {
 	 */
 	public void setAtt(final String name, final Object value) {
 		if (name != null) {
-			final boolean exist = this.searchTable.containsKey(name);
+			int i = this.schema.indexOf(name);
+
+			if (i < 0) {
+				i = this.schema.size();
+				this.schema = this.schema.with(name);
+				if (i >= this.values.length) {
+					final int length = Math.max(i + 1, this.values.length * 2);
+					this.values = Arrays.copyOf(this.values, length);
+					this.numbers = Arrays.copyOf(this.numbers, length);
+					this.nulls = Arrays.copyOf(this.nulls, (length + Long.SIZE - 1) / Long.SIZE);
+				}
+			}
+			this.setAtt(i, value);
+		}
+	}
 
-			if (exist) {
-				final int i = this.searchTable.get(name);
-				this.values.setElementAt(value, i);
+	/**
+	 * Set the value of an attribute, given its index. The values of typed
+	 * attributes are converted to their type.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @param value
+	 *            the Object representing the attribute value
+	 */
+	public void setAtt(final int index, final Object value) {
+		switch (this.schema.getColumnType(index)) {
+		case LONG:
+			if (value == null) {
+				this.setNull(index);
+			} else {
+				this.setLong(index, value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim()));
+			}
+			break;
+		case DOUBLE:
+			if (value == null) {
+				this.setNull(index);
 			} else {
-				final int i = this.attributes.size();
-				this.attributes.addElement(name);
-				this.values.addElement(value);
-				this.searchTable.put(name, i);
+				this.setDouble(index, value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString()));
 			}
+			break;
+		case STRING:
+			this.values[index] = value == null ? null : value.toString();
+			break;
+		case ANY:
+		default:
+			this.values[index] = value;
+			break;
+		}
+	}
+
+	/**
+	 * Set the value of a LONG attribute.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @param value
+	 *            the value
+	 */
+	public void setLong(final int index, final long value) {
+		this.checkType(index, ZColumnType.LONG);
+		this.numbers[index] = value;
+		this.nulls[index / Long.SIZE] &= ~(1L << index);
+	}
+
+	/**
+	 * Set the value of a DOUBLE attribute.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @param value
+	 *            the value
+	 */
+	public void setDouble(final int index, final double value) {
+		this.checkType(index, ZColumnType.DOUBLE);
+		this.numbers[index] = Double.doubleToRawLongBits(value);
+		this.nulls[index / Long.SIZE] &= ~(1L << index);
+	}
+
+	/**
+	 * Set the value of an attribute to null.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 */
+	public void setNull(final int index) {
+		if (this.schema.getColumnType(index).isNumeric()) {
+			this.numbers[index] = 0;
+			this.nulls[index / Long.SIZE] |= 1L << index;
+		} else {
+			this.values[index] = null;
+		}
+	}
+
+	/**
+	 * To know if the value of an attribute is null.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @return true if null
+	 */
+	public boolean isNull(final int index) {
+		if (this.schema.getColumnType(index).isNumeric()) {
+			return (this.nulls[index / Long.SIZE] & (1L << index)) != 0;
+		}
+		return this.values[index] == null;
+	}
+
+	/**
+	 * Return the value of a LONG attribute, without boxing.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @return the value, 0 if null
+	 */
+	public long getLong(final int index) {
+		this.checkType(index, ZColumnType.LONG);
+		return this.numbers[index];
+	}
+
+	/**
+	 * Return the value of a LONG or DOUBLE attribute as a double, without
+	 * boxing.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @return the value, 0 if null
+	 */
+	public double getDouble(final int index) {
+		final ZColumnType type = this.schema.getColumnType(index);
+		if (type == ZColumnType.LONG) {
+			return this.numbers[index];
+		}
+		this.checkType(index, ZColumnType.DOUBLE);
+		return Double.longBitsToDouble(this.numbers[index]);
+	}
+
+	/**
+	 * Return the value of a STRING attribute.
+	 *
+	 * @param index
+	 *            the index of the attribute
+	 * @return the value, null if null
+	 */
+	public String getString(final int index) {
+		this.checkType(index, ZColumnType.STRING);
+		return (String) this.values[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of an attribute.
+	 * @param type
+	 *            the expected type.
+	 * @throws IllegalStateException
+	 *             if the attribute has another type.
+	 */
+	private void checkType(final int index, final ZColumnType type) {
+		if (this.schema.getColumnType(index) != type) {
+			throw new IllegalStateException("Attribute " + this.schema.getColumnName(index) + " is not a " + type + " but a "
+					+ this.schema.getColumnType(index));
 		}
 	}
 
@@ -133,15 +316,10 @@ public class ZTuple {
 	 * @return a String
 	 */
 	public String getAttName(final int index) {
-		String getAttributeName;
-
-		try {
-			getAttributeName = this.attributes.elementAt(index);
-		} catch (final ArrayIndexOutOfBoundsException e) {
-			getAttributeName = null;
+		if ((index < 0) || (index >= this.schema.size())) {
+			return null;
 		}
-
-		return getAttributeName;
+		return this.schema.getColumnName(index);
 	}
 
 	/**
@@ -152,24 +330,7 @@ public class ZTuple {
 	 * @return the index as an int, -1 if name is not an attribute
 	 */
 	public int getAttIndex(final String name) {
-
-		int result = 0;
-
-		if (name == null) {
-			result = -1;
-		}
-
-		final Integer index;
-		if (name != null) {
-			index = this.searchTable.get(name);
-			if (index != null) {
-				result = index;
-			} else {
-				result = -1;
-			}
-		}
-
-		return result;
+		return this.schema.indexOf(name);
 	}
 
 	/**
@@ -180,16 +341,17 @@ public class ZTuple {
 	 * @return an Object (null if index is out of bound)
 	 */
 	public Object getAttValue(final int index) {
-
-		Object getAttributeValue;
-
-		try {
-			getAttributeValue = this.values.elementAt(index);
-		} catch (final ArrayIndexOutOfBoundsException e) {
-			getAttributeValue = null;
+		if ((index < 0) || (index >= this.schema.size())) {
+			return null;
+		}
+		switch (this.schema.getColumnType(index)) {
+		case LONG:
+			return this.isNull(index) ? null : Long.valueOf(this.numbers[index]);
+		case DOUBLE:
+			return this.isNull(index) ? null : Double.valueOf(Double.longBitsToDouble(this.numbers[index]));
+		default:
+			return this.values[index];
 		}
-
-		return getAttributeValue;
 	}
 
 	/**
@@ -200,22 +362,7 @@ public class ZTuple {
 	 * @return an Object (null if name is not an existing attribute)
 	 */
 	public Object getAttValue(final String name) {
-		boolean exist = false;
-
-		if (name != null) {
-			exist = this.searchTable.containsKey(name);
-		}
-
-		Object getAttributeValue;
-
-		if (exist) {
-			final int index = this.searchTable.get(name);
-			getAttributeValue = this.values.elementAt(index);
-		} else {
-			getAttributeValue = null;
-		}
-
-		return getAttributeValue;
+		return this.getAttValue(this.schema.indexOf(name));
 	}
 
 	/**
@@ -226,7 +373,7 @@ public class ZTuple {
 	 * @return true if there, else false
 	 */
 	public boolean isAttribute(final String attrName) {
-		return (attrName != null) && this.searchTable.containsKey(attrName);
+		return this.schema.indexOf(attrName) >= 0;
 	}
 
 	/**
@@ -235,7 +382,17 @@ public class ZTuple {
 	 * @return int the number of attributes
 	 */
 	public int getNumAtt() {
-		return this.values.size();
+		return this.schema.size();
+	}
+
+	/**
+	 * Return the column names of the tuple. Adding an attribute afterwards
+	 * gives the tuple a new schema.
+	 *
+	 * @return the schema
+	 */
+	public ZTupleSchema getSchema() {
+		return this.schema.share();
 	}
 
 	/**
@@ -252,15 +409,15 @@ public class ZTuple {
 
 		final StringBuilder resp = new StringBuilder();
 		resp.append("[");
-		if (this.attributes.size() > 0) {
-			att = this.attributes.elementAt(0);
+		if (this.schema.size() > 0) {
+			att = this.schema.getColumnName(0);
 			if (att == null) {
 				attS = ZCommonConstants.NULLABLE;
 			} else {
 				attS = att.toString();
 			}
 
-			value = this.values.elementAt(0);
+			value = this.getAttValue(0);
 			if (value == null) {
 				valueS = ZCommonConstants.NULLABLE;
 			} else {
@@ -269,15 +426,15 @@ public class ZTuple {
 			resp.append(attS).append(ZCommonConstants.EQUALS_WITH_WHITESPACE_STRING).append(valueS);
 		}
 
-		for (int i = 1; i < this.attributes.size(); i++) {
-			att = this.attributes.elementAt(i);
+		for (int i = 1; i < this.schema.size(); i++) {
+			att = this.schema.getColumnName(i);
 			if (att == null) {
 				attS = ZCommonConstants.NULLABLE;
 			} else {
 				attS = att.toString();
 			}
 
-			value = this.values.elementAt(i);
+			value = this.getAttValue(i);
 			if (value == null) {
 				valueS = ZCommonConstants.NULLABLE;
 			} else {
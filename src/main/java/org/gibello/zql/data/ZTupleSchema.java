@@ -0,0 +1,300 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The column names of a tuple, in order, with their declared types.
+ *
+ * Immutable: tuples that share a schema can share its instance, which makes
+ * the schema check of the bound predicates a simple reference comparison.
+ * Only the schema that a tuple grows by adding attributes is extended in
+ * place, until the tuple hands it out.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public final class ZTupleSchema {
+
+	/**
+	 * The schema without columns.
+	 */
+	static final ZTupleSchema EMPTY = new ZTupleSchema(new String[0]);
+
+	/**
+	 * The column names; may be longer than the schema.
+	 */
+	private String[] names;
+
+	/**
+	 * The column types; may be longer than the schema.
+	 */
+	private ZColumnType[] types;
+
+	/**
+	 * The number of columns.
+	 */
+	private int size;
+
+	/**
+	 * true while the schema is private to the tuple that grows it.
+	 */
+	private boolean growable;
+
+	/**
+	 * The index of each column name.
+	 */
+	private final Map<String, Integer> slots;
+
+	/**
+	 * Create a new schema of untyped columns.
+	 *
+	 * @param names
+	 *            the column names, not null, without duplicates.
+	 */
+	public ZTupleSchema(final List<String> names) {
+		this(names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * Create a new schema of untyped columns.
+	 *
+	 * @param names
+	 *            the column names, not null, without duplicates.
+	 */
+	public ZTupleSchema(final String... names) {
+		this(names, untyped(names.length));
+	}
+
+	/**
+	 * Create a new schema of typed columns.
+	 *
+	 * @param names
+	 *            the column names, not null, without duplicates.
+	 * @param types
+	 *            the column types, not null.
+	 */
+	public ZTupleSchema(final String[] names, final ZColumnType[] types) {
+		if (names.length != types.length) {
+			throw new IllegalArgumentException(names.length + " column names for " + types.length + " types");
+		}
+		this.names = names.clone();
+		this.types = types.clone();
+		this.size = names.length;
+		this.slots = new HashMap<String, Integer>();
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i] == null) {
+				throw new IllegalArgumentException("Null column name at index " + i);
+			}
+			if (this.slots.put(this.names[i], i) != null) {
+				throw new IllegalArgumentException("Duplicate column name " + this.names[i]);
+			}
+			if (this.types[i] == null) {
+				throw new IllegalArgumentException("Null column type for " + this.names[i]);
+			}
+		}
+	}
+
+	/**
+	 * Create a growable copy of a schema.
+	 *
+	 * @param schema
+	 *            the copied schema.
+	 * @param capacity
+	 *            the number of columns it can hold before its arrays grow.
+	 */
+	private ZTupleSchema(final ZTupleSchema schema, final int capacity) {
+		this.names = Arrays.copyOf(schema.names, capacity);
+		this.types = Arrays.copyOf(schema.types, capacity);
+		this.size = schema.size;
+		this.slots = new HashMap<String, Integer>(schema.slots);
+		this.growable = true;
+	}
+
+	/**
+	 * Create a schema of untyped columns from their names, separated by
+	 * commas (,). A repeated name is a single column.
+	 *
+	 * @param colnames
+	 *            the column names.
+	 * @return the schema.
+	 */
+	static ZTupleSchema names(final String colnames) {
+		final StringTokenizer st = new StringTokenizer(colnames, ZCommonConstants.COMMA);
+		final List<String> names = new ArrayList<String>();
+		while (st.hasMoreTokens()) {
+			final String name = st.nextToken().trim();
+			if (!names.contains(name)) {
+				names.add(name);
+			}
+		}
+		return new ZTupleSchema(names);
+	}
+
+	/**
+	 * Create a schema from its text form, for example "id long, price double,
+	 * name string, other". Columns without a type are untyped.
+	 *
+	 * @param columns
+	 *            Column names, each one optionally followed by its type,
+	 *            separated by commas (,).
+	 * @return the schema.
+	 */
+	public static ZTupleSchema parse(final String columns) {
+		final StringTokenizer st = new StringTokenizer(columns, ZCommonConstants.COMMA);
+		final String[] names = new String[st.countTokens()];
+		final ZColumnType[] types = new ZColumnType[names.length];
+		for (int i = 0; i < names.length; i++) {
+			final String[] column = st.nextToken().trim().split("\\s+");
+			names[i] = column[0];
+			types[i] = column.length > 1 ? ZColumnType.valueOf(column[1].toUpperCase(Locale.ENGLISH)) : ZColumnType.ANY;
+		}
+		return new ZTupleSchema(names, types);
+	}
+
+	/**
+	 * @param length
+	 *            the number of columns.
+	 * @return as many ANY types.
+	 */
+	private static ZColumnType[] untyped(final int length) {
+		final ZColumnType[] types = new ZColumnType[length];
+		Arrays.fill(types, ZColumnType.ANY);
+		return types;
+	}
+
+	/**
+	 * Add an untyped column, for a tuple that grows its schema.
+	 *
+	 * @param name
+	 *            a column name, not in this schema.
+	 * @return the schema with the column added at the end: this one if it is
+	 *         still growable, else a growable copy.
+	 */
+	ZTupleSchema with(final String name) {
+		final ZTupleSchema schema = this.growable ? this : new ZTupleSchema(this, Math.max(this.size * 2, this.size + 1));
+		if (schema.size == schema.names.length) {
+			schema.names = Arrays.copyOf(schema.names, schema.size * 2);
+			schema.types = Arrays.copyOf(schema.types, schema.size * 2);
+		}
+		schema.names[schema.size] = name;
+		schema.types[schema.size] = ZColumnType.ANY;
+		schema.slots.put(name, schema.size++);
+		return schema;
+	}
+
+	/**
+	 * Stop growing the schema in place: it is about to be shared.
+	 *
+	 * @return this schema.
+	 */
+	ZTupleSchema share() {
+		if (this.growable) {
+			this.growable = false;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of columns.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param slot
+	 *            the index of the column.
+	 * @return the column name.
+	 */
+	public String getColumnName(final int slot) {
+		return this.names[slot];
+	}
+
+	/**
+	 * @param slot
+	 *            the index of the column.
+	 * @return the column type.
+	 */
+	public ZColumnType getColumnType(final int slot) {
+		return this.types[slot];
+	}
+
+	/**
+	 * @param name
+	 *            the column name.
+	 * @return the index of the column, -1 if name is not a column.
+	 */
+	public int indexOf(final String name) {
+		final Integer slot = name == null ? null : this.slots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof ZTupleSchema) || (((ZTupleSchema) o).size != this.size)) {
+			return false;
+		}
+		final ZTupleSchema other = (ZTupleSchema) o;
+		for (int i = 0; i < this.size; i++) {
+			if (!this.names[i].equals(other.names[i]) || (this.types[i] != other.types[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = 0; i < this.size; i++) {
+			hash = (hash * 31) + this.names[i].hashCode();
+		}
+		int typeHash = 1;
+		for (int i = 0; i < this.size; i++) {
+			typeHash = (typeHash * 31) + this.types[i].hashCode();
+		}
+		return (hash * 31) + typeHash;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < this.size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(this.names[i]);
+			if (this.types[i] != ZColumnType.ANY) {
+				sb.append(' ').append(this.types[i].name().toLowerCase(Locale.ENGLISH));
+			}
+		}
+		return sb.append(']').toString();
+	}
+
+}
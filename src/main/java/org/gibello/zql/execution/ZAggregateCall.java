@@ -0,0 +1,173 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+
+/**
+ * A call of an aggregate function, with its argument resolved on the rows
+ * being grouped.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZAggregateCall {
+
+	/**
+	 * The aggregate functions.
+	 */
+	enum Function {
+		/**
+		 * The number of rows, or of non null values.
+		 */
+		COUNT,
+		/**
+		 * The sum of the non null values.
+		 */
+		SUM,
+		/**
+		 * The average of the non null values.
+		 */
+		AVG,
+		/**
+		 * The smallest non null value.
+		 */
+		MIN,
+		/**
+		 * The largest non null value.
+		 */
+		MAX
+	}
+
+	/**
+	 * The function.
+	 */
+	private final Function function;
+
+	/**
+	 * The row column of the argument, -1 if the argument is an expression or
+	 * *.
+	 */
+	private final int slot;
+
+	/**
+	 * The argument, null for COUNT(*).
+	 */
+	private final ZExp argument;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param function
+	 *            the function.
+	 * @param slot
+	 *            the row column of the argument, -1 if none.
+	 * @param argument
+	 *            the argument, null for COUNT(*).
+	 */
+	ZAggregateCall(final Function function, final int slot, final ZExp argument) {
+		this.function = function;
+		this.slot = slot;
+		this.argument = argument;
+	}
+
+	/**
+	 * @param operator
+	 *            the operator of an expression.
+	 * @return the aggregate function it calls, null if none.
+	 */
+	static Function function(final String operator) {
+		for (final Function f : Function.values()) {
+			if (f.name().equalsIgnoreCase(operator)) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if the expression calls an aggregate function.
+	 */
+	static boolean contains(final ZExp exp) {
+		if (!(exp instanceof ZExpression)) {
+			return false;
+		}
+		final ZExpression e = (ZExpression) exp;
+		if (function(e.getOperator()) != null) {
+			return true;
+		}
+		if (e.getOperands() != null) {
+			for (final ZExp operand : e.getOperands()) {
+				if (contains(operand)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the function.
+	 */
+	Function getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * @return the row column of the argument, -1 if none.
+	 */
+	int getSlot() {
+		return this.slot;
+	}
+
+	/**
+	 * @return the argument, null for COUNT(*).
+	 */
+	ZExp getArgument() {
+		return this.argument;
+	}
+
+	/**
+	 * @return true for MIN and MAX, that may keep strings.
+	 */
+	boolean isExtremum() {
+		return (this.function == Function.MIN) || (this.function == Function.MAX);
+	}
+
+	/**
+	 * @param input
+	 *            the columns of the rows being grouped.
+	 * @return the type of the result: MIN and MAX of untyped values may be
+	 *         strings.
+	 */
+	ZColumnType getType(final ZTupleSchema input) {
+		switch (this.function) {
+		case COUNT:
+			return ZColumnType.LONG;
+		case SUM:
+		case AVG:
+			return ZColumnType.DOUBLE;
+		default:
+			return (this.slot >= 0) && input.getColumnType(this.slot).isNumeric() ? ZColumnType.DOUBLE : ZColumnType.ANY;
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * The rows of several cursors, one cursor after the other: UNION ALL. Each
+ * cursor is closed once it returned its last row.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZConcat implements ZCursor {
+
+	/**
+	 * The cursors, all of the same columns.
+	 */
+	private final List<ZCursor> inputs;
+
+	/**
+	 * The index of the cursor being read.
+	 */
+	private int current = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param inputs
+	 *            the cursors, all of the same columns.
+	 */
+	ZConcat(final List<ZCursor> inputs) {
+		this.inputs = inputs;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.inputs.get(0).getSchema();
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		while (this.current < this.inputs.size()) {
+			final ZTuple row = this.inputs.get(this.current).next();
+			if (row != null) {
+				return row;
+			}
+			this.inputs.get(this.current++).close();
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		while (this.current < this.inputs.size()) {
+			this.inputs.get(this.current++).close();
+		}
+	}
+
+}
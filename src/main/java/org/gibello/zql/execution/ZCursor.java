@@ -0,0 +1,53 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * The rows of a query, pulled one at a time: each operator of a pipeline is a
+ * cursor that pulls the rows of its input on demand, so that rows are streamed
+ * instead of collected between the operators.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public interface ZCursor {
+
+	/**
+	 * @return the columns of the rows.
+	 */
+	ZTupleSchema getSchema();
+
+	/**
+	 * Pull the next row.
+	 *
+	 * @return the next row, null when there are no more rows.
+	 * @throws SQLException
+	 *             if the row can't be computed.
+	 */
+	ZTuple next() throws SQLException;
+
+	/**
+	 * Release the resources of the cursor and of its inputs. The cursor can't
+	 * be used anymore.
+	 */
+	void close();
+
+}
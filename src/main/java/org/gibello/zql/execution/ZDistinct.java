@@ -0,0 +1,90 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * Pulls the rows of a cursor that were not pulled before: each row is
+ * returned as soon as it is seen first, only the values of the distinct rows
+ * are kept.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZDistinct implements ZCursor {
+
+	/**
+	 * The input rows.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The values of the rows already returned, null once closed.
+	 */
+	private Set<List<Object>> seen = new HashSet<List<Object>>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the input rows.
+	 */
+	ZDistinct(final ZCursor input) {
+		this.input = input;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.input.getSchema();
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		ZTuple row = this.input.next();
+		while ((row != null) && !this.seen.add(key(row))) {
+			row = this.input.next();
+		}
+		return row;
+	}
+
+	/**
+	 * @param row
+	 *            a row.
+	 * @return its values, compared by equals().
+	 */
+	private static List<Object> key(final ZTuple row) {
+		final Object[] values = new Object[row.getNumAtt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = row.getAttValue(i);
+		}
+		return Arrays.asList(values);
+	}
+
+	@Override
+	public void close() {
+		this.input.close();
+		this.seen = null;
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Pulls the rows of a cursor on a thread of its own, so that the branches of
+ * a set operation run in parallel.
+ *
+ * Once started, the thread pulls the rows ahead of the consumer and hands them
+ * over by batches, through a bounded queue: the thread waits when the queue is
+ * full. The exceptions of the cursor are thrown to the consumer. The cursor is
+ * only used by the thread, which closes it; close() stops the thread and waits
+ * for it.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZExchange implements ZCursor, Runnable {
+
+	/**
+	 * The number of rows of a batch.
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * The number of batches pulled ahead.
+	 */
+	private static final int BATCHES = 4;
+
+	/**
+	 * The end of the rows.
+	 */
+	private static final Object END = new Object();
+
+	/**
+	 * The cursor.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The batches of rows, then the end of the rows or an exception.
+	 */
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(BATCHES);
+
+	/**
+	 * The thread that pulls the rows.
+	 */
+	private final Thread thread;
+
+	/**
+	 * True once the consumer closed the exchange.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * True once the thread is started.
+	 */
+	private boolean started = false;
+
+	/**
+	 * True once the end of the rows was taken.
+	 */
+	private boolean done = false;
+
+	/**
+	 * The batch being returned, null if none.
+	 */
+	private List<ZTuple> batch = null;
+
+	/**
+	 * The index of the next row of the batch.
+	 */
+	private int next = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the cursor, to be used by the thread only.
+	 */
+	ZExchange(final ZCursor input) {
+		this.input = input;
+		this.thread = new Thread(this, "zql-exchange");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Start pulling the rows, if not started yet.
+	 */
+	void start() {
+		if (!this.started) {
+			this.started = true;
+			this.thread.start();
+		}
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.input.getSchema();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public ZTuple next() throws SQLException {
+		while ((this.batch == null) || (this.next >= this.batch.size())) {
+			if (this.done) {
+				return null;
+			}
+			this.start();
+			final Object item;
+			try {
+				item = this.queue.take();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException(ZCommonConstants.EXECUTOR_INTERRUPTED, e);
+			}
+			if (item instanceof List) {
+				this.batch = (List<ZTuple>) item;
+				this.next = 0;
+				continue;
+			}
+			this.done = true;
+			this.batch = null;
+			if (item instanceof SQLException) {
+				final SQLException e = (SQLException) item;
+				throw new SQLException(e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+			} else if (item instanceof RuntimeException) {
+				throw (RuntimeException) item;
+			} else if (item instanceof Error) {
+				throw (Error) item;
+			}
+		}
+		return this.batch.get(this.next++);
+	}
+
+	/**
+	 * Pull the rows, until the last one or until closed.
+	 */
+	@Override
+	public void run() {
+		Object end = END;
+		try {
+			List<ZTuple> rows = new ArrayList<ZTuple>(BATCH_SIZE);
+			for (ZTuple row = this.input.next(); (row != null) && !this.closed; row = this.input.next()) {
+				rows.add(row);
+				if (rows.size() == BATCH_SIZE) {
+					this.queue.put(rows);
+					rows = new ArrayList<ZTuple>(BATCH_SIZE);
+				}
+			}
+			if (!rows.isEmpty()) {
+				this.queue.put(rows);
+			}
+		} catch (final InterruptedException e) {
+			// Closed by the consumer
+			return;
+		} catch (final SQLException e) {
+			end = e;
+		} catch (final RuntimeException e) {
+			end = e;
+		} catch (final Error e) {
+			end = e;
+		} finally {
+			this.input.close();
+		}
+		try {
+			this.queue.put(end);
+		} catch (final InterruptedException e) {
+			// Closed by the consumer
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		this.batch = null;
+		this.done = true;
+		if (!this.started) {
+			this.started = true;
+			this.input.close();
+			return;
+		}
+		this.thread.interrupt();
+		this.queue.clear();
+		try {
+			this.thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.queue.clear();
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+
+import org.gibello.zql.data.CompiledPredicate;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * Pulls the rows of a cursor that satisfy a predicate.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZFilter implements ZCursor {
+
+	/**
+	 * The input rows.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The predicate, compiled for the schema of the input.
+	 */
+	private final CompiledPredicate predicate;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the input rows.
+	 * @param predicate
+	 *            the predicate, compiled for the schema of the input.
+	 */
+	ZFilter(final ZCursor input, final CompiledPredicate predicate) {
+		this.input = input;
+		this.predicate = predicate;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.input.getSchema();
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		ZTuple row = this.input.next();
+		while ((row != null) && !this.predicate.test(row)) {
+			row = this.input.next();
+		}
+		return row;
+	}
+
+	@Override
+	public void close() {
+		this.input.close();
+	}
+
+}
@@ -0,0 +1,746 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The groups of a hash aggregation: an open addressing hash table of the group
+ * keys, and the accumulators of the aggregates, stored by column in primitive
+ * arrays indexed by group.
+ *
+ * The key of a row is first set in a buffer, then looked up by group(), which
+ * adds a group if needed, unless the table would exceed its memory budget.
+ * Typed numeric keys are stored unboxed; COUNT, SUM and AVG keep a count and a
+ * double, MIN and MAX a double, or a comparable value for strings.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZGroupTable {
+
+	/**
+	 * The initial number of groups.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The estimated size of a string, besides its characters.
+	 */
+	private static final int STRING_BYTES = 40;
+
+	/**
+	 * The estimated size of another object.
+	 */
+	private static final int OBJECT_BYTES = 16;
+
+	/**
+	 * The first characters of the strings that may be numbers.
+	 */
+	private static final String NUMBER_START = "0123456789+-.NI";
+
+	/**
+	 * Multiplier of the hash of each partitioning level.
+	 */
+	private static final int LEVEL_SEED = 0x9E3779B9;
+
+	/**
+	 * The type of each key column: LONG and DOUBLE keys are stored unboxed.
+	 */
+	private final ZColumnType[] keyTypes;
+
+	/**
+	 * The aggregates.
+	 */
+	private final ZAggregateCall[] calls;
+
+	/**
+	 * The estimated size of a group, besides its objects.
+	 */
+	private final int groupBytes;
+
+	/**
+	 * The memory budget, in bytes.
+	 */
+	private long budget;
+
+	/**
+	 * The key being looked up: raw bits of the numeric keys.
+	 */
+	private final long[] bufferBits;
+
+	/**
+	 * The key being looked up: nulls of the numeric keys.
+	 */
+	private final boolean[] bufferNulls;
+
+	/**
+	 * The key being looked up: the other keys.
+	 */
+	private final Object[] bufferObjects;
+
+	/**
+	 * The partial aggregates read by read(): the counts.
+	 */
+	private final long[] partialCounts;
+
+	/**
+	 * The partial aggregates read by read(): the numeric values.
+	 */
+	private final double[] partialValues;
+
+	/**
+	 * The partial aggregates read by read(): the values of MIN and MAX that
+	 * are not numbers.
+	 */
+	private final Object[] partialObjects;
+
+	/**
+	 * The number of groups.
+	 */
+	private int size;
+
+	/**
+	 * The hash table: group index + 1 by slot, 0 for a free slot; twice as
+	 * long as the group arrays.
+	 */
+	private int[] slots;
+
+	/**
+	 * The hash of each group key.
+	 */
+	private int[] hashes;
+
+	/**
+	 * The raw bits of the numeric keys, by key column then by group.
+	 */
+	private long[][] keyBits;
+
+	/**
+	 * The nulls of the numeric keys, by key column then by group.
+	 */
+	private boolean[][] keyNulls;
+
+	/**
+	 * The other keys, by key column then by group.
+	 */
+	private Object[][] keyObjects;
+
+	/**
+	 * The number of values aggregated, by aggregate then by group.
+	 */
+	private long[][] counts;
+
+	/**
+	 * The sums, minimums and maximums, by aggregate then by group.
+	 */
+	private double[][] values;
+
+	/**
+	 * The minimums and maximums that are not numbers, by aggregate then by
+	 * group; null for the other aggregates.
+	 */
+	private Object[][] objects;
+
+	/**
+	 * The estimated size of the objects of the groups.
+	 */
+	private long objectBytes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param keyTypes
+	 *            the type of each key column.
+	 * @param calls
+	 *            the aggregates.
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 */
+	ZGroupTable(final ZColumnType[] keyTypes, final ZAggregateCall[] calls, final long budget) {
+		this.keyTypes = keyTypes;
+		this.calls = calls;
+		this.budget = budget;
+		this.bufferBits = new long[keyTypes.length];
+		this.bufferNulls = new boolean[keyTypes.length];
+		this.bufferObjects = new Object[keyTypes.length];
+		this.partialCounts = new long[calls.length];
+		this.partialValues = new double[calls.length];
+		this.partialObjects = new Object[calls.length];
+		// hash, 2 slots, keys and accumulators
+		int bytes = Integer.SIZE / Byte.SIZE * ZCommonConstants.MAGIC_NUMBER_3;
+		for (final ZColumnType type : keyTypes) {
+			bytes += type.isNumeric() ? Long.SIZE / Byte.SIZE + 1 : Long.SIZE / Byte.SIZE;
+		}
+		for (final ZAggregateCall call : calls) {
+			bytes += (Long.SIZE / Byte.SIZE) * (call.isExtremum() ? ZCommonConstants.MAGIC_NUMBER_3 : ZCommonConstants.MAGIC_NUMBER_2);
+		}
+		this.groupBytes = bytes;
+		this.clear();
+	}
+
+	/**
+	 * Remove all the groups, and release their memory.
+	 */
+	void clear() {
+		this.size = 0;
+		this.objectBytes = 0;
+		this.allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Change the memory budget.
+	 *
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 */
+	void setBudget(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return the number of groups.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Set a numeric key of the buffer.
+	 *
+	 * @param key
+	 *            the index of the key column.
+	 * @param isNull
+	 *            true if the key is null.
+	 * @param bits
+	 *            the raw bits of the key.
+	 */
+	void setKey(final int key, final boolean isNull, final long bits) {
+		this.bufferNulls[key] = isNull;
+		this.bufferBits[key] = isNull ? 0 : bits;
+	}
+
+	/**
+	 * Set a key of the buffer that is not numeric.
+	 *
+	 * @param key
+	 *            the index of the key column.
+	 * @param value
+	 *            the key.
+	 */
+	void setKey(final int key, final Object value) {
+		this.bufferObjects[key] = value;
+	}
+
+	/**
+	 * Find the group of the key of the buffer, or add it.
+	 *
+	 * @return the index of the group, -1 if the group is new but the table
+	 *         can't grow within its budget.
+	 */
+	int group() {
+		final int hash = this.hash();
+		int mask = this.slots.length - 1;
+		int slot = hash & mask;
+		for (int g = this.slots[slot] - 1; g >= 0; g = this.slots[slot] - 1) {
+			if ((this.hashes[g] == hash) && this.matches(g)) {
+				return g;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		final int capacity = this.hashes.length;
+		final long keyBytes = this.bufferBytes();
+		if ((this.size > 0) && ((((long) (this.size == capacity ? capacity * 2 : capacity) * this.groupBytes) + this.objectBytes + keyBytes) > this.budget)) {
+			return -1;
+		}
+		if (this.size == capacity) {
+			this.grow();
+			mask = this.slots.length - 1;
+			slot = hash & mask;
+			while (this.slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		final int g = this.size++;
+		this.slots[slot] = g + 1;
+		this.hashes[g] = hash;
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				this.keyBits[k][g] = this.bufferBits[k];
+				this.keyNulls[k][g] = this.bufferNulls[k];
+			} else {
+				this.keyObjects[k][g] = this.bufferObjects[k];
+			}
+		}
+		this.objectBytes += keyBytes;
+		return g;
+	}
+
+	/**
+	 * Count a row, for COUNT(*).
+	 *
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            the aggregate.
+	 */
+	void count(final int g, final int a) {
+		this.counts[a][g]++;
+	}
+
+	/**
+	 * Aggregate a numeric value.
+	 *
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            the aggregate.
+	 * @param value
+	 *            the value.
+	 * @throws SQLException
+	 *             if MIN or MAX have kept a value that is not a number.
+	 */
+	void add(final int g, final int a, final double value) throws SQLException {
+		this.number(g, a, value);
+		this.counts[a][g]++;
+	}
+
+	/**
+	 * Aggregate a value that is not null: numbers, and strings that look like
+	 * numbers, are aggregated as numbers.
+	 *
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            the aggregate.
+	 * @param value
+	 *            the value.
+	 * @throws SQLException
+	 *             if SUM or AVG get a value that is not a number, or MIN or
+	 *             MAX get values that can't be compared.
+	 */
+	void add(final int g, final int a, final Object value) throws SQLException {
+		if (this.calls[a].getFunction() != ZAggregateCall.Function.COUNT) {
+			final double d = toNumber(value);
+			if (Double.isNaN(d) && !(value instanceof Number)) {
+				this.object(g, a, value);
+			} else {
+				this.number(g, a, d);
+			}
+		}
+		this.counts[a][g]++;
+	}
+
+	/**
+	 * Aggregate a number into SUM, AVG, MIN or MAX.
+	 *
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            the aggregate.
+	 * @param value
+	 *            the value.
+	 * @throws SQLException
+	 *             if MIN or MAX have kept a value that is not a number.
+	 */
+	private void number(final int g, final int a, final double value) throws SQLException {
+		final double[] v = this.values[a];
+		switch (this.calls[a].getFunction()) {
+		case SUM:
+		case AVG:
+			v[g] += value;
+			break;
+		case MIN:
+			this.checkNumeric(g, a, value);
+			if ((this.counts[a][g] == 0) || (value < v[g])) {
+				v[g] = value;
+			}
+			break;
+		case MAX:
+			this.checkNumeric(g, a, value);
+			if ((this.counts[a][g] == 0) || (value > v[g])) {
+				v[g] = value;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            a MIN or MAX aggregate.
+	 * @param value
+	 *            a number.
+	 * @throws SQLException
+	 *             if the aggregate has kept a value that is not a number.
+	 */
+	private void checkNumeric(final int g, final int a, final double value) throws SQLException {
+		if (this.objects[a][g] != null) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_CANNOT_COMPARE + "(" + value + ") with (" + this.objects[a][g] + ")");
+		}
+	}
+
+	/**
+	 * Aggregate a value that is not a number into MIN or MAX.
+	 *
+	 * @param g
+	 *            the group.
+	 * @param a
+	 *            the aggregate.
+	 * @param value
+	 *            the value.
+	 * @throws SQLException
+	 *             if the aggregate is SUM or AVG, or the value can't be
+	 *             compared with the value kept.
+	 */
+	@SuppressWarnings("unchecked")
+	private void object(final int g, final int a, final Object value) throws SQLException {
+		if (!this.calls[a].isExtremum()) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_NUMERIC + value);
+		}
+		final Object[] o = this.objects[a];
+		if (this.counts[a][g] == 0) {
+			o[g] = value;
+			this.objectBytes += sizeOf(value);
+			return;
+		}
+		if ((o[g] == null) || !(value instanceof Comparable)) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_CANNOT_COMPARE + "(" + value + ") with ("
+					+ (o[g] != null ? o[g] : Double.valueOf(this.values[a][g])) + ")");
+		}
+		final int cmp;
+		try {
+			cmp = ((Comparable<Object>) value).compareTo(o[g]);
+		} catch (final ClassCastException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_CANNOT_COMPARE + "(" + value + ") with (" + o[g] + ")", e);
+		}
+		if ((this.calls[a].getFunction() == ZAggregateCall.Function.MIN) ? (cmp < 0) : (cmp > 0)) {
+			o[g] = value;
+		}
+	}
+
+	/**
+	 * Merge the partial aggregates read by read() into a group.
+	 *
+	 * @param g
+	 *            the group.
+	 * @throws SQLException
+	 *             if MIN or MAX get values that can't be compared.
+	 */
+	void merge(final int g) throws SQLException {
+		for (int a = 0; a < this.calls.length; a++) {
+			final long count = this.partialCounts[a];
+			if (count == 0) {
+				continue;
+			}
+			if (this.partialObjects[a] != null) {
+				this.object(g, a, this.partialObjects[a]);
+			} else if (this.calls[a].getFunction() != ZAggregateCall.Function.COUNT) {
+				this.number(g, a, this.partialValues[a]);
+			}
+			this.counts[a][g] += count;
+		}
+	}
+
+	/**
+	 * Write the keys and aggregates of a group in a result row.
+	 *
+	 * @param g
+	 *            the group.
+	 * @param row
+	 *            the row: the keys, then the aggregates.
+	 */
+	void result(final int g, final ZTuple row) {
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			switch (this.keyTypes[k]) {
+			case LONG:
+				if (!this.keyNulls[k][g]) {
+					row.setLong(k, this.keyBits[k][g]);
+				}
+				break;
+			case DOUBLE:
+				if (!this.keyNulls[k][g]) {
+					row.setDouble(k, Double.longBitsToDouble(this.keyBits[k][g]));
+				}
+				break;
+			default:
+				row.setAtt(k, this.keyObjects[k][g]);
+				break;
+			}
+		}
+		for (int a = 0; a < this.calls.length; a++) {
+			final int column = this.keyTypes.length + a;
+			final long count = this.counts[a][g];
+			final double value = this.values[a][g];
+			switch (this.calls[a].getFunction()) {
+			case COUNT:
+				row.setLong(column, count);
+				break;
+			case SUM:
+				if (count > 0) {
+					row.setDouble(column, value);
+				}
+				break;
+			case AVG:
+				if (count > 0) {
+					row.setDouble(column, value / count);
+				}
+				break;
+			default:
+				if (count == 0) {
+					row.setNull(column);
+				} else if (this.objects[a][g] != null) {
+					row.setAtt(column, this.objects[a][g]);
+				} else if (row.getSchema().getColumnType(column) == ZColumnType.DOUBLE) {
+					row.setDouble(column, value);
+				} else {
+					row.setAtt(column, Double.valueOf(value));
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Write the key and the partial aggregates of a group.
+	 *
+	 * @param out
+	 *            the output.
+	 * @param g
+	 *            the group.
+	 * @throws IOException
+	 *             if a value can't be written.
+	 */
+	void write(final DataOutput out, final int g) throws IOException {
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				out.writeBoolean(this.keyNulls[k][g]);
+				out.writeLong(this.keyBits[k][g]);
+			} else {
+				ZRowCodec.writeValue(out, this.keyObjects[k][g]);
+			}
+		}
+		for (int a = 0; a < this.calls.length; a++) {
+			out.writeLong(this.counts[a][g]);
+			out.writeDouble(this.values[a][g]);
+			if (this.objects[a] != null) {
+				ZRowCodec.writeValue(out, this.objects[a][g]);
+			}
+		}
+	}
+
+	/**
+	 * Read a group written by write(): its key into the buffer, and its
+	 * partial aggregates for merge().
+	 *
+	 * @param in
+	 *            the input.
+	 * @throws IOException
+	 *             if a value can't be read.
+	 */
+	void read(final DataInput in) throws IOException {
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				this.bufferNulls[k] = in.readBoolean();
+				this.bufferBits[k] = in.readLong();
+			} else {
+				this.bufferObjects[k] = ZRowCodec.readValue(in);
+			}
+		}
+		for (int a = 0; a < this.calls.length; a++) {
+			this.partialCounts[a] = in.readLong();
+			this.partialValues[a] = in.readDouble();
+			this.partialObjects[a] = this.calls[a].isExtremum() ? ZRowCodec.readValue(in) : null;
+		}
+	}
+
+	/**
+	 * @param g
+	 *            a group.
+	 * @param level
+	 *            the partitioning level, from 0.
+	 * @param fanOut
+	 *            the number of partitions, a power of 2.
+	 * @return the partition of the group.
+	 */
+	int partition(final int g, final int level, final int fanOut) {
+		return ZRows.mix(this.hashes[g] + (level + 1) * LEVEL_SEED) & (fanOut - 1);
+	}
+
+	/**
+	 * @return the hash of the key of the buffer.
+	 */
+	private int hash() {
+		int h = 1;
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			final int hk;
+			if (this.keyTypes[k].isNumeric()) {
+				final long bits = this.bufferBits[k];
+				hk = (int) (bits ^ (bits >>> Integer.SIZE));
+			} else {
+				hk = this.bufferObjects[k] == null ? 0 : this.bufferObjects[k].hashCode();
+			}
+			h = (31 * h) + hk;
+		}
+		return ZRows.mix(h);
+	}
+
+	/**
+	 * @param g
+	 *            a group.
+	 * @return true if the group has the key of the buffer.
+	 */
+	private boolean matches(final int g) {
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				if ((this.keyNulls[k][g] != this.bufferNulls[k]) || (this.keyBits[k][g] != this.bufferBits[k])) {
+					return false;
+				}
+			} else {
+				final Object o = this.keyObjects[k][g];
+				if ((o == null) ? (this.bufferObjects[k] != null) : !o.equals(this.bufferObjects[k])) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the estimated size of the objects of the key of the buffer.
+	 */
+	private long bufferBytes() {
+		long bytes = 0;
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (!this.keyTypes[k].isNumeric()) {
+				bytes += sizeOf(this.bufferObjects[k]);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Allocate the arrays of the groups.
+	 *
+	 * @param capacity
+	 *            the number of groups, a power of 2.
+	 */
+	private void allocate(final int capacity) {
+		this.slots = new int[capacity * 2];
+		this.hashes = new int[capacity];
+		this.keyBits = new long[this.keyTypes.length][];
+		this.keyNulls = new boolean[this.keyTypes.length][];
+		this.keyObjects = new Object[this.keyTypes.length][];
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				this.keyBits[k] = new long[capacity];
+				this.keyNulls[k] = new boolean[capacity];
+			} else {
+				this.keyObjects[k] = new Object[capacity];
+			}
+		}
+		this.counts = new long[this.calls.length][capacity];
+		this.values = new double[this.calls.length][capacity];
+		this.objects = new Object[this.calls.length][];
+		for (int a = 0; a < this.calls.length; a++) {
+			if (this.calls[a].isExtremum()) {
+				this.objects[a] = new Object[capacity];
+			}
+		}
+	}
+
+	/**
+	 * Double the capacity, and rehash the groups.
+	 */
+	private void grow() {
+		final int capacity = this.hashes.length * 2;
+		this.hashes = Arrays.copyOf(this.hashes, capacity);
+		for (int k = 0; k < this.keyTypes.length; k++) {
+			if (this.keyTypes[k].isNumeric()) {
+				this.keyBits[k] = Arrays.copyOf(this.keyBits[k], capacity);
+				this.keyNulls[k] = Arrays.copyOf(this.keyNulls[k], capacity);
+			} else {
+				this.keyObjects[k] = Arrays.copyOf(this.keyObjects[k], capacity);
+			}
+		}
+		for (int a = 0; a < this.calls.length; a++) {
+			this.counts[a] = Arrays.copyOf(this.counts[a], capacity);
+			this.values[a] = Arrays.copyOf(this.values[a], capacity);
+			if (this.objects[a] != null) {
+				this.objects[a] = Arrays.copyOf(this.objects[a], capacity);
+			}
+		}
+		this.slots = new int[capacity * 2];
+		final int mask = this.slots.length - 1;
+		for (int g = 0; g < this.size; g++) {
+			int slot = this.hashes[g] & mask;
+			while (this.slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.slots[slot] = g + 1;
+		}
+	}
+
+	/**
+	 * @param value
+	 *            a value that is not null.
+	 * @return the value as a double, NaN if it is not a number.
+	 */
+	private static double toNumber(final Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		final String s = value.toString().trim();
+		if (s.isEmpty() || (NUMBER_START.indexOf(s.charAt(0)) < 0)) {
+			// Most strings are rejected here, without the cost of an exception
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(s);
+		} catch (final NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @param value
+	 *            a value.
+	 * @return its estimated size, in bytes.
+	 */
+	private static long sizeOf(final Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return STRING_BYTES + (((String) value).length() * 2L);
+		}
+		return OBJECT_BYTES;
+	}
+
+}
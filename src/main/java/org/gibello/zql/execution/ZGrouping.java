@@ -0,0 +1,226 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZEval;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Plans the aggregation of a query: the GROUP BY keys, and the aggregate calls
+ * of its SELECT list and HAVING clause.
+ *
+ * The expressions above the aggregation are rewritten to refer to the columns
+ * of its rows, named after the text of the keys and of the calls: with GROUP
+ * BY e.dept, SUM(salary) * 2 becomes "SUM(salary)" * 2, and e.dept the "dept"
+ * column of a single table.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZGrouping {
+
+	/**
+	 * The prefix of the argument of COUNT(DISTINCT x).
+	 */
+	private static final String DISTINCT = "distinct ";
+
+	/**
+	 * The prefix of the argument of COUNT(ALL x).
+	 */
+	private static final String ALL = "all ";
+
+	/**
+	 * The columns visible to the expressions being grouped.
+	 */
+	private final ZScope scope;
+
+	/**
+	 * The columns of the rows being grouped.
+	 */
+	private final ZTupleSchema input;
+
+	/**
+	 * The keys, resolved on the rows being grouped.
+	 */
+	private final List<ZExp> keys = new ArrayList<ZExp>();
+
+	/**
+	 * The aggregate calls.
+	 */
+	private final List<ZAggregateCall> calls = new ArrayList<ZAggregateCall>();
+
+	/**
+	 * The column names of the keys, then of the calls.
+	 */
+	private final List<String> names = new ArrayList<String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param scope
+	 *            the columns visible to the expressions being grouped.
+	 * @param input
+	 *            the columns of the rows being grouped.
+	 * @param groupBy
+	 *            the GROUP BY expressions, null if none.
+	 * @throws SQLException
+	 *             if a key can't be resolved.
+	 */
+	ZGrouping(final ZScope scope, final ZTupleSchema input, final List<ZExp> groupBy) throws SQLException {
+		this.scope = scope;
+		this.input = input;
+		if (groupBy != null) {
+			for (final ZExp exp : groupBy) {
+				if (ZAggregateCall.contains(exp)) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + exp);
+				}
+				final ZExp key = scope.resolve(exp);
+				if (!this.names.contains(key.toString())) {
+					this.keys.add(key);
+					this.names.add(key.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrite an expression of the SELECT list or of the HAVING clause.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the expression, on the columns of the aggregated rows.
+	 * @throws SQLException
+	 *             if it refers to a column that is neither a key nor in an
+	 *             aggregate.
+	 */
+	ZExp rewrite(final ZExp exp) throws SQLException {
+		if (exp instanceof ZExpression) {
+			final ZExpression e = (ZExpression) exp;
+			final ZAggregateCall.Function function = ZAggregateCall.function(e.getOperator());
+			if (function != null) {
+				return this.call(function, e);
+			}
+		}
+		if ((exp instanceof ZQuery) || ((exp instanceof ZConstant) && (((ZConstant) exp).getType() != ZConstant.COLUMNNAME))) {
+			return exp;
+		}
+		if (!ZAggregateCall.contains(exp)) {
+			final int key = this.names.indexOf(this.scope.resolve(exp).toString());
+			if ((key >= 0) && (key < this.keys.size())) {
+				return new ZConstant(this.names.get(key), ZConstant.COLUMNNAME);
+			}
+			if (exp instanceof ZConstant) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_NOT_GROUPED + exp);
+			}
+		}
+		final ZExpression e = (ZExpression) exp;
+		final ZExpression copy = new ZExpression(e.getOperator());
+		if (e.getOperands() != null) {
+			for (final ZExp operand : e.getOperands()) {
+				copy.addOperand(this.rewrite(operand));
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Register an aggregate call.
+	 *
+	 * @param function
+	 *            the function.
+	 * @param e
+	 *            the call.
+	 * @return the column of the call.
+	 * @throws SQLException
+	 *             if the call is not supported.
+	 */
+	private ZExp call(final ZAggregateCall.Function function, final ZExpression e) throws SQLException {
+		if ((e.getOperands() == null) || (e.nbOperands() != 1) || ZAggregateCall.contains(e.getOperand(0))) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + e);
+		}
+		ZExp argument = e.getOperand(0);
+		if (argument instanceof ZConstant) {
+			final ZConstant c = (ZConstant) argument;
+			if (c.getType() == ZConstant.COLUMNNAME) {
+				if (c.getValue().startsWith(DISTINCT)) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + e);
+				}
+				if (c.getValue().startsWith(ALL)) {
+					argument = new ZConstant(c.getValue().substring(ALL.length()), ZConstant.COLUMNNAME);
+				}
+			}
+		}
+		final boolean star = (function == ZAggregateCall.Function.COUNT) && (argument instanceof ZConstant)
+				&& "*".equals(((ZConstant) argument).getValue());
+		final ZExp resolved = star ? null : this.scope.resolve(argument);
+		final String name = function + "(" + (star ? "*" : resolved.toString()) + ")";
+		final int index = this.names.indexOf(name);
+		if (index < 0) {
+			int slot = -1;
+			if ((resolved instanceof ZConstant) && (((ZConstant) resolved).getType() == ZConstant.COLUMNNAME)) {
+				slot = this.input.indexOf(((ZConstant) resolved).getValue());
+			}
+			this.calls.add(new ZAggregateCall(function, slot, resolved));
+			this.names.add(name);
+		}
+		return new ZConstant(name, ZConstant.COLUMNNAME);
+	}
+
+	/**
+	 * Plan the aggregation, once the expressions above it are rewritten.
+	 *
+	 * @param cursor
+	 *            the rows being grouped.
+	 * @param eval
+	 *            evaluates the expressions.
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 * @param directory
+	 *            the directory of the spill files, null for the default one.
+	 * @return the cursor of the aggregated rows.
+	 */
+	ZCursor aggregate(final ZCursor cursor, final ZEval eval, final long budget, final File directory) {
+		final int[] keySlots = new int[this.keys.size()];
+		final ZColumnType[] types = new ZColumnType[this.names.size()];
+		for (int k = 0; k < keySlots.length; k++) {
+			final ZExp key = this.keys.get(k);
+			keySlots[k] = -1;
+			types[k] = ZColumnType.ANY;
+			if ((key instanceof ZConstant) && (((ZConstant) key).getType() == ZConstant.COLUMNNAME)) {
+				keySlots[k] = this.input.indexOf(((ZConstant) key).getValue());
+				types[k] = this.input.getColumnType(keySlots[k]);
+			}
+		}
+		final ZAggregateCall[] c = this.calls.toArray(new ZAggregateCall[this.calls.size()]);
+		for (int a = 0; a < c.length; a++) {
+			types[keySlots.length + a] = c[a].getType(this.input);
+		}
+		final ZTupleSchema schema = new ZTupleSchema(this.names.toArray(new String[this.names.size()]), types);
+		return new ZHashAggregate(cursor, schema, keySlots, this.keys.toArray(new ZExp[this.keys.size()]), c, eval, budget, directory);
+	}
+
+}
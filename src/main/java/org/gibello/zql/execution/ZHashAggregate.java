@@ -0,0 +1,404 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZEval;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Groups the rows of a cursor by hashing, and computes the aggregates of each
+ * group: the result rows are the group keys, then the aggregates.
+ *
+ * The groups are kept in a ZGroupTable within a memory budget. When the table
+ * is full, its groups are written to partition files by hash of their key,
+ * with their partial aggregates, and the table is emptied. Once the input is
+ * consumed, each partition is loaded back, its partial aggregates merged by
+ * key, and its groups returned; a partition that still doesn't fit is
+ * partitioned again, with another hash.
+ *
+ * Without keys, the result is a single row, even if there is no input row.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZHashAggregate implements ZCursor {
+
+	/**
+	 * The number of partitions of a spill.
+	 */
+	private static final int FAN_OUT = 16;
+
+	/**
+	 * Partitions are not partitioned again beyond that level: the budget is
+	 * then ignored.
+	 */
+	private static final int MAX_LEVEL = 8;
+
+	/**
+	 * A spilled partition.
+	 */
+	private static final class Partition {
+
+		/**
+		 * The groups.
+		 */
+		private final ZSpillFile file;
+
+		/**
+		 * The partitioning level that wrote it.
+		 */
+		private final int level;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file
+		 *            the groups.
+		 * @param level
+		 *            the partitioning level that wrote it.
+		 */
+		Partition(final ZSpillFile file, final int level) {
+			this.file = file;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * The input rows.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The keys, then the aggregates.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The input column of each key, -1 for the keys that are expressions.
+	 */
+	private final int[] keySlots;
+
+	/**
+	 * The keys, resolved on the input.
+	 */
+	private final ZExp[] keys;
+
+	/**
+	 * The aggregates.
+	 */
+	private final ZAggregateCall[] calls;
+
+	/**
+	 * Evaluates the keys and arguments that are expressions.
+	 */
+	private final ZEval eval;
+
+	/**
+	 * The memory budget, in bytes.
+	 */
+	private final long budget;
+
+	/**
+	 * The directory of the spill files, null for the default one.
+	 */
+	private final File directory;
+
+	/**
+	 * The groups in memory.
+	 */
+	private final ZGroupTable table;
+
+	/**
+	 * The partitions not returned yet.
+	 */
+	private final Deque<Partition> pending = new ArrayDeque<Partition>();
+
+	/**
+	 * The partitions being written, null if none.
+	 */
+	private ZSpillFile[] spill = null;
+
+	/**
+	 * true once the input is consumed.
+	 */
+	private boolean consumed = false;
+
+	/**
+	 * The next group of the table to return.
+	 */
+	private int next = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the input rows.
+	 * @param schema
+	 *            the keys, then the aggregates.
+	 * @param keySlots
+	 *            the input column of each key, -1 for the expressions.
+	 * @param keys
+	 *            the keys, resolved on the input.
+	 * @param calls
+	 *            the aggregates.
+	 * @param eval
+	 *            evaluates the expressions.
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 * @param directory
+	 *            the directory of the spill files, null for the default one.
+	 */
+	ZHashAggregate(final ZCursor input, final ZTupleSchema schema, final int[] keySlots, final ZExp[] keys, final ZAggregateCall[] calls,
+			final ZEval eval, final long budget, final File directory) {
+		this.input = input;
+		this.schema = schema;
+		this.keySlots = keySlots;
+		this.keys = keys;
+		this.calls = calls;
+		this.eval = eval;
+		this.budget = budget;
+		this.directory = directory;
+		final ZColumnType[] keyTypes = new ZColumnType[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			keyTypes[k] = schema.getColumnType(k);
+		}
+		this.table = new ZGroupTable(keyTypes, calls, budget);
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		if (!this.consumed) {
+			this.consume();
+			this.consumed = true;
+		}
+		while (this.next >= this.table.size()) {
+			final Partition partition = this.pending.poll();
+			if (partition == null) {
+				return null;
+			}
+			this.load(partition);
+		}
+		final ZTuple row = new ZTuple(this.schema);
+		this.table.result(this.next++, row);
+		return row;
+	}
+
+	/**
+	 * Aggregate the input rows.
+	 *
+	 * @throws SQLException
+	 *             if a key or an aggregate can't be computed, or the groups
+	 *             can't be spilled.
+	 */
+	private void consume() throws SQLException {
+		final ZTupleSchema in = this.input.getSchema();
+		for (ZTuple row = this.input.next(); row != null; row = this.input.next()) {
+			this.key(row, in);
+			int g = this.table.group();
+			if (g < 0) {
+				this.spill(0);
+				g = this.table.group();
+			}
+			this.accumulate(row, in, g);
+		}
+		this.input.close();
+		if (this.spill != null) {
+			this.finishSpill(0);
+		} else if ((this.keys.length == 0) && (this.table.size() == 0)) {
+			// The single group of an aggregate without GROUP BY
+			this.table.group();
+		}
+		this.next = 0;
+	}
+
+	/**
+	 * Set the key of a row in the buffer of the table.
+	 *
+	 * @param row
+	 *            the row.
+	 * @param in
+	 *            the columns of the row.
+	 * @throws SQLException
+	 *             if a key can't be evaluated.
+	 */
+	private void key(final ZTuple row, final ZTupleSchema in) throws SQLException {
+		for (int k = 0; k < this.keys.length; k++) {
+			final int slot = this.keySlots[k];
+			if (slot < 0) {
+				this.table.setKey(k, this.eval.evalExpValue(row, this.keys[k]));
+				continue;
+			}
+			switch (in.getColumnType(slot)) {
+			case LONG:
+				this.table.setKey(k, row.isNull(slot), row.getLong(slot));
+				break;
+			case DOUBLE:
+				// -0.0 and 0.0 are the same key
+				this.table.setKey(k, row.isNull(slot), Double.doubleToLongBits(row.getDouble(slot) + 0.0));
+				break;
+			default:
+				this.table.setKey(k, row.getAttValue(slot));
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Aggregate a row into its group.
+	 *
+	 * @param row
+	 *            the row.
+	 * @param in
+	 *            the columns of the row.
+	 * @param g
+	 *            the group.
+	 * @throws SQLException
+	 *             if an argument can't be evaluated or aggregated.
+	 */
+	private void accumulate(final ZTuple row, final ZTupleSchema in, final int g) throws SQLException {
+		for (int a = 0; a < this.calls.length; a++) {
+			final ZAggregateCall call = this.calls[a];
+			final int slot = call.getSlot();
+			if (call.getArgument() == null) {
+				this.table.count(g, a);
+			} else if ((slot >= 0) && in.getColumnType(slot).isNumeric()) {
+				if (!row.isNull(slot)) {
+					this.table.add(g, a, row.getDouble(slot));
+				}
+			} else {
+				final Object value = slot >= 0 ? row.getAttValue(slot) : this.eval.evalExpValue(row, call.getArgument());
+				if (value != null) {
+					this.table.add(g, a, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the groups of the table to the partitions, and empty it.
+	 *
+	 * @param level
+	 *            the partitioning level.
+	 * @throws SQLException
+	 *             if the groups can't be written.
+	 */
+	private void spill(final int level) throws SQLException {
+		if (this.spill == null) {
+			this.spill = new ZSpillFile[FAN_OUT];
+			for (int p = 0; p < FAN_OUT; p++) {
+				this.spill[p] = new ZSpillFile(this.directory);
+			}
+		}
+		try {
+			for (int g = 0; g < this.table.size(); g++) {
+				final ZSpillFile file = this.spill[this.table.partition(g, level, FAN_OUT)];
+				this.table.write(file.output(), g);
+				file.endRecord();
+			}
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+		this.table.clear();
+	}
+
+	/**
+	 * Spill the last groups, and queue the partitions.
+	 *
+	 * @param level
+	 *            the partitioning level.
+	 * @throws SQLException
+	 *             if the groups can't be written.
+	 */
+	private void finishSpill(final int level) throws SQLException {
+		this.spill(level);
+		for (int p = FAN_OUT - 1; p >= 0; p--) {
+			if (this.spill[p].getRecords() > 0) {
+				this.pending.push(new Partition(this.spill[p], level));
+			} else {
+				this.spill[p].delete();
+			}
+		}
+		this.spill = null;
+	}
+
+	/**
+	 * Load a partition in the table, merging the partial aggregates of each
+	 * group.
+	 *
+	 * @param partition
+	 *            the partition.
+	 * @throws SQLException
+	 *             if the partition can't be read.
+	 */
+	private void load(final Partition partition) throws SQLException {
+		final int level = partition.level + 1;
+		this.table.clear();
+		this.table.setBudget(level < MAX_LEVEL ? this.budget : Long.MAX_VALUE);
+		try {
+			final DataInputStream in = partition.file.open();
+			for (long r = partition.file.getRecords(); r > 0; r--) {
+				this.table.read(in);
+				int g = this.table.group();
+				if (g < 0) {
+					this.spill(level);
+					g = this.table.group();
+				}
+				this.table.merge(g);
+			}
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		} finally {
+			partition.file.delete();
+		}
+		if (this.spill != null) {
+			this.finishSpill(level);
+		}
+		this.next = 0;
+	}
+
+	@Override
+	public void close() {
+		this.input.close();
+		if (this.spill != null) {
+			for (final ZSpillFile file : this.spill) {
+				file.delete();
+			}
+			this.spill = null;
+		}
+		for (final Partition partition : this.pending) {
+			partition.file.delete();
+		}
+		this.pending.clear();
+		this.table.clear();
+	}
+
+}
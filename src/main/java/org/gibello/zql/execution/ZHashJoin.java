@@ -0,0 +1,446 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.gibello.zql.data.CompiledPredicate;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * The equi-join of the rows of a cursor with the tuples of a table, by
+ * hashing: the smaller side is hashed on its key columns, then the rows of the
+ * other side probe the hash table.
+ *
+ * The size of the table is known, not that of the cursor: the rows of the
+ * cursor are pulled until they outnumber the tuples of the table. If the
+ * cursor ends first, its rows are hashed and the table probes them; otherwise
+ * the table is hashed, and the rows already pulled probe it first, then those
+ * left in the cursor. Either way, at most the smaller side is kept. A table of
+ * unknown size is always the probing side.
+ *
+ * The keys are compared as ZEval compares them: the strings that look like
+ * numbers as numbers. A row with a null key joins no row.
+ *
+ * An outer join also returns the rows of its preserved side that join no row,
+ * padded with nulls: a probing row once it is found alone, the hashed rows
+ * once all the rows have probed them.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZHashJoin implements ZCursor {
+
+	/**
+	 * The rows returned even if they join no row.
+	 */
+	enum Type {
+		/**
+		 * None.
+		 */
+		INNER,
+		/**
+		 * The left rows.
+		 */
+		LEFT_OUTER,
+		/**
+		 * The right tuples.
+		 */
+		RIGHT_OUTER
+	}
+
+	/**
+	 * The left rows.
+	 */
+	private final ZCursor left;
+
+	/**
+	 * The right table.
+	 */
+	private final ZSource right;
+
+	/**
+	 * The key columns of the left rows.
+	 */
+	private final int[] leftSlots;
+
+	/**
+	 * The key columns of the right tuples, in the same order.
+	 */
+	private final int[] rightSlots;
+
+	/**
+	 * The columns of the left rows, then those of the right tuples.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The rows returned even if they join no row.
+	 */
+	private final Type type;
+
+	/**
+	 * The condition of the right tuples to join, null if none.
+	 */
+	private final CompiledPredicate filter;
+
+	/**
+	 * True once the build side is hashed.
+	 */
+	private boolean started = false;
+
+	/**
+	 * True if the left rows are hashed and the right tuples probe them.
+	 */
+	private boolean buildLeft = false;
+
+	/**
+	 * True once the left cursor returned its last row.
+	 */
+	private boolean leftDone = false;
+
+	/**
+	 * The hashed rows.
+	 */
+	private List<ZTuple> build = null;
+
+	/**
+	 * The first hashed row of each key.
+	 */
+	private Map<Object, Integer> heads = null;
+
+	/**
+	 * The next hashed row of the same key, -1 if none.
+	 */
+	private int[] chain = null;
+
+	/**
+	 * For the hashed rows of a preserved side, true once joined; null
+	 * otherwise.
+	 */
+	private boolean[] joined = null;
+
+	/**
+	 * The index of the next hashed row to check once the probing is over.
+	 */
+	private int unjoined = 0;
+
+	/**
+	 * The left rows pulled before the right tuples were hashed, not yet
+	 * probed.
+	 */
+	private Iterator<ZTuple> pulled = null;
+
+	/**
+	 * The right tuples not yet probed, when the left rows are hashed.
+	 */
+	private Iterator<? extends ZTuple> probes = null;
+
+	/**
+	 * The row probing the hash table.
+	 */
+	private ZTuple current = null;
+
+	/**
+	 * True once the current row joined a row.
+	 */
+	private boolean matched = false;
+
+	/**
+	 * The next hashed row matching the current one, -1 if none.
+	 */
+	private int match = -1;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param left
+	 *            the left rows.
+	 * @param right
+	 *            the right table.
+	 * @param leftSlots
+	 *            the key columns of the left rows.
+	 * @param rightSlots
+	 *            the key columns of the right tuples, in the same order.
+	 * @param schema
+	 *            the columns of the joined rows.
+	 * @param type
+	 *            the rows returned even if they join no row.
+	 * @param filter
+	 *            the condition of the right tuples to join, compiled for the
+	 *            schema of the table; null if none.
+	 */
+	ZHashJoin(final ZCursor left, final ZSource right, final int[] leftSlots, final int[] rightSlots, final ZTupleSchema schema, final Type type,
+			final CompiledPredicate filter) {
+		this.left = left;
+		this.right = right;
+		this.leftSlots = leftSlots;
+		this.rightSlots = rightSlots;
+		this.schema = schema;
+		this.type = type;
+		this.filter = filter;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		if (!this.started) {
+			this.start();
+		}
+		while (true) {
+			if (this.match >= 0) {
+				final int i = this.match;
+				this.match = this.chain[i];
+				this.matched = true;
+				if (this.joined != null) {
+					this.joined[i] = true;
+				}
+				return this.join(this.build.get(i), this.current);
+			}
+			if ((this.current != null) && !this.matched && (this.type == (this.buildLeft ? Type.RIGHT_OUTER : Type.LEFT_OUTER))) {
+				final ZTuple alone = this.current;
+				this.current = null;
+				return this.join(null, alone);
+			}
+			this.current = this.probe();
+			if (this.current == null) {
+				return this.unjoined();
+			}
+			this.matched = false;
+			final Object key = this.buildLeft ? key(this.current, this.right.getSchema(), this.rightSlots) : key(this.current,
+					this.left.getSchema(), this.leftSlots);
+			final Integer head = key == null ? null : this.heads.get(key);
+			this.match = head == null ? -1 : head;
+		}
+	}
+
+	/**
+	 * Choose the build side and hash it.
+	 *
+	 * @throws SQLException
+	 *             if the rows can't be computed.
+	 */
+	private void start() throws SQLException {
+		this.started = true;
+		final long rightSize = this.right.size() < 0 ? Long.MAX_VALUE : this.right.size();
+		final List<ZTuple> rows = new ArrayList<ZTuple>();
+		while (rows.size() <= rightSize) {
+			final ZTuple row = this.left.next();
+			if (row == null) {
+				this.leftDone = true;
+				break;
+			}
+			rows.add(row);
+		}
+		this.buildLeft = this.leftDone && (rows.size() < rightSize);
+		if (this.buildLeft) {
+			this.hash(rows, this.left.getSchema(), this.leftSlots, this.type == Type.LEFT_OUTER);
+			this.probes = this.right.getRows().iterator();
+		} else {
+			this.hash(this.right.getRows(), this.right.getSchema(), this.rightSlots, this.type == Type.RIGHT_OUTER);
+			this.pulled = rows.iterator();
+		}
+	}
+
+	/**
+	 * @return the next row to probe the hash table with, null if none.
+	 * @throws SQLException
+	 *             if the rows can't be computed.
+	 */
+	private ZTuple probe() throws SQLException {
+		if (this.buildLeft) {
+			while ((this.probes != null) && this.probes.hasNext()) {
+				final ZTuple tuple = this.probes.next();
+				if ((this.filter == null) || this.filter.test(tuple)) {
+					return tuple;
+				}
+			}
+			return null;
+		}
+		if ((this.pulled != null) && this.pulled.hasNext()) {
+			return this.pulled.next();
+		}
+		this.pulled = null;
+		if (this.leftDone) {
+			return null;
+		}
+		final ZTuple row = this.left.next();
+		this.leftDone = row == null;
+		return row;
+	}
+
+	/**
+	 * @return the next hashed row of a preserved side that joined no row,
+	 *         padded with nulls; null if none.
+	 */
+	private ZTuple unjoined() {
+		if (this.joined == null) {
+			return null;
+		}
+		while (this.unjoined < this.joined.length) {
+			final int i = this.unjoined++;
+			if (!this.joined[i]) {
+				return this.join(this.build.get(i), null);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Hash the rows of the build side. The rows of a key are chained in their
+	 * order, so that each probing row meets its matches in that order.
+	 *
+	 * @param rows
+	 *            the rows.
+	 * @param rowSchema
+	 *            their columns.
+	 * @param slots
+	 *            their key columns.
+	 * @param preserved
+	 *            true to keep the rows that join no row, even those with a
+	 *            null key.
+	 * @throws SQLException
+	 *             if the condition of the right tuples can't be evaluated.
+	 */
+	private void hash(final Iterable<? extends ZTuple> rows, final ZTupleSchema rowSchema, final int[] slots, final boolean preserved)
+			throws SQLException {
+		final boolean filtered = (this.filter != null) && !this.buildLeft;
+		this.build = new ArrayList<ZTuple>();
+		final List<Object> keys = new ArrayList<Object>();
+		for (final ZTuple row : rows) {
+			if (filtered && !this.filter.test(row)) {
+				continue;
+			}
+			final Object key = key(row, rowSchema, slots);
+			if ((key != null) || preserved) {
+				this.build.add(row);
+				keys.add(key);
+			}
+		}
+		this.chain = new int[this.build.size()];
+		this.heads = new HashMap<Object, Integer>();
+		for (int i = this.chain.length - 1; i >= 0; i--) {
+			final Integer next = keys.get(i) == null ? null : this.heads.put(keys.get(i), i);
+			this.chain[i] = next == null ? -1 : next;
+		}
+		this.joined = preserved ? new boolean[this.build.size()] : null;
+	}
+
+	/**
+	 * @param hashed
+	 *            a hashed row, null for nulls.
+	 * @param probing
+	 *            a probing row, null for nulls.
+	 * @return the joined row.
+	 */
+	private ZTuple join(final ZTuple hashed, final ZTuple probing) {
+		ZTuple l = this.buildLeft ? hashed : probing;
+		ZTuple r = this.buildLeft ? probing : hashed;
+		if (l == null) {
+			l = new ZTuple(this.left.getSchema());
+		}
+		if (r == null) {
+			r = new ZTuple(this.right.getSchema());
+		}
+		return ZRows.concat(this.schema, l, r);
+	}
+
+	/**
+	 * @param row
+	 *            a row.
+	 * @param rowSchema
+	 *            its columns.
+	 * @param slots
+	 *            its key columns.
+	 * @return the key of the row, compared by equals(): its value if a single
+	 *         column, the list of its values otherwise; null if a value is
+	 *         null.
+	 */
+	private static Object key(final ZTuple row, final ZTupleSchema rowSchema, final int[] slots) {
+		if (slots.length == 1) {
+			return value(row, rowSchema, slots[0]);
+		}
+		final Object[] values = new Object[slots.length];
+		for (int k = 0; k < slots.length; k++) {
+			values[k] = value(row, rowSchema, slots[k]);
+			if (values[k] == null) {
+				return null;
+			}
+		}
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * @param row
+	 *            a row.
+	 * @param rowSchema
+	 *            its columns.
+	 * @param slot
+	 *            a key column.
+	 * @return the key value: a Double for the numbers, null for null and NaN.
+	 */
+	private static Object value(final ZTuple row, final ZTupleSchema rowSchema, final int slot) {
+		if (row.isNull(slot)) {
+			return null;
+		}
+		double d;
+		switch (rowSchema.getColumnType(slot)) {
+		case LONG:
+			d = row.getLong(slot);
+			break;
+		case DOUBLE:
+			d = row.getDouble(slot);
+			break;
+		default:
+			final Object value = ZSortKeys.normalize(row.getAttValue(slot));
+			if (!(value instanceof Number)) {
+				return value;
+			}
+			d = ((Number) value).doubleValue();
+			break;
+		}
+		// -0.0 equals 0.0, as NaN equals nothing
+		return Double.isNaN(d) ? null : Double.valueOf(d + 0.0);
+	}
+
+	@Override
+	public void close() {
+		this.left.close();
+		this.build = null;
+		this.heads = null;
+		this.chain = null;
+		this.joined = null;
+		this.pulled = null;
+		this.probes = null;
+		this.current = null;
+		this.match = -1;
+		this.leftDone = true;
+		this.buildLeft = false;
+		this.started = true;
+	}
+
+}
@@ -0,0 +1,378 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.gibello.zql.data.CompiledPredicate;
+import org.gibello.zql.data.ZEval;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.expression.ZOperator;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Plans the joins of a query: the tables of the FROM clause are joined in
+ * their order, each with the rows of the tables before it.
+ *
+ * The WHERE clause is split into the operands of its ANDs. An equality between
+ * columns of two tables, such as e.dept = d.id, is a key of the join of the
+ * latest of them: the tables joined on keys are joined by hashing, the others
+ * by nested loops, as are the tables of unknown size, whose keys are compared
+ * by a filter. Every other condition filters the rows as soon as the
+ * tables of its columns are joined, those of the first table right after its
+ * scan.
+ *
+ * The Oracle outer join operator marks the columns of the table whose rows may
+ * be missing: with e.dept = d.id(+), the rows of e that join no row of d are
+ * kept, padded with nulls. A join is outer when all its keys are marked on the
+ * same side, as in Oracle. A marked condition that is not a key, such as
+ * d.name(+) = 'Sales', must be on the columns of a single table: it filters the
+ * tuples of that table before they are joined. The tuples of a right outer
+ * join are kept whatever the rows before it, so the other conditions on the
+ * tables before it are checked after it, on the padded rows too.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZJoinPlan {
+
+	/**
+	 * The columns visible to the WHERE clause.
+	 */
+	private final ZScope scope;
+
+	/**
+	 * The columns of the first table.
+	 */
+	private final ZScope first;
+
+	/**
+	 * For each table, the conditions to check once it is joined, not
+	 * resolved.
+	 */
+	private final List<List<ZExp>> filters = new ArrayList<List<ZExp>>();
+
+	/**
+	 * For each table, the marked conditions on its own columns, not resolved:
+	 * those of the first table filter its rows right after its scan.
+	 */
+	private final List<List<ZExp>> tupleFilters = new ArrayList<List<ZExp>>();
+
+	/**
+	 * For each table, the equalities of its keys, resolved on the rows.
+	 */
+	private final List<List<ZExp>> keys = new ArrayList<List<ZExp>>();
+
+	/**
+	 * For each table, the key columns of the rows of the tables before it.
+	 */
+	private final List<List<Integer>> leftKeys = new ArrayList<List<Integer>>();
+
+	/**
+	 * For each table, its key columns, in the same order.
+	 */
+	private final List<List<Integer>> rightKeys = new ArrayList<List<Integer>>();
+
+	/**
+	 * For each table, the side of the outer join marked by each key.
+	 */
+	private final List<List<ZHashJoin.Type>> marks = new ArrayList<List<ZHashJoin.Type>>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param scope
+	 *            the columns visible to the WHERE clause.
+	 * @param where
+	 *            the WHERE clause, null if none.
+	 * @throws SQLException
+	 *             if a column can't be resolved, or the outer join operator
+	 *             is misplaced.
+	 */
+	ZJoinPlan(final ZScope scope, final ZExp where) throws SQLException {
+		this.scope = scope;
+		this.first = scope.getTableScope(0);
+		for (int i = 0; i < scope.getTableCount(); i++) {
+			this.filters.add(new ArrayList<ZExp>());
+			this.tupleFilters.add(new ArrayList<ZExp>());
+			this.keys.add(new ArrayList<ZExp>());
+			this.leftKeys.add(new ArrayList<Integer>());
+			this.rightKeys.add(new ArrayList<Integer>());
+			this.marks.add(new ArrayList<ZHashJoin.Type>());
+		}
+		if (where != null) {
+			final List<ZExp> conjuncts = new ArrayList<ZExp>();
+			split(where, conjuncts);
+			for (final ZExp conjunct : conjuncts) {
+				this.add(conjunct);
+			}
+		}
+	}
+
+	/**
+	 * Plan the scans, the joins and the filters.
+	 *
+	 * @param sources
+	 *            the tables, in FROM order.
+	 * @param eval
+	 *            compiles the conditions.
+	 * @return the cursor of the rows of all the tables that pass the WHERE
+	 *         clause.
+	 * @throws SQLException
+	 *             if a condition can't be compiled, or the keys of a join are
+	 *             marked on both sides.
+	 */
+	ZCursor plan(final ZSource[] sources, final ZEval eval) throws SQLException {
+		// The conditions on the tables before the last right outer join wait for it
+		int outer = 0;
+		for (int i = 1; i < sources.length; i++) {
+			if (this.type(i) == ZHashJoin.Type.RIGHT_OUTER) {
+				outer = i;
+			}
+		}
+		// The conditions of the first table filter its tuples, named as in the table
+		final List<ZExp> scanned = new ArrayList<ZExp>();
+		for (final ZExp condition : this.tupleFilters.get(0)) {
+			scanned.add(this.first.resolve(condition));
+		}
+		if (outer == 0) {
+			for (final ZExp condition : this.filters.get(0)) {
+				scanned.add(this.first.resolve(condition));
+			}
+		}
+		ZCursor cursor = filter(new ZScan(sources[0]), scanned, eval);
+		for (int i = 1; i < sources.length; i++) {
+			final ZHashJoin.Type type = this.type(i);
+			final List<ZExp> conditions = new ArrayList<ZExp>();
+			if (this.leftKeys.get(i).isEmpty() || ((sources[i].size() < 0) && (type == ZHashJoin.Type.INNER))) {
+				// A table of unknown size may not fit in memory: its keys are compared by nested loops
+				cursor = new ZProduct(cursor, sources[i], this.scope.getSchema(i + 1));
+				conditions.addAll(this.keys.get(i));
+				for (final ZExp condition : this.tupleFilters.get(i)) {
+					conditions.add(this.scope.resolve(condition));
+				}
+			} else {
+				CompiledPredicate tuples = null;
+				if (!this.tupleFilters.get(i).isEmpty()) {
+					final ZScope table = this.scope.getTableScope(i);
+					final List<ZExp> resolved = new ArrayList<ZExp>();
+					for (final ZExp condition : this.tupleFilters.get(i)) {
+						resolved.add(table.resolve(condition));
+					}
+					tuples = eval.compile(and(resolved), sources[i].getSchema());
+				}
+				cursor = new ZHashJoin(cursor, sources[i], toArray(this.leftKeys.get(i)), toArray(this.rightKeys.get(i)),
+						this.scope.getSchema(i + 1), type, tuples);
+			}
+			for (int table = i == outer ? 0 : i; (i >= outer) && (table <= i); table++) {
+				for (final ZExp condition : this.filters.get(table)) {
+					conditions.add(this.scope.resolve(condition));
+				}
+			}
+			cursor = filter(cursor, conditions, eval);
+		}
+		return cursor;
+	}
+
+	/**
+	 * @param table
+	 *            the index of a table.
+	 * @return the type of its join: outer if all its keys are marked on the
+	 *         same side.
+	 * @throws SQLException
+	 *             if keys are marked on both sides.
+	 */
+	private ZHashJoin.Type type(final int table) throws SQLException {
+		final List<ZHashJoin.Type> sides = this.marks.get(table);
+		if (sides.contains(ZHashJoin.Type.LEFT_OUTER) && sides.contains(ZHashJoin.Type.RIGHT_OUTER)) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + "(+) on both sides of " + and(this.keys.get(table)));
+		}
+		return sides.isEmpty() || sides.contains(ZHashJoin.Type.INNER) ? ZHashJoin.Type.INNER : sides.get(0);
+	}
+
+	/**
+	 * Collect the operands of nested ANDs.
+	 *
+	 * @param exp
+	 *            an expression.
+	 * @param conjuncts
+	 *            the operands; the expression itself if it is not an AND.
+	 */
+	private static void split(final ZExp exp, final List<ZExp> conjuncts) {
+		if ((exp instanceof ZExpression) && (ZOperator.toEnumQuiet(((ZExpression) exp).getOperator()) == ZOperator.AND)) {
+			for (final ZExp operand : ((ZExpression) exp).getOperands()) {
+				split(operand, conjuncts);
+			}
+		} else {
+			conjuncts.add(exp);
+		}
+	}
+
+	/**
+	 * Plan a condition of the WHERE clause: a join key, or a filter.
+	 *
+	 * @param conjunct
+	 *            the condition.
+	 * @throws SQLException
+	 *             if a column can't be resolved, or the outer join operator
+	 *             is misplaced.
+	 */
+	private void add(final ZExp conjunct) throws SQLException {
+		if (isColumnEquality(conjunct)) {
+			final ZExpression equality = (ZExpression) conjunct;
+			ZConstant a = (ZConstant) equality.getOperand(0);
+			ZConstant b = (ZConstant) equality.getOperand(1);
+			int slotA = this.scope.slot(a.getValue());
+			int slotB = this.scope.slot(b.getValue());
+			if (this.scope.getTable(slotA) > this.scope.getTable(slotB)) {
+				final ZConstant c = a;
+				a = b;
+				b = c;
+				final int slot = slotA;
+				slotA = slotB;
+				slotB = slot;
+			}
+			final int table = this.scope.getTable(slotB);
+			if (this.scope.getTable(slotA) < table) {
+				if (a.isOuterJoin() && b.isOuterJoin()) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + "(+) on both sides of " + conjunct);
+				}
+				this.leftKeys.get(table).add(slotA);
+				this.rightKeys.get(table).add(slotB - this.scope.getOffset(table));
+				this.keys.get(table).add(this.scope.resolve(conjunct));
+				// The marked column is that of the table whose rows may be missing
+				this.marks.get(table).add(
+						b.isOuterJoin() ? ZHashJoin.Type.LEFT_OUTER : (a.isOuterJoin() ? ZHashJoin.Type.RIGHT_OUTER : ZHashJoin.Type.INNER));
+				return;
+			}
+		}
+		final BitSet tables = new BitSet();
+		final boolean marked = this.tables(conjunct, tables);
+		final int table = Math.max(tables.length() - 1, 0);
+		if (marked && (tables.cardinality() > 1)) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + "(+) in " + conjunct);
+		}
+		if (marked) {
+			this.tupleFilters.get(table).add(conjunct);
+		} else {
+			this.filters.get(table).add(conjunct);
+		}
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is an equality of two columns.
+	 */
+	private static boolean isColumnEquality(final ZExp exp) {
+		if (!(exp instanceof ZExpression)) {
+			return false;
+		}
+		final ZExpression e = (ZExpression) exp;
+		return (ZOperator.toEnumQuiet(e.getOperator()) == ZOperator.EQUALS) && (e.nbOperands() == ZCommonConstants.MAGIC_NUMBER_2)
+				&& isColumn(e.getOperand(0)) && isColumn(e.getOperand(1));
+	}
+
+	/**
+	 * @param exp
+	 *            an expression.
+	 * @return true if it is a column reference.
+	 */
+	private static boolean isColumn(final ZExp exp) {
+		return (exp instanceof ZConstant) && (((ZConstant) exp).getType() == ZConstant.COLUMNNAME);
+	}
+
+	/**
+	 * Find the tables of the columns of an expression. The columns of its
+	 * subqueries are not counted: they have their own scope.
+	 *
+	 * @param exp
+	 *            an expression.
+	 * @param tables
+	 *            the indexes of the tables; those of the expression are set.
+	 * @return true if a column is marked by the outer join operator.
+	 * @throws SQLException
+	 *             if a column can't be resolved.
+	 */
+	private boolean tables(final ZExp exp, final BitSet tables) throws SQLException {
+		if (isColumn(exp)) {
+			tables.set(this.scope.getTable(this.scope.slot(((ZConstant) exp).getValue())));
+			return ((ZConstant) exp).isOuterJoin();
+		}
+		boolean marked = false;
+		if ((exp instanceof ZExpression) && (((ZExpression) exp).getOperands() != null)) {
+			for (final ZExp operand : ((ZExpression) exp).getOperands()) {
+				marked |= this.tables(operand, tables);
+			}
+		}
+		return marked;
+	}
+
+	/**
+	 * Filter the rows once a table is joined.
+	 *
+	 * @param input
+	 *            the rows, up to that table.
+	 * @param conditions
+	 *            the conditions, resolved on the rows.
+	 * @param eval
+	 *            compiles the conditions.
+	 * @return the filtered rows, or the rows if no condition.
+	 * @throws SQLException
+	 *             if a condition can't be compiled.
+	 */
+	private static ZCursor filter(final ZCursor input, final List<ZExp> conditions, final ZEval eval) throws SQLException {
+		if (conditions.isEmpty()) {
+			return input;
+		}
+		return new ZFilter(input, eval.compile(and(conditions), input.getSchema()));
+	}
+
+	/**
+	 * @param conditions
+	 *            conditions, at least one.
+	 * @return the condition, or the AND of the conditions.
+	 */
+	private static ZExp and(final List<ZExp> conditions) {
+		if (conditions.size() == 1) {
+			return conditions.get(0);
+		}
+		final ZExpression and = new ZExpression(ZOperator.AND.symbol());
+		for (final ZExp c : conditions) {
+			and.addOperand(c);
+		}
+		return and;
+	}
+
+	/**
+	 * @param values
+	 *            a list of integers.
+	 * @return them, as an array.
+	 */
+	private static int[] toArray(final List<Integer> values) {
+		final int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+
+import org.gibello.zql.data.ZTuple;
+
+/**
+ * Merges sorted cursors with a tree of losers: each internal node keeps the
+ * source that lost the match played there, the root the overall winner. Taking
+ * the next row replays only the matches on the path of the winner's source:
+ * log2(k) comparisons for k sources.
+ *
+ * Rows with equal keys come in the order of their sources, so that merging
+ * sorted runs of a stable sort is stable.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZLoserTree {
+
+	/**
+	 * The sorted sources.
+	 */
+	private final ZCursor[] sources;
+
+	/**
+	 * The order of the rows.
+	 */
+	private final ZSortKeys keys;
+
+	/**
+	 * The current row of each source, null once exhausted.
+	 */
+	private final ZTuple[] rows;
+
+	/**
+	 * The key values of the current row of each source.
+	 */
+	private final Object[][] rowKeys;
+
+	/**
+	 * The winner at index 0, the loser of each internal node 1 to k - 1. The
+	 * leaves k to 2k - 1 are the sources.
+	 */
+	private final int[] tree;
+
+	/**
+	 * Constructor: pull the first row of each source, and play the matches.
+	 *
+	 * @param sources
+	 *            the sorted sources, at least one.
+	 * @param keys
+	 *            the order of the rows.
+	 * @throws SQLException
+	 *             if a source fails.
+	 */
+	ZLoserTree(final ZCursor[] sources, final ZSortKeys keys) throws SQLException {
+		this.sources = sources;
+		this.keys = keys;
+		this.rows = new ZTuple[sources.length];
+		this.rowKeys = new Object[sources.length][];
+		this.tree = new int[sources.length];
+		for (int s = 0; s < sources.length; s++) {
+			this.pull(s);
+		}
+		this.tree[0] = this.play(1);
+	}
+
+	/**
+	 * @return the next row of the merge, null when all the sources are
+	 *         exhausted.
+	 * @throws SQLException
+	 *             if a source fails.
+	 */
+	ZTuple next() throws SQLException {
+		int winner = this.tree[0];
+		final ZTuple row = this.rows[winner];
+		if (row == null) {
+			return null;
+		}
+		this.pull(winner);
+		for (int node = (winner + this.sources.length) / 2; node >= 1; node /= 2) {
+			if (this.beats(this.tree[node], winner)) {
+				final int loser = winner;
+				winner = this.tree[node];
+				this.tree[node] = loser;
+			}
+		}
+		this.tree[0] = winner;
+		return row;
+	}
+
+	/**
+	 * Close the sources.
+	 */
+	void close() {
+		for (final ZCursor source : this.sources) {
+			source.close();
+		}
+	}
+
+	/**
+	 * Play the matches of a subtree.
+	 *
+	 * @param node
+	 *            the root of the subtree.
+	 * @return the winner of the subtree.
+	 */
+	private int play(final int node) {
+		if (node >= this.sources.length) {
+			// A leaf, or the root of a single source
+			return this.sources.length == 1 ? 0 : node - this.sources.length;
+		}
+		final int left = this.play(2 * node);
+		final int right = this.play((2 * node) + 1);
+		if (this.beats(right, left)) {
+			this.tree[node] = left;
+			return right;
+		}
+		this.tree[node] = right;
+		return left;
+	}
+
+	/**
+	 * @param s1
+	 *            a source.
+	 * @param s2
+	 *            another source.
+	 * @return true if the current row of s1 comes before that of s2.
+	 */
+	private boolean beats(final int s1, final int s2) {
+		if (this.rows[s1] == null) {
+			return false;
+		}
+		if (this.rows[s2] == null) {
+			return true;
+		}
+		final int c = this.keys.compare(this.rowKeys[s1], this.rowKeys[s2]);
+		return (c < 0) || ((c == 0) && (s1 < s2));
+	}
+
+	/**
+	 * Pull the next row of a source.
+	 *
+	 * @param s
+	 *            the source.
+	 * @throws SQLException
+	 *             if the source fails.
+	 */
+	private void pull(final int s) throws SQLException {
+		this.rows[s] = this.sources[s].next();
+		this.rowKeys[s] = this.rows[s] == null ? null : this.keys.key(this.rows[s]);
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * The cartesian product of the rows of a cursor with the tuples of a table,
+ * by nested loops: the table is iterated again for each row of the cursor, so
+ * that neither side is collected.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZProduct implements ZCursor {
+
+	/**
+	 * The outer rows.
+	 */
+	private final ZCursor left;
+
+	/**
+	 * The inner table.
+	 */
+	private final ZSource right;
+
+	/**
+	 * The columns of the left rows, then those of the right tuples.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The current left row, null before the first one.
+	 */
+	private ZTuple current = null;
+
+	/**
+	 * The right tuples not yet combined with the current left row.
+	 */
+	private Iterator<? extends ZTuple> inner = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param left
+	 *            the outer rows.
+	 * @param right
+	 *            the inner table.
+	 * @param schema
+	 *            the columns of the combined rows.
+	 */
+	ZProduct(final ZCursor left, final ZSource right, final ZTupleSchema schema) {
+		this.left = left;
+		this.right = right;
+		this.schema = schema;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		while (true) {
+			if ((this.inner != null) && this.inner.hasNext()) {
+				return ZRows.concat(this.schema, this.current, this.inner.next());
+			}
+			this.current = this.left.next();
+			if (this.current == null) {
+				this.inner = null;
+				return null;
+			}
+			this.inner = this.right.getRows().iterator();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.left.close();
+		this.current = null;
+		this.inner = null;
+	}
+
+}
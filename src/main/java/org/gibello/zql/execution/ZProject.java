@@ -0,0 +1,123 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+
+import org.gibello.zql.data.ZEval;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZExp;
+
+/**
+ * Computes the SELECT list on the rows of a cursor. Each output column is a
+ * column of the input row, copied with its type, a constant, or an expression
+ * evaluated by ZEval.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZProject implements ZCursor {
+
+	/**
+	 * The input rows.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The output columns.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * For each output column, the input column it copies, -1 if none.
+	 */
+	private final int[] slots;
+
+	/**
+	 * For each output column that doesn't copy a column, the expression to
+	 * evaluate, null for a constant.
+	 */
+	private final ZExp[] expressions;
+
+	/**
+	 * For each output column that is a constant, its value.
+	 */
+	private final Object[] constants;
+
+	/**
+	 * Evaluates the expressions.
+	 */
+	private final ZEval eval;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the input rows.
+	 * @param schema
+	 *            the output columns.
+	 * @param slots
+	 *            for each output column, the input column it copies, -1 if
+	 *            none.
+	 * @param expressions
+	 *            the other output columns, resolved on the input schema; null
+	 *            for the constants.
+	 * @param constants
+	 *            the values of the constant output columns.
+	 * @param eval
+	 *            evaluates the expressions.
+	 */
+	ZProject(final ZCursor input, final ZTupleSchema schema, final int[] slots, final ZExp[] expressions, final Object[] constants,
+			final ZEval eval) {
+		this.input = input;
+		this.schema = schema;
+		this.slots = slots;
+		this.expressions = expressions;
+		this.constants = constants;
+		this.eval = eval;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		final ZTuple row = this.input.next();
+		if (row == null) {
+			return null;
+		}
+		final ZTuple out = new ZTuple(this.schema);
+		for (int i = 0; i < this.slots.length; i++) {
+			if (this.slots[i] >= 0) {
+				ZRows.copy(row, this.slots[i], out, i);
+			} else if (this.expressions[i] != null) {
+				out.setAtt(i, this.eval.evalExpValue(row, this.expressions[i]));
+			} else {
+				out.setAtt(i, this.constants[i]);
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public void close() {
+		this.input.close();
+	}
+
+}
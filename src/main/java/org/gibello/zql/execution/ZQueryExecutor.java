@@ -0,0 +1,740 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gibello.zql.ZOrderBy;
+import org.gibello.zql.alias.ZFromItem;
+import org.gibello.zql.alias.ZSelectItem;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZEval;
+import org.gibello.zql.data.ZSubQueryResolver;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Runs SELECT queries on tables of in-memory tuples.
+ *
+ * A query is planned into a pipeline of cursors, that pulls the rows one at a
+ * time: the tables of the FROM clause are scanned and joined, the WHERE
+ * clause filters the rows through predicates compiled by ZEval, the rows are
+ * grouped and aggregated if needed, then the SELECT list is computed, DISTINCT
+ * drops the rows already returned, and ORDER BY sorts them. No intermediate
+ * result is collected, except the groups, the rows seen by DISTINCT, the rows
+ * being sorted, and the smaller side of each hash join.
+ *
+ * The tables are joined in FROM order. A table that the WHERE clause relates
+ * to the previous ones by equalities of columns, such as e.dept = d.id, is
+ * joined by hashing if its tuples are a collection; any other table by nested
+ * loops. Each other condition of the WHERE ANDs filters the rows as soon as the
+ * tables of its columns are joined. The keys marked by the Oracle outer join
+ * operator, as in e.dept = d.id(+), make outer hash joins.
+ *
+ * GROUP BY and the aggregates (COUNT, SUM, AVG, MIN, MAX) are computed by
+ * hashing, within a memory budget: beyond it, the groups are spilled to
+ * temporary files. HAVING is evaluated on the finished groups. ORDER BY sorts
+ * within the same budget, spilling sorted runs that are merged as the rows are
+ * pulled; its expressions may be positions, names or aliases of the SELECT
+ * list, or other expressions.
+ *
+ * The rows of a query over a single table keep the column names of the table;
+ * over several tables, they are named qualifier.column, where the qualifier is
+ * the alias of the table, or its name. The columns of the result are named by
+ * their alias, their column name, or the text of their expression; a name
+ * already used is qualified, or numbered.
+ *
+ * UNION ALL concatenates the rows of its queries; UNION, INTERSECT and MINUS
+ * match them by hashing, within the memory budget, spilling partitions to
+ * temporary files beyond it. The queries of a set operation run in parallel,
+ * each on a thread of its own, and its operators apply from left to right;
+ * its ORDER BY may only name the result columns, or their positions.
+ *
+ * Null values have the SQL semantics: a condition that compares a null value
+ * is unknown, and does not select the row, negated or not; IS [NOT] NULL tests
+ * them.
+ *
+ * The subqueries of IN (subquery) are run by the executor itself.
+ * COUNT(DISTINCT x) is not supported yet.
+ *
+ * Tables are registered before running queries; the executor is not thread
+ * safe while tables are registered.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+public class ZQueryExecutor implements ZSubQueryResolver {
+
+	/**
+	 * The default memory budget of each operator: 64 MiB.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+	/**
+	 * The UNION operator.
+	 */
+	private static final String UNION = "UNION";
+
+	/**
+	 * The UNION ALL operator.
+	 */
+	private static final String UNION_ALL = "UNION ALL";
+
+	/**
+	 * The INTERSECT operator.
+	 */
+	private static final String INTERSECT = "INTERSECT";
+
+	/**
+	 * The MINUS operator.
+	 */
+	private static final String MINUS = "MINUS";
+
+	/**
+	 * A column of the SELECT list.
+	 */
+	private static final class Column {
+
+		/**
+		 * The name of the column.
+		 */
+		private final String name;
+
+		/**
+		 * The name to use if the name is already used, null if none.
+		 */
+		private final String qualified;
+
+		/**
+		 * The column value, resolved on the rows being projected.
+		 */
+		private final ZExp exp;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name
+		 *            the name of the column.
+		 * @param qualified
+		 *            the name to use if the name is already used, null if
+		 *            none.
+		 * @param exp
+		 *            the column value, resolved on the rows being projected.
+		 */
+		Column(final String name, final String qualified, final ZExp exp) {
+			this.name = name;
+			this.qualified = qualified;
+			this.exp = exp;
+		}
+	}
+
+	/**
+	 * The tables, by name.
+	 */
+	private final Map<String, ZSource> tables = new HashMap<String, ZSource>();
+
+	/**
+	 * Evaluates the expressions of the queries.
+	 */
+	private final ZEval eval = new ZEval();
+
+	/**
+	 * The memory budget of each operator, in bytes.
+	 */
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	/**
+	 * The directory of the temporary files, null for the default one.
+	 */
+	private File spillDirectory = null;
+
+	/**
+	 * Default constructor.
+	 */
+	public ZQueryExecutor() {
+		this.eval.setSubQueryResolver(this);
+		this.eval.setNulls(ZEval.Nulls.SQL);
+	}
+
+	/**
+	 * @return the evaluator of the expressions, to choose its backend and
+	 *         evaluation mode.
+	 */
+	public ZEval getEval() {
+		return this.eval;
+	}
+
+	/**
+	 * Set the memory that each operator that keeps rows, like GROUP BY and
+	 * ORDER BY, may use before spilling them to disk. The sizes are estimated.
+	 *
+	 * @param memoryBudget
+	 *            the memory budget, in bytes.
+	 */
+	public void setMemoryBudget(final long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return the memory budget of each operator, in bytes.
+	 */
+	public long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	/**
+	 * Set the directory of the temporary files.
+	 *
+	 * @param spillDirectory
+	 *            the directory, null for the default temporary directory.
+	 */
+	public void setSpillDirectory(final File spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return the directory of the temporary files, null for the default
+	 *         one.
+	 */
+	public File getSpillDirectory() {
+		return this.spillDirectory;
+	}
+
+	/**
+	 * Register a table, replacing any table with that name.
+	 *
+	 * @param name
+	 *            the table name, as written in the FROM clauses (case
+	 *            sensitive).
+	 * @param schema
+	 *            the columns of the tuples.
+	 * @param rows
+	 *            the tuples, all of that schema; iterated again by each scan
+	 *            of the table.
+	 */
+	public void addTable(final String name, final ZTupleSchema schema, final Iterable<? extends ZTuple> rows) {
+		this.tables.put(name, new ZSource(schema, rows));
+	}
+
+	/**
+	 * Plan a query. The rows are computed as they are pulled from the cursor.
+	 *
+	 * @param query
+	 *            the query.
+	 * @return the cursor of the result rows.
+	 * @throws SQLException
+	 *             if a table or a column is unknown, or the query uses clauses
+	 *             not supported.
+	 */
+	public ZCursor execute(final ZQuery query) throws SQLException {
+		if (query.getSet() != null) {
+			return this.combine(query);
+		}
+		return this.select(query, query.getOrderBy());
+	}
+
+	/**
+	 * Plan a SELECT, without its set clause.
+	 *
+	 * @param query
+	 *            the query.
+	 * @param orderBy
+	 *            the ORDER BY expressions, null if none.
+	 * @return the cursor of the result rows.
+	 * @throws SQLException
+	 *             if a table or a column is unknown, or the query uses clauses
+	 *             not supported.
+	 */
+	private ZCursor select(final ZQuery query, final List<ZOrderBy> orderBy) throws SQLException {
+		check(query);
+		final List<ZFromItem> from = query.getFrom();
+		final String[] qualifiers = new String[from.size()];
+		final ZSource[] sources = new ZSource[from.size()];
+		final ZTupleSchema[] schemas = new ZTupleSchema[from.size()];
+		for (int i = 0; i < sources.length; i++) {
+			final ZFromItem item = from.get(i);
+			sources[i] = this.tables.get(item.getTable());
+			if (sources[i] == null) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_UNKNOWN_TABLE + item.getTable());
+			}
+			qualifiers[i] = item.getAlias() != null ? item.getAlias() : item.getTable();
+			schemas[i] = sources[i].getSchema();
+		}
+		final ZScope scope = new ZScope(qualifiers, schemas);
+
+		ZCursor cursor = new ZJoinPlan(scope, query.getWhere()).plan(sources, this.eval);
+
+		ZGrouping grouping = null;
+		if ((query.getGroupBy() != null) || hasAggregate(query.getSelect())) {
+			grouping = new ZGrouping(scope, cursor.getSchema(), query.getGroupBy() == null ? null : query.getGroupBy().getGroupBy());
+		}
+		final List<Column> columns = this.columns(query.getSelect(), scope, cursor.getSchema(), grouping);
+		final int visible = columns.size();
+		final int[] sortSlots = new int[orderBy == null ? 0 : orderBy.size()];
+		final boolean[] ascending = new boolean[sortSlots.length];
+		for (int i = 0; i < sortSlots.length; i++) {
+			sortSlots[i] = orderColumn(orderBy.get(i).getExpression(), columns, visible, scope, grouping);
+			ascending[i] = orderBy.get(i).getAscOrder();
+		}
+		if (query.isDistinct() && (columns.size() > visible)) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + "ORDER BY " + columns.get(visible).exp + " with DISTINCT");
+		}
+		if (grouping != null) {
+			final ZExp having = query.getGroupBy() == null ? null : query.getGroupBy().getHaving();
+			final ZExp condition = having == null ? null : grouping.rewrite(having);
+			cursor = grouping.aggregate(cursor, this.eval, this.memoryBudget, this.spillDirectory);
+			if (condition != null) {
+				cursor = new ZFilter(cursor, this.eval.compile(condition, cursor.getSchema()));
+			}
+		}
+		cursor = this.project(columns, cursor);
+		if (query.isDistinct()) {
+			cursor = new ZDistinct(cursor);
+		}
+		if (sortSlots.length > 0) {
+			cursor = new ZSort(cursor, new ZSortKeys(cursor.getSchema(), sortSlots, ascending), this.memoryBudget, this.spillDirectory);
+			if (columns.size() > visible) {
+				// Drop the columns added for ORDER BY
+				final List<Column> shown = new ArrayList<Column>();
+				for (int i = 0; i < visible; i++) {
+					final String name = cursor.getSchema().getColumnName(i);
+					shown.add(new Column(name, null, new ZConstant(name, ZConstant.COLUMNNAME)));
+				}
+				cursor = this.project(shown, cursor);
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * Plan a set operation. The queries are planned without their ORDER BY,
+	 * and run in parallel, each on a thread of its own; the operators are
+	 * applied from left to right, with the same precedence. UNION ALL
+	 * concatenates the rows; UNION, INTERSECT and MINUS match the rows by
+	 * hashing, within the memory budget.
+	 *
+	 * @param query
+	 *            the first query, with the set clauses and the ORDER BY.
+	 * @return the cursor of the result rows.
+	 * @throws SQLException
+	 *             if a query can't be planned, the queries have different
+	 *             numbers of columns, or an ORDER BY expression is not a
+	 *             result column.
+	 */
+	private ZCursor combine(final ZQuery query) throws SQLException {
+		final List<ZQuery> queries = new ArrayList<ZQuery>();
+		final List<String> operators = new ArrayList<String>();
+		ZQuery q = query;
+		queries.add(q);
+		while (q.getSet() != null) {
+			final String operator = q.getSet().getOperator().toUpperCase();
+			if (!operator.equals(UNION) && !operator.equals(UNION_ALL) && !operator.equals(INTERSECT) && !operator.equals(MINUS)) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + q.getSet().getOperator());
+			}
+			operators.add(operator);
+			q = (ZQuery) q.getSet().getOperand(0);
+			queries.add(q);
+		}
+
+		final List<ZExchange> branches = new ArrayList<ZExchange>();
+		boolean planned = false;
+		try {
+			final List<ZCursor> cursors = new ArrayList<ZCursor>();
+			for (final ZQuery branch : queries) {
+				cursors.add(this.select(branch, null));
+			}
+			final ZTupleSchema schema = setSchema(queries, cursors);
+			for (final ZCursor cursor : cursors) {
+				branches.add(new ZExchange(cursor.getSchema() == schema ? cursor : this.conform(cursor, schema)));
+			}
+
+			final List<ZOrderBy> orderBy = query.getOrderBy();
+			final int[] sortSlots = new int[orderBy == null ? 0 : orderBy.size()];
+			final boolean[] ascending = new boolean[sortSlots.length];
+			for (int i = 0; i < sortSlots.length; i++) {
+				sortSlots[i] = setOrderColumn(orderBy.get(i).getExpression(), schema);
+				ascending[i] = orderBy.get(i).getAscOrder();
+			}
+
+			ZCursor cursor = branches.get(0);
+			int b = 1;
+			while (b < branches.size()) {
+				final String operator = operators.get(b - 1);
+				if (operator.equals(INTERSECT) || operator.equals(MINUS)) {
+					final ZSetOperation.Operator op = operator.equals(INTERSECT) ? ZSetOperation.Operator.INTERSECT : ZSetOperation.Operator.MINUS;
+					cursor = new ZSetOperation(op, cursor, branches.get(b++), schema, this.memoryBudget, this.spillDirectory);
+					continue;
+				}
+				// Consecutive UNIONs, or UNION ALLs, are a single operation
+				final List<ZCursor> inputs = new ArrayList<ZCursor>();
+				inputs.add(cursor);
+				while ((b < branches.size()) && operators.get(b - 1).equals(operator)) {
+					inputs.add(branches.get(b++));
+				}
+				cursor = new ZConcat(inputs);
+				if (operator.equals(UNION)) {
+					cursor = new ZSetOperation(ZSetOperation.Operator.UNION, cursor, null, schema, this.memoryBudget, this.spillDirectory);
+				}
+			}
+			if (sortSlots.length > 0) {
+				cursor = new ZSort(cursor, new ZSortKeys(schema, sortSlots, ascending), this.memoryBudget, this.spillDirectory);
+			}
+			for (final ZExchange branch : branches) {
+				branch.start();
+			}
+			planned = true;
+			return cursor;
+		} finally {
+			if (!planned) {
+				for (final ZExchange branch : branches) {
+					branch.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The columns of a set operation: the names of the first query, and the
+	 * types the queries agree on.
+	 *
+	 * @param queries
+	 *            the queries.
+	 * @param cursors
+	 *            their cursors.
+	 * @return the columns, the columns of the first cursor if the types
+	 *         agree.
+	 * @throws SQLException
+	 *             if the queries have different numbers of columns.
+	 */
+	private static ZTupleSchema setSchema(final List<ZQuery> queries, final List<ZCursor> cursors) throws SQLException {
+		final ZTupleSchema first = cursors.get(0).getSchema();
+		final String[] names = new String[first.size()];
+		final ZColumnType[] types = new ZColumnType[first.size()];
+		for (int c = 0; c < names.length; c++) {
+			names[c] = first.getColumnName(c);
+			types[c] = first.getColumnType(c);
+		}
+		boolean same = true;
+		for (int i = 1; i < cursors.size(); i++) {
+			final ZTupleSchema schema = cursors.get(i).getSchema();
+			if (schema.size() != names.length) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_SET_COLUMNS + queries.get(i));
+			}
+			for (int c = 0; c < names.length; c++) {
+				if (schema.getColumnType(c) != types[c]) {
+					types[c] = ZColumnType.ANY;
+					same = false;
+				}
+			}
+		}
+		return same ? first : new ZTupleSchema(names, types);
+	}
+
+	/**
+	 * Copy the rows of a query of a set operation into the columns of the
+	 * result.
+	 *
+	 * @param input
+	 *            the rows of the query.
+	 * @param schema
+	 *            the columns of the result, as many.
+	 * @return the cursor of the copied rows.
+	 */
+	private ZCursor conform(final ZCursor input, final ZTupleSchema schema) {
+		final int[] slots = new int[schema.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = i;
+		}
+		return new ZProject(input, schema, slots, new ZExp[slots.length], new Object[slots.length], this.eval);
+	}
+
+	/**
+	 * Find the column of an ORDER BY expression of a set operation: a
+	 * position or the name of a result column.
+	 *
+	 * @param exp
+	 *            the ORDER BY expression.
+	 * @param schema
+	 *            the columns of the result.
+	 * @return the index of the column.
+	 * @throws SQLException
+	 *             if the expression is not a result column.
+	 */
+	private static int setOrderColumn(final ZExp exp, final ZTupleSchema schema) throws SQLException {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() == ZConstant.NUMBER) {
+				final Double position = c.getNumber();
+				if ((position != null) && (position.intValue() == position) && (position >= 1) && (position <= schema.size())) {
+					return position.intValue() - 1;
+				}
+			} else if ((c.getType() == ZConstant.COLUMNNAME) && (schema.indexOf(c.getValue()) >= 0)) {
+				return schema.indexOf(c.getValue());
+			}
+		}
+		throw new SQLException(ZCommonConstants.EXECUTOR_UNKNOWN_COLUMN + exp);
+	}
+
+	/**
+	 * Run an IN subquery.
+	 *
+	 * @param query
+	 *            the subquery.
+	 * @return the values of its single column.
+	 * @throws SQLException
+	 *             if the subquery can't be run, or has several columns.
+	 */
+	@Override
+	public Collection<?> resolve(final ZQuery query) throws SQLException {
+		final ZCursor cursor = this.execute(query);
+		try {
+			if (cursor.getSchema().size() != 1) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_SUBQUERY_COLUMNS + query);
+			}
+			final List<Object> values = new ArrayList<Object>();
+			for (ZTuple row = cursor.next(); row != null; row = cursor.next()) {
+				values.add(row.getAttValue(0));
+			}
+			return values;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Reject the clauses not supported.
+	 *
+	 * @param query
+	 *            the query.
+	 * @throws SQLException
+	 *             if the query uses a clause not supported.
+	 */
+	private static void check(final ZQuery query) throws SQLException {
+		if ((query.getFrom() == null) || query.getFrom().isEmpty()) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_NOT_SUPPORTED + "no FROM clause");
+		}
+	}
+
+	/**
+	 * @param select
+	 *            the SELECT items.
+	 * @return true if an item calls an aggregate function.
+	 */
+	private static boolean hasAggregate(final List<ZSelectItem> select) {
+		for (final ZSelectItem item : select) {
+			if (item.isExpression() && ZAggregateCall.contains(item.getExpression())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Resolve the SELECT list.
+	 *
+	 * @param select
+	 *            the SELECT items.
+	 * @param scope
+	 *            the columns of the FROM rows.
+	 * @param rows
+	 *            the columns of the FROM rows.
+	 * @param grouping
+	 *            the aggregation of the rows, null if none.
+	 * @return the columns, resolved on the rows being projected.
+	 * @throws SQLException
+	 *             if a column or a table is unknown.
+	 */
+	private List<Column> columns(final List<ZSelectItem> select, final ZScope scope, final ZTupleSchema rows, final ZGrouping grouping)
+			throws SQLException {
+		final List<Column> columns = new ArrayList<Column>();
+		for (final ZSelectItem item : select) {
+			if (item.isExpression()) {
+				final ZExp exp = grouping == null ? scope.resolve(item.getExpression()) : grouping.rewrite(item.getExpression());
+				columns.add(new Column(item.getAlias() != null ? item.getAlias() : item.getStrform(), null, exp));
+			} else if (item.isWildcard()) {
+				if (grouping != null) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_NOT_GROUPED + item.getStrform());
+				}
+				for (final int slot : scope.slots(item.getTable())) {
+					final String name = rows.getColumnName(slot);
+					columns.add(new Column(scope.getTableColumnName(slot), name, new ZConstant(name, ZConstant.COLUMNNAME)));
+				}
+			} else {
+				final ZConstant c = literal(item.getStrform());
+				String name = item.getAlias() != null ? item.getAlias() : item.getStrform();
+				if (c.getType() != ZConstant.COLUMNNAME) {
+					columns.add(new Column(name, null, c));
+				} else {
+					final ZExp exp = grouping == null ? scope.resolve(c) : grouping.rewrite(c);
+					if (item.getAlias() == null) {
+						name = name.substring(name.lastIndexOf('.') + 1);
+					}
+					columns.add(new Column(name, ((ZConstant) exp).getValue(), exp));
+				}
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Find the column of an ORDER BY expression: a position in the SELECT
+	 * list, the name or alias of a column, an expression of the SELECT list,
+	 * or else a column added after the SELECT list.
+	 *
+	 * @param exp
+	 *            the ORDER BY expression.
+	 * @param columns
+	 *            the columns of the SELECT list, then those added for ORDER
+	 *            BY.
+	 * @param visible
+	 *            the number of columns of the SELECT list.
+	 * @param scope
+	 *            the columns of the FROM rows.
+	 * @param grouping
+	 *            the aggregation of the rows, null if none.
+	 * @return the index of the column.
+	 * @throws SQLException
+	 *             if the position is out of the SELECT list, or the
+	 *             expression can't be resolved.
+	 */
+	private static int orderColumn(final ZExp exp, final List<Column> columns, final int visible, final ZScope scope, final ZGrouping grouping)
+			throws SQLException {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() == ZConstant.NUMBER) {
+				final Double position = c.getNumber();
+				if ((position == null) || (position.intValue() != position) || (position < 1) || (position > visible)) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_UNKNOWN_COLUMN + exp);
+				}
+				return position.intValue() - 1;
+			}
+			if ((c.getType() == ZConstant.COLUMNNAME) && (c.getValue().indexOf('.') < 0)) {
+				for (int i = 0; i < visible; i++) {
+					if (columns.get(i).name.equals(c.getValue())) {
+						return i;
+					}
+				}
+			}
+		}
+		final ZExp resolved = grouping == null ? scope.resolve(exp) : grouping.rewrite(exp);
+		for (int i = 0; i < columns.size(); i++) {
+			if (columns.get(i).exp.toString().equals(resolved.toString())) {
+				return i;
+			}
+		}
+		columns.add(new Column(resolved.toString(), null, resolved));
+		return columns.size() - 1;
+	}
+
+	/**
+	 * Plan the SELECT list.
+	 *
+	 * @param columns
+	 *            the columns, resolved on the input.
+	 * @param input
+	 *            the rows.
+	 * @return the cursor of the projected rows.
+	 * @throws SQLException
+	 *             if a constant can't be evaluated.
+	 */
+	private ZCursor project(final List<Column> columns, final ZCursor input) throws SQLException {
+		final ZTupleSchema rows = input.getSchema();
+		final String[] names = new String[columns.size()];
+		final ZColumnType[] types = new ZColumnType[columns.size()];
+		final int[] slots = new int[columns.size()];
+		final ZExp[] expressions = new ZExp[columns.size()];
+		final Object[] constants = new Object[columns.size()];
+		final Set<String> used = new HashSet<String>();
+
+		for (int i = 0; i < names.length; i++) {
+			final Column column = columns.get(i);
+			names[i] = unique(used, column.name, column.qualified);
+			types[i] = ZColumnType.ANY;
+			slots[i] = -1;
+			if (column.exp instanceof ZExpression) {
+				expressions[i] = column.exp;
+			} else {
+				final ZConstant c = (ZConstant) column.exp;
+				if (c.getType() == ZConstant.COLUMNNAME) {
+					slots[i] = rows.indexOf(c.getValue());
+					types[i] = rows.getColumnType(slots[i]);
+				} else if (c.getType() != ZConstant.NULL) {
+					constants[i] = this.eval.evalExpValue(new ZTuple(), c);
+				}
+			}
+		}
+		return new ZProject(input, new ZTupleSchema(names, types), slots, expressions, constants, this.eval);
+	}
+
+	/**
+	 * The parser keeps the SELECT items that are not expressions as text:
+	 * rebuild the constant.
+	 *
+	 * @param strform
+	 *            the text of the item.
+	 * @return the constant: a column name, a string, a number or NULL.
+	 */
+	private static ZConstant literal(final String strform) {
+		final int length = strform.length();
+		if ((length >= ZCommonConstants.MAGIC_NUMBER_2) && (strform.charAt(0) == '\'') && (strform.charAt(length - 1) == '\'')) {
+			return new ZConstant(strform.substring(1, length - 1), ZConstant.STRING);
+		}
+		if ("NULL".equalsIgnoreCase(strform)) {
+			return new ZConstant(strform, ZConstant.NULL);
+		}
+		if ((length > 0) && (Character.isDigit(strform.charAt(0)) || (strform.charAt(0) == '.'))) {
+			return new ZConstant(strform, ZConstant.NUMBER);
+		}
+		return new ZConstant(strform, ZConstant.COLUMNNAME);
+	}
+
+	/**
+	 * Name a result column.
+	 *
+	 * @param used
+	 *            the names of the previous columns; the name is added.
+	 * @param name
+	 *            the name of the column.
+	 * @param qualified
+	 *            the name to use if the name is already used, null if none.
+	 * @return the name, unique in the result.
+	 */
+	private static String unique(final Set<String> used, final String name, final String qualified) {
+		String result = name;
+		if (used.contains(result) && (qualified != null)) {
+			result = qualified;
+		}
+		for (int n = ZCommonConstants.MAGIC_NUMBER_2; used.contains(result); n++) {
+			result = name + '_' + n;
+		}
+		used.add(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Encodes the values of the rows spilled to disk: a tag byte, then the value.
+ * The values of typed numeric columns are written without boxing them.
+ *
+ * Integers are read back as Longs, and Floats as Doubles; values that are not
+ * numbers or strings can't be spilled.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZRowCodec {
+
+	/**
+	 * Tag of null values.
+	 */
+	private static final byte NULL = 0;
+
+	/**
+	 * Tag of integers.
+	 */
+	private static final byte LONG = 1;
+
+	/**
+	 * Tag of floating point numbers.
+	 */
+	private static final byte DOUBLE = 2;
+
+	/**
+	 * Tag of strings.
+	 */
+	private static final byte STRING = 3;
+
+	/**
+	 * The encoding of the strings.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Default constructor.
+	 */
+	private ZRowCodec() {
+
+	}
+
+	/**
+	 * Write a value.
+	 *
+	 * @param out
+	 *            the output.
+	 * @param value
+	 *            a number, a string, or null.
+	 * @throws IOException
+	 *             if the value can't be written.
+	 */
+	static void writeValue(final DataOutput out, final Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			out.writeByte(LONG);
+			out.writeLong(((Number) value).longValue());
+		} else if ((value instanceof Double) || (value instanceof Float)) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof String) {
+			final byte[] bytes = ((String) value).getBytes(UTF8);
+			out.writeByte(STRING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else {
+			throw new IOException(ZCommonConstants.EXECUTOR_CANNOT_SPILL + value.getClass().getName());
+		}
+	}
+
+	/**
+	 * Read a value.
+	 *
+	 * @param in
+	 *            the input.
+	 * @return the value.
+	 * @throws IOException
+	 *             if the value can't be read.
+	 */
+	static Object readValue(final DataInput in) throws IOException {
+		final byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case LONG:
+			return Long.valueOf(in.readLong());
+		case DOUBLE:
+			return Double.valueOf(in.readDouble());
+		case STRING:
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, UTF8);
+		default:
+			throw new IOException(ZCommonConstants.EXECUTOR_CORRUPTED_SPILL + tag);
+		}
+	}
+
+	/**
+	 * Write the values of a row.
+	 *
+	 * @param out
+	 *            the output.
+	 * @param row
+	 *            the row.
+	 * @throws IOException
+	 *             if a value can't be written.
+	 */
+	static void writeRow(final DataOutput out, final ZTuple row) throws IOException {
+		final ZTupleSchema schema = row.getSchema();
+		for (int i = 0; i < schema.size(); i++) {
+			switch (schema.getColumnType(i)) {
+			case LONG:
+				out.writeBoolean(row.isNull(i));
+				out.writeLong(row.getLong(i));
+				break;
+			case DOUBLE:
+				out.writeBoolean(row.isNull(i));
+				out.writeDouble(row.getDouble(i));
+				break;
+			default:
+				writeValue(out, row.getAttValue(i));
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Read a row written by writeRow().
+	 *
+	 * @param in
+	 *            the input.
+	 * @param schema
+	 *            the columns of the row.
+	 * @return the row.
+	 * @throws IOException
+	 *             if a value can't be read.
+	 */
+	static ZTuple readRow(final DataInput in, final ZTupleSchema schema) throws IOException {
+		final ZTuple row = new ZTuple(schema);
+		for (int i = 0; i < schema.size(); i++) {
+			switch (schema.getColumnType(i)) {
+			case LONG:
+				final boolean nullLong = in.readBoolean();
+				final long l = in.readLong();
+				if (!nullLong) {
+					row.setLong(i, l);
+				}
+				break;
+			case DOUBLE:
+				final boolean nullDouble = in.readBoolean();
+				final double d = in.readDouble();
+				if (!nullDouble) {
+					row.setDouble(i, d);
+				}
+				break;
+			default:
+				row.setAtt(i, readValue(in));
+				break;
+			}
+		}
+		return row;
+	}
+
+}
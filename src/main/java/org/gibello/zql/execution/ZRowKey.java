@@ -0,0 +1,247 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.gibello.zql.data.ZTuple;
+
+/**
+ * The values of a row, encoded in a byte array to be hashed and compared by
+ * the set operations: a tag byte per value, then the value.
+ *
+ * Numbers are encoded as doubles, so that 1 and 1.0 are the same value, as are
+ * -0.0 and 0.0; strings in UTF-8; other values by their string form. Null
+ * values are equal, as SQL set operations compare them.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZRowKey {
+
+	/**
+	 * Tag of null values.
+	 */
+	private static final byte NULL = 0;
+
+	/**
+	 * Tag of numbers.
+	 */
+	private static final byte NUMBER = 1;
+
+	/**
+	 * Tag of strings.
+	 */
+	private static final byte STRING = 2;
+
+	/**
+	 * Tag of the other values.
+	 */
+	private static final byte OTHER = 3;
+
+	/**
+	 * The encoding of the strings.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Multiplier of the hash of each partitioning level.
+	 */
+	private static final int LEVEL_SEED = 0x9E3779B9;
+
+	/**
+	 * The estimated memory of a key in a hash set, besides its bytes.
+	 */
+	private static final int KEY_BYTES = 88;
+
+	/**
+	 * The encoded values.
+	 */
+	private final byte[] bytes;
+
+	/**
+	 * The hash of the bytes.
+	 */
+	private final int hash;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bytes
+	 *            the encoded values.
+	 */
+	private ZRowKey(final byte[] bytes) {
+		this.bytes = bytes;
+		this.hash = Arrays.hashCode(bytes);
+	}
+
+	/**
+	 * Encodes the rows into keys, reusing its buffer. Not thread safe.
+	 */
+	static final class Encoder {
+
+		/**
+		 * The bytes of the key being encoded.
+		 */
+		private byte[] buffer = new byte[64];
+
+		/**
+		 * The number of bytes encoded.
+		 */
+		private int length = 0;
+
+		/**
+		 * @param row
+		 *            a row.
+		 * @return the key of its values.
+		 */
+		ZRowKey encode(final ZTuple row) {
+			this.length = 0;
+			for (int i = 0; i < row.getNumAtt(); i++) {
+				if (row.isNull(i)) {
+					this.put(NULL);
+					continue;
+				}
+				switch (row.getSchema().getColumnType(i)) {
+				case LONG:
+					this.putNumber(row.getLong(i));
+					break;
+				case DOUBLE:
+					this.putNumber(row.getDouble(i));
+					break;
+				default:
+					final Object value = row.getAttValue(i);
+					if (value instanceof Number) {
+						this.putNumber(((Number) value).doubleValue());
+					} else {
+						this.putString(value instanceof String ? STRING : OTHER, value.toString());
+					}
+					break;
+				}
+			}
+			return new ZRowKey(Arrays.copyOf(this.buffer, this.length));
+		}
+
+		/**
+		 * @param value
+		 *            a number.
+		 */
+		private void putNumber(final double value) {
+			this.put(NUMBER);
+			final long bits = Double.doubleToLongBits(value + 0.0);
+			for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+				this.put((byte) (bits >>> shift));
+			}
+		}
+
+		/**
+		 * @param tag
+		 *            the tag of the value.
+		 * @param value
+		 *            the string, or string form of the value.
+		 */
+		private void putString(final byte tag, final String value) {
+			this.put(tag);
+			final byte[] utf8 = value.getBytes(UTF8);
+			for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+				this.put((byte) (utf8.length >>> shift));
+			}
+			this.ensure(utf8.length);
+			System.arraycopy(utf8, 0, this.buffer, this.length, utf8.length);
+			this.length += utf8.length;
+		}
+
+		/**
+		 * @param b
+		 *            a byte.
+		 */
+		private void put(final byte b) {
+			this.ensure(1);
+			this.buffer[this.length++] = b;
+		}
+
+		/**
+		 * @param n
+		 *            a number of bytes to append.
+		 */
+		private void ensure(final int n) {
+			if (this.length + n > this.buffer.length) {
+				this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + n));
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated memory of the key in a hash set, in bytes.
+	 */
+	long size() {
+		return KEY_BYTES + this.bytes.length;
+	}
+
+	/**
+	 * @param level
+	 *            the partitioning level, from 0.
+	 * @param fanOut
+	 *            the number of partitions, a power of 2.
+	 * @return the partition of the key.
+	 */
+	int partition(final int level, final int fanOut) {
+		return ZRows.mix(this.hash + (level + 1) * LEVEL_SEED) & (fanOut - 1);
+	}
+
+	/**
+	 * Write the key to a spill file.
+	 *
+	 * @param out
+	 *            the output.
+	 * @throws IOException
+	 *             if the key can't be written.
+	 */
+	void write(final DataOutput out) throws IOException {
+		out.writeInt(this.bytes.length);
+		out.write(this.bytes);
+	}
+
+	/**
+	 * Read a key written by write().
+	 *
+	 * @param in
+	 *            the input.
+	 * @return the key.
+	 * @throws IOException
+	 *             if the key can't be read.
+	 */
+	static ZRowKey read(final DataInput in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new ZRowKey(bytes);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return (o instanceof ZRowKey) && (((ZRowKey) o).hash == this.hash) && Arrays.equals(((ZRowKey) o).bytes, this.bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return ZRows.mix(this.hash);
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * Row helpers shared by the operators.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZRows {
+
+	/**
+	 * The estimated size of a tuple, besides its columns.
+	 */
+	private static final int TUPLE_BYTES = 96;
+
+	/**
+	 * The estimated size of a column: its slots in the value, number and null
+	 * arrays.
+	 */
+	private static final int COLUMN_BYTES = 17;
+
+	/**
+	 * The estimated size of a string, besides its characters.
+	 */
+	private static final int STRING_BYTES = 40;
+
+	/**
+	 * The estimated size of another object.
+	 */
+	private static final int OBJECT_BYTES = 16;
+
+	/**
+	 * Default constructor.
+	 */
+	private ZRows() {
+
+	}
+
+	/**
+	 * Copy a column value between tuples, without boxing the values of the
+	 * typed numeric columns.
+	 *
+	 * @param from
+	 *            the source tuple.
+	 * @param fromSlot
+	 *            the index of the column in the source tuple.
+	 * @param to
+	 *            the target tuple; a column of another type gets the value
+	 *            converted by setAtt().
+	 * @param toSlot
+	 *            the index of the column in the target tuple.
+	 */
+	static void copy(final ZTuple from, final int fromSlot, final ZTuple to, final int toSlot) {
+		if (from.isNull(fromSlot)) {
+			to.setNull(toSlot);
+			return;
+		}
+		final ZColumnType type = from.getSchema().getColumnType(fromSlot);
+		if (type != to.getSchema().getColumnType(toSlot)) {
+			to.setAtt(toSlot, from.getAttValue(fromSlot));
+			return;
+		}
+		switch (type) {
+		case LONG:
+			to.setLong(toSlot, from.getLong(fromSlot));
+			break;
+		case DOUBLE:
+			to.setDouble(toSlot, from.getDouble(fromSlot));
+			break;
+		default:
+			to.setAtt(toSlot, from.getAttValue(fromSlot));
+			break;
+		}
+	}
+
+	/**
+	 * Spread the bits of a hash (the finalizer of MurmurHash3).
+	 *
+	 * @param hash
+	 *            the hash.
+	 * @return the mixed hash.
+	 */
+	static int mix(final int hash) {
+		int h = hash;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Combine two rows, as joins and products do.
+	 *
+	 * @param schema
+	 *            the columns of the first row, then those of the second.
+	 * @param l
+	 *            the first row.
+	 * @param r
+	 *            the second row.
+	 * @return the combined row.
+	 */
+	static ZTuple concat(final ZTupleSchema schema, final ZTuple l, final ZTuple r) {
+		final ZTuple row = new ZTuple(schema);
+		final int offset = l.getNumAtt();
+		for (int i = 0; i < offset; i++) {
+			copy(l, i, row, i);
+		}
+		for (int i = 0; i < r.getNumAtt(); i++) {
+			copy(r, i, row, offset + i);
+		}
+		return row;
+	}
+
+	/**
+	 * Estimate the memory used by a row.
+	 *
+	 * @param row
+	 *            the row.
+	 * @return its estimated size, in bytes.
+	 */
+	static long sizeOf(final ZTuple row) {
+		final int n = row.getNumAtt();
+		long bytes = TUPLE_BYTES + ((long) COLUMN_BYTES * n);
+		for (int i = 0; i < n; i++) {
+			if (!row.getSchema().getColumnType(i).isNumeric()) {
+				final Object value = row.getAttValue(i);
+				if (value instanceof String) {
+					bytes += STRING_BYTES + (((String) value).length() * 2L);
+				} else if (value != null) {
+					bytes += OBJECT_BYTES;
+				}
+			}
+		}
+		return bytes;
+	}
+
+}
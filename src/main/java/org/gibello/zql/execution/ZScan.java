@@ -0,0 +1,70 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.util.Iterator;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * Pulls the tuples of a table, as they are.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZScan implements ZCursor {
+
+	/**
+	 * The columns of the tuples.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The tuples, null once closed.
+	 */
+	private Iterator<? extends ZTuple> rows;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source
+	 *            the table.
+	 */
+	ZScan(final ZSource source) {
+		this.schema = source.getSchema();
+		this.rows = source.getRows().iterator();
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() {
+		if ((this.rows == null) || !this.rows.hasNext()) {
+			return null;
+		}
+		return this.rows.next();
+	}
+
+	@Override
+	public void close() {
+		this.rows = null;
+	}
+
+}
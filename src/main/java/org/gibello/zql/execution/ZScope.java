@@ -0,0 +1,271 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The columns visible to the expressions of a query: the columns of the tables
+ * of its FROM clause, concatenated in a row.
+ *
+ * With a single table, the row columns keep the names of the table columns;
+ * with several tables, they are named qualifier.column, where the qualifier is
+ * the alias of the table, or its name. Column references, qualified or not,
+ * are resolved to the row columns.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZScope {
+
+	/**
+	 * The qualifier of each table.
+	 */
+	private final String[] qualifiers;
+
+	/**
+	 * The columns of each table.
+	 */
+	private final ZTupleSchema[] schemas;
+
+	/**
+	 * The index of the first row column of each table.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * The row columns.
+	 */
+	private final String[] names;
+
+	/**
+	 * The row column types.
+	 */
+	private final ZColumnType[] types;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param qualifiers
+	 *            the qualifier of each table, in FROM order.
+	 * @param schemas
+	 *            the columns of each table.
+	 * @throws SQLException
+	 *             if a qualifier is used twice.
+	 */
+	ZScope(final String[] qualifiers, final ZTupleSchema[] schemas) throws SQLException {
+		this.qualifiers = qualifiers;
+		this.schemas = schemas;
+		this.offsets = new int[schemas.length];
+		int size = 0;
+		for (int i = 0; i < schemas.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (qualifiers[j].equals(qualifiers[i])) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_DUPLICATE_TABLE + qualifiers[i]);
+				}
+			}
+			this.offsets[i] = size;
+			size += schemas[i].size();
+		}
+		this.names = new String[size];
+		this.types = new ZColumnType[size];
+		for (int i = 0; i < schemas.length; i++) {
+			for (int j = 0; j < schemas[i].size(); j++) {
+				final String name = schemas[i].getColumnName(j);
+				this.names[this.offsets[i] + j] = schemas.length == 1 ? name : qualifiers[i] + '.' + name;
+				this.types[this.offsets[i] + j] = schemas[i].getColumnType(j);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of tables.
+	 */
+	int getTableCount() {
+		return this.schemas.length;
+	}
+
+	/**
+	 * @param table
+	 *            the index of a table, in FROM order.
+	 * @return the scope of that table alone, whose rows are its tuples.
+	 * @throws SQLException
+	 *             never: a single table has no duplicate qualifier.
+	 */
+	ZScope getTableScope(final int table) throws SQLException {
+		return new ZScope(new String[] { this.qualifiers[table] }, new ZTupleSchema[] { this.schemas[table] });
+	}
+
+	/**
+	 * @param tables
+	 *            a number of tables, from the first one.
+	 * @return the row columns of these tables.
+	 */
+	ZTupleSchema getSchema(final int tables) {
+		final int size = tables < this.schemas.length ? this.offsets[tables] : this.names.length;
+		return new ZTupleSchema(Arrays.copyOf(this.names, size), Arrays.copyOf(this.types, size));
+	}
+
+	/**
+	 * @return the row columns of all the tables.
+	 */
+	ZTupleSchema getSchema() {
+		return this.getSchema(this.schemas.length);
+	}
+
+	/**
+	 * @param slot
+	 *            the index of a row column.
+	 * @return the name of the column in its table.
+	 */
+	String getTableColumnName(final int slot) {
+		final int i = this.getTable(slot);
+		return this.schemas[i].getColumnName(slot - this.offsets[i]);
+	}
+
+	/**
+	 * @param slot
+	 *            the index of a row column.
+	 * @return the index of its table, in FROM order.
+	 */
+	int getTable(final int slot) {
+		int i = this.schemas.length - 1;
+		while (this.offsets[i] > slot) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * @param table
+	 *            the index of a table, in FROM order.
+	 * @return the index of the first row column of the table.
+	 */
+	int getOffset(final int table) {
+		return this.offsets[table];
+	}
+
+	/**
+	 * Find the row column of a column reference.
+	 *
+	 * @param reference
+	 *            a column name, qualified by a table name or alias, or not.
+	 * @return the index of the row column.
+	 * @throws SQLException
+	 *             if no table, or several, have that column.
+	 */
+	int slot(final String reference) throws SQLException {
+		final int dot = reference.lastIndexOf('.');
+		final String column = reference.substring(dot + 1);
+		String qualifier = null;
+		if (dot > 0) {
+			// A schema before the table name is ignored
+			qualifier = reference.substring(reference.lastIndexOf('.', dot - 1) + 1, dot);
+		}
+		int slot = -1;
+		for (int i = 0; i < this.schemas.length; i++) {
+			final int j = this.schemas[i].indexOf(column);
+			if ((j >= 0) && ((qualifier == null) || qualifier.equals(this.qualifiers[i]))) {
+				if (slot >= 0) {
+					throw new SQLException(ZCommonConstants.EXECUTOR_AMBIGUOUS_COLUMN + reference);
+				}
+				slot = this.offsets[i] + j;
+			}
+		}
+		if (slot < 0) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_UNKNOWN_COLUMN + reference);
+		}
+		return slot;
+	}
+
+	/**
+	 * The row columns of a table, for qualifier.*.
+	 *
+	 * @param qualifier
+	 *            the table name or alias, null for all the tables.
+	 * @return the indexes of the row columns.
+	 * @throws SQLException
+	 *             if there is no such table.
+	 */
+	List<Integer> slots(final String qualifier) throws SQLException {
+		final List<Integer> slots = new ArrayList<Integer>();
+		for (int i = 0; i < this.schemas.length; i++) {
+			if ((qualifier == null) || qualifier.equals(this.qualifiers[i])) {
+				for (int j = 0; j < this.schemas[i].size(); j++) {
+					slots.add(this.offsets[i] + j);
+				}
+			}
+		}
+		if ((qualifier != null) && slots.isEmpty() && !this.hasTable(qualifier)) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_UNKNOWN_TABLE + qualifier);
+		}
+		return slots;
+	}
+
+	/**
+	 * @param qualifier
+	 *            a table name or alias.
+	 * @return true if a table of this scope has that qualifier.
+	 */
+	private boolean hasTable(final String qualifier) {
+		for (final String q : this.qualifiers) {
+			if (q.equals(qualifier)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copy an expression, with its column references renamed after the row
+	 * columns. Subqueries are not copied: they have their own scope.
+	 *
+	 * @param exp
+	 *            the expression.
+	 * @return the expression to evaluate on the rows.
+	 * @throws SQLException
+	 *             if a column can't be resolved.
+	 */
+	ZExp resolve(final ZExp exp) throws SQLException {
+		if (exp instanceof ZConstant) {
+			final ZConstant c = (ZConstant) exp;
+			if (c.getType() == ZConstant.COLUMNNAME) {
+				return new ZConstant(this.names[this.slot(c.getValue())], ZConstant.COLUMNNAME);
+			}
+		} else if (exp instanceof ZExpression) {
+			final ZExpression e = (ZExpression) exp;
+			final ZExpression copy = new ZExpression(e.getOperator());
+			if (e.getOperands() != null) {
+				for (final ZExp operand : e.getOperands()) {
+					copy.addOperand(this.resolve(operand));
+				}
+			}
+			return copy;
+		}
+		return exp;
+	}
+
+}
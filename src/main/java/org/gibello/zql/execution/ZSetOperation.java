@@ -0,0 +1,488 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * The distinct rows of a UNION, INTERSECT or MINUS, matched by hashing their
+ * ZRowKey.
+ *
+ * The keys of the right rows are loaded in a hash set, then the left rows are
+ * streamed against it: INTERSECT returns a left row if its key is in the set,
+ * and removes it; MINUS returns it if its key is not in the set, and adds it.
+ * UNION has no right rows: its left rows are the rows of all the queries, and
+ * it returns the first row of each key.
+ *
+ * The set is kept within a memory budget. When loading the right keys
+ * overflows it, the set is written to partition files by hash, as are the
+ * remaining right keys and all the left rows. When the left rows overflow it,
+ * the set stops growing: the rows of its keys are still matched, the others
+ * are written to the partitions. Each pair of partitions is then processed the
+ * same way, partitioned again with another hash if it still doesn't fit.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSetOperation implements ZCursor {
+
+	/**
+	 * The set operators.
+	 */
+	enum Operator {
+
+		/**
+		 * The distinct rows of the queries.
+		 */
+		UNION,
+
+		/**
+		 * The distinct rows of the left query that the right one returns.
+		 */
+		INTERSECT,
+
+		/**
+		 * The distinct rows of the left query that the right one doesn't
+		 * return.
+		 */
+		MINUS
+	}
+
+	/**
+	 * The number of partitions of a spill.
+	 */
+	private static final int FAN_OUT = 16;
+
+	/**
+	 * Partitions are not partitioned again beyond that level: the budget is
+	 * then ignored.
+	 */
+	private static final int MAX_LEVEL = 8;
+
+	/**
+	 * A spilled pair of partitions.
+	 */
+	private static final class Partition {
+
+		/**
+		 * The left rows.
+		 */
+		private final ZSpillFile rows;
+
+		/**
+		 * The right keys, and the keys of the set when it was full.
+		 */
+		private final ZSpillFile keys;
+
+		/**
+		 * The partitioning level that wrote it.
+		 */
+		private final int level;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param rows
+		 *            the left rows.
+		 * @param keys
+		 *            the right keys.
+		 * @param level
+		 *            the partitioning level that wrote it.
+		 */
+		Partition(final ZSpillFile rows, final ZSpillFile keys, final int level) {
+			this.rows = rows;
+			this.keys = keys;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * The operator.
+	 */
+	private final Operator operator;
+
+	/**
+	 * The left rows.
+	 */
+	private final ZCursor left;
+
+	/**
+	 * The right rows, null for UNION.
+	 */
+	private final ZCursor right;
+
+	/**
+	 * The columns of the rows.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The memory budget, in bytes.
+	 */
+	private final long budget;
+
+	/**
+	 * The directory of the spill files, null for the default one.
+	 */
+	private final File directory;
+
+	/**
+	 * Encodes the keys of the rows.
+	 */
+	private final ZRowKey.Encoder encoder = new ZRowKey.Encoder();
+
+	/**
+	 * The keys in memory.
+	 */
+	private final Set<ZRowKey> keys = new HashSet<ZRowKey>();
+
+	/**
+	 * The partitions not processed yet.
+	 */
+	private final Deque<Partition> pending = new ArrayDeque<Partition>();
+
+	/**
+	 * The estimated memory of the keys, in bytes.
+	 */
+	private long used = 0;
+
+	/**
+	 * The partitioning level of the rows being read.
+	 */
+	private int level = 0;
+
+	/**
+	 * The partitions of the left rows being written, null if none.
+	 */
+	private ZSpillFile[] rowSpill = null;
+
+	/**
+	 * The partitions of the keys being written, null if none.
+	 */
+	private ZSpillFile[] keySpill = null;
+
+	/**
+	 * The partition being read, null while reading the left cursor.
+	 */
+	private Partition current = null;
+
+	/**
+	 * The rows of the partition being read.
+	 */
+	private DataInputStream in = null;
+
+	/**
+	 * The rows of the partition not read yet.
+	 */
+	private long remaining = 0;
+
+	/**
+	 * true once the right keys are loaded.
+	 */
+	private boolean loaded = false;
+
+	/**
+	 * true once all the rows are read.
+	 */
+	private boolean done = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param operator
+	 *            the operator.
+	 * @param left
+	 *            the left rows.
+	 * @param right
+	 *            the right rows, null for UNION.
+	 * @param schema
+	 *            the columns of the rows.
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 * @param directory
+	 *            the directory of the spill files, null for the default one.
+	 */
+	ZSetOperation(final Operator operator, final ZCursor left, final ZCursor right, final ZTupleSchema schema, final long budget,
+			final File directory) {
+		this.operator = operator;
+		this.left = left;
+		this.right = right;
+		this.schema = schema;
+		this.budget = budget;
+		this.directory = directory;
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		if (!this.loaded) {
+			this.loaded = true;
+			if (this.right != null) {
+				for (ZTuple row = this.right.next(); row != null; row = this.right.next()) {
+					this.addKey(this.encoder.encode(row));
+				}
+				this.right.close();
+			}
+		}
+		while (!this.done) {
+			final ZTuple row = this.nextRow();
+			if (row == null) {
+				this.done = !this.nextPartition();
+				continue;
+			}
+			final ZRowKey key = this.encoder.encode(row);
+			if (this.rowSpill != null) {
+				// The set is full, or empty for INTERSECT: the rows of its
+				// keys are matched now, the other ones later
+				if ((this.operator == Operator.INTERSECT) || !this.keys.contains(key)) {
+					this.spillRow(row, key);
+				}
+			} else if (this.operator == Operator.INTERSECT) {
+				if (this.keys.remove(key)) {
+					return row;
+				}
+			} else if (this.keys.add(key)) {
+				this.used += key.size();
+				if (this.isFull()) {
+					this.startSpill(false);
+				}
+				return row;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the next row of the left cursor or of the partition, null at
+	 *         the end.
+	 * @throws SQLException
+	 *             if the row can't be read.
+	 */
+	private ZTuple nextRow() throws SQLException {
+		if (this.current == null) {
+			return this.left.next();
+		}
+		if (this.remaining == 0) {
+			return null;
+		}
+		this.remaining--;
+		try {
+			return ZRowCodec.readRow(this.in, this.schema);
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Queue the partitions written while reading the rows, and load the next
+	 * partition.
+	 *
+	 * @return false if there is none.
+	 * @throws SQLException
+	 *             if the partitions can't be written or read.
+	 */
+	private boolean nextPartition() throws SQLException {
+		if (this.rowSpill != null) {
+			this.finishSpill();
+		}
+		if (this.current != null) {
+			this.current.rows.delete();
+			this.current = null;
+			this.in = null;
+		}
+		final Partition partition = this.pending.poll();
+		if (partition == null) {
+			return false;
+		}
+		this.current = partition;
+		this.level = partition.level + 1;
+		this.keys.clear();
+		this.used = 0;
+		try {
+			final DataInputStream keyInput = partition.keys.open();
+			for (long r = partition.keys.getRecords(); r > 0; r--) {
+				this.addKey(ZRowKey.read(keyInput));
+			}
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		} finally {
+			partition.keys.delete();
+		}
+		this.in = partition.rows.open();
+		this.remaining = partition.rows.getRecords();
+		return true;
+	}
+
+	/**
+	 * Add a right key to the set, or to its partition once the set was full.
+	 *
+	 * @param key
+	 *            the key.
+	 * @throws SQLException
+	 *             if the keys can't be spilled.
+	 */
+	private void addKey(final ZRowKey key) throws SQLException {
+		if (this.keySpill != null) {
+			this.spillKey(key);
+		} else if (this.keys.add(key)) {
+			this.used += key.size();
+			if (this.isFull()) {
+				this.startSpill(true);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the set is over budget, and may be partitioned again.
+	 */
+	private boolean isFull() {
+		return (this.used > this.budget) && (this.level < MAX_LEVEL);
+	}
+
+	/**
+	 * Create the partitions.
+	 *
+	 * @param flush
+	 *            true to write the keys of the set to the partitions and
+	 *            empty it, false to keep it for the rows still to read.
+	 * @throws SQLException
+	 *             if the partitions can't be created or written.
+	 */
+	private void startSpill(final boolean flush) throws SQLException {
+		this.rowSpill = new ZSpillFile[FAN_OUT];
+		this.keySpill = new ZSpillFile[FAN_OUT];
+		for (int p = 0; p < FAN_OUT; p++) {
+			this.rowSpill[p] = new ZSpillFile(this.directory);
+			this.keySpill[p] = new ZSpillFile(this.directory);
+		}
+		if (flush) {
+			this.flushKeys();
+		}
+	}
+
+	/**
+	 * Write the keys of the set to the partitions, and empty it.
+	 *
+	 * @throws SQLException
+	 *             if the keys can't be written.
+	 */
+	private void flushKeys() throws SQLException {
+		for (final ZRowKey key : this.keys) {
+			this.spillKey(key);
+		}
+		this.keys.clear();
+		this.used = 0;
+	}
+
+	/**
+	 * @param key
+	 *            a key to write to its partition.
+	 * @throws SQLException
+	 *             if the key can't be written.
+	 */
+	private void spillKey(final ZRowKey key) throws SQLException {
+		final ZSpillFile file = this.keySpill[key.partition(this.level, FAN_OUT)];
+		try {
+			key.write(file.output());
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+		file.endRecord();
+	}
+
+	/**
+	 * @param row
+	 *            a left row to write to its partition.
+	 * @param key
+	 *            its key.
+	 * @throws SQLException
+	 *             if the row can't be written.
+	 */
+	private void spillRow(final ZTuple row, final ZRowKey key) throws SQLException {
+		final ZSpillFile file = this.rowSpill[key.partition(this.level, FAN_OUT)];
+		try {
+			ZRowCodec.writeRow(file.output(), row);
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+		file.endRecord();
+	}
+
+	/**
+	 * Write the keys of the set to the partitions, and queue the partitions
+	 * that have rows.
+	 *
+	 * @throws SQLException
+	 *             if the keys can't be written.
+	 */
+	private void finishSpill() throws SQLException {
+		// The rows of these keys were returned or excluded already
+		this.flushKeys();
+		for (int p = FAN_OUT - 1; p >= 0; p--) {
+			if (this.rowSpill[p].getRecords() > 0) {
+				this.pending.push(new Partition(this.rowSpill[p], this.keySpill[p], this.level));
+			} else {
+				this.rowSpill[p].delete();
+				this.keySpill[p].delete();
+			}
+		}
+		this.rowSpill = null;
+		this.keySpill = null;
+	}
+
+	@Override
+	public void close() {
+		this.left.close();
+		if (this.right != null) {
+			this.right.close();
+		}
+		if (this.rowSpill != null) {
+			for (int p = 0; p < FAN_OUT; p++) {
+				this.rowSpill[p].delete();
+				this.keySpill[p].delete();
+			}
+			this.rowSpill = null;
+			this.keySpill = null;
+		}
+		if (this.current != null) {
+			this.current.rows.delete();
+			this.current = null;
+		}
+		for (final Partition partition : this.pending) {
+			partition.rows.delete();
+			partition.keys.delete();
+		}
+		this.pending.clear();
+		this.keys.clear();
+		this.done = true;
+	}
+
+}
@@ -0,0 +1,413 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * Sorts the rows of a cursor, within a memory budget.
+ *
+ * The rows are collected and sorted in memory until the budget is reached;
+ * the sorted run is then written to a temporary file with ZRowCodec, and the
+ * collection starts over. If the input fits in memory, the rows are returned
+ * from the sorted run; else the runs, the last one kept in memory, are merged
+ * by a ZLoserTree as the rows are pulled. When there are too many runs to
+ * merge at once, the first runs are merged into longer ones beforehand.
+ *
+ * The sort is stable: rows with equal keys keep their input order.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSort implements ZCursor {
+
+	/**
+	 * The maximum number of runs merged at once, each with its read buffer.
+	 */
+	private static final int MAX_FAN_IN = 64;
+
+	/**
+	 * The initial capacity of the run being collected.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * The estimated size of an entry of the run being collected, besides its
+	 * row.
+	 */
+	private static final int ENTRY_BYTES = 48;
+
+	/**
+	 * A row and its key values.
+	 */
+	private static final class Entry {
+
+		/**
+		 * The row.
+		 */
+		private final ZTuple row;
+
+		/**
+		 * The key values of the row.
+		 */
+		private final Object[] key;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param row
+		 *            the row.
+		 * @param key
+		 *            the key values of the row.
+		 */
+		Entry(final ZTuple row, final Object[] key) {
+			this.row = row;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * The rows of a sorted run in memory.
+	 */
+	private static final class MemoryRun implements ZCursor {
+
+		/**
+		 * The columns of the rows.
+		 */
+		private final ZTupleSchema schema;
+
+		/**
+		 * The sorted entries.
+		 */
+		private Entry[] entries;
+
+		/**
+		 * The number of entries.
+		 */
+		private final int size;
+
+		/**
+		 * The next entry.
+		 */
+		private int next = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param schema
+		 *            the columns of the rows.
+		 * @param entries
+		 *            the sorted entries.
+		 * @param size
+		 *            the number of entries.
+		 */
+		MemoryRun(final ZTupleSchema schema, final Entry[] entries, final int size) {
+			this.schema = schema;
+			this.entries = entries;
+			this.size = size;
+		}
+
+		@Override
+		public ZTupleSchema getSchema() {
+			return this.schema;
+		}
+
+		@Override
+		public ZTuple next() {
+			if ((this.entries == null) || (this.next >= this.size)) {
+				return null;
+			}
+			final ZTuple row = this.entries[this.next].row;
+			// Released as they are returned
+			this.entries[this.next++] = null;
+			return row;
+		}
+
+		@Override
+		public void close() {
+			this.entries = null;
+		}
+	}
+
+	/**
+	 * The rows of a sorted run in a file.
+	 */
+	private static final class FileRun implements ZCursor {
+
+		/**
+		 * The columns of the rows.
+		 */
+		private final ZTupleSchema schema;
+
+		/**
+		 * The file.
+		 */
+		private final ZSpillFile file;
+
+		/**
+		 * The input, null before the first row.
+		 */
+		private DataInputStream in = null;
+
+		/**
+		 * The number of rows not read yet.
+		 */
+		private long remaining;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param schema
+		 *            the columns of the rows.
+		 * @param file
+		 *            the file.
+		 */
+		FileRun(final ZTupleSchema schema, final ZSpillFile file) {
+			this.schema = schema;
+			this.file = file;
+			this.remaining = file.getRecords();
+		}
+
+		@Override
+		public ZTupleSchema getSchema() {
+			return this.schema;
+		}
+
+		@Override
+		public ZTuple next() throws SQLException {
+			if (this.remaining <= 0) {
+				this.file.delete();
+				return null;
+			}
+			if (this.in == null) {
+				this.in = this.file.open();
+			}
+			this.remaining--;
+			try {
+				return ZRowCodec.readRow(this.in, this.schema);
+			} catch (final IOException e) {
+				throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void close() {
+			this.remaining = 0;
+			this.file.delete();
+		}
+	}
+
+	/**
+	 * The input rows.
+	 */
+	private final ZCursor input;
+
+	/**
+	 * The order of the rows.
+	 */
+	private final ZSortKeys keys;
+
+	/**
+	 * The memory budget, in bytes.
+	 */
+	private final long budget;
+
+	/**
+	 * The directory of the spill files, null for the default one.
+	 */
+	private final File directory;
+
+	/**
+	 * Orders the entries.
+	 */
+	private final Comparator<Entry> comparator;
+
+	/**
+	 * The runs written to files.
+	 */
+	private final List<ZSpillFile> runs = new ArrayList<ZSpillFile>();
+
+	/**
+	 * The sorted rows, null before the input is consumed.
+	 */
+	private ZCursor output = null;
+
+	/**
+	 * The merge of the runs, null if none.
+	 */
+	private ZLoserTree merge = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            the input rows, each a distinct tuple.
+	 * @param keys
+	 *            the order of the rows.
+	 * @param budget
+	 *            the memory budget, in bytes.
+	 * @param directory
+	 *            the directory of the spill files, null for the default one.
+	 */
+	ZSort(final ZCursor input, final ZSortKeys keys, final long budget, final File directory) {
+		this.input = input;
+		this.keys = keys;
+		this.budget = budget;
+		this.directory = directory;
+		this.comparator = new Comparator<Entry>() {
+			@Override
+			public int compare(final Entry e1, final Entry e2) {
+				return keys.compare(e1.key, e2.key);
+			}
+		};
+	}
+
+	@Override
+	public ZTupleSchema getSchema() {
+		return this.input.getSchema();
+	}
+
+	@Override
+	public ZTuple next() throws SQLException {
+		if (this.output == null) {
+			this.consume();
+		}
+		return this.merge != null ? this.merge.next() : this.output.next();
+	}
+
+	/**
+	 * Collect the input rows into sorted runs, and prepare their merge.
+	 *
+	 * @throws SQLException
+	 *             if the input fails, or a run can't be written.
+	 */
+	private void consume() throws SQLException {
+		Entry[] entries = new Entry[INITIAL_CAPACITY];
+		int size = 0;
+		long bytes = 0;
+		for (ZTuple row = this.input.next(); row != null; row = this.input.next()) {
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = new Entry(row, this.keys.key(row));
+			bytes += ZRows.sizeOf(row) + ENTRY_BYTES + (this.keys.size() * (long) (Long.SIZE / Byte.SIZE));
+			if (bytes > this.budget) {
+				Arrays.sort(entries, 0, size, this.comparator);
+				this.runs.add(this.write(new MemoryRun(this.getSchema(), entries, size)));
+				entries = new Entry[entries.length];
+				size = 0;
+				bytes = 0;
+			}
+		}
+		this.input.close();
+		Arrays.sort(entries, 0, size, this.comparator);
+		this.output = new MemoryRun(this.getSchema(), entries, size);
+		if (!this.runs.isEmpty()) {
+			while (this.runs.size() >= MAX_FAN_IN) {
+				// Merge the oldest runs first, to keep the merge stable
+				final List<ZSpillFile> first = new ArrayList<ZSpillFile>(this.runs.subList(0, MAX_FAN_IN));
+				this.runs.subList(0, MAX_FAN_IN).clear();
+				final ZLoserTree tree = new ZLoserTree(this.open(first), this.keys);
+				this.runs.add(0, this.write(new ZCursor() {
+					@Override
+					public ZTupleSchema getSchema() {
+						return ZSort.this.getSchema();
+					}
+
+					@Override
+					public ZTuple next() throws SQLException {
+						return tree.next();
+					}
+
+					@Override
+					public void close() {
+						tree.close();
+					}
+				}));
+			}
+			final ZCursor[] sources = Arrays.copyOf(this.open(this.runs), this.runs.size() + 1);
+			sources[this.runs.size()] = this.output;
+			this.runs.clear();
+			this.merge = new ZLoserTree(sources, this.keys);
+		}
+	}
+
+	/**
+	 * @param files
+	 *            runs written to files.
+	 * @return their cursors.
+	 */
+	private ZCursor[] open(final List<ZSpillFile> files) {
+		final ZCursor[] cursors = new ZCursor[files.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = new FileRun(this.getSchema(), files.get(i));
+		}
+		return cursors;
+	}
+
+	/**
+	 * Write a sorted run to a file.
+	 *
+	 * @param run
+	 *            the run.
+	 * @return the file.
+	 * @throws SQLException
+	 *             if the run can't be written.
+	 */
+	private ZSpillFile write(final ZCursor run) throws SQLException {
+		final ZSpillFile file = new ZSpillFile(this.directory);
+		try {
+			for (ZTuple row = run.next(); row != null; row = run.next()) {
+				ZRowCodec.writeRow(file.output(), row);
+				file.endRecord();
+			}
+		} catch (final IOException e) {
+			file.delete();
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		} finally {
+			run.close();
+		}
+		return file;
+	}
+
+	@Override
+	public void close() {
+		this.input.close();
+		for (final ZSpillFile file : this.runs) {
+			file.delete();
+		}
+		this.runs.clear();
+		if (this.merge != null) {
+			this.merge.close();
+			this.merge = null;
+		}
+		if (this.output != null) {
+			this.output.close();
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * The ORDER BY keys of a sort: columns of the rows, each ascending or
+ * descending.
+ *
+ * The key values of a row are extracted once, by key(): strings that look
+ * like numbers are ordered as numbers, as ZEval compares them. Numbers come
+ * before strings, and nulls after all the values (before them when
+ * descending).
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSortKeys {
+
+	/**
+	 * The first characters of the strings that may be numbers.
+	 */
+	private static final String NUMBER_START = "0123456789+-.NI";
+
+	/**
+	 * The columns of the rows.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The column of each key.
+	 */
+	private final int[] slots;
+
+	/**
+	 * The order of each key.
+	 */
+	private final boolean[] ascending;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param schema
+	 *            the columns of the rows.
+	 * @param slots
+	 *            the column of each key.
+	 * @param ascending
+	 *            the order of each key.
+	 */
+	ZSortKeys(final ZTupleSchema schema, final int[] slots, final boolean[] ascending) {
+		this.schema = schema;
+		this.slots = slots;
+		this.ascending = ascending;
+	}
+
+	/**
+	 * @return the number of keys.
+	 */
+	int size() {
+		return this.slots.length;
+	}
+
+	/**
+	 * Extract the key values of a row.
+	 *
+	 * @param row
+	 *            the row.
+	 * @return the values: Longs, Doubles, strings or other comparable values,
+	 *         and nulls.
+	 */
+	Object[] key(final ZTuple row) {
+		final Object[] key = new Object[this.slots.length];
+		for (int k = 0; k < key.length; k++) {
+			final int slot = this.slots[k];
+			if (row.isNull(slot)) {
+				continue;
+			}
+			switch (this.schema.getColumnType(slot)) {
+			case LONG:
+				key[k] = Long.valueOf(row.getLong(slot));
+				break;
+			case DOUBLE:
+				key[k] = Double.valueOf(row.getDouble(slot));
+				break;
+			default:
+				key[k] = normalize(row.getAttValue(slot));
+				break;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Compare the key values of two rows.
+	 *
+	 * @param k1
+	 *            the key values of the first row.
+	 * @param k2
+	 *            the key values of the second row.
+	 * @return a negative number, 0, or a positive number if the first row
+	 *         comes before, with, or after the second.
+	 */
+	int compare(final Object[] k1, final Object[] k2) {
+		for (int k = 0; k < k1.length; k++) {
+			final int c = compareValues(k1[k], k2[k]);
+			if (c != 0) {
+				return this.ascending[k] ? c : -c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param value
+	 *            a column value.
+	 * @return the value, as a Double if it is a string that looks like a
+	 *         number.
+	 */
+	static Object normalize(final Object value) {
+		if (!(value instanceof String)) {
+			return value;
+		}
+		final String s = ((String) value).trim();
+		if (s.isEmpty() || (NUMBER_START.indexOf(s.charAt(0)) < 0)) {
+			return value;
+		}
+		try {
+			return Double.valueOf(s);
+		} catch (final NumberFormatException e) {
+			return value;
+		}
+	}
+
+	/**
+	 * @param v1
+	 *            a key value.
+	 * @param v2
+	 *            another key value.
+	 * @return the ascending order of the values.
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compareValues(final Object v1, final Object v2) {
+		if ((v1 == null) || (v2 == null)) {
+			return (v1 == null ? 1 : 0) - (v2 == null ? 1 : 0);
+		}
+		final boolean n1 = v1 instanceof Number;
+		final boolean n2 = v2 instanceof Number;
+		if (n1 && n2) {
+			if ((v1 instanceof Long) && (v2 instanceof Long)) {
+				final long l1 = (Long) v1;
+				final long l2 = (Long) v2;
+				return l1 < l2 ? -1 : (l1 > l2 ? 1 : 0);
+			}
+			final double d1 = ((Number) v1).doubleValue();
+			final double d2 = ((Number) v2).doubleValue();
+			// -0.0 and 0.0 are equal, NaN comes after the numbers
+			return d1 < d2 ? -1 : (d1 > d2 ? 1 : Double.compare(d1 + 0.0, d2 + 0.0));
+		}
+		if (n1 != n2) {
+			return n1 ? -1 : 1;
+		}
+		if ((v1 instanceof Comparable) && v1.getClass().equals(v2.getClass())) {
+			return ((Comparable<Object>) v1).compareTo(v2);
+		}
+		return v1.getClass().getName().compareTo(v2.getClass().getName());
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.util.Collection;
+
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+
+/**
+ * A table registered in a ZQueryExecutor: its schema, and the tuples it
+ * iterates on each scan.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSource {
+
+	/**
+	 * The columns of the tuples.
+	 */
+	private final ZTupleSchema schema;
+
+	/**
+	 * The tuples, iterated again by each scan.
+	 */
+	private final Iterable<? extends ZTuple> rows;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param schema
+	 *            the columns of the tuples.
+	 * @param rows
+	 *            the tuples.
+	 */
+	ZSource(final ZTupleSchema schema, final Iterable<? extends ZTuple> rows) {
+		this.schema = schema;
+		this.rows = rows;
+	}
+
+	/**
+	 * @return the columns of the tuples.
+	 */
+	ZTupleSchema getSchema() {
+		return this.schema;
+	}
+
+	/**
+	 * @return the tuples.
+	 */
+	Iterable<? extends ZTuple> getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * @return the number of tuples, -1 if the tuples are not a collection.
+	 */
+	int size() {
+		return this.rows instanceof Collection ? ((Collection<?>) this.rows).size() : -1;
+	}
+
+}
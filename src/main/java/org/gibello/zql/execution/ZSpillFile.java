@@ -0,0 +1,141 @@
+/*
+ * This file is part of Zql.
+ *
+ * Zql is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Zql is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Zql.  If not, see http://www.gnu.org/licenses.
+ */
+package org.gibello.zql.execution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.gibello.zql.utils.ZCommonConstants;
+
+/**
+ * A temporary file of records, written once then read once, by the operators
+ * that overflow their memory budget.
+ *
+ * @author Bogdan Mariesan, Romania
+ */
+final class ZSpillFile {
+
+	/**
+	 * The size of the read and write buffers.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The file.
+	 */
+	private final File file;
+
+	/**
+	 * The output, null once closed.
+	 */
+	private DataOutputStream output;
+
+	/**
+	 * The input, null before open().
+	 */
+	private DataInputStream input = null;
+
+	/**
+	 * The number of records written.
+	 */
+	private long records = 0;
+
+	/**
+	 * Create an empty temporary file.
+	 *
+	 * @param directory
+	 *            the directory of the file, null for the default temporary
+	 *            directory.
+	 * @throws SQLException
+	 *             if the file can't be created.
+	 */
+	ZSpillFile(final File directory) throws SQLException {
+		try {
+			this.file = File.createTempFile("zql", ".spill", directory);
+			this.file.deleteOnExit();
+			this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file), BUFFER_SIZE));
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the output, to write the next record.
+	 */
+	DataOutputStream output() {
+		return this.output;
+	}
+
+	/**
+	 * Count a record, once written.
+	 */
+	void endRecord() {
+		this.records++;
+	}
+
+	/**
+	 * @return the number of records written.
+	 */
+	long getRecords() {
+		return this.records;
+	}
+
+	/**
+	 * Stop writing, and read the records from the first one.
+	 *
+	 * @return the input.
+	 * @throws SQLException
+	 *             if the file can't be read.
+	 */
+	DataInputStream open() throws SQLException {
+		try {
+			this.output.close();
+			this.output = null;
+			this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE));
+			return this.input;
+		} catch (final IOException e) {
+			throw new SQLException(ZCommonConstants.EXECUTOR_SPILL_FAILED + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Close and delete the file.
+	 */
+	void delete() {
+		try {
+			if (this.output != null) {
+				this.output.close();
+			}
+			if (this.input != null) {
+				this.input.close();
+			}
+		} catch (final IOException e) {
+			// Deleted anyway
+		}
+		this.output = null;
+		this.input = null;
+		this.file.delete();
+	}
+
+}
@@ -62,6 +62,16 @@ public class ZConstant implements ZExp {
 	 */
 	private String values = null;
 
+	/**
+	 * True for a column marked by the Oracle outer join operator: a.col(+).
+	 */
+	private boolean outerJoin = false;
+
+	/**
+	 * The value of a NUMBER constant, parsed on first use.
+	 */
+	private transient Double number = null;
+
 	/**
 	 * Create a new constant, given its name and type.
 	 *
@@ -75,6 +85,21 @@ public class ZConstant implements ZExp {
 		this.zconstantType = zconstantTypes;
 	}
 
+	/**
+	 * Create a new column name, marked or not by the Oracle outer join
+	 * operator. In a.col(+) = b.col, the rows of b are kept when no row of a
+	 * matches them.
+	 *
+	 * @param column
+	 *            the column name, without (+).
+	 * @param outerJoin
+	 *            true if the column is followed by (+).
+	 */
+	public ZConstant(final String column, final boolean outerJoin) {
+		this(column, ZConstant.COLUMNNAME);
+		this.outerJoin = outerJoin;
+	}
+
 	/**
 	 * @return the constant value
 	 */
@@ -89,12 +114,43 @@ public class ZConstant implements ZExp {
 		return this.zconstantType;
 	}
 
+	/**
+	 * @return true for a column followed by the Oracle outer join operator
+	 *         (+).
+	 */
+	public boolean isOuterJoin() {
+		return this.outerJoin;
+	}
+
+	/**
+	 * Parse the value of a NUMBER constant once, so that evaluating it again
+	 * doesn't allocate.
+	 *
+	 * @return the numeric value, null if the constant is not a NUMBER or can't
+	 *         be parsed.
+	 */
+	public Double getNumber() {
+		Double n = this.number;
+		if ((n == null) && (this.zconstantType == ZConstant.NUMBER) && (this.values != null)) {
+			try {
+				n = Double.valueOf(this.values);
+			} catch (final NumberFormatException e) {
+				return null;
+			}
+			// Doubles are immutable: a racy publication is harmless
+			this.number = n;
+		}
+		return n;
+	}
+
 	@Override
 	public String toString() {
 		String toString;
 
 		if (this.zconstantType == ZConstant.STRING) {
 			toString = '\'' + this.values + '\'';
+		} else if (this.outerJoin) {
+			toString = this.values + "(+)";
 		} else {
 			toString = this.values;
 		}
@@ -114,11 +170,12 @@ public class ZConstant implements ZExp {
 
 		ZConstant zConstant = (ZConstant) o;
 
-		return new EqualsBuilder().append(zconstantType, zConstant.zconstantType).append(values, zConstant.values).isEquals();
+		return new EqualsBuilder().append(zconstantType, zConstant.zconstantType).append(values, zConstant.values)
+				.append(outerJoin, zConstant.outerJoin).isEquals();
 	}
 
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 37).append(zconstantType).append(values).toHashCode();
+		return new HashCodeBuilder(17, 37).append(zconstantType).append(values).append(outerJoin).toHashCode();
 	}
 }
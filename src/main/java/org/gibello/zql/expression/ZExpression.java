@@ -221,6 +221,11 @@ public class ZExpression implements ZExp {
 			} else if (operand instanceof ZQuery) {
 				buf.append(this.operator).append(ZCommonConstants.EMPTY_STRING).append(ZCommonConstants.LEFT_BRACKET).append(operand.toString())
 						.append(ZCommonConstants.RIGHT_BRACKET);
+			} else if (ZUtils.isAggregate(this.operator)) {
+				// Aggregate of an expression: SUM(a * b)
+				buf.append(this.operator).append(ZCommonConstants.LEFT_BRACKET).append(operand.toString()).append(ZCommonConstants.RIGHT_BRACKET);
+			} else if (ZOperator.toEnumQuiet(this.operator) == null) {
+				buf.append(this.operator).append(ZCommonConstants.EMPTY_STRING).append(operand.toString());
 			} else {
 				switch (ZOperator.toEnumQuiet(operator)) {
 				case IS_NULL:
@@ -244,6 +249,11 @@ public class ZExpression implements ZExp {
 						.append(this.getOperand(1).toString()).append(" AND ").append(this.getOperand(ZCommonConstants.MAGIC_NUMBER_2).toString());
 				break;
 			}
+			if (this.operator.toUpperCase().endsWith("LIKE")) {
+				buf.append(this.getOperand(0).toString()).append(ZCommonConstants.EMPTY_STRING).append(this.operator).append(ZCommonConstants.EMPTY_STRING)
+						.append(this.getOperand(1).toString()).append(" ESCAPE ").append(this.getOperand(ZCommonConstants.MAGIC_NUMBER_2).toString());
+				break;
+			}
 
 		default:
 
@@ -295,7 +305,7 @@ public class ZExpression implements ZExp {
 	 */
 	private boolean needPar(final String op) {
 		final String tmp = op.toUpperCase();
-		return !(tmp.equals("ANY") || tmp.equals("ALL") || tmp.equals("UNION") || ZUtils.isAggregate(tmp));
+		return !(tmp.equals("ANY") || tmp.equals("ALL") || tmp.equals("UNION") || tmp.equals("UNION ALL") || ZUtils.isAggregate(tmp));
 	}
 
 	/**
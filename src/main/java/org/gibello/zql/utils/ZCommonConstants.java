@@ -55,6 +55,16 @@ public class ZCommonConstants {
 	 */
 	public static final String PREFIX = "%";
 
+	/**
+	 * Invalid LIKE escape character error.
+	 */
+	public static final String ZEVAL_LIKE_INVALID_ESCAPE_CHARACTER = "ZEval.evalLike(): ESCAPE must be a single character: ";
+
+	/**
+	 * Invalid LIKE escape sequence error.
+	 */
+	public static final String ZEVAL_LIKE_INVALID_ESCAPE_SEQUENCE = "ZEval.evalLike(): invalid escape sequence in pattern ";
+
 	/**
 	 * Trying to compare more than two values error.
 	 */
@@ -90,6 +100,87 @@ public class ZCommonConstants {
 	 */
 	public static final String ZEVAL_ONLY_EXPRESSIONS_ARE_SUPPORTED = "ZEval.eval(): only expressions are supported";
 
+	/**
+	 * ZEval tuple of another schema.
+	 */
+	public static final String ZEVAL_SCHEMA_MISMATCH = "ZEval: predicate bound to schema ";
+
+	/**
+	 * ZEval IN (subquery) without a resolver.
+	 */
+	public static final String ZEVAL_NO_SUBQUERY_RESOLVER = "ZEval.eval(): no subquery resolver for ";
+
+	/**
+	 * ZQueryExecutor table not registered.
+	 */
+	public static final String EXECUTOR_UNKNOWN_TABLE = "ZQueryExecutor.execute(): unknown table ";
+
+	/**
+	 * ZQueryExecutor table twice in the FROM clause.
+	 */
+	public static final String EXECUTOR_DUPLICATE_TABLE = "ZQueryExecutor.execute(): duplicate table ";
+
+	/**
+	 * ZQueryExecutor column of no table.
+	 */
+	public static final String EXECUTOR_UNKNOWN_COLUMN = "ZQueryExecutor.execute(): unknown column ";
+
+	/**
+	 * ZQueryExecutor column of several tables.
+	 */
+	public static final String EXECUTOR_AMBIGUOUS_COLUMN = "ZQueryExecutor.execute(): ambiguous column ";
+
+	/**
+	 * ZQueryExecutor unsupported clause.
+	 */
+	public static final String EXECUTOR_NOT_SUPPORTED = "ZQueryExecutor.execute(): not supported: ";
+
+	/**
+	 * ZQueryExecutor subquery of several columns.
+	 */
+	public static final String EXECUTOR_SUBQUERY_COLUMNS = "ZQueryExecutor.resolve(): subquery must return one column: ";
+
+	/**
+	 * ZQueryExecutor column neither grouped nor aggregated.
+	 */
+	public static final String EXECUTOR_NOT_GROUPED = "ZQueryExecutor.execute(): not a GROUP BY expression: ";
+
+	/**
+	 * ZQueryExecutor aggregate of values that are not numbers.
+	 */
+	public static final String EXECUTOR_NOT_NUMERIC = "ZQueryExecutor: not a number: ";
+
+	/**
+	 * ZQueryExecutor MIN or MAX of values that can't be compared.
+	 */
+	public static final String EXECUTOR_CANNOT_COMPARE = "ZQueryExecutor: can't compare ";
+
+	/**
+	 * ZQueryExecutor temporary file error.
+	 */
+	public static final String EXECUTOR_SPILL_FAILED = "ZQueryExecutor: can't spill to disk: ";
+
+	/**
+	 * ZQueryExecutor value of a type that can't be written to disk.
+	 */
+	public static final String EXECUTOR_CANNOT_SPILL = "ZQueryExecutor: can't spill values of type ";
+
+	/**
+	 * ZQueryExecutor unreadable temporary file.
+	 */
+	public static final String EXECUTOR_CORRUPTED_SPILL = "ZQueryExecutor: corrupted spill file, tag ";
+
+	/**
+	 * ZQueryExecutor queries of a set operation with different columns.
+	 */
+	public static final String EXECUTOR_SET_COLUMNS = "ZQueryExecutor.execute(): the queries of a set operation must have as many columns: ";
+
+	/**
+	 * ZQueryExecutor thread interrupted while waiting for the rows of a
+	 * branch.
+	 */
+	public static final String EXECUTOR_INTERRUPTED = "ZQueryExecutor: interrupted while waiting for rows";
+
 	/**
 	 * The count operator.
 	 */
@@ -17,7 +17,8 @@
 
 package org.gibello.zql.utils;
 
-import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utils class.
@@ -33,9 +34,10 @@ public final class ZUtils {
     public static final int VARIABLE_PLIST = 10000;
 
     /**
-     * Functions hash table.
+     * Functions hash table (read on every function call the parser meets, so
+     * it must not be a synchronized map).
      */
-    private static Hashtable<String, Integer> fcts = new Hashtable<String, Integer>();
+    private static Map<String, Integer> fcts = new ConcurrentHashMap<String, Integer>();
 
     /**
      * Default constructor.
@@ -54,7 +56,7 @@ public final class ZUtils {
         int params = noParams;
 
         if (ZUtils.fcts == null) {
-            ZUtils.fcts = new Hashtable<String, Integer>();
+            ZUtils.fcts = new ConcurrentHashMap<String, Integer>();
         }
 
         if (params < 0) {
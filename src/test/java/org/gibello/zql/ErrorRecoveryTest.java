@@ -0,0 +1,120 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ErrorRecoveryTest {
+
+	@Test
+	public void parsingResumesAfterTheNextSemicolon() throws IOException, ParseException {
+		// given
+		String script = "select a from t;\nselect from u;\r\ndelete from v where w = 1;\n  update x set ;\ncommit;";
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = new ZqlParser(script).readStatements(errors);
+		// then
+		assertEquals(3, statements.size());
+		assertEquals("select a from t", statements.get(0).toString());
+		assertEquals("delete from v where (w = 1)", statements.get(1).toString());
+
+		assertEquals(2, errors.size());
+		ZParseError first = errors.get(0);
+		assertEquals(2, first.getLine());
+		assertEquals(8, first.getColumn());
+		assertEquals(24, first.getOffset());
+		assertEquals("from", first.getFound());
+		assertTrue(first.getExpected().contains("\"*\""));
+
+		ZParseError second = errors.get(1);
+		assertEquals(4, second.getLine());
+		assertEquals(16, second.getColumn());
+		assertEquals(script.indexOf("set ;") + 4, second.getOffset());
+		assertEquals(";", second.getFound());
+	}
+
+	@Test
+	public void offsetsAreKeptAfterStatementsReadOneByOne() throws IOException, ParseException {
+		// given
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			script.append("select a\nfrom t").append(i).append(";\n");
+		}
+		script.append("select from u;");
+		ZqlParser parser = new ZqlParser(script.toString());
+		for (int i = 0; i < 1000; i++) {
+			parser.readStatement();
+		}
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = parser.readStatements(errors);
+		// then
+		assertEquals(0, statements.size());
+		assertEquals(1, errors.size());
+		assertEquals(2001, errors.get(0).getLine());
+		assertEquals(script.indexOf("from u"), errors.get(0).getOffset());
+	}
+
+	@Test
+	public void lexicalErrorsAreRecovered() throws IOException, ParseException {
+		// given
+		String script = "select a from t where b = \u0001;\nselect c from d;";
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = new ZqlParser(script).readStatements(errors);
+		// then
+		assertEquals(1, statements.size());
+		assertEquals("select c from d", statements.get(0).toString());
+		assertEquals(1, errors.size());
+		assertEquals(1, errors.get(0).getLine());
+		assertEquals(27, errors.get(0).getColumn());
+		assertEquals(26, errors.get(0).getOffset());
+		assertEquals("\u0001", errors.get(0).getFound());
+	}
+
+	@Test
+	public void unterminatedLastStatementIsReported() throws IOException, ParseException {
+		// given
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = new ZqlParser("commit;\nselect a from").readStatements(errors);
+		// then
+		assertEquals(1, statements.size());
+		assertEquals(1, errors.size());
+		assertEquals("<EOF>", errors.get(0).getFound());
+	}
+
+	@Test
+	public void parsingStopsAtExit() throws IOException, ParseException {
+		// given
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = new ZqlParser("select from t; commit; exit; select from;").readStatements(errors);
+		// then
+		assertEquals(1, statements.size());
+		assertEquals(1, errors.size());
+	}
+
+	@Test
+	public void manyErrorsInALongScript() throws ParseException {
+		// given
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			script.append(i % 100 == 0 ? "insert into t values 1;\n" : "insert into t values (" + i + ");\n");
+		}
+		List<ZParseError> errors = new ArrayList<ZParseError>();
+		// when
+		List<ZStatement> statements = new ZqlParser(new CharSequenceProvider(script)).readStatements(errors);
+		// then
+		assertEquals(9900, statements.size());
+		assertEquals(100, errors.size());
+		assertEquals(9901, errors.get(99).getLine());
+		assertEquals(script.lastIndexOf("insert into t values 1;") + 21, errors.get(99).getOffset());
+	}
+}
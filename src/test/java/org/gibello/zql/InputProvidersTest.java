@@ -0,0 +1,88 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InputProvidersTest {
+
+	private static final String SCRIPT = "select nom from clients where ville = 'Brașov';\ninsert into t values ('日本', 'façade');\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void charSequenceProviderReadsARange() throws ParseException {
+		// given
+		StringBuilder sql = new StringBuilder("xxselect a from t;yy");
+		// when
+		ZStatement statement = new ZqlParser(new CharSequenceProvider(sql, 2, 18)).readStatement();
+		// then
+		assertEquals("select a from t", statement.toString());
+	}
+
+	@Test
+	public void charSequenceProviderReadsAnyCharSequence() throws ParseException {
+		// given
+		CharBuffer sql = CharBuffer.wrap("  select a from t;".toCharArray(), 2, 16).slice();
+		// when
+		ZStatement statement = new ZqlParser(new CharSequenceProvider(sql)).readStatement();
+		// then
+		assertEquals("select a from t", statement.toString());
+	}
+
+	@Test
+	public void charArrayProviderReadsASlice() throws ParseException {
+		// given
+		char[] sql = "--select a from t;--".toCharArray();
+		// when
+		ZStatement statement = new ZqlParser(new CharArrayProvider(sql, 2, 16)).readStatement();
+		// then
+		assertEquals("select a from t", statement.toString());
+	}
+
+	@Test
+	public void mappedFileProviderReadsUtf8() throws IOException, ParseException {
+		assertSameStatements(Charset.forName("UTF-8"), 1024);
+	}
+
+	@Test
+	public void mappedFileProviderHandlesCharactersSplitAcrossWindows() throws IOException, ParseException {
+		// every window size splits one of the multi-byte characters
+		for (int windowSize = 1; windowSize < 8; windowSize++) {
+			assertSameStatements(Charset.forName("UTF-8"), windowSize);
+		}
+	}
+
+	@Test
+	public void mappedFileProviderReadsOtherCharsets() throws IOException, ParseException {
+		assertSameStatements(Charset.forName("UTF-16"), 3);
+		assertSameStatements(Charset.forName("ISO-8859-2"), 5);
+	}
+
+	private void assertSameStatements(Charset charset, int windowSize) throws IOException, ParseException {
+		// given
+		File file = folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(SCRIPT.getBytes(charset));
+		out.close();
+		String expected = new String(SCRIPT.getBytes(charset), charset);
+		List<ZStatement> expectedStatements = new ZqlParser(expected).readStatements();
+		// when
+		MappedFileProvider provider = new MappedFileProvider(file, charset, windowSize);
+		List<ZStatement> statements = new ZqlParser(provider).readStatements();
+		provider.close();
+		// then
+		assertEquals(expectedStatements.toString(), statements.toString());
+	}
+}
@@ -0,0 +1,98 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.gibello.zql.utils.ZUtils;
+import org.junit.Test;
+
+public class ZDiagnosticsTest {
+
+	private static final String SQL = "select nvl_x(a, 0), max(b, c) from t\nwhere upper_x(d) = 'X';";
+
+	@Test
+	public void warningsAreIgnoredByDefault() throws IOException, ParseException {
+		// given
+		ZqlParser parser = new ZqlParser(SQL);
+		// then
+		assertSame(ZDiagnostics.NONE, parser.getDiagnostics());
+		assertNotNull(parser.readStatement());
+	}
+
+	@Test
+	public void countingDiagnosticsCountTheWarnings() throws IOException, ParseException {
+		// given
+		ZqlParser parser = new ZqlParser(SQL);
+		ZCountingDiagnostics diagnostics = new ZCountingDiagnostics();
+		parser.setDiagnostics(diagnostics);
+		// when
+		parser.readStatement();
+		// then
+		assertEquals(2, diagnostics.getUndefinedFunctionCount());
+		assertEquals(1, diagnostics.getWrongArityCount());
+		assertEquals(3, diagnostics.getCount());
+	}
+
+	@Test
+	public void collectingDiagnosticsKeepThePositions() throws IOException, ParseException {
+		// given
+		ZqlParser parser = new ZqlParser();
+		ZCollectingDiagnostics diagnostics = new ZCollectingDiagnostics();
+		parser.setDiagnostics(diagnostics);
+		parser.initParser(SQL);
+		// when
+		parser.readStatement();
+		// then
+		List<ZDiagnostic> warnings = diagnostics.getDiagnostics();
+		assertEquals(3, warnings.size());
+		assertEquals(ZDiagnostic.Kind.UNDEFINED_FUNCTION, warnings.get(0).getKind());
+		assertEquals("nvl_x", warnings.get(0).getFunction());
+		assertEquals(1, warnings.get(0).getLine());
+		assertEquals(8, warnings.get(0).getColumn());
+
+		assertEquals(ZDiagnostic.Kind.WRONG_ARITY, warnings.get(1).getKind());
+		assertEquals("max", warnings.get(1).getFunction());
+		assertEquals(1, warnings.get(1).getExpected());
+		assertEquals(2, warnings.get(1).getActual());
+		assertEquals(21, warnings.get(1).getColumn());
+
+		assertEquals("upper_x", warnings.get(2).getFunction());
+		assertEquals(2, warnings.get(2).getLine());
+		assertEquals(7, warnings.get(2).getColumn());
+	}
+
+	@Test
+	public void strictDiagnosticsFailFast() throws IOException {
+		// given
+		ZqlParser parser = new ZqlParser(SQL);
+		parser.setDiagnostics(new ZStrictDiagnostics());
+		// when
+		try {
+			parser.readStatement();
+			fail("A parse exception was expected");
+		} catch (ParseException e) {
+			// then
+			assertTrue(e.getMessage().startsWith("Undefined function: nvl_x at line 1, column 8"));
+		}
+	}
+
+	@Test
+	public void registeredFunctionsAreCheckedForArity() throws IOException, ParseException {
+		// given
+		ZUtils.addCustomFunction("diag_fct", 2);
+		ZqlParser parser = new ZqlParser("select diag_fct(a) from t;");
+		ZCountingDiagnostics diagnostics = new ZCountingDiagnostics();
+		parser.setDiagnostics(diagnostics);
+		// when
+		parser.readStatement();
+		// then
+		assertEquals(0, diagnostics.getUndefinedFunctionCount());
+		assertEquals(1, diagnostics.getWrongArityCount());
+	}
+}
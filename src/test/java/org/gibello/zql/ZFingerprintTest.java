@@ -0,0 +1,115 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ZFingerprintTest {
+
+	@Test
+	public void literalsAreReplacedByPlaceholders() throws ParseException {
+		// when
+		ZFingerprint fingerprint = ZFingerprint.of(parse("select a, b + 1 x from t where c = 'abc' and d > 2.5 and e is null;"));
+		// then
+		assertEquals("SELECT a, (b + ?) x FROM t WHERE ((c = ?) AND (d > ?) AND (e IS NULL))", fingerprint.getCanonicalSql());
+	}
+
+	@Test
+	public void statementsThatDifferOnlyByLiteralsHaveTheSameShape() throws ParseException {
+		// when
+		ZFingerprint first = ZFingerprint.of(parse("SELECT a FROM t WHERE b = 1 AND c IN (1, 2, 3);"));
+		ZFingerprint second = ZFingerprint.of(parse("select a from t where b=42 and c in ('x');"));
+		// then
+		assertEquals("SELECT a FROM t WHERE ((b = ?) AND (c IN (?)))", first.getCanonicalSql());
+		assertEquals(first, second);
+		assertEquals(first.getFingerprint(), second.getFingerprint());
+	}
+
+	@Test
+	public void columnsInInListsAreKept() throws ParseException {
+		// when
+		ZFingerprint fingerprint = ZFingerprint.of(parse("select a from t where b not in (c, 1, 2);"));
+		// then
+		assertEquals("SELECT a FROM t WHERE (b NOT IN (c, ?, ?))", fingerprint.getCanonicalSql());
+	}
+
+	@Test
+	public void likeEscapeIsRendered() throws ParseException {
+		// when
+		ZFingerprint fingerprint = ZFingerprint.of(parse("select a from t where a like 'x!%' escape '!' and b not like 'y';"));
+		// then
+		assertEquals("SELECT a FROM t WHERE ((a LIKE ? ESCAPE ?) AND (b NOT LIKE ?))", fingerprint.getCanonicalSql());
+	}
+
+	@Test
+	public void unionAllIsRenderedLikeUnion() throws ParseException {
+		// when
+		ZFingerprint all = ZFingerprint.of(parse("select a from t union all select b from u where c = 1;"));
+		ZFingerprint distinct = ZFingerprint.of(parse("select a from t union select b from u where c = 1;"));
+		// then
+		assertEquals("SELECT a FROM t UNION ALL (SELECT b FROM u WHERE (c = ?))", all.getCanonicalSql());
+		assertEquals("SELECT a FROM t UNION (SELECT b FROM u WHERE (c = ?))", distinct.getCanonicalSql());
+		assertFalse(all.equals(distinct));
+	}
+
+	@Test
+	public void keywordsAreWrittenInUpperCase() throws ParseException {
+		// when
+		ZFingerprint fingerprint = ZFingerprint.of(parse("select distinct max(a) from t where b is not null group by c having count(*) > 1 order by c desc, d;"));
+		// then
+		assertEquals("SELECT DISTINCT MAX(a) FROM t WHERE (b IS NOT NULL) GROUP BY c HAVING (COUNT(*) > ?) ORDER BY c DESC, d ASC",
+				fingerprint.getCanonicalSql());
+		assertEquals("COMMIT", ZFingerprint.of(parse("commit;")).getCanonicalSql());
+		assertEquals("LOCK TABLE t IN EXCLUSIVE MODE NOWAIT", ZFingerprint.of(parse("lock table t in exclusive mode nowait;")).getCanonicalSql());
+	}
+
+	@Test
+	public void inListsOfParametersHaveTheSameShape() throws ParseException {
+		// when
+		ZFingerprint two = ZFingerprint.of(parse("select a from t where b in (?, ?);"));
+		ZFingerprint three = ZFingerprint.of(parse("select a from t where b in (?, ?, ?);"));
+		ZFingerprint constants = ZFingerprint.of(parse("select a from t where b in (1, 2);"));
+		// then
+		assertEquals("SELECT a FROM t WHERE (b IN (?))", two.getCanonicalSql());
+		assertEquals(two, three);
+		assertEquals(two, constants);
+	}
+
+	@Test
+	public void differentShapesHaveDifferentFingerprints() throws ParseException {
+		// when
+		long first = ZFingerprint.fingerprint(parse("select a from t where b = 1;"));
+		long second = ZFingerprint.fingerprint(parse("select a from t where b = c;"));
+		// then
+		assertFalse(first == second);
+	}
+
+	@Test
+	public void fingerprintWithoutTextMatchesTheFullShape() throws ParseException {
+		// given
+		String[] statements = { "insert into t (a, b) values (1, 'x');", "update t set a = 1, b = b + 2 where c between 1 and 5;",
+				"delete from t where a in (select b from u where c = 'z');", "select max(a) from t group by b having count(*) > 3 order by b desc;", "commit;",
+				"lock table t in exclusive mode nowait;" };
+		for (String sql : statements) {
+			// when
+			ZStatement statement = parse(sql);
+			// then
+			assertEquals(ZFingerprint.of(statement).getFingerprint(), ZFingerprint.fingerprint(statement));
+		}
+	}
+
+	@Test
+	public void dmlStatementsAreNormalized() throws ParseException {
+		assertEquals("INSERT INTO t(a,b) VALUES (?, ?)", ZFingerprint.of(parse("insert into t (a, b) values (1, 'x');")).getCanonicalSql());
+		assertEquals("UPDATE t SET a=?, b=(b + ?) WHERE (c BETWEEN ? AND ?)", ZFingerprint.of(parse("update t set a = 1, b = b + 2 where c between 1 and 5;"))
+				.getCanonicalSql());
+		assertEquals("DELETE FROM t WHERE (a IN (SELECT b FROM u WHERE (c = ?)))", ZFingerprint.of(parse("delete from t where a in (select b from u where c = 'z');"))
+				.getCanonicalSql());
+	}
+
+	private static ZStatement parse(String sql) throws ParseException {
+		return ZqlParsers.parse(sql);
+	}
+}
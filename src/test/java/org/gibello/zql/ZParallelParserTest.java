@@ -0,0 +1,71 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ZParallelParserTest {
+
+	@Test
+	public void parallelParserYieldsTheSameStatementsAsReadStatements() throws IOException, ParseException {
+		// given
+		File sql = new File("src/test/resources/test.sql");
+		List<ZStatement> expected = new ZqlParser(new FileInputStream(sql)).readStatements();
+		String script = new String(Files.readAllBytes(sql.toPath()), "UTF-8");
+		// when
+		List<ZStatement> actual = ZParallelParser.parse(script);
+		// then
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).toString(), actual.get(i).toString());
+		}
+	}
+
+	@Test
+	public void statementsAreReturnedInSourceOrder() throws ParseException {
+		// given
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			script.append("insert into t values (").append(i).append(", 'a;").append(i).append("'); -- ;\n");
+		}
+		// when
+		List<ZStatement> actual = ZParallelParser.parse(script.toString(), new ForkJoinPool(4));
+		// then
+		assertEquals(500, actual.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals("insert into t values (" + i + ", 'a;" + i + "')", actual.get(i).toString());
+		}
+	}
+
+	@Test
+	public void parsingStopsAtExit() throws ParseException {
+		// when
+		List<ZStatement> actual = ZParallelParser.parse("commit; quit; select from;");
+		// then
+		assertEquals(1, actual.size());
+	}
+
+	@Test
+	public void firstErrorInSourceOrderIsThrownWithScriptPosition() {
+		// given
+		String script = "commit;\n\n  select from;\nselect a from;";
+		// when
+		try {
+			ZParallelParser.parse(script);
+			fail("A parse exception was expected");
+		} catch (ParseException e) {
+			// then
+			assertEquals(3, e.currentToken.next.beginLine);
+			assertEquals(10, e.currentToken.next.beginColumn);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.query.ZQuery;
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ZStatementCacheTest {
+
+	private static final String QUERY = "select a, b from num where a = 1 and b in (1, 2);";
+
+	@Test
+	public void repeatedStatementIsServedFromTheCache() throws IOException, ParseException {
+		// given
+		ZStatementCache cache = new ZStatementCache(10, 1000);
+		ZqlParser parser = new ZqlParser();
+		parser.setStatementCache(cache);
+		// when
+		parser.initParser(QUERY);
+		ZStatement first = parser.readStatement();
+		parser.initParser(QUERY);
+		ZStatement second = parser.readStatement();
+		// then
+		assertEquals(first.toString(), second.toString());
+		assertNotSame(first, second);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void cachedStatementsAreNotAffectedByCallerChanges() throws IOException, ParseException {
+		// given
+		ZStatementCache cache = new ZStatementCache(10, 1000);
+		ZqlParser parser = new ZqlParser(QUERY);
+		parser.setStatementCache(cache);
+		ZQuery first = (ZQuery) parser.readStatement();
+		String expected = first.toString();
+		// when
+		first.addWhere(new ZConstant("x", ZConstant.COLUMNNAME));
+		first.setDistinct(true);
+		parser.initParser(QUERY);
+		ZQuery second = (ZQuery) parser.readStatement();
+		// then
+		assertEquals(expected, second.toString());
+	}
+
+	@Test
+	public void scriptsWithSeveralStatementsAreNotCached() throws IOException, ParseException {
+		// given
+		ZStatementCache cache = new ZStatementCache(10, 1000);
+		ZqlParser parser = new ZqlParser("select a from num; select b from num;");
+		parser.setStatementCache(cache);
+		// when
+		parser.readStatement();
+		ZStatement second = parser.readStatement();
+		// then
+		assertEquals("select b from num", second.toString());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedStatementsAreEvicted() throws IOException, ParseException {
+		// given
+		ZStatementCache cache = new ZStatementCache(2, 1000);
+		ZqlParser parser = new ZqlParser();
+		parser.setStatementCache(cache);
+		// when
+		parse(parser, "select a from t1;");
+		parse(parser, "select a from t2;");
+		parse(parser, "select a from t1;");
+		parse(parser, "select a from t3;");
+		// then
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get("select a from t2;"));
+	}
+
+	@Test
+	public void cacheWeightIsBounded() throws IOException, ParseException {
+		// given
+		ZStatementCache cache = new ZStatementCache(100, 40);
+		ZqlParser parser = new ZqlParser();
+		parser.setStatementCache(cache);
+		// when
+		parse(parser, "select a from t1;");
+		parse(parser, "select a from t2;");
+		parse(parser, "select a from t3;");
+		// then
+		assertEquals(2, cache.size());
+		assertEquals(34, cache.getWeight());
+	}
+
+	private static void parse(ZqlParser parser, String sql) throws IOException, ParseException {
+		parser.initParser(sql);
+		parser.readStatement();
+	}
+}
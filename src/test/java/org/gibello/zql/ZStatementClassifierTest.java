@@ -0,0 +1,88 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.gibello.zql.statement.ZStatementKind;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ZStatementClassifierTest {
+
+	private final ZStatementClassifier classifier = new ZStatementClassifier();
+
+	@Test
+	public void queriesReportTheTablesOfAllFromClauses() {
+		// when
+		ZStatementKind kind = classifier.classify("select a.x, b.y from s.t a, u b where a.z in (select z from v where w = 'from t2') and b.y = 1;");
+		// then
+		assertEquals(ZStatementKind.SELECT, kind);
+		assertEquals(Arrays.asList("s.t", "u", "v"), classifier.getTables());
+	}
+
+	@Test
+	public void dmlStatementsReportTheirTargetTable() {
+		assertEquals(ZStatementKind.INSERT, classifier.classify("insert into t (a, b) select c, d from u;"));
+		assertEquals(Arrays.asList("t", "u"), classifier.getTables());
+
+		assertEquals(ZStatementKind.UPDATE, classifier.classify("update t x set a = (select max(b) from u) where c = 2;"));
+		assertEquals(Arrays.asList("t", "u"), classifier.getTables());
+
+		assertEquals(ZStatementKind.DELETE, classifier.classify("delete from t where a = 1;"));
+		assertEquals(Arrays.asList("t"), classifier.getTables());
+
+		assertEquals(ZStatementKind.DELETE, classifier.classify("delete t;"));
+		assertEquals(Arrays.asList("t"), classifier.getTables());
+	}
+
+	@Test
+	public void lockTableReportsAllItsTables() {
+		// when
+		ZStatementKind kind = classifier.classify("lock table t, s.u in share update mode nowait;");
+		// then
+		assertEquals(ZStatementKind.LOCK_TABLE, kind);
+		assertEquals(Arrays.asList("t", "s.u"), classifier.getTables());
+	}
+
+	@Test
+	public void transactionStatementsHaveNoTables() {
+		assertEquals(ZStatementKind.COMMIT, classifier.classify("commit work comment 'select from t';"));
+		assertEquals(Collections.emptyList(), classifier.getTables());
+		assertEquals(ZStatementKind.ROLLBACK, classifier.classify("rollback;"));
+		assertEquals(ZStatementKind.SET_TRANSACTION, classifier.classify("set transaction read only;"));
+		assertEquals(ZStatementKind.EXIT, classifier.classify("quit;"));
+	}
+
+	@Test
+	public void unknownStatements() {
+		assertEquals(ZStatementKind.UNKNOWN, classifier.classify("create table t (a int);"));
+		assertEquals(Collections.emptyList(), classifier.getTables());
+		assertEquals(ZStatementKind.UNKNOWN, classifier.classify(""));
+	}
+
+	@Test
+	@Ignore("benchmark: run manually")
+	public void classificationIsFasterThanParsing() throws ParseException {
+		String sql = "select a.x, b.y, max(c.z) from s.t a, u b, v c where a.id = b.id and b.id = c.id and a.k in (1, 2, 3, 4, 5) "
+				+ "and b.l like 'abc%' group by a.x, b.y having count(*) > 10 order by a.x desc;";
+		ZqlParser parser = new ZqlParser();
+		int iterations = 200000;
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				classifier.classify(sql);
+			}
+			long classify = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				parser.initParser(new StringProvider(sql));
+				parser.readStatement();
+			}
+			long parse = System.nanoTime() - start;
+			System.out.println("classify: " + (classify / iterations) + " ns/op, parse: " + (parse / iterations) + " ns/op");
+		}
+	}
+}
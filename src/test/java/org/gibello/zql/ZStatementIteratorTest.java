@@ -0,0 +1,99 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ZStatementIteratorTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void iteratorYieldsTheSameStatementsAsReadStatements() throws IOException, ParseException {
+		// given
+		File sql = new File("src/test/resources/test.sql");
+		List<ZStatement> expected = new ZqlParser(new FileInputStream(sql)).readStatements();
+		// when
+		ZStatementIterator it = new ZStatementIterator(sql, UTF8);
+		// then
+		int i = 0;
+		while (it.hasNext()) {
+			assertEquals(expected.get(i++).toString(), it.next().toString());
+		}
+		assertEquals(expected.size(), i);
+	}
+
+	@Test
+	public void iteratorReportsStatementPositions() {
+		// given
+		String script = "-- first; statement\nselect a from t where b = 'x;y';\n  /* é; */ delete from t;\r\nupdate t set a = 1;";
+		ZStatementIterator it = iteratorOn(script);
+		// then
+		assertEquals("select a from t where (b = 'x;y')", it.next().toString());
+		assertEquals(2, it.getLine());
+		assertEquals(1, it.getColumn());
+		assertEquals(20, it.getOffset());
+
+		assertEquals("delete t", it.next().toString());
+		assertEquals(3, it.getLine());
+		assertEquals(12, it.getColumn());
+		assertEquals(65, it.getOffset());
+
+		assertEquals("update t set a=1", it.next().toString());
+		assertEquals(4, it.getLine());
+		assertEquals(1, it.getColumn());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void iteratorStopsAtExit() {
+		// given
+		ZStatementIterator it = iteratorOn("commit; exit; select a from t;");
+		// then
+		assertTrue(it.hasNext());
+		it.next();
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void parseErrorsCarryTheStatementPosition() {
+		// given
+		ZStatementIterator it = iteratorOn("commit;\n\nselect from;");
+		it.next();
+		// when
+		try {
+			it.hasNext();
+			fail("A script exception was expected");
+		} catch (ZScriptException e) {
+			// then
+			assertEquals(3, e.getLine());
+			assertEquals(9, e.getOffset());
+			assertTrue(e.getCause() instanceof ParseException);
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void trailingCommentsAreIgnored() {
+		// given
+		ZStatementIterator it = iteratorOn("commit; -- done\n/* really */  \n");
+		// then
+		it.next();
+		assertFalse(it.hasNext());
+	}
+
+	private static ZStatementIterator iteratorOn(String script) {
+		return new ZStatementIterator(new ByteArrayInputStream(script.getBytes(UTF8)), UTF8);
+	}
+}
@@ -0,0 +1,76 @@
+package org.gibello.zql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gibello.zql.statement.ZStatement;
+import org.junit.Test;
+
+public class ZqlParsersTest {
+
+	private static final String[] QUERIES = { "select a, b from num where a = 1;", "insert into num (a, b) values (1, 2);", "update num set a = 2 where b > 1;",
+			"delete from num where a in (1, 2, 3);" };
+
+	@Test
+	public void parseReusesTheThreadParser() throws ParseException {
+		// when
+		ZStatement first = ZqlParsers.parse(QUERIES[0]);
+		ZStatement second = ZqlParsers.parse(QUERIES[1]);
+		// then
+		assertEquals("select a, b from num where (a = 1)", first.toString());
+		assertEquals("insert into num(a,b) values (1, 2)", second.toString());
+	}
+
+	@Test
+	public void parseRecoversFromAPreviousParseError() throws ParseException {
+		// given
+		try {
+			ZqlParsers.parse("select from where;");
+			fail("A parse exception was expected");
+		} catch (ParseException e) {
+			// expected
+		}
+		// when
+		ZStatement statement = ZqlParsers.parse(QUERIES[2]);
+		// then
+		assertEquals("update num set a=2 where (b > 1)", statement.toString());
+	}
+
+	@Test
+	public void parseIsSafeToCallConcurrently() throws Exception {
+		// given
+		final List<String> expected = new ArrayList<String>();
+		for (String query : QUERIES) {
+			expected.add(new ZqlParser(query).readStatement().toString());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		// when
+		for (int t = 0; t < 8; t++) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					for (int i = 0; i < 500; i++) {
+						int q = i % QUERIES.length;
+						if (!expected.get(q).equals(ZqlParsers.parse(QUERIES[q]).toString())) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		// then
+		for (Future<Boolean> result : results) {
+			assertEquals(Boolean.TRUE, result.get());
+		}
+		executor.shutdown();
+	}
+}
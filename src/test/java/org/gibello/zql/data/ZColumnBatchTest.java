@@ -0,0 +1,251 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ZColumnBatchTest {
+
+	private static final ZTupleSchema SCHEMA = ZTupleSchema.parse("a long, b double, c long, name string, other");
+
+	private static final String[] NAMES = { "Staff", "Manager", "staff", "12", "x" };
+
+	private static final String[] EXPRESSIONS = { "a = 1", "a > 2 and b <= 1.5", "a + b * 2 > c", "a between -1 and 1", "b not between c and a + 3",
+			"a in (1, 3, 5)", "a not in (c, 2)", "not (a < 0 or c = 0)", "-a <> c", "a / c > 1", "b ** 2 - a >= 0", "name like 'S%' or a = 0",
+			"a = 2 and name = 'Manager'", "name = 12 or a > 4", "a > 0 and other = 1", "a < 0 or missing = 1", "a = 99 and missing = 1",
+			"a + name > 0", "(a = 1 or b > 1) and (c in (0, 1) or name = 'x')", "a is not null", "1 = 1" };
+
+	@Test
+	public void batchesStoreRowsByColumn() {
+		// given
+		ZColumnBatch batch = new ZColumnBatch(SCHEMA, 4);
+		ZTuple row = new ZTuple(SCHEMA);
+		row.setRow("7,2.5,3,Staff,9");
+		// when
+		assertTrue(batch.add(row));
+		batch.set(1, 0, "8");
+		batch.set(1, 1, 1);
+		batch.setNull(1, 2);
+		batch.set(1, 3, 5);
+		batch.setSize(2);
+		// then
+		assertEquals(2, batch.size());
+		assertEquals(7L, batch.getLongs(0)[0]);
+		assertEquals(2.5, batch.getDoubles(1)[0], 0);
+		assertEquals("Staff", batch.getValues(3)[0]);
+		assertEquals("9", batch.getValues(4)[0]);
+		assertEquals(8L, batch.getLongs(0)[1]);
+		assertEquals("5", batch.getValues(3)[1]);
+		assertTrue(batch.isNull(1, 2));
+		assertTrue(batch.isNull(1, 4));
+		assertFalse(batch.isNull(0, 2));
+		assertEquals("[a = 8, b = 1.0, c = (null), name = 5, other = (null)]", batch.tuple(1).toString());
+		// when
+		batch.clear();
+		// then
+		assertEquals(0, batch.size());
+		assertFalse(batch.isNull(1, 2));
+	}
+
+	@Test
+	public void fullBatchesRejectRows() {
+		// given
+		ZColumnBatch batch = new ZColumnBatch(SCHEMA, 1);
+		ZTuple row = new ZTuple(SCHEMA);
+		row.setRow("7,2.5,3,Staff,9");
+		// then
+		assertTrue(batch.add(row));
+		assertFalse(batch.add(row));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void columnArraysHaveTheColumnType() {
+		new ZColumnBatch(SCHEMA).getDoubles(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rowsOfAnotherSchemaAreRejected() {
+		new ZColumnBatch(SCHEMA).add(new ZTuple("a,b"));
+	}
+
+	@Test
+	public void batchPredicatesMatchTheRowByRowEvaluation() throws IOException, ParseException {
+		// given
+		ZColumnBatch batch = randomBatch(new Random(42), 1000, false);
+		ZColumnBatch withNulls = randomBatch(new Random(7), 200, true);
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (ZEval.Evaluation evaluation : ZEval.Evaluation.values()) {
+				ZEval evaluator = new ZEval();
+				evaluator.setBackend(backend);
+				evaluator.setEvaluation(evaluation);
+				for (String expression : EXPRESSIONS) {
+					ZExp exp = parse(expression);
+					// when
+					BatchPredicate predicate = evaluator.compileBatch(exp, SCHEMA);
+					// then
+					String message = backend + "/" + evaluation + ": " + expression;
+					assertEquals(message, expected(evaluator, batch, exp), outcome(predicate, batch));
+					assertEquals(message + " with nulls", expected(evaluator, withNulls, exp), outcome(predicate, withNulls));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void exceptionsAreNotHiddenByTheSelection() throws Exception {
+		// given
+		ZColumnBatch batch = randomBatch(new Random(1), 100, false);
+		BatchPredicate predicate = new ZEval().compileBatch(parse("a = 99 and (b > 0 or missing = 1)"), SCHEMA);
+		// when
+		try {
+			predicate.select(batch, new int[batch.size()]);
+			fail("An SQL exception was expected");
+		} catch (SQLException e) {
+			// then
+			assertEquals("ZEval.evalExpValue(): unknown column missing", e.getMessage());
+		}
+	}
+
+	@Test
+	public void batchPredicatesRejectBatchesOfAnotherSchema() throws Exception {
+		// given
+		BatchPredicate predicate = new ZEval().compileBatch(parse("a = 1"), SCHEMA);
+		// when
+		try {
+			predicate.select(new ZColumnBatch(ZTupleSchema.parse("a long")), new int[ZColumnBatch.DEFAULT_CAPACITY]);
+			fail("An SQL exception was expected");
+		} catch (SQLException e) {
+			// then
+			assertEquals("ZEval: predicate bound to schema [a long, b double, c long, name string, other], not [a long]", e.getMessage());
+		}
+	}
+
+	@Test
+	public void selectionsAreInAscendingOrder() throws Exception {
+		// given
+		ZColumnBatch batch = new ZColumnBatch(SCHEMA, 6);
+		long[] a = batch.getLongs(0);
+		double[] b = batch.getDoubles(1);
+		for (int r = 0; r < 6; r++) {
+			a[r] = r;
+			b[r] = 5 - r;
+		}
+		batch.setSize(6);
+		int[] selection = new int[6];
+		// when
+		int n = new ZEval().compileBatch(parse("a = 4 or b = 4 or a = 0"), SCHEMA).select(batch, selection);
+		// then
+		assertArrayEquals(new int[] { 0, 1, 4 }, Arrays.copyOf(selection, n));
+	}
+
+	/**
+	 * Rough comparison of the row-by-row and batch evaluations; run it by hand.
+	 */
+	@Ignore("benchmark")
+	@Test
+	public void batchPredicatesAreFasterThanRowPredicates() throws Exception {
+		ZColumnBatch batch = randomBatch(new Random(3), ZColumnBatch.DEFAULT_CAPACITY, false);
+		ZTuple[] tuples = new ZTuple[batch.size()];
+		for (int r = 0; r < tuples.length; r++) {
+			tuples[r] = new ZTuple(SCHEMA);
+			for (int c = 0; c < SCHEMA.size(); c++) {
+				tuples[r].setAtt(c, batch.tuple(r).getAttValue(c));
+			}
+		}
+		ZExp exp = parse("a > 0 and b between 0.5 and 3 and a + c * 2 < 10");
+		int rounds = 20000;
+		int[] selection = new int[batch.size()];
+		for (int round = 0; round < 5; round++) {
+			StringBuilder sb = new StringBuilder();
+			for (ZEval.Backend backend : new ZEval.Backend[] { ZEval.Backend.TREE, ZEval.Backend.METHOD_HANDLES }) {
+				ZEval evaluator = new ZEval();
+				evaluator.setBackend(backend);
+				CompiledPredicate row = evaluator.compile(exp, SCHEMA);
+				BatchPredicate vector = evaluator.compileBatch(exp, SCHEMA);
+				long start = System.nanoTime();
+				int rowCount = 0;
+				for (int i = 0; i < rounds; i++) {
+					for (ZTuple tuple : tuples) {
+						rowCount += row.test(tuple) ? 1 : 0;
+					}
+				}
+				long rowTime = System.nanoTime() - start;
+				start = System.nanoTime();
+				int batchCount = 0;
+				for (int i = 0; i < rounds; i++) {
+					batchCount += vector.select(batch, selection);
+				}
+				long batchTime = System.nanoTime() - start;
+				assertEquals(rowCount, batchCount);
+				long rows = (long) rounds * tuples.length;
+				sb.append(backend).append(": ").append(rows * 1000 / rowTime).append(" M rows/s by row, ").append(rows * 1000 / batchTime)
+						.append(" M rows/s by batch  ");
+			}
+			System.out.println(sb);
+		}
+	}
+
+	private static ZColumnBatch randomBatch(Random random, int size, boolean nulls) {
+		ZColumnBatch batch = new ZColumnBatch(SCHEMA, size);
+		ZTuple tuple = new ZTuple(SCHEMA);
+		for (int r = 0; r < size; r++) {
+			tuple.setLong(0, random.nextInt(11) - 5);
+			tuple.setDouble(1, random.nextInt(8) / 2.0);
+			tuple.setLong(2, random.nextInt(3));
+			tuple.setAtt(3, NAMES[random.nextInt(NAMES.length)]);
+			tuple.setAtt(4, String.valueOf(random.nextInt(3)));
+			if (nulls && (r == size / 2)) {
+				tuple.setNull(1);
+			}
+			batch.add(tuple);
+		}
+		return batch;
+	}
+
+	private static Object expected(ZEval evaluator, ZColumnBatch batch, ZExp exp) {
+		List<Integer> selected = new ArrayList<Integer>();
+		try {
+			for (int r = 0; r < batch.size(); r++) {
+				if (evaluator.eval(batch.tuple(r), exp)) {
+					selected.add(r);
+				}
+			}
+			return selected;
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(BatchPredicate predicate, ZColumnBatch batch) {
+		try {
+			int[] selection = new int[batch.size()];
+			int n = predicate.select(batch, selection);
+			List<Integer> selected = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++) {
+				selected.add(selection[i]);
+			}
+			return selected;
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
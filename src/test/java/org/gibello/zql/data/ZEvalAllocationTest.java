@@ -0,0 +1,79 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZEvalAllocationTest {
+
+	private static final int WARMUP = 50000;
+
+	private static final int ROWS = 100000;
+
+	private static final String[] EXPRESSIONS = { "a between 1 and 10", "a not between b and 2.5", "name between 'A' and 'Z'", "b between a and a",
+			"'x' is not null", "a between 0 and 10 and 'x' is not null" };
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		this.threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void untypedTuplesAreEvaluatedWithoutAllocating() throws Exception {
+		// given
+		ZTuple tuple = new ZTuple("a,b,name");
+		tuple.setAtt("a", 5.0);
+		tuple.setAtt("b", 2.0);
+		tuple.setAtt("name", "Staff");
+		// then
+		for (String expression : EXPRESSIONS) {
+			assertEquals(expression, 0, this.bytesPerRow(tuple, parse(expression)));
+		}
+	}
+
+	@Test
+	public void typedTuplesAreEvaluatedWithoutAllocating() throws Exception {
+		// given
+		ZTuple tuple = new ZTuple(ZTupleSchema.parse("a long, b double, name string"));
+		tuple.setRow("5,2,Staff");
+		// then
+		for (String expression : EXPRESSIONS) {
+			assertEquals(expression, 0, this.bytesPerRow(tuple, parse(expression)));
+		}
+	}
+
+	private long bytesPerRow(ZTuple tuple, ZExp exp) throws SQLException {
+		ZEval evaluator = new ZEval();
+		long id = Thread.currentThread().getId();
+		int count = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			count += evaluator.eval(tuple, exp) ? 1 : 0;
+		}
+		long before = this.threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < ROWS; i++) {
+			count += evaluator.eval(tuple, exp) ? 1 : 0;
+		}
+		long allocated = this.threads.getThreadAllocatedBytes(id) - before;
+		assertEquals(0, count % (WARMUP + ROWS));
+		return allocated / ROWS;
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
@@ -0,0 +1,298 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZConstant;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.expression.ZExpression;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ZEvalCompileTest {
+
+	private static final String[] EXPRESSIONS = { "a = 1", "a <> b", "a != b", "a < b or c <= d", "not (a > b)", "a + b * 2 = c + 1", "-a < 0",
+			"a - b - c / 2 > 0", "a ** 2 >= 4", "a between 1 and 3", "b not between 2 and 4", "a in (1, 5, 7)", "a not in (1, 2)",
+			"name = 'Staff'", "name <> 'Staff'", "name like 'Ma%'", "name like '%ger'", "name not like 'staff'", "name = a",
+			"a is null", "null is null", "1 is not null", "a = 1 and (b = 2 or name like 'S%')", "missing = 1", "name + 1 > 0",
+			"name < 'Z'", "a is not null and a > 1" };
+
+	private static final String COLUMNS = "a,b,c,d,name";
+
+	private static final String[] ROWS = { "1,2,3,4,Staff", "5,4,3,2,Manager", "1,1,1,1,staff", "3,0,2,9,Ma" };
+
+	private final ZEval evaluator = new ZEval();
+
+	@Test
+	public void compiledPredicatesMatchTheInterpreterOnTheEvalWorkload() throws IOException, ParseException {
+		// given
+		File dataFile = new File(Thread.currentThread().getContextClassLoader().getResource("eval.data").getFile());
+		File expFile = new File(Thread.currentThread().getContextClassLoader().getResource("eval.exp").getFile());
+		List<String> rows = readLines(dataFile);
+		List<String> expressions = readLines(expFile);
+		ZTuple tuple = new ZTuple(rows.get(0));
+		// when
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (String expression : expressions) {
+				ZExp exp = parse(expression);
+				CompiledPredicate predicate = compile(backend, exp);
+				for (String row : rows.subList(1, rows.size())) {
+					tuple.setRow(row);
+					// then
+					assertSameOutcome(backend + ": " + expression + " on " + row, exp, predicate, tuple);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void compiledPredicatesMatchTheInterpreter() throws IOException, ParseException {
+		// given
+		ZTuple tuple = new ZTuple(COLUMNS);
+		// when
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (String expression : EXPRESSIONS) {
+				ZExp exp = parse(expression);
+				CompiledPredicate predicate = compile(backend, exp);
+				for (String row : ROWS) {
+					setRow(tuple, row);
+					// then
+					assertSameOutcome(backend + ": " + expression + " on " + row, exp, predicate, tuple);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void malformedExpressionsFailLikeTheInterpreter() {
+		// given
+		ZTuple tuple = new ZTuple(COLUMNS);
+		setRow(tuple, ROWS[0]);
+		ZConstant a = new ZConstant("a", ZConstant.COLUMNNAME);
+		ZConstant one = new ZConstant("1", ZConstant.NUMBER);
+		ZExpression threeOperands = new ZExpression("=", a, one);
+		threeOperands.addOperand(one);
+		ZExp[] malformed = { null, a, new ZExpression("="), new ZExpression("=", a), threeOperands, new ZExpression("#", a, one),
+				new ZExpression("LIKE", a, one), new ZExpression("IS NULL", a), new ZExpression("+", a, one) };
+		// then
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (int i = 0; i < malformed.length; i++) {
+				assertSameOutcome(backend + ": expression " + i, malformed[i], compile(backend, malformed[i]), tuple);
+			}
+		}
+	}
+
+	@Test
+	public void sqlNullsAreUnknownWithEveryBackend() throws IOException, ParseException {
+		// given
+		ZTupleSchema schema = new ZTupleSchema(new String[] { "a", "b", "name" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.LONG,
+				ZColumnType.STRING });
+		ZTuple first = new ZTuple(schema);
+		first.setLong(0, 1);
+		first.setAtt(2, "x");
+		ZTuple second = new ZTuple(schema);
+		second.setLong(1, 2);
+		String[][] cases = { { "a = 1", "true,false" }, { "not (a = 1)", "false,false" }, { "b <> 2", "false,false" },
+				{ "a = 1 or b = 2", "true,true" }, { "not (a = 1 and b = 2)", "false,false" }, { "not (a = 2 and b = 3)", "true,true" },
+				{ "a is null", "false,true" }, { "not (name is null)", "true,false" }, { "a + b is null", "true,true" },
+				{ "a between 0 and b", "false,false" }, { "a not between 2 and b", "true,false" }, { "a in (1, b)", "true,false" },
+				{ "a not in (2, b)", "false,false" }, { "a not in (2, 3)", "true,false" }, { "name not like 'y%'", "true,false" } };
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (ZEval.Evaluation evaluation : ZEval.Evaluation.values()) {
+				ZEval evaluator = new ZEval();
+				evaluator.setBackend(backend);
+				evaluator.setEvaluation(evaluation);
+				evaluator.setNulls(ZEval.Nulls.SQL);
+				for (String[] c : cases) {
+					// when
+					ZExp exp = parse(c[0]);
+					CompiledPredicate predicate = evaluator.compile(exp, schema);
+					String interpreted;
+					String compiled;
+					try {
+						interpreted = evaluator.eval(first, exp) + "," + evaluator.eval(second, exp);
+						compiled = predicate.test(first) + "," + predicate.test(second);
+					} catch (SQLException e) {
+						throw new AssertionError(backend + " " + evaluation + ": " + c[0] + ": " + e.getMessage());
+					}
+					// then
+					assertEquals(c[0], c[1], interpreted);
+					assertEquals(backend + " " + evaluation + ": " + c[0], c[1], compiled);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void aNullTupleIsRejected() throws IOException, ParseException {
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			// given
+			CompiledPredicate predicate = compile(backend, parse("a = 1"));
+			// when
+			try {
+				predicate.test(null);
+				fail("An SQL exception was expected");
+			} catch (SQLException e) {
+				// then
+				assertEquals("ZEval.eval(): null argument or operator", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void aCompiledPredicateCanBeSharedBetweenThreads() throws Exception {
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			// given
+			final CompiledPredicate predicate = compile(backend, parse("a + b > c and name like 'M%'"));
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+			// when
+			for (int t = 0; t < 4; t++) {
+				counts.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws SQLException {
+						ZTuple tuple = new ZTuple(COLUMNS);
+						int count = 0;
+						for (int i = 0; i < 10000; i++) {
+							setRow(tuple, ROWS[i % ROWS.length]);
+							if (predicate.test(tuple)) {
+								count++;
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			executor.shutdown();
+			// then
+			for (Future<Integer> count : counts) {
+				assertEquals(backend.toString(), 5000, count.get().intValue());
+			}
+		}
+	}
+
+	@Test
+	public void compiledTreesAreReusable() throws Exception {
+		// given
+		CompiledPredicate predicate = this.evaluator.compile(parse("a between 1 and 3"));
+		ZTuple tuple = new ZTuple(COLUMNS);
+		// then
+		setRow(tuple, ROWS[0]);
+		assertTrue(predicate.test(tuple));
+		setRow(tuple, ROWS[1]);
+		assertFalse(predicate.test(tuple));
+		setRow(tuple, ROWS[0]);
+		assertTrue(predicate.test(tuple));
+	}
+
+	/**
+	 * Rough comparison of the backends on the eval.data/eval.exp workload,
+	 * scaled to millions of rows; run it by hand.
+	 */
+	@Ignore("benchmark")
+	@Test
+	public void compiledPredicatesAreFasterThanTheInterpreter() throws Exception {
+		File dataFile = new File(Thread.currentThread().getContextClassLoader().getResource("eval.data").getFile());
+		File expFile = new File(Thread.currentThread().getContextClassLoader().getResource("eval.exp").getFile());
+		List<String> rows = readLines(dataFile);
+		List<String> expressions = readLines(expFile);
+		ZTuple[] tuples = new ZTuple[rows.size() - 1];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = new ZTuple(rows.get(0));
+			tuples[i].setRow(rows.get(i + 1));
+		}
+		int scale = 3000000;
+		for (int round = 0; round < 5; round++) {
+			StringBuilder sb = new StringBuilder();
+			int expected = -1;
+			for (ZEval.Backend backend : ZEval.Backend.values()) {
+				for (ZTupleSchema schema : new ZTupleSchema[] { null, tuples[0].getSchema() }) {
+					ZEval evaluator = new ZEval();
+					evaluator.setBackend(backend);
+					CompiledPredicate[] predicates = new CompiledPredicate[expressions.size()];
+					for (int e = 0; e < predicates.length; e++) {
+						predicates[e] = evaluator.compile(parse(expressions.get(e)), schema);
+					}
+					long start = System.nanoTime();
+					int count = 0;
+					for (int i = 0; i < scale; i++) {
+						ZTuple tuple = tuples[i % tuples.length];
+						for (CompiledPredicate predicate : predicates) {
+							count += predicate.test(tuple) ? 1 : 0;
+						}
+					}
+					long time = System.nanoTime() - start;
+					if (expected >= 0) {
+						assertEquals(expected, count);
+					}
+					expected = count;
+					sb.append(backend).append(schema == null ? "" : " (bound)").append(": ").append(time / ((long) scale * predicates.length)).append(" ns/test  ");
+				}
+			}
+			System.out.println(sb);
+		}
+	}
+
+	private void assertSameOutcome(String message, ZExp exp, CompiledPredicate predicate, ZTuple tuple) {
+		Object expected;
+		try {
+			expected = this.evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			expected = e.getClass().getName() + ": " + e.getMessage();
+		}
+		Object actual;
+		try {
+			actual = predicate.test(tuple);
+		} catch (Exception e) {
+			actual = e.getClass().getName() + ": " + e.getMessage();
+		}
+		assertEquals(message, expected, actual);
+	}
+
+	private static CompiledPredicate compile(ZEval.Backend backend, ZExp exp) {
+		ZEval evaluator = new ZEval();
+		evaluator.setBackend(backend);
+		return evaluator.compile(exp);
+	}
+
+	/* ZTuple.setRow(String) only accepts numbers */
+	private static void setRow(ZTuple tuple, String row) {
+		tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
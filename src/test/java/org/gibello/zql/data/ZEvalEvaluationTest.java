@@ -0,0 +1,193 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Test;
+
+public class ZEvalEvaluationTest {
+
+	private static final String COLUMNS = "a,b,c,name";
+
+	private static final String[] ROWS = { "1,2,3,Staff", "5,4,3,Manager", "1,1,1,staff", "3,0,2,Ma" };
+
+	private static final String[] EXPRESSIONS = { "a = 1 and b = 2", "a = 1 or b = 4", "a = 1 and (b = 2 or name like 'M%') and c > 0",
+			"not (a = 5 or b > 3)", "a between 2 and 4 and name like '%a'", "a in (1, 3) or b in (2, 4, 6)", "a not in (1, 3) and b not between 1 and 2",
+			"a = 1 and missing = 1", "missing = 1 and a = 1", "a = 9 or missing = 1", "(a = 1 or missing = 1) and other = 1",
+			"a = 1 and name + 1 > 0", "name < 'Z' or a = 1" };
+
+	@Test
+	public void shortCircuitedEvaluationsMatchTheExhaustiveOne() throws IOException, ParseException {
+		// given
+		ZEval exhaustive = new ZEval();
+		ZTuple tuple = new ZTuple(COLUMNS);
+		for (String expression : EXPRESSIONS) {
+			ZExp exp = parse(expression);
+			for (String row : ROWS) {
+				setRow(tuple, row);
+				Object expected = outcome(exhaustive, tuple, exp);
+				for (ZEval.Evaluation evaluation : ZEval.Evaluation.values()) {
+					for (ZEval.Backend backend : ZEval.Backend.values()) {
+						// when
+						ZEval evaluator = new ZEval();
+						evaluator.setEvaluation(evaluation);
+						evaluator.setBackend(backend);
+						Object actual = outcome(evaluator.compile(exp), tuple);
+						// then
+						String message = evaluation + "/" + backend + ": " + expression + " on " + row;
+						if (expected instanceof Boolean) {
+							assertEquals(message, expected, actual);
+						} else if (actual instanceof String) {
+							// Both failed: with the same exception
+							assertEquals(message, expected, actual);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shortCircuitedEvaluationsSkipTheUndecisiveOperands() throws Exception {
+		// given
+		ZTuple tuple = new ZTuple(COLUMNS);
+		setRow(tuple, ROWS[0]);
+		ZExp exp = parse("a = 2 and missing = 1");
+		ZEval evaluator = new ZEval();
+		// then
+		assertEquals("java.sql.SQLException: ZEval.evalExpValue(): unknown column missing", outcome(evaluator, tuple, exp));
+		evaluator.setEvaluation(ZEval.Evaluation.SHORT_CIRCUIT);
+		assertFalse(evaluator.eval(tuple, exp));
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			evaluator.setBackend(backend);
+			assertFalse(backend.toString(), evaluator.compile(exp).test(tuple));
+		}
+	}
+
+	@Test
+	public void shortCircuitedFailuresThrowTheExhaustiveException() throws Exception {
+		// given
+		ZTuple tuple = new ZTuple(COLUMNS);
+		setRow(tuple, ROWS[0]);
+		// The short-circuited evaluation skips "first", but fails on "second"
+		ZExp exp = parse("(a = 1 or first = 1) and second = 1");
+		for (ZEval.Evaluation evaluation : ZEval.Evaluation.values()) {
+			for (ZEval.Backend backend : ZEval.Backend.values()) {
+				ZEval evaluator = new ZEval();
+				evaluator.setEvaluation(evaluation);
+				evaluator.setBackend(backend);
+				// when
+				try {
+					evaluator.compile(exp).test(tuple);
+					fail("An SQL exception was expected");
+				} catch (SQLException e) {
+					// then
+					assertEquals(evaluation + "/" + backend, "ZEval.evalExpValue(): unknown column first", e.getMessage());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void adaptiveEvaluationRunsTheCheapestDecisiveOperandFirst() throws Exception {
+		// given
+		ZEval evaluator = new ZEval();
+		evaluator.setEvaluation(ZEval.Evaluation.ADAPTIVE);
+		CompiledPredicate predicate = evaluator.compile(parse("a + b + c + a + b + c > 0 and name = 'nobody'"));
+		CountingTuple[] tuples = new CountingTuple[ROWS.length];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = new CountingTuple();
+			setRow(tuples[i], ROWS[i]);
+		}
+		// when
+		for (int i = 0; i < 20000; i++) {
+			assertFalse(predicate.test(tuples[i % tuples.length]));
+		}
+		for (CountingTuple tuple : tuples) {
+			tuple.reads.clear();
+		}
+		for (int i = 0; i < 4000; i++) {
+			assertFalse(predicate.test(tuples[i % tuples.length]));
+		}
+		// then
+		for (CountingTuple tuple : tuples) {
+			assertEquals(0, tuple.reads("a"));
+			assertEquals(1000, tuple.reads("name"));
+		}
+	}
+
+	@Test
+	public void adaptiveEvaluationKeepsTheResults() throws Exception {
+		// given
+		ZEval exhaustive = new ZEval();
+		ZEval adaptive = new ZEval();
+		adaptive.setEvaluation(ZEval.Evaluation.ADAPTIVE);
+		ZExp exp = parse("(a > 2 or name like 'S%') and b < 4 and c >= 1");
+		CompiledPredicate predicate = adaptive.compile(exp);
+		ZTuple tuple = new ZTuple(COLUMNS);
+		// then
+		for (int i = 0; i < 50000; i++) {
+			setRow(tuple, ROWS[(i * 7) % ROWS.length]);
+			assertEquals(exhaustive.eval(tuple, exp), predicate.test(tuple));
+		}
+		setRow(tuple, ROWS[1]);
+		assertTrue(adaptive.eval(tuple, parse("a = 5 or missing = 1")));
+	}
+
+	private static class CountingTuple extends ZTuple {
+
+		private final Map<String, Integer> reads = new HashMap<String, Integer>();
+
+		CountingTuple() {
+			super(COLUMNS);
+		}
+
+		@Override
+		public Object getAttValue(String name) {
+			this.reads.put(name, this.reads(name) + 1);
+			return super.getAttValue(name);
+		}
+
+		int reads(String name) {
+			Integer count = this.reads.get(name);
+			return count == null ? 0 : count;
+		}
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(CompiledPredicate predicate, ZTuple tuple) {
+		try {
+			return predicate.test(tuple);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	/* ZTuple.setRow(String) only accepts numbers */
+	private static void setRow(ZTuple tuple, String row) {
+		tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
@@ -0,0 +1,237 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Test;
+
+public class ZInListTest {
+
+	private static final String[] EXPRESSIONS = { "a in (1, 2, 3)", "a not in (1, 'Staff', 2.0)", "name in ('Staff', 'x', 12)", "a in (0)",
+			"b in (a, 2)", "-a in (0, 1e400)", "a + 1 in (3, 4)", "name in (1, 2)", "a in (1, 3) or name in ('Manager')", "missing in (1, 2)" };
+
+	private static final String[] ROWS = { "1,Staff,2", "-0,Manager,0", "2.0,x,1", "3,12,3", "abc,0,4", "1e400,x,-1" };
+
+	@Test
+	public void listsIndexStringsAndNumbers() throws SQLException {
+		// given
+		ZInList list = new ZInList(new Object[] { 3.0, "Staff", -0.0, 1.0, 3.0, Double.NaN, Double.POSITIVE_INFINITY });
+		// then
+		assertTrue(list.contains("Staff", false));
+		assertFalse(list.contains("staff", false));
+		assertFalse(list.contains("3", false));
+		assertTrue(list.contains(3.0, false));
+		assertTrue(list.contains(0.0, false));
+		assertTrue(list.contains(-0.0, false));
+		assertTrue(list.containsNumber(1));
+		assertFalse(list.containsNumber(2));
+		assertFalse(list.containsNumber(Double.NaN));
+		assertFalse(list.containsNumber(Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void otherValuesAreComparedOneByOne() {
+		// given
+		ZInList list = new ZInList(new Object[] { "x", 2.0 });
+		// when
+		try {
+			list.contains(Boolean.TRUE, true);
+			fail("An SQL exception was expected");
+		} catch (SQLException e) {
+			// then
+			assertEquals("ZConstans.evalCmp(): can't compare (true) with (2.0)", e.getMessage());
+		}
+	}
+
+	@Test
+	public void compiledInListsMatchTheInterpreter() throws IOException, ParseException {
+		// given
+		ZTupleSchema schema = new ZTupleSchema("a", "name", "b");
+		ZTuple tuple = new ZTuple(schema);
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			for (ZEval.Evaluation evaluation : ZEval.Evaluation.values()) {
+				ZEval evaluator = new ZEval();
+				evaluator.setBackend(backend);
+				evaluator.setEvaluation(evaluation);
+				for (String expression : EXPRESSIONS) {
+					ZExp exp = parse(expression);
+					// when
+					CompiledPredicate predicate = evaluator.compile(exp, schema);
+					for (String row : ROWS) {
+						tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+						// then
+						String message = backend + "/" + evaluation + ": " + expression + " on " + row;
+						assertEquals(message, outcome(evaluator, tuple, exp), outcome(predicate, tuple));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void longListsAreSearchedByValue() throws Exception {
+		// given
+		StringBuilder sb = new StringBuilder("id in (");
+		for (int i = 0; i < 20000; i++) {
+			sb.append(i == 0 ? "" : ", ").append(i * 3);
+		}
+		ZExp exp = parse(sb.append(')').toString());
+		ZTupleSchema schema = ZTupleSchema.parse("id long");
+		ZTuple tuple = new ZTuple(schema);
+		ZColumnBatch batch = new ZColumnBatch(schema);
+		for (int i = 0; i < batch.capacity(); i++) {
+			tuple.setLong(0, i * 59);
+			batch.add(tuple);
+		}
+		ZEval interpreter = new ZEval();
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			CompiledPredicate predicate = evaluator.compile(exp, schema);
+			// when
+			int[] selection = new int[batch.size()];
+			int n = evaluator.compileBatch(exp, schema).select(batch, selection);
+			// then
+			int k = 0;
+			for (int r = 0; r < batch.size(); r++) {
+				boolean expected = (r * 59 % 3 == 0) && (r * 59 < 60000);
+				assertEquals(backend + " on " + r, expected, predicate.test(batch.tuple(r)));
+				assertEquals(backend + " on " + r, expected, interpreter.eval(batch.tuple(r), exp));
+				if (expected) {
+					assertEquals(backend + " on " + r, r, selection[k++]);
+				}
+			}
+			assertEquals(k, n);
+		}
+	}
+
+	@Test
+	public void compiledSubQueriesAreResolvedOnce() throws Exception {
+		// given
+		ZExp exp = parse("a not in (select id from t where x = 1)");
+		ZTupleSchema schema = new ZTupleSchema("a");
+		ZTuple tuple = new ZTuple(schema);
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			CountingResolver resolver = new CountingResolver("1", 2L, null, "abc");
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			evaluator.setSubQueryResolver(resolver);
+			// when
+			CompiledPredicate predicate = evaluator.compile(exp, schema);
+			List<Boolean> results = new ArrayList<Boolean>();
+			for (String value : new String[] { "1", "2.0", "3", "abc", "ABC" }) {
+				tuple.setAtt(0, value);
+				results.add(predicate.test(tuple));
+			}
+			// then
+			assertEquals(backend.toString(), Arrays.asList(false, false, true, false, true), results);
+			assertEquals(backend.toString(), backend == ZEval.Backend.INTERPRETER ? 5 : 1, resolver.calls);
+			assertEquals("select id from t where (x = 1)", resolver.query.toString());
+		}
+	}
+
+	@Test
+	public void batchSubQueriesAreResolvedOnce() throws Exception {
+		// given
+		ZTupleSchema schema = ZTupleSchema.parse("a long");
+		ZColumnBatch batch = new ZColumnBatch(schema);
+		ZTuple tuple = new ZTuple(schema);
+		for (int i = 0; i < 10; i++) {
+			tuple.setLong(0, i);
+			batch.add(tuple);
+		}
+		CountingResolver resolver = new CountingResolver(3, "7", 11.0);
+		ZEval evaluator = new ZEval();
+		evaluator.setSubQueryResolver(resolver);
+		BatchPredicate predicate = evaluator.compileBatch(parse("a in (select id from t)"), schema);
+		int[] selection = new int[batch.size()];
+		// when
+		predicate.select(batch, selection);
+		int n = predicate.select(batch, selection);
+		// then
+		assertEquals(Arrays.asList(3, 7), toList(selection, n));
+		assertEquals(1, resolver.calls);
+	}
+
+	@Test
+	public void subQueriesNeedAResolver() throws Exception {
+		// given
+		ZExp exp = parse("a in (select id from t)");
+		ZTuple tuple = new ZTuple("a");
+		tuple.setAtt("a", "1");
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			// when
+			try {
+				evaluator.compile(exp).test(tuple);
+				fail("An SQL exception was expected");
+			} catch (SQLException e) {
+				// then
+				assertEquals("ZEval.eval(): no subquery resolver for select id from t", e.getMessage());
+			}
+		}
+	}
+
+	private static final class CountingResolver implements ZSubQueryResolver {
+
+		private final List<Object> values;
+
+		private int calls = 0;
+
+		private ZQuery query;
+
+		CountingResolver(final Object... values) {
+			this.values = Arrays.asList(values);
+		}
+
+		@Override
+		public Collection<?> resolve(final ZQuery query) {
+			this.calls++;
+			this.query = query;
+			return this.values;
+		}
+	}
+
+	private static List<Integer> toList(int[] selection, int n) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			list.add(selection[i]);
+		}
+		return list;
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(CompiledPredicate predicate, ZTuple tuple) {
+		try {
+			return predicate.test(tuple);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
@@ -0,0 +1,203 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Test;
+
+public class ZLikePatternTest {
+
+	private static final Object[][] MATCHES = {
+			// value, pattern, escape, expected
+			{ "abc", "abc", null, true }, { "abc", "ABC", null, false }, { "", "", null, true }, { "a", "", null, false },
+			{ "abc", "a%", null, true }, { "xabc", "a%", null, false }, { "abc", "%c", null, true }, { "abc", "%b", null, false },
+			{ "xxabcxx", "%abc%", null, true }, { "xxabxcxx", "%abc%", null, false }, { "", "%", null, true }, { "abc", "%%", null, true },
+			{ "abc", "a_c", null, true }, { "ac", "a_c", null, false }, { "abbc", "a_c", null, false }, { "abc", "___", null, true },
+			{ "abcd", "___", null, false }, { "axxbyyc", "a%b%c", null, true }, { "axxbyy", "a%b%c", null, false },
+			{ "aab", "%ab", null, true }, { "abcabd", "%abd", null, true }, { "abcabd", "%ab_", null, true }, { "ab", "%a_b%", null, false },
+			{ "xaybz", "%a_b%", null, true }, { "mississippi", "%iss%ipp%", null, true }, { "mississippi", "m%s_i%i", null, true },
+			{ "100%", "100!%", "!", true }, { "1000", "100!%", "!", false }, { "a_b", "a!_b", "!", true }, { "axb", "a!_b", "!", false },
+			{ "a!b", "a!!b", "!", true }, { "50% off", "%!%%", "!", true }, { "50 off", "%!%%", "!", false }, { "a%b", "a\\%b", "\\", true } };
+
+	private static final String[] EXPRESSIONS = { "name like 'S%'", "name like '%a%'", "name like '_a%'", "name not like '%r'", "name like pat",
+			"name like pat escape '!'", "name like 'a!%%' escape '!'", "name like 'a%' escape 'xy'", "name like 'a!' escape '!'", "a like '1%'",
+			"name like '%a%' or a = 1" };
+
+	private static final String[] ROWS = { "1,Staff,S%", "2,Manager,%a%", "3,a%b,a!%%", "4,staff,_t%", "5,12,1%", "6,Mask,M__k" };
+
+	@Test
+	public void patternsFollowTheSqlSemantics() throws SQLException {
+		for (Object[] match : MATCHES) {
+			// given
+			String value = (String) match[0];
+			String pattern = (String) match[1];
+			String escape = (String) match[2];
+			// then
+			assertEquals(value + " like " + pattern, match[3], ZLikePattern.compile(pattern, escape).matches(value));
+			assertEquals(value + " like " + pattern, match[3], ZEval.like(value, pattern, escape == null ? "\u0000" : escape));
+		}
+	}
+
+	@Test
+	public void invalidEscapesAreRejected() {
+		for (String[] invalid : new String[][] { { "a!", "!" }, { "a!b", "!" }, { "a", "" }, { "a", "!!" } }) {
+			try {
+				ZLikePattern.compile(invalid[0], invalid[1]);
+				fail("An SQL exception was expected for " + Arrays.toString(invalid));
+			} catch (SQLException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void patternsAreCached() throws SQLException {
+		// then
+		assertSame(ZLikePattern.of("%cached%", null), ZLikePattern.of("%cached%", null));
+		assertSame(ZLikePattern.of("%cached!%", "!"), ZLikePattern.of("%cached!%", "!"));
+	}
+
+	@Test
+	public void escapeClausesAreParsedAndPrinted() throws IOException, ParseException, SQLException {
+		// given
+		ZExp exp = parse("name not like 'a!%%' escape '!'");
+		ZTuple tuple = new ZTuple("name");
+		tuple.setAtt("name", "a%b");
+		// then
+		assertEquals("(name NOT LIKE 'a!%%' ESCAPE '!')", exp.toString());
+		assertEquals(exp.toString(), parse(exp.toString()).toString());
+		assertEquals(false, new ZEval().eval(tuple, exp));
+	}
+
+	@Test
+	public void escapeRemainsAValidName() throws IOException, ParseException, SQLException {
+		// given
+		ZExp exp = parse("escape like 'a!%%' escape '!' and escape not like escape");
+		ZTuple tuple = new ZTuple("escape");
+		tuple.setAtt("escape", "a%b");
+		// then
+		assertEquals("((escape LIKE 'a!%%' ESCAPE '!') AND (escape NOT LIKE escape))", exp.toString());
+		assertEquals(false, new ZEval().eval(tuple, exp));
+		assertEquals("select escape from t escape where (escape.escape LIKE 'a%')",
+				new ZqlParser("select escape from t escape where escape.escape like 'a%';").readStatement().toString());
+	}
+
+	@Test
+	public void likeIsCaseSensitive() throws IOException, ParseException, SQLException {
+		// given
+		ZTuple tuple = new ZTuple("name");
+		tuple.setAtt("name", "Staff");
+		// then: without wildcards, LIKE is no longer the case-insensitive equality it used to be
+		assertEquals(false, new ZEval().eval(tuple, parse("name like 'staff'")));
+		assertEquals(true, new ZEval().eval(tuple, parse("name like 'Staff'")));
+		assertEquals(false, new ZEval().eval(tuple, parse("name like 'st%'")));
+		assertEquals(true, new ZEval().eval(tuple, parse("name not like '%FF'")));
+	}
+
+	@Test
+	public void recentlyUsedPatternsStayCached() throws SQLException {
+		// given
+		ZLikePattern hot = ZLikePattern.of("hot%", null);
+		for (int i = 0; i < 3000; i++) {
+			// when
+			ZLikePattern.of("cold" + i + "%", null);
+			// then
+			assertSame(hot, ZLikePattern.of("hot%", null));
+		}
+	}
+
+	@Test
+	public void compiledLikesMatchTheInterpreter() throws IOException, ParseException {
+		// given
+		ZEval interpreter = new ZEval();
+		ZTupleSchema schema = new ZTupleSchema("a", "name", "pat");
+		ZTuple tuple = new ZTuple(schema);
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			for (String expression : EXPRESSIONS) {
+				ZExp exp = parse(expression);
+				// when
+				CompiledPredicate predicate = evaluator.compile(exp, schema);
+				for (String row : ROWS) {
+					tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+					// then
+					assertEquals(backend + ": " + expression + " on " + row, outcome(interpreter, tuple, exp), outcome(predicate, tuple));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void batchLikesMatchTheInterpreter() throws IOException, ParseException {
+		// given
+		ZEval interpreter = new ZEval();
+		ZTupleSchema schema = ZTupleSchema.parse("a long, name string, pat");
+		ZColumnBatch batch = new ZColumnBatch(schema, ROWS.length);
+		ZTuple tuple = new ZTuple(schema);
+		for (String row : ROWS) {
+			tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+			batch.add(tuple);
+		}
+		for (String expression : EXPRESSIONS) {
+			ZExp exp = parse(expression);
+			// when
+			BatchPredicate predicate = interpreter.compileBatch(exp, schema);
+			// then
+			Object expected;
+			try {
+				StringBuilder sb = new StringBuilder();
+				for (int r = 0; r < batch.size(); r++) {
+					if (interpreter.eval(batch.tuple(r), exp)) {
+						sb.append(r).append(' ');
+					}
+				}
+				expected = sb.toString();
+			} catch (SQLException e) {
+				expected = e.getMessage();
+			}
+			Object actual;
+			try {
+				int[] selection = new int[batch.size()];
+				int n = predicate.select(batch, selection);
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < n; i++) {
+					sb.append(selection[i]).append(' ');
+				}
+				actual = sb.toString();
+			} catch (SQLException e) {
+				actual = e.getMessage();
+			}
+			assertEquals(expression, expected, actual);
+		}
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(CompiledPredicate predicate, ZTuple tuple) {
+		try {
+			return predicate.test(tuple);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
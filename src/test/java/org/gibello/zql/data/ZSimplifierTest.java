@@ -0,0 +1,94 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Test;
+
+public class ZSimplifierTest {
+
+	private static final String[][] SIMPLIFICATIONS = { { "1 = 1 and x > 2 + 3 and (a = 5 or 1 = 0)", "((x > 5) AND (a = 5))" },
+			{ "a > 2 and a >= 5 and a < 9", "((a >= 5) AND (a < 9))" }, { "a >= 1 and b = 2 and a <= 1", "((a = 1) AND (b = 2))" },
+			{ "a between 1 and 10 and a >= 2 and a <= 10", "(a BETWEEN 2 AND 10)" }, { "a > 5 and a < 3", "(1 = 0)" },
+			{ "a = 3 and a > 1", "(a = 3)" }, { "a = 3 and a = 4", "(1 = 0)" }, { "a = 1 or a = 2 or a = 1", "(a IN (1, 2))" },
+			{ "a > 3 or a >= 3 or b = 1", "((a >= 3) OR (b = 1))" }, { "a > 3 or a < 1", "((a > 3) OR (a < 1))" },
+			{ "a in (1, 2, 1, 'x', 'x', 2.0)", "(a IN (1, 2, 'x'))" }, { "a not in (1, 1)", "(a <> 1)" }, { "not (not (a = 1))", "(a = 1)" },
+			{ "a = 1 and (b = 2 and (c = 3 and d = 4))", "((a = 1) AND (b = 2) AND (c = 3) AND (d = 4))" }, { "1 = 0 or 2 > 1", "(1 = 1)" },
+			{ "'x' is not null and a = 1", "(a = 1)" }, { "a is null", "(a IS NULL)" }, { "a + 0 * 5 > 1", "((a + 0) > 1)" },
+			{ "name like 'a%' and 'abc' like 'a%'", "(name LIKE 'a%')" }, { "a = 1 and b = 2 and a = 1", "((a = 1) AND (b = 2))" },
+			{ "a > 1.5 / 3", "(a > 0.5)" }, { "a > 1 / 0", "(a > (1 / 0))" }, { "2 < a and 3 < a", "((2 < a) AND (3 < a))" } };
+
+	private static final String[] ATOMS = { "a > 3", "a >= 5", "a < 9", "a <= 2", "a = 3", "a = 5.0", "a between 1 and 5", "a <> 4", "b in (1, 2, 1)",
+			"b not in (2, 2)", "1 = 1", "2 + 3 > 4", "1 = 0", "a = 'x'", "b = 'x'", "b <> 2 * 2", "not (a = 1)", "b > 0", "b <= -1", "a = b",
+			"3 < a", "name like 'a%'" };
+
+	private static final String[] VALUES = { "-1", "0", "1", "2", "3", "4", "5", "9", "10", "x", "NaN", "-0" };
+
+	@Test
+	public void expressionsAreSimplified() throws IOException, ParseException {
+		for (String[] simplification : SIMPLIFICATIONS) {
+			// given
+			ZExp exp = parse(simplification[0]);
+			String original = exp.toString();
+			// when
+			ZExp simplified = ZSimplifier.simplify(exp);
+			// then
+			assertEquals(simplification[0], simplification[1], simplified.toString());
+			assertEquals(simplification[0], original, exp.toString());
+		}
+	}
+
+	@Test
+	public void simplifiedExpressionsGiveTheSameResults() throws IOException, ParseException {
+		// given
+		Random random = new Random(19);
+		ZEval evaluator = new ZEval();
+		ZTuple tuple = new ZTuple("a,b,name");
+		for (int i = 0; i < 500; i++) {
+			String expression = randomExpression(random, 3);
+			ZExp exp = parse(expression);
+			// when
+			ZExp simplified = ZSimplifier.simplify(exp);
+			for (int k = 0; k < 20; k++) {
+				tuple.setAtt("a", VALUES[random.nextInt(VALUES.length)]);
+				tuple.setAtt("b", VALUES[random.nextInt(VALUES.length)]);
+				tuple.setAtt("name", random.nextBoolean() ? "abc" : "xyz");
+				// then
+				Object expected = outcome(evaluator, tuple, exp);
+				if (expected instanceof Boolean) {
+					assertEquals(expression + " -> " + simplified + " on " + tuple, expected, outcome(evaluator, tuple, simplified));
+				}
+			}
+		}
+	}
+
+	private static String randomExpression(Random random, int depth) {
+		if ((depth == 0) || (random.nextInt(3) == 0)) {
+			return ATOMS[random.nextInt(ATOMS.length)];
+		}
+		StringBuilder sb = new StringBuilder("(");
+		int n = 2 + random.nextInt(3);
+		String op = random.nextBoolean() ? " and " : " or ";
+		for (int i = 0; i < n; i++) {
+			sb.append(i == 0 ? "" : op).append(randomExpression(random, depth - 1));
+		}
+		return sb.append(')').toString();
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
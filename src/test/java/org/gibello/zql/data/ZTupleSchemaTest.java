@@ -0,0 +1,166 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Test;
+
+public class ZTupleSchemaTest {
+
+	private static final ZTupleSchema SCHEMA = new ZTupleSchema("a", "b", "c", "name");
+
+	private static final String[] ROWS = { "1,2,3,Staff", "5,4,3,Manager", "1,1,1,staff" };
+
+	private static final String[] EXPRESSIONS = { "a = 1 and b = 2", "a + b * 2 > c", "name like 'S%' or a between 2 and 5", "a in (1, 5) and c <> 3",
+			"missing = 1", "-a < 0" };
+
+	@Test
+	public void tuplesKeepTheirAttributesInOrder() {
+		// given
+		ZTuple tuple = new ZTuple("a, b");
+		// when
+		tuple.setAtt("c", "x");
+		tuple.setAtt("a", "y");
+		// then
+		assertEquals(3, tuple.getNumAtt());
+		assertEquals("c", tuple.getAttName(2));
+		assertNull(tuple.getAttName(3));
+		assertNull(tuple.getAttName(-1));
+		assertEquals(0, tuple.getAttIndex("a"));
+		assertEquals(-1, tuple.getAttIndex("d"));
+		assertEquals(-1, tuple.getAttIndex(null));
+		assertEquals("y", tuple.getAttValue("a"));
+		assertEquals("x", tuple.getAttValue(2));
+		assertNull(tuple.getAttValue(3));
+		assertNull(tuple.getAttValue("b"));
+		assertTrue(tuple.isAttribute("b"));
+		assertFalse(tuple.isAttribute(null));
+		assertEquals("[a = y, b = (null), c = x]", tuple.toString());
+		assertEquals(new ZTupleSchema("a", "b", "c"), tuple.getSchema());
+	}
+
+	@Test
+	public void addingAnAttributeChangesTheSchema() {
+		// given
+		ZTuple tuple = new ZTuple(SCHEMA);
+		// when
+		tuple.setAtt("a", "1");
+		ZTupleSchema same = tuple.getSchema();
+		tuple.setAtt("d", "2");
+		// then
+		assertSame(SCHEMA, same);
+		assertNotSame(SCHEMA, tuple.getSchema());
+		assertEquals(4, tuple.getSchema().indexOf("d"));
+		assertEquals(4, SCHEMA.size());
+	}
+
+	@Test
+	public void aGrowingSchemaIsCopiedOnlyOnceShared() {
+		// given
+		ZTuple tuple = new ZTuple("a, b, a");
+		tuple.setAtt("c", "1");
+		ZTupleSchema grown = tuple.getSchema();
+		tuple.setAtt("d", "2");
+		ZTupleSchema copy = tuple.getSchema();
+		// when
+		ZTuple wide = new ZTuple();
+		for (int i = 0; i < 1000; i++) {
+			wide.setAtt("c" + i, i);
+		}
+		// then
+		assertEquals("[a, b, c]", grown.toString());
+		assertEquals(-1, grown.indexOf("d"));
+		assertEquals("[a, b, c, d]", copy.toString());
+		assertEquals(new ZTupleSchema("a", "b", "c"), grown);
+		assertEquals(new ZTupleSchema("a", "b", "c").hashCode(), grown.hashCode());
+		assertEquals(1000, wide.getNumAtt());
+		assertEquals(999, wide.getSchema().indexOf("c999"));
+		assertEquals(999, wide.getAttValue("c999"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateColumnsAreRejected() {
+		new ZTupleSchema("a", "b", "a");
+	}
+
+	@Test
+	public void boundPredicatesMatchTheInterpreter() throws IOException, ParseException {
+		// given
+		ZEval interpreter = new ZEval();
+		ZTuple tuple = new ZTuple(SCHEMA);
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			for (String expression : EXPRESSIONS) {
+				ZExp exp = parse(expression);
+				// when
+				CompiledPredicate predicate = evaluator.compile(exp, SCHEMA);
+				for (String row : ROWS) {
+					setRow(tuple, row);
+					// then
+					assertEquals(backend + ": " + expression + " on " + row, outcome(interpreter, tuple, exp), outcome(predicate, tuple));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void boundPredicatesRejectTuplesOfAnotherSchema() throws Exception {
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			// given
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			CompiledPredicate predicate = evaluator.compile(parse("a = 1"), SCHEMA);
+			ZTuple sameColumns = new ZTuple("a,b,c,name");
+			setRow(sameColumns, ROWS[0]);
+			ZTuple otherColumns = new ZTuple("a,name");
+			setRow(otherColumns, "1,Staff");
+			// then
+			assertTrue(predicate.test(sameColumns));
+			try {
+				predicate.test(otherColumns);
+				fail("An SQL exception was expected");
+			} catch (SQLException e) {
+				assertEquals("ZEval: predicate bound to schema [a, b, c, name], not [a, name]", e.getMessage());
+			}
+		}
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(CompiledPredicate predicate, ZTuple tuple) {
+		try {
+			return predicate.test(tuple);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	/* ZTuple.setRow(String) only accepts numbers */
+	private static void setRow(ZTuple tuple, String row) {
+		tuple.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
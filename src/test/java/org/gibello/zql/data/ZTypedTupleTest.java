@@ -0,0 +1,187 @@
+package org.gibello.zql.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.expression.ZExp;
+import org.junit.Test;
+
+public class ZTypedTupleTest {
+
+	private static final ZTupleSchema TYPED = ZTupleSchema.parse("a long, b double, c long, name string");
+
+	private static final String[] ROWS = { "1,2.5,3,Staff", "5,4,3,Manager", "-1,1e3,1,staff", "9007199254740993,0.1,0,x" };
+
+	private static final String[] EXPRESSIONS = { "a = 1 and b = 2.5", "a + b * 2 > c", "name like 'S%' or a between 2 and 5", "a in (1, 5) and c <> 3",
+			"-a < 0", "b / c >= 1000", "a = 9007199254740992", "name = 'Staff' or b = c", "a = name", "a - b - c ** 2 <= 0" };
+
+	@Test
+	public void schemasHaveATextForm() {
+		// given
+		ZTupleSchema schema = ZTupleSchema.parse("id long, price DOUBLE,name string, other");
+		// then
+		assertEquals("[id long, price double, name string, other]", schema.toString());
+		assertEquals(ZColumnType.LONG, schema.getColumnType(0));
+		assertEquals(ZColumnType.ANY, schema.getColumnType(3));
+		assertTrue(schema.getColumnType(1).isNumeric());
+		assertFalse(schema.getColumnType(2).isNumeric());
+		assertEquals(ZTupleSchema.parse("id long, price double, name string, other"), schema);
+		assertNotEquals(new ZTupleSchema("id", "price", "name", "other"), schema);
+	}
+
+	@Test
+	public void setRowParsesEachFieldByItsType() {
+		// given
+		ZTuple tuple = new ZTuple(TYPED);
+		// when
+		tuple.setRow(ROWS[0]);
+		// then
+		assertEquals(1L, tuple.getLong(0));
+		assertEquals(1.0, tuple.getDouble(0), 0);
+		assertEquals(2.5, tuple.getDouble(1), 0);
+		assertEquals("Staff", tuple.getString(3));
+		assertEquals(Long.valueOf(1), tuple.getAttValue("a"));
+		assertEquals(Double.valueOf(2.5), tuple.getAttValue(1));
+		assertEquals("[a = 1, b = 2.5, c = 3, name = Staff]", tuple.toString());
+	}
+
+	@Test
+	public void numericColumnsStartNull() {
+		// given
+		ZTuple tuple = new ZTuple(TYPED);
+		// then
+		assertTrue(tuple.isNull(0));
+		assertTrue(tuple.isNull(3));
+		assertNull(tuple.getAttValue("b"));
+		// when
+		tuple.setDouble(1, 0);
+		tuple.setAtt("c", 7);
+		// then
+		assertFalse(tuple.isNull(1));
+		assertEquals(Double.valueOf(0), tuple.getAttValue("b"));
+		assertEquals(7L, tuple.getLong(2));
+		// when
+		tuple.setAtt("c", null);
+		// then
+		assertTrue(tuple.isNull(2));
+		assertNull(tuple.getAttValue("c"));
+	}
+
+	@Test
+	public void setAttConvertsToTheColumnType() {
+		// given
+		ZTuple tuple = new ZTuple(TYPED);
+		// when
+		tuple.setAtt("a", " 42 ");
+		tuple.setAtt("b", 3);
+		tuple.setAtt("name", 7);
+		tuple.setAtt("d", "untyped");
+		// then
+		assertEquals(42L, tuple.getLong(0));
+		assertEquals(3.0, tuple.getDouble(1), 0);
+		assertEquals("7", tuple.getString(3));
+		assertEquals("untyped", tuple.getAttValue("d"));
+		assertEquals("[a long, b double, c long, name string, d]", tuple.getSchema().toString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void typedGettersCheckTheColumnType() {
+		new ZTuple(TYPED).getLong(1);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void setRowRejectsValuesOfTheWrongType() {
+		new ZTuple(TYPED).setRow("1.5,2,3,x");
+	}
+
+	@Test
+	public void nullBitsCoverWideSchemas() {
+		// given
+		String[] names = new String[70];
+		ZColumnType[] types = new ZColumnType[names.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "c" + i;
+			types[i] = ZColumnType.LONG;
+		}
+		ZTuple tuple = new ZTuple(new ZTupleSchema(names, types));
+		// when
+		tuple.setLong(65, 65);
+		// then
+		assertTrue(tuple.isNull(1));
+		assertTrue(tuple.isNull(64));
+		assertFalse(tuple.isNull(65));
+		assertEquals(65L, tuple.getLong(65));
+	}
+
+	@Test
+	public void typedPredicatesMatchTheInterpreterOnUntypedTuples() throws IOException, ParseException {
+		// given
+		ZEval interpreter = new ZEval();
+		ZTuple typed = new ZTuple(TYPED);
+		ZTuple untyped = new ZTuple("a,b,c,name");
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			for (String expression : EXPRESSIONS) {
+				ZExp exp = parse(expression);
+				// when
+				CompiledPredicate predicate = evaluator.compile(exp, TYPED);
+				for (String row : ROWS) {
+					typed.setRow(row);
+					untyped.setRow(new Vector<Object>(Arrays.asList((Object[]) row.split(","))));
+					// then
+					assertEquals(backend + ": " + expression + " on " + row, outcome(interpreter, untyped, exp), outcome(predicate, typed));
+					assertEquals(backend + ": " + expression + " on " + row, outcome(interpreter, typed, exp), outcome(predicate, typed));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void nullColumnsAreReportedAsUnknown() throws IOException, ParseException {
+		// given
+		ZEval interpreter = new ZEval();
+		ZTuple tuple = new ZTuple(TYPED);
+		tuple.setRow(ROWS[0]);
+		tuple.setNull(1);
+		ZExp exp = parse("a = 1 and b + 1 > 0");
+		for (ZEval.Backend backend : ZEval.Backend.values()) {
+			ZEval evaluator = new ZEval();
+			evaluator.setBackend(backend);
+			// when
+			Object outcome = outcome(evaluator.compile(exp, TYPED), tuple);
+			// then
+			assertEquals(backend.toString(), outcome(interpreter, tuple, exp), outcome);
+			assertTrue(String.valueOf(outcome), String.valueOf(outcome).startsWith("java.sql.SQLException"));
+		}
+	}
+
+	private static Object outcome(ZEval evaluator, ZTuple tuple, ZExp exp) {
+		try {
+			return evaluator.eval(tuple, exp);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static Object outcome(CompiledPredicate predicate, ZTuple tuple) {
+		try {
+			return predicate.test(tuple);
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static ZExp parse(String expression) throws IOException, ParseException {
+		return new ZqlParser(expression).readExpression();
+	}
+}
@@ -0,0 +1,122 @@
+package org.gibello.zql.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZHashAggregateTest {
+
+	private static final ZTupleSchema EMP = new ZTupleSchema(new String[] { "id", "name", "dept", "salary" }, new ZColumnType[] { ZColumnType.LONG,
+			ZColumnType.STRING, ZColumnType.LONG, ZColumnType.DOUBLE });
+
+	private static final ZTupleSchema SALES = new ZTupleSchema(new String[] { "k", "v" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.LONG });
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ZQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		this.executor = new ZQueryExecutor();
+		this.executor.addTable("emp", EMP, ZQueryExecutorTest.rows(EMP, "1,Ann,10,1000", "2,Bob,20,1500", "3,Cid,10,2000", "4,Dan,,500", "5,Eve,,"));
+	}
+
+	@Test
+	public void groupsAreAggregated() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select dept, count(*), count(salary) n, sum(salary), avg(salary), min(name), max(salary) from emp group by dept;"));
+		// then
+		assertEquals("[dept long, COUNT(*) long, n long, sum(salary) double, avg(salary) double, min(name), max(salary) double]", cursor.getSchema()
+				.toString());
+		assertEquals(Arrays.asList("10,2,2,3000.0,1500.0,Ann,2000.0", "20,1,1,1500.0,1500.0,Bob,1500.0", "null,2,1,500.0,500.0,Dan,500.0"),
+				sorted(ZQueryExecutorTest.drain(cursor)));
+	}
+
+	@Test
+	public void havingFiltersTheGroups() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse(
+				"select dept, sum(salary) * 2 from emp where id < 5 group by dept having count(*) > 1 or max(salary) < 1000;")));
+		// then
+		assertEquals(Arrays.asList("10,6000.0", "null,1000.0"), sorted(rows));
+	}
+
+	@Test
+	public void aggregatesWithoutGroupByGiveOneRow() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select count(*), sum(salary), max(name) from emp where id > 10;")));
+		// then
+		assertEquals(Arrays.asList("0,null,null"), rows);
+	}
+
+	@Test
+	public void columnsMustBeGrouped() throws Exception {
+		try {
+			this.executor.execute(parse("select name, count(*) from emp group by dept;"));
+			fail("An SQL exception was expected");
+		} catch (SQLException e) {
+			assertEquals("ZQueryExecutor.execute(): not a GROUP BY expression: name", e.getMessage());
+		}
+	}
+
+	@Test
+	public void groupsBeyondTheBudgetAreSpilled() throws Exception {
+		// given
+		List<ZTuple> sales = new ArrayList<ZTuple>();
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		for (long i = 0; i < 60000; i++) {
+			ZTuple row = new ZTuple(SALES);
+			long k = (i * 7919) % 20011;
+			row.setLong(0, k);
+			row.setLong(1, i);
+			sales.add(row);
+			expected.put(k, (expected.containsKey(k) ? expected.get(k) : 0) + i);
+		}
+		File directory = this.folder.newFolder();
+		this.executor.addTable("sales", SALES, sales);
+		this.executor.setMemoryBudget(16 * 1024);
+		this.executor.setSpillDirectory(directory);
+		// when
+		ZCursor cursor = this.executor.execute(parse("select k, sum(v), count(*) from sales group by k;"));
+		Map<Long, Long> sums = new HashMap<Long, Long>();
+		for (ZTuple row = cursor.next(); row != null; row = cursor.next()) {
+			assertTrue(directory.list().length > 0 || sums.size() > 0);
+			sums.put(row.getLong(0), (long) row.getDouble(1));
+		}
+		cursor.close();
+		// then
+		assertEquals(expected, sums);
+		assertEquals(0, directory.list().length);
+	}
+
+	private static List<String> sorted(List<String> rows) {
+		Collections.sort(rows);
+		return rows;
+	}
+
+	private static ZQuery parse(String sql) throws IOException, ParseException {
+		return (ZQuery) new ZqlParser(sql).readStatement();
+	}
+}
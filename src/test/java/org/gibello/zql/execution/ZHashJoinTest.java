@@ -0,0 +1,219 @@
+package org.gibello.zql.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZHashJoinTest {
+
+	private static final ZTupleSchema EMP = new ZTupleSchema(new String[] { "id", "name", "dept", "salary", "manager" }, new ZColumnType[] {
+			ZColumnType.LONG, ZColumnType.STRING, ZColumnType.LONG, ZColumnType.DOUBLE, ZColumnType.LONG });
+
+	private static final ZTupleSchema DEPT = new ZTupleSchema(new String[] { "id", "name" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.STRING });
+
+	private ZQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		this.executor = new ZQueryExecutor();
+		this.executor.addTable("emp", EMP,
+				ZQueryExecutorTest.rows(EMP, "1,Ann,10,1000,", "2,Bob,20,1500,1", "3,Cid,10,2000,1", "4,Dan,,500,3", "5,Eve,30,2500,3"));
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "20,Staff", "30,Empty"));
+	}
+
+	@Test
+	public void rowsWithANullKeyJoinNoRow() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, d.name from emp e, dept d where e.dept = d.id;")));
+		// then
+		assertEquals(Arrays.asList("Ann,Sales", "Bob,Staff", "Cid,Sales", "Eve,Empty"), rows);
+	}
+
+	@Test
+	public void theSmallerSideIsHashed() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select * from dept d, emp e where d.id = e.dept and d.name <> 'Staff';"));
+		// then
+		assertEquals("[id long, name string, e.id long, e.name string, dept long, salary double, manager long]", cursor.getSchema().toString());
+		assertEquals(Arrays.asList("10,Sales,1,Ann,10,1000.0,null", "10,Sales,3,Cid,10,2000.0,1", "30,Empty,5,Eve,30,2500.0,3"),
+				ZQueryExecutorTest.drain(cursor));
+	}
+
+	@Test
+	public void residualConditionsFilterTheJoinedRows() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, m.name, d.name from emp e, emp m, dept d "
+				+ "where e.manager = m.id and m.dept = d.id and e.salary > m.salary and d.name = 'Sales';")));
+		// then
+		assertEquals(Arrays.asList("Bob,Ann,Sales", "Cid,Ann,Sales", "Eve,Cid,Sales"), rows);
+	}
+
+	@Test
+	public void compositeKeysCompareUntypedNumbersAsNumbers() throws Exception {
+		// given
+		ZTupleSchema codes = new ZTupleSchema("dept", "grade", "label");
+		this.executor.addTable("codes", codes, ZQueryExecutorTest.rows(codes, "10.0,1000,low", "10,2000,high", "abc,1000,none", "20,1500.0,mid"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, c.label from emp e, codes c "
+				+ "where c.grade = e.salary and e.dept = c.dept;")));
+		// then
+		assertEquals(Arrays.asList("Ann,low", "Bob,mid", "Cid,high"), rows);
+	}
+
+	@Test
+	public void theLargerSideIsProbedAsItIsPulled() throws Exception {
+		// given
+		final int[] pulled = new int[1];
+		final List<ZTuple> events = new ArrayList<ZTuple>();
+		final ZTupleSchema schema = new ZTupleSchema(new String[] { "seq", "dept" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.LONG });
+		for (long i = 0; i < 100000; i++) {
+			ZTuple row = new ZTuple(schema);
+			row.setLong(0, i);
+			row.setLong(1, 10 * (1 + (i % 5)));
+			events.add(row);
+		}
+		this.executor.addTable("events", schema, new Iterable<ZTuple>() {
+			@Override
+			public Iterator<ZTuple> iterator() {
+				final Iterator<ZTuple> i = events.iterator();
+				return new Iterator<ZTuple>() {
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public ZTuple next() {
+						pulled[0]++;
+						return i.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+		// when
+		ZCursor cursor = this.executor.execute(parse("select v.seq, d.name from events v, dept d where v.dept = d.id;"));
+		List<String> first = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			ZTuple row = cursor.next();
+			first.add(row.getAttValue(0) + "," + row.getAttValue(1));
+		}
+		// then
+		assertEquals(Arrays.asList("0,Sales", "1,Staff", "2,Empty"), first);
+		assertTrue(pulled[0] <= 5);
+		int count = first.size();
+		while (cursor.next() != null) {
+			count++;
+		}
+		cursor.close();
+		assertEquals(60000, count);
+	}
+
+	@Test
+	public void tablesWithoutEqualitiesAreCombinedByNestedLoops() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, d.name from emp e, dept d "
+				+ "where e.id < 3 and d.id >= 20;")));
+		// then
+		Collections.sort(rows);
+		assertEquals(Arrays.asList("Ann,Empty", "Ann,Staff", "Bob,Empty", "Bob,Staff"), rows);
+	}
+
+	@Test
+	public void leftOuterJoinsPadTheRowsThatJoinNothing() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, d.name from emp e, dept d "
+				+ "where e.dept = d.id(+) and d.name(+) <> 'Staff';")));
+		// then
+		assertEquals(Arrays.asList("Ann,Sales", "Bob,null", "Cid,Sales", "Dan,null", "Eve,Empty"), rows);
+	}
+
+	@Test
+	public void rightOuterJoinsPadTheTuplesThatJoinNothing() throws Exception {
+		// given
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "20,Staff", "30,Empty", "40,Legal"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select d.name, e.name from emp e, dept d "
+				+ "where e.dept(+) = d.id and e.salary(+) > 1200;")));
+		// then
+		assertEquals(Arrays.asList("Sales,Cid", "Staff,Bob", "Empty,Eve", "Legal,null"), rows);
+	}
+
+	@Test
+	public void conditionsOnThePaddedSideRejectThePaddedRows() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name, d.name from emp e, dept d "
+				+ "where e.dept = d.id(+) and d.name <> 'Staff';")));
+		// then
+		assertEquals(Arrays.asList("Ann,Sales", "Cid,Sales", "Eve,Empty"), rows);
+	}
+
+	@Test
+	public void isNullOnThePaddedSideKeepsTheRowsThatJoinNothing() throws Exception {
+		// given
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "20,Staff"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select e.name from emp e, dept d "
+				+ "where e.dept = d.id(+) and d.id is null;")));
+		// then
+		assertEquals(Arrays.asList("Dan", "Eve"), rows);
+	}
+
+	@Test
+	public void conditionsBeforeARightOuterJoinRejectThePaddedTuples() throws Exception {
+		// given
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "20,Staff", "30,Empty", "40,Legal"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select d.name, e.name from emp e, dept d "
+				+ "where e.dept(+) = d.id and e.salary > 1200;")));
+		// then
+		assertEquals(Arrays.asList("Staff,Bob", "Sales,Cid", "Empty,Eve"), rows);
+	}
+
+	@Test
+	public void hashedRowsThatJoinNothingComeLast() throws Exception {
+		// given
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "40,Legal", "30,Empty"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select d.name, e.name from dept d, emp e where d.id = e.dept(+);")));
+		// then
+		assertEquals(Arrays.asList("Sales,Ann", "Sales,Cid", "Empty,Eve", "Legal,null"), rows);
+	}
+
+	@Test
+	public void outerJoinsNeedTheMarkOnOneSide() throws Exception {
+		try {
+			// when
+			this.executor.execute(parse("select e.name from emp e, dept d where e.dept(+) = d.id(+);"));
+			fail();
+		} catch (SQLException e) {
+			// then
+			assertEquals("ZQueryExecutor.execute(): not supported: (+) on both sides of (e.dept(+) = d.id(+))", e.getMessage());
+		}
+	}
+
+	private static ZQuery parse(String sql) throws IOException, ParseException {
+		return (ZQuery) new ZqlParser(sql).readStatement();
+	}
+}
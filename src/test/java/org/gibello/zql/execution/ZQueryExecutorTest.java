@@ -0,0 +1,204 @@
+package org.gibello.zql.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZQueryExecutorTest {
+
+	private static final ZTupleSchema EMP = new ZTupleSchema(new String[] { "id", "name", "dept", "salary", "manager" }, new ZColumnType[] {
+			ZColumnType.LONG, ZColumnType.STRING, ZColumnType.LONG, ZColumnType.DOUBLE, ZColumnType.LONG });
+
+	private static final ZTupleSchema DEPT = new ZTupleSchema(new String[] { "id", "name" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.STRING });
+
+	private ZQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		this.executor = new ZQueryExecutor();
+		this.executor.addTable("emp", EMP, rows(EMP, "1,Ann,10,1000,", "2,Bob,20,1500,1", "3,Cid,10,2000,1", "4,Dan,40,500,3"));
+		this.executor.addTable("dept", DEPT, rows(DEPT, "10,Sales", "20,Staff", "30,Empty"));
+	}
+
+	@Test
+	public void singleTableQueriesFilterAndProject() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select name, salary * 2 as double_pay from emp where salary >= 1000;"));
+		// then
+		assertEquals("[name string, double_pay]", cursor.getSchema().toString());
+		assertEquals(Arrays.asList("Ann,2000.0", "Bob,3000.0", "Cid,4000.0"), drain(cursor));
+	}
+
+	@Test
+	public void columnsKeepTheirType() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select e.id, manager from emp e where id = 1;"));
+		// then
+		assertEquals(ZColumnType.LONG, cursor.getSchema().getColumnType(0));
+		ZTuple row = cursor.next();
+		assertEquals(1L, row.getLong(0));
+		assertEquals(true, row.isNull(1));
+		assertNull(cursor.next());
+	}
+
+	@Test
+	public void tablesAreJoinedByTheWhereClause() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select e.name, d.name, d.* from emp e, dept d where e.dept = d.id and salary < 2000;"));
+		// then
+		assertEquals("[name string, d.name string, id long, name_2 string]", cursor.getSchema().toString());
+		assertEquals(Arrays.asList("Ann,Sales,10,Sales", "Bob,Staff,20,Staff"), drain(cursor));
+	}
+
+	@Test
+	public void distinctDropsRepeatedRows() throws Exception {
+		// when
+		List<String> rows = drain(this.executor.execute(parse("select distinct dept from emp where salary > 600;")));
+		// then
+		assertEquals(Arrays.asList("10", "20"), rows);
+	}
+
+	@Test
+	public void literalsAreConstantColumns() throws Exception {
+		// when
+		List<String> rows = drain(this.executor.execute(parse("select 'x', 1.5, NULL, id from dept where id = 30;")));
+		// then
+		assertEquals(Arrays.asList("x,1.5,null,30"), rows);
+	}
+
+	@Test
+	public void inSubqueriesAreRunByTheExecutor() throws Exception {
+		// when
+		List<String> rows = drain(this.executor.execute(parse("select name from dept where id in (select dept from emp where salary > 1200);")));
+		// then
+		assertEquals(Arrays.asList("Sales", "Staff"), rows);
+	}
+
+	@Test
+	public void comparisonsWithNullValuesAreUnknown() throws Exception {
+		// when
+		List<String> equal = drain(this.executor.execute(parse("select id from emp where manager = 1;")));
+		List<String> different = drain(this.executor.execute(parse("select id from emp where manager <> 1;")));
+		List<String> negated = drain(this.executor.execute(parse("select id from emp where not (manager = 1 or manager between 2 and 9);")));
+		List<String> notIn = drain(this.executor.execute(parse("select id from emp where id not in (select manager from emp);")));
+		List<String> in = drain(this.executor.execute(parse("select id from emp where id in (select manager from emp);")));
+		// then
+		assertEquals(Arrays.asList("2", "3"), equal);
+		assertEquals(Arrays.asList("4"), different);
+		assertEquals(Arrays.<String> asList(), negated);
+		assertEquals(Arrays.<String> asList(), notIn);
+		assertEquals(Arrays.asList("1", "3"), in);
+	}
+
+	@Test
+	public void isNullTestsTheColumnValues() throws Exception {
+		// when
+		List<String> isNull = drain(this.executor.execute(parse("select id from emp where manager is null;")));
+		List<String> isNotNull = drain(this.executor.execute(parse("select id from emp where manager + 1 is not null;")));
+		List<String> values = drain(this.executor.execute(parse("select manager + 1 from emp where id < 3;")));
+		// then
+		assertEquals(Arrays.asList("1"), isNull);
+		assertEquals(Arrays.asList("2", "3", "4"), isNotNull);
+		assertEquals(Arrays.asList("null", "2.0"), values);
+	}
+
+	@Test
+	public void rowsAreStreamed() throws Exception {
+		// given
+		final int[] pulled = new int[1];
+		final ZTuple row = new ZTuple(new ZTupleSchema("a"));
+		row.setAtt(0, "1");
+		this.executor.addTable("big", row.getSchema(), new Iterable<ZTuple>() {
+			@Override
+			public Iterator<ZTuple> iterator() {
+				return new Iterator<ZTuple>() {
+					@Override
+					public boolean hasNext() {
+						return true;
+					}
+
+					@Override
+					public ZTuple next() {
+						pulled[0]++;
+						return row;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+		// when
+		ZCursor cursor = this.executor.execute(parse("select x.a, y.a + 1 from big x, big y where x.a = y.a;"));
+		cursor.next();
+		cursor.next();
+		cursor.close();
+		// then
+		assertEquals(3, pulled[0]);
+	}
+
+	@Test
+	public void unresolvedNamesAreRejected() throws Exception {
+		assertFails("select name from emp e, dept d;", "ZQueryExecutor.execute(): ambiguous column name");
+		assertFails("select e.x from emp e;", "ZQueryExecutor.execute(): unknown column e.x");
+		assertFails("select * from nowhere;", "ZQueryExecutor.execute(): unknown table nowhere");
+		assertFails("select * from emp, emp;", "ZQueryExecutor.execute(): duplicate table emp");
+	}
+
+	private void assertFails(String sql, String message) throws IOException, ParseException {
+		try {
+			this.executor.execute(parse(sql));
+			fail("An SQL exception was expected for " + sql);
+		} catch (SQLException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	static Iterable<ZTuple> rows(ZTupleSchema schema, String... rows) {
+		List<ZTuple> tuples = new ArrayList<ZTuple>();
+		for (String row : rows) {
+			ZTuple tuple = new ZTuple(schema);
+			String[] values = row.split(",", -1);
+			for (int i = 0; i < values.length; i++) {
+				tuple.setAtt(i, values[i].isEmpty() ? null : values[i]);
+			}
+			tuples.add(tuple);
+		}
+		return tuples;
+	}
+
+	static List<String> drain(ZCursor cursor) throws SQLException {
+		List<String> rows = new ArrayList<String>();
+		for (ZTuple row = cursor.next(); row != null; row = cursor.next()) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < row.getNumAtt(); i++) {
+				sb.append(i > 0 ? "," : "").append(row.getAttValue(i));
+			}
+			rows.add(sb.toString());
+		}
+		cursor.close();
+		return rows;
+	}
+
+	private static ZQuery parse(String sql) throws IOException, ParseException {
+		return (ZQuery) new ZqlParser(sql).readStatement();
+	}
+}
@@ -0,0 +1,212 @@
+package org.gibello.zql.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZSetOperationTest {
+
+	private static final ZTupleSchema EMP = new ZTupleSchema(new String[] { "id", "name", "dept", "manager" }, new ZColumnType[] { ZColumnType.LONG,
+			ZColumnType.STRING, ZColumnType.LONG, ZColumnType.LONG });
+
+	private static final ZTupleSchema DEPT = new ZTupleSchema(new String[] { "id", "name" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.STRING });
+
+	private static final ZTupleSchema KEYS = new ZTupleSchema(new String[] { "k" }, new ZColumnType[] { ZColumnType.LONG });
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ZQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		this.executor = new ZQueryExecutor();
+		this.executor.addTable("emp", EMP, ZQueryExecutorTest.rows(EMP, "1,Ann,10,", "2,Bob,20,1", "3,Cid,10,1", "4,Dan,40,3"));
+		this.executor.addTable("dept", DEPT, ZQueryExecutorTest.rows(DEPT, "10,Sales", "20,Staff", "30,Empty"));
+	}
+
+	@Test
+	public void unionAllConcatenatesTheQueries() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select name from emp where dept = 10 union all select name from dept;")));
+		// then
+		assertEquals(Arrays.asList("Ann", "Cid", "Sales", "Staff", "Empty"), rows);
+	}
+
+	@Test
+	public void unionDropsRepeatedRows() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select dept from emp union select id from dept;")));
+		// then
+		assertEquals(Arrays.asList("10", "20", "40", "30"), rows);
+	}
+
+	@Test
+	public void intersectAndMinusMatchTheRows() throws Exception {
+		// when
+		List<String> intersect = ZQueryExecutorTest.drain(this.executor.execute(parse("select dept from emp intersect select id from dept;")));
+		List<String> minus = ZQueryExecutorTest.drain(this.executor.execute(parse("select id from dept minus select dept from emp;")));
+		List<String> nulls = ZQueryExecutorTest.drain(this.executor.execute(parse("select manager from emp minus select id from emp;")));
+		// then
+		assertEquals(Arrays.asList("10", "20"), intersect);
+		assertEquals(Arrays.asList("30"), minus);
+		assertEquals(Arrays.asList("null"), nulls);
+	}
+
+	@Test
+	public void operatorsApplyFromLeftToRight() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse(
+				"select id from dept union select dept from emp minus select id from dept where id = 10 union all select id from emp where id = 1;")));
+		// then
+		assertEquals(Arrays.asList("20", "30", "40", "1"), rows);
+	}
+
+	@Test
+	public void columnsAreNamedByTheFirstQuery() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select id as n, name from dept union all select id, dept from emp where id = 2;"));
+		// then
+		assertEquals("[n long, name]", cursor.getSchema().toString());
+		assertEquals(Arrays.asList("10,Sales", "20,Staff", "30,Empty", "2,20"), ZQueryExecutorTest.drain(cursor));
+	}
+
+	@Test
+	public void orderByAppliesToTheResult() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select name from dept union select name from emp order by name;")));
+		List<String> desc = ZQueryExecutorTest.drain(this.executor.execute(parse("select id from dept union all select dept from emp order by 1 desc;")));
+		// then
+		assertEquals(Arrays.asList("Ann", "Bob", "Cid", "Dan", "Empty", "Sales", "Staff"), rows);
+		assertEquals(Arrays.asList("40", "30", "20", "20", "10", "10", "10"), desc);
+	}
+
+	@Test
+	public void invalidSetOperationsAreRejected() throws Exception {
+		assertFails("select name from emp union select id, name from dept;", "ZQueryExecutor.execute(): the queries of a set operation must have as many columns: ");
+		assertFails("select name from emp union select name from dept order by id;", "ZQueryExecutor.execute(): unknown column id");
+		assertFails("select name from emp union select name from nowhere;", "ZQueryExecutor.execute(): unknown table nowhere");
+	}
+
+	@Test
+	public void exceptionsOfAQueryReachTheConsumer() throws Exception {
+		// given
+		this.executor.addTable("broken", KEYS, new Iterable<ZTuple>() {
+			@Override
+			public Iterator<ZTuple> iterator() {
+				return new Iterator<ZTuple>() {
+					@Override
+					public boolean hasNext() {
+						return true;
+					}
+
+					@Override
+					public ZTuple next() {
+						throw new IllegalStateException("broken table");
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+		ZCursor cursor = this.executor.execute(parse("select id from dept union all select k from broken;"));
+		// when
+		try {
+			ZQueryExecutorTest.drain(cursor);
+			fail("An exception was expected");
+		} catch (IllegalStateException e) {
+			// then
+			assertEquals("broken table", e.getMessage());
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void largeSetOperationsSpillPartitions() throws Exception {
+		// given
+		List<ZTuple> left = new ArrayList<ZTuple>();
+		for (long i = 0; i < 40000; i++) {
+			ZTuple row = new ZTuple(KEYS);
+			row.setLong(0, i % 20000);
+			left.add(row);
+		}
+		List<ZTuple> right = new ArrayList<ZTuple>();
+		for (long i = 0; i < 15000; i++) {
+			ZTuple row = new ZTuple(KEYS);
+			row.setLong(0, i * 2);
+			right.add(row);
+		}
+		File directory = this.folder.newFolder();
+		this.executor.addTable("l", KEYS, left);
+		this.executor.addTable("r", KEYS, right);
+		this.executor.setMemoryBudget(16 * 1024);
+		this.executor.setSpillDirectory(directory);
+		// when
+		ZCursor cursor = this.executor.execute(parse("select k from l intersect select k from r;"));
+		ZTuple first = cursor.next();
+		// then
+		assertTrue(directory.list().length > 0);
+		Set<Long> intersect = keys(cursor);
+		intersect.add(first.getLong(0));
+		assertEquals(10000, intersect.size());
+		for (long k : intersect) {
+			assertTrue(k % 2 == 0 && k < 20000);
+		}
+		assertEquals(0, directory.list().length);
+
+		Set<Long> minus = keys(this.executor.execute(parse("select k from l minus select k from r;")));
+		assertEquals(10000, minus.size());
+		for (long k : minus) {
+			assertTrue(k % 2 == 1);
+		}
+		assertEquals(25000, keys(this.executor.execute(parse("select k from l union select k from r;"))).size());
+		assertEquals(0, directory.list().length);
+	}
+
+	private static Set<Long> keys(ZCursor cursor) throws SQLException {
+		Set<Long> keys = new HashSet<Long>();
+		for (ZTuple row = cursor.next(); row != null; row = cursor.next()) {
+			assertTrue("repeated row " + row.getLong(0), keys.add(row.getLong(0)));
+		}
+		cursor.close();
+		return keys;
+	}
+
+	private void assertFails(String sql, String message) throws IOException, ParseException {
+		try {
+			this.executor.execute(parse(sql));
+			fail("An SQL exception was expected for " + sql);
+		} catch (SQLException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+		}
+	}
+
+	private static ZQuery parse(String sql) throws IOException, ParseException {
+		return (ZQuery) new ZqlParser(sql).readStatement();
+	}
+}
@@ -0,0 +1,113 @@
+package org.gibello.zql.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.gibello.zql.ParseException;
+import org.gibello.zql.ZqlParser;
+import org.gibello.zql.data.ZColumnType;
+import org.gibello.zql.data.ZTuple;
+import org.gibello.zql.data.ZTupleSchema;
+import org.gibello.zql.query.ZQuery;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZSortTest {
+
+	private static final ZTupleSchema EMP = new ZTupleSchema(new String[] { "id", "name", "dept", "salary" }, new ZColumnType[] { ZColumnType.LONG,
+			ZColumnType.STRING, ZColumnType.LONG, ZColumnType.DOUBLE });
+
+	private static final ZTupleSchema EVENTS = new ZTupleSchema(new String[] { "seq", "k" }, new ZColumnType[] { ZColumnType.LONG, ZColumnType.LONG });
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ZQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		this.executor = new ZQueryExecutor();
+		this.executor.addTable("emp", EMP, ZQueryExecutorTest.rows(EMP, "1,Ann,10,1000", "2,Bob,20,1500", "3,Cid,10,2000", "4,Dan,,500", "5,Eve,20,"));
+	}
+
+	@Test
+	public void rowsAreSortedByNamesAliasesAndPositions() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select dept d, name, salary from emp order by d desc, 3;")));
+		// then
+		assertEquals(Arrays.asList("null,Dan,500.0", "20,Bob,1500.0", "20,Eve,null", "10,Ann,1000.0", "10,Cid,2000.0"), rows);
+	}
+
+	@Test
+	public void sortKeysMayBeOutsideTheSelectList() throws Exception {
+		// when
+		ZCursor cursor = this.executor.execute(parse("select name from emp where id < 5 order by salary * -1;"));
+		// then
+		assertEquals(1, cursor.getSchema().size());
+		assertEquals(Arrays.asList("Cid", "Bob", "Ann", "Dan"), ZQueryExecutorTest.drain(cursor));
+	}
+
+	@Test
+	public void groupsCanBeSortedByTheirAggregates() throws Exception {
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select dept from emp group by dept order by sum(salary), dept;")));
+		// then
+		assertEquals(Arrays.asList("null", "20", "10"), rows);
+	}
+
+	@Test
+	public void untypedNumbersAreSortedAsNumbers() throws Exception {
+		// given
+		ZTupleSchema schema = new ZTupleSchema("v");
+		this.executor.addTable("t", schema, ZQueryExecutorTest.rows(schema, "10", "9", "abc", "-1.5", "", "100"));
+		// when
+		List<String> rows = ZQueryExecutorTest.drain(this.executor.execute(parse("select v from t order by v;")));
+		// then
+		assertEquals(Arrays.asList("-1.5", "9", "10", "100", "abc", "null"), rows);
+	}
+
+	@Test
+	public void largeSortsSpillRunsAndMergeThemStably() throws Exception {
+		// given
+		Random random = new Random(42);
+		List<ZTuple> events = new ArrayList<ZTuple>();
+		for (long i = 0; i < 50000; i++) {
+			ZTuple row = new ZTuple(EVENTS);
+			row.setLong(0, i);
+			row.setLong(1, random.nextInt(1000));
+			events.add(row);
+		}
+		File directory = this.folder.newFolder();
+		this.executor.addTable("events", EVENTS, events);
+		this.executor.setMemoryBudget(16 * 1024);
+		this.executor.setSpillDirectory(directory);
+		// when
+		ZCursor cursor = this.executor.execute(parse("select k, seq from events order by k;"));
+		ZTuple previous = cursor.next();
+		// then
+		assertTrue(directory.list().length > 0);
+		int count = 1;
+		for (ZTuple row = cursor.next(); row != null; row = cursor.next()) {
+			long k = row.getLong(0);
+			assertTrue(previous.getLong(0) < k || (previous.getLong(0) == k && previous.getLong(1) < row.getLong(1)));
+			previous = row;
+			count++;
+		}
+		cursor.close();
+		assertEquals(50000, count);
+		assertEquals(0, directory.list().length);
+	}
+
+	private static ZQuery parse(String sql) throws IOException, ParseException {
+		return (ZQuery) new ZqlParser(sql).readStatement();
+	}
+}
@@ -1,6 +1,9 @@
 package org.gibello.zql.expression;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 
@@ -50,6 +53,21 @@ public class ZExpressionTest {
 		assertExpressionToStringWorks(whereClause);
 	}
 
+	@Test
+	public void outerJoinColumnsAreMarked() throws ParseException, IOException {
+		// given
+		final ZqlJJParser parser = givenAParserForTheSQLExpression("WHERE e.dept = d.id(+)");
+		// when
+		final ZExpression whereClause = (ZExpression) parser.WhereClause();
+		// then
+		final ZConstant left = (ZConstant) whereClause.getOperand(0);
+		final ZConstant right = (ZConstant) whereClause.getOperand(1);
+		assertFalse(left.isOuterJoin());
+		assertTrue(right.isOuterJoin());
+		assertEquals("d.id", right.getValue());
+		assertEquals("(e.dept = d.id(+))", whereClause.toString());
+	}
+
 	private void assertExpressionToStringWorks(ZExp whereClause) {
 		assertNotNull(whereClause);
 		String toString = whereClause.toString();